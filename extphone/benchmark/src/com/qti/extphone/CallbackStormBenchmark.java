@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.RemoteException;
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a storm of onSignalStrength callbacks into IExtPhoneCallbackStub, the way the
+ * binder thread delivers them, and measures the cost of the event transport: the pooled
+ * Result, the Message or executor hand-off and the dispatch to the listener.
+ *
+ * Besides the time per callback reported by androidx.benchmark, each test replays
+ * STORM_SIZE callbacks with allocation counting on and logs the allocations per callback
+ * under the TAG of this class. Lives in com.qti.extphone to reach the stub of a listener.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CallbackStormBenchmark {
+    private static final String TAG = "CallbackStormBenchmark";
+
+    private static final int STORM_SIZE = 10000;
+    private static final long DRAIN_TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final Token mToken = new Token(Token.UNSOL);
+    private final Status mStatus = new Status(Status.SUCCESS);
+    private final SignalStrength mSignalStrength = new SignalStrength(-95, 12);
+
+    private HandlerThread mThread;
+
+    private static final class SignalStrengthListener extends ExtPhoneCallbackListener {
+        volatile int mCount;
+
+        SignalStrengthListener() {
+            super(Runnable::run);
+        }
+
+        SignalStrengthListener(HandlerThread thread) {
+            super(thread.getLooper());
+        }
+
+        @Override
+        public void onSignalStrength(int slotId, Token token, Status status,
+                SignalStrength signalStrength) throws RemoteException {
+            mCount++;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void signalStrengthStormOnExecutor() throws Exception {
+        runStorm("executor", new SignalStrengthListener());
+    }
+
+    @Test
+    public void signalStrengthStormOnLooper() throws Exception {
+        runStorm("looper", new SignalStrengthListener(mThread));
+    }
+
+    @Test
+    public void signalStrengthStormOnLooperConflated() throws Exception {
+        SignalStrengthListener listener = new SignalStrengthListener(mThread);
+        listener.setConflationEnabled(true);
+        runStorm("looper conflated", listener);
+    }
+
+    private void runStorm(String name, SignalStrengthListener listener) throws Exception {
+        IExtPhoneCallback callback = listener.mCallback;
+
+        // Warm up the Result and Message pools before counting.
+        replay(callback, STORM_SIZE);
+        drain();
+        Debug.resetGlobalAllocSize();
+        Debug.resetGlobalAllocCount();
+        Debug.startAllocCounting();
+        try {
+            replay(callback, STORM_SIZE);
+            drain();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        Log.i(TAG, name + ": " + (float) Debug.getGlobalAllocCount() / STORM_SIZE
+                + " allocations, " + (float) Debug.getGlobalAllocSize() / STORM_SIZE
+                + " bytes per callback, " + listener.mCount + " delivered");
+
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            callback.onSignalStrength(0, mToken, mStatus, mSignalStrength);
+        }
+        drain();
+    }
+
+    private void replay(IExtPhoneCallback callback, int count) throws RemoteException {
+        for (int i = 0; i < count; i++) {
+            callback.onSignalStrength(i & 1, mToken, mStatus, mSignalStrength);
+        }
+    }
+
+    /**
+     * Wait for the callbacks posted to the listener thread to be delivered.
+     */
+    private void drain() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mThread.getLooper()).post(latch::countDown);
+        if (!latch.await(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Callbacks not delivered");
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone.benchmark;
+
+import android.net.LinkAddress;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.qti.extphone.CiwlanConfig;
+import com.qti.extphone.EpsQos;
+import com.qti.extphone.NrIcon;
+import com.qti.extphone.NrIconType;
+import com.qti.extphone.NrQos;
+import com.qti.extphone.QosBearerFilter;
+import com.qti.extphone.QosBearerSession;
+import com.qti.extphone.QosParametersResult;
+import com.qti.extphone.QtiImeiInfo;
+import com.qti.extphone.SignalStrength;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * writeToParcel and createFromParcel throughput of the extphonelib Parcelables. Alongside
+ * the time, androidx.benchmark reports the allocations per operation; the size of each
+ * marshalled payload is logged under the TAG of this class.
+ *
+ * The QoS payloads model a PDN with DEDICATED_BEARERS dedicated bearers carrying
+ * FILTERS_PER_BEARER filters each.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParcelableBenchmark {
+    private static final String TAG = "ParcelableBenchmark";
+
+    private static final int DEDICATED_BEARERS = 16;
+    private static final int FILTERS_PER_BEARER = 32;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private void benchmarkWrite(String name, Parcelable value) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            value.writeToParcel(parcel, 0);
+            Log.i(TAG, name + ": " + parcel.dataSize() + " bytes");
+            BenchmarkState state = mBenchmarkRule.getState();
+            while (state.keepRunning()) {
+                parcel.setDataSize(0);
+                value.writeToParcel(parcel, 0);
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private void benchmarkRead(Parcelable value, Parcelable.Creator<?> creator) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            value.writeToParcel(parcel, 0);
+            BenchmarkState state = mBenchmarkRule.getState();
+            while (state.keepRunning()) {
+                parcel.setDataPosition(0);
+                creator.createFromParcel(parcel);
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void writeQosParametersResult() {
+        benchmarkWrite("QosParametersResult", createQosParametersResult());
+    }
+
+    @Test
+    public void readQosParametersResult() {
+        benchmarkRead(createQosParametersResult(), QosParametersResult.CREATOR);
+    }
+
+    @Test
+    public void writeQosBearerSession() {
+        benchmarkWrite("QosBearerSession", createQosBearerSession(1));
+    }
+
+    @Test
+    public void readQosBearerSession() {
+        benchmarkRead(createQosBearerSession(1), QosBearerSession.CREATOR);
+    }
+
+    @Test
+    public void writeQosBearerFilter() {
+        benchmarkWrite("QosBearerFilter", createQosBearerFilter(1, 1));
+    }
+
+    @Test
+    public void readQosBearerFilter() {
+        benchmarkRead(createQosBearerFilter(1, 1), QosBearerFilter.CREATOR);
+    }
+
+    @Test
+    public void writeNrQos() {
+        benchmarkWrite("NrQos", createNrQos(1));
+    }
+
+    @Test
+    public void readNrQos() {
+        benchmarkRead(createNrQos(1), NrQos.CREATOR);
+    }
+
+    @Test
+    public void writeEpsQos() {
+        benchmarkWrite("EpsQos", createEpsQos());
+    }
+
+    @Test
+    public void readEpsQos() {
+        benchmarkRead(createEpsQos(), EpsQos.CREATOR);
+    }
+
+    @Test
+    public void writeNrIcon() {
+        benchmarkWrite("NrIcon", new NrIcon(NrIconType.TYPE_5G_UWB, 4));
+    }
+
+    @Test
+    public void readNrIcon() {
+        benchmarkRead(new NrIcon(NrIconType.TYPE_5G_UWB, 4), NrIcon.CREATOR);
+    }
+
+    @Test
+    public void writeCiwlanConfig() {
+        benchmarkWrite("CiwlanConfig",
+                new CiwlanConfig(CiwlanConfig.PREFERRED, CiwlanConfig.ONLY));
+    }
+
+    @Test
+    public void readCiwlanConfig() {
+        benchmarkRead(new CiwlanConfig(CiwlanConfig.PREFERRED, CiwlanConfig.ONLY),
+                CiwlanConfig.CREATOR);
+    }
+
+    @Test
+    public void writeQtiImeiInfo() {
+        benchmarkWrite("QtiImeiInfo",
+                new QtiImeiInfo(0, "350000000000001", QtiImeiInfo.IMEI_TYPE_PRIMARY));
+    }
+
+    @Test
+    public void readQtiImeiInfo() {
+        benchmarkRead(new QtiImeiInfo(0, "350000000000001", QtiImeiInfo.IMEI_TYPE_PRIMARY),
+                QtiImeiInfo.CREATOR);
+    }
+
+    @Test
+    public void writeSignalStrength() {
+        benchmarkWrite("SignalStrength", new SignalStrength(-95, 12));
+    }
+
+    @Test
+    public void readSignalStrength() {
+        benchmarkRead(new SignalStrength(-95, 12), SignalStrength.CREATOR);
+    }
+
+    private static QosParametersResult createQosParametersResult() {
+        List<QosBearerSession> sessions = new ArrayList<>();
+        for (int i = 1; i <= DEDICATED_BEARERS; i++) {
+            sessions.add(createQosBearerSession(i));
+        }
+        return new QosParametersResult(createNrQos(9), sessions);
+    }
+
+    private static QosBearerSession createQosBearerSession(int id) {
+        List<QosBearerFilter> filters = new ArrayList<>();
+        for (int i = 0; i < FILTERS_PER_BEARER; i++) {
+            filters.add(createQosBearerFilter(id, i));
+        }
+        return new QosBearerSession(id, createNrQos(id), filters);
+    }
+
+    private static QosBearerFilter createQosBearerFilter(int bearer, int index) {
+        List<LinkAddress> local = new ArrayList<>();
+        local.add(createLinkAddress(10, bearer, index, 32));
+        List<LinkAddress> remote = new ArrayList<>();
+        remote.add(createLinkAddress(198, 51, bearer, 24));
+        int port = 5000 + bearer * FILTERS_PER_BEARER + index;
+        return new QosBearerFilter(local, remote,
+                new QosBearerFilter.PortRange(port, port),
+                new QosBearerFilter.PortRange(QosBearerFilter.QOS_MIN_PORT,
+                        QosBearerFilter.QOS_MAX_PORT),
+                QosBearerFilter.QOS_PROTOCOL_UDP, 0xb8, 0, 0,
+                QosBearerFilter.QOS_FILTER_DIRECTION_BIDIRECTIONAL, index);
+    }
+
+    private static LinkAddress createLinkAddress(int a, int b, int c, int prefixLength) {
+        try {
+            return new LinkAddress(InetAddress.getByAddress(
+                    new byte[] {(byte) a, (byte) b, (byte) c, 1}), prefixLength);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static NrQos createNrQos(int qfi) {
+        android.hardware.radio.V1_6.NrQos qos = new android.hardware.radio.V1_6.NrQos();
+        qos.fiveQi = 1;
+        qos.qfi = (byte) qfi;
+        qos.averagingWindowMs = 2000;
+        qos.downlink.maxBitrateKbps = 100000;
+        qos.downlink.guaranteedBitrateKbps = 10000;
+        qos.uplink.maxBitrateKbps = 50000;
+        qos.uplink.guaranteedBitrateKbps = 5000;
+        return new NrQos(qos);
+    }
+
+    private static EpsQos createEpsQos() {
+        android.hardware.radio.V1_6.EpsQos qos = new android.hardware.radio.V1_6.EpsQos();
+        qos.qci = 1;
+        qos.downlink.maxBitrateKbps = 100000;
+        qos.downlink.guaranteedBitrateKbps = 10000;
+        qos.uplink.maxBitrateKbps = 50000;
+        qos.uplink.guaranteedBitrateKbps = 5000;
+        return new EpsQos(qos);
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.telephony.CellInfo;
+import android.util.Log;
+
+import com.qti.extphone.ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixed size ring buffer of the callbacks delivered to an ExtPhoneCallbackListener, see
+ * {@link ExtPhoneCallbackListener#setJournal}. Once full, the oldest callbacks are
+ * overwritten. A captured journal can be fed back to a listener with CallbackReplayer,
+ * printed with dump() or exported with export() and read back with importEntries().
+ *
+ * Callbacks are kept in parallel arrays: the primitive payloads inline, the object payloads
+ * marshalled to a Parcel when recorded, so later changes to them by the listener do not
+ * alter the journal. Each read of an entry unmarshals a fresh copy.
+ */
+public final class CallbackJournal {
+    private static final String TAG = "CallbackJournal";
+
+    // Status of the callbacks which carry none.
+    public static final int NO_STATUS = Integer.MIN_VALUE;
+
+    private static final int FLAG_TOKEN = 1;
+    private static final int FLAG_STATUS = 1 << 1;
+
+    // Bumped whenever the layout written by export() changes.
+    private static final int EXPORT_VERSION = 1;
+
+    /**
+     * Marshals the object payload of one event.
+     */
+    private interface PayloadCodec {
+        void write(Parcel out, Object data);
+
+        Object read(Parcel in);
+    }
+
+    // Indexed by event, null for the events without object payload.
+    private static final PayloadCodec[] CODECS = createCodecs();
+
+    private final Object mLock = new Object();
+    private final long[] mTimes;
+    private final int[] mEvents;
+    private final int[] mSlotIds;
+    private final int[] mFlags;
+    private final int[] mTokens;
+    private final int[] mStatuses;
+    private final int[] mErrors;
+    private final int[] mDataTypes;
+    private final long[] mValues;
+    private final byte[][] mPayloads;
+    private int mNext;
+    private long mRecorded;
+
+    /**
+     * A recorded callback.
+     */
+    public static final class Entry {
+        private final long mTimeNanos;
+        private final int mEvent;
+        private final int mSlotId;
+        private final int mFlags;
+        private final int mToken;
+        private final int mStatus;
+        private final int mError;
+        private final int mDataType;
+        private final long mValue;
+        private final byte[] mPayload;
+
+        private Entry(long timeNanos, int event, int slotId, int flags, int token, int status,
+                int error, int dataType, long value, byte[] payload) {
+            mTimeNanos = timeNanos;
+            mEvent = event;
+            mSlotId = slotId;
+            mFlags = flags;
+            mToken = token;
+            mStatus = status;
+            mError = error;
+            mDataType = dataType;
+            mValue = value;
+            mPayload = payload;
+        }
+
+        /**
+         * @return SystemClock.elapsedRealtimeNanos() at which the callback was delivered.
+         */
+        public long getTimeNanos() {
+            return mTimeNanos;
+        }
+
+        /**
+         * @return the ExtPhoneCallbackListener.EVENT_* of the callback.
+         */
+        public int getEvent() {
+            return mEvent;
+        }
+
+        public int getSlotId() {
+            return mSlotId;
+        }
+
+        /**
+         * @return whether the callback carries a Token.
+         */
+        public boolean hasToken() {
+            return (mFlags & FLAG_TOKEN) != 0;
+        }
+
+        /**
+         * @return Token.get() of the callback, Token.UNSOL for the ones without Token.
+         */
+        public int getToken() {
+            return hasToken() ? mToken : Token.UNSOL;
+        }
+
+        /**
+         * @return Status.get() of the callback, NO_STATUS if it carries none.
+         */
+        public int getStatus() {
+            return (mFlags & FLAG_STATUS) != 0 ? mStatus : NO_STATUS;
+        }
+
+        public int getError() {
+            return mError;
+        }
+
+        /**
+         * @return the payload of the callback, primitives boxed, objects unmarshalled anew
+         *         on every call.
+         */
+        public Object getData() {
+            switch (mDataType) {
+                case Result.DATA_BOOLEAN:
+                    return mValue != 0;
+                case Result.DATA_INT:
+                    return (int) mValue;
+                case Result.DATA_LONG:
+                    return mValue;
+                default:
+                    return unmarshal(mEvent, mPayload);
+            }
+        }
+
+        /**
+         * @return a pooled Result carrying the callback, to be dispatched to a listener.
+         */
+        Result toResult() {
+            Token token = hasToken() ? new Token(mToken) : null;
+            Status status = (mFlags & FLAG_STATUS) != 0 ? new Status(mStatus) : null;
+            switch (mDataType) {
+                case Result.DATA_BOOLEAN:
+                    return Result.obtain(mSlotId, token, status, mError, mValue != 0);
+                case Result.DATA_INT:
+                    return Result.obtain(mSlotId, token, status, mError, (int) mValue);
+                case Result.DATA_LONG:
+                    return Result.obtain(mSlotId, token, status, mError, mValue);
+                default:
+                    return Result.obtain(mSlotId, token, status, mError,
+                            unmarshal(mEvent, mPayload));
+            }
+        }
+
+        private void writeToParcel(Parcel out) {
+            out.writeLong(mTimeNanos);
+            out.writeInt(mEvent);
+            out.writeInt(mSlotId);
+            out.writeInt(mFlags);
+            out.writeInt(mToken);
+            out.writeInt(mStatus);
+            out.writeInt(mError);
+            out.writeInt(mDataType);
+            out.writeLong(mValue);
+            out.writeByteArray(mPayload);
+        }
+
+        private static Entry readFromParcel(Parcel in) {
+            return new Entry(in.readLong(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readLong(),
+                    in.createByteArray());
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{time=" + mTimeNanos + ", event=" + mEvent + ", slot=" + mSlotId
+                    + ", token=" + getToken() + ", status=" + mStatus + ", error=" + mError
+                    + ", data=" + getData() + "}";
+        }
+    }
+
+    /**
+     * @param capacity number of callbacks kept.
+     */
+    public CallbackJournal(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mTimes = new long[capacity];
+        mEvents = new int[capacity];
+        mSlotIds = new int[capacity];
+        mFlags = new int[capacity];
+        mTokens = new int[capacity];
+        mStatuses = new int[capacity];
+        mErrors = new int[capacity];
+        mDataTypes = new int[capacity];
+        mValues = new long[capacity];
+        mPayloads = new byte[capacity][];
+    }
+
+    public int getCapacity() {
+        return mEvents.length;
+    }
+
+    /**
+     * @return number of callbacks recorded since creation or clear(), overwritten ones
+     *         included.
+     */
+    public long getRecordedCount() {
+        synchronized (mLock) {
+            return mRecorded;
+        }
+    }
+
+    /**
+     * Copy the fields of result, which goes back to the pool once delivered.
+     */
+    void record(int event, Result result) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        long value = 0;
+        byte[] payload = null;
+        switch (result.mDataType) {
+            case Result.DATA_BOOLEAN:
+                value = result.mBooleanData ? 1 : 0;
+                break;
+            case Result.DATA_INT:
+                value = result.mIntData;
+                break;
+            case Result.DATA_LONG:
+                value = result.mLongData;
+                break;
+            default:
+                // Marshalled outside of the lock, it is the costly part.
+                payload = marshal(event, result.mData);
+                break;
+        }
+        int flags = (result.mToken != null ? FLAG_TOKEN : 0)
+                | (result.mStatus != null ? FLAG_STATUS : 0);
+        synchronized (mLock) {
+            int i = mNext;
+            mTimes[i] = now;
+            mEvents[i] = event;
+            mSlotIds[i] = result.mSlotId;
+            mFlags[i] = flags;
+            mTokens[i] = result.mToken != null ? result.mToken.get() : 0;
+            mStatuses[i] = result.mStatus != null ? result.mStatus.get() : 0;
+            mErrors[i] = result.mError;
+            mDataTypes[i] = result.mDataType;
+            mValues[i] = value;
+            mPayloads[i] = payload;
+            mNext = (i + 1) % mEvents.length;
+            mRecorded++;
+        }
+    }
+
+    /**
+     * @return the recorded callbacks, oldest first.
+     */
+    public List<Entry> snapshot() {
+        synchronized (mLock) {
+            int size = (int) Math.min(mRecorded, mEvents.length);
+            List<Entry> entries = new ArrayList<>(size);
+            int start = (mNext - size + mEvents.length) % mEvents.length;
+            for (int n = 0; n < size; n++) {
+                int i = (start + n) % mEvents.length;
+                entries.add(new Entry(mTimes[i], mEvents[i], mSlotIds[i], mFlags[i],
+                        mTokens[i], mStatuses[i], mErrors[i], mDataTypes[i], mValues[i],
+                        mPayloads[i]));
+            }
+            return Collections.unmodifiableList(entries);
+        }
+    }
+
+    public void clear() {
+        synchronized (mLock) {
+            mNext = 0;
+            mRecorded = 0;
+            Arrays.fill(mPayloads, null);
+        }
+    }
+
+    /**
+     * Print the recorded callbacks in text form, oldest first.
+     */
+    public void dump(PrintWriter pw) {
+        List<Entry> entries = snapshot();
+        pw.println("CallbackJournal: " + entries.size() + " of " + getRecordedCount()
+                + " callbacks, capacity " + getCapacity());
+        for (Entry entry : entries) {
+            pw.println("  " + entry);
+        }
+        pw.flush();
+    }
+
+    /**
+     * @return the recorded callbacks, oldest first, in a form read back by importEntries().
+     *         Payloads are Parcel marshalled, only import them on the same build.
+     */
+    public byte[] export() {
+        List<Entry> entries = snapshot();
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeInt(EXPORT_VERSION);
+            parcel.writeInt(entries.size());
+            for (Entry entry : entries) {
+                entry.writeToParcel(parcel);
+            }
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * @return the callbacks of a journal exported by export(), e.g. to feed them to
+     *         CallbackReplayer.
+     */
+    public static List<Entry> importEntries(byte[] data) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            int version = parcel.readInt();
+            if (version != EXPORT_VERSION) {
+                throw new IllegalArgumentException("Unsupported journal version " + version);
+            }
+            int size = parcel.readInt();
+            List<Entry> entries = new ArrayList<>(size);
+            for (int n = 0; n < size; n++) {
+                entries.add(Entry.readFromParcel(parcel));
+            }
+            return Collections.unmodifiableList(entries);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static byte[] marshal(int event, Object data) {
+        if (data == null) {
+            return null;
+        }
+        PayloadCodec codec = event >= 0 && event < CODECS.length ? CODECS[event] : null;
+        if (codec == null) {
+            Log.e(TAG, "No payload codec for event " + event + ", payload not recorded");
+            return null;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            codec.write(parcel, data);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Object unmarshal(int event, byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(payload, 0, payload.length);
+            parcel.setDataPosition(0);
+            return CODECS[event].read(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static <T extends Parcelable> PayloadCodec parcelable(Parcelable.Creator<T> creator) {
+        return new PayloadCodec() {
+            @Override
+            public void write(Parcel out, Object data) {
+                out.writeTypedObject((Parcelable) data, 0);
+            }
+
+            @Override
+            public Object read(Parcel in) {
+                return in.readTypedObject(creator);
+            }
+        };
+    }
+
+    private static <T extends Parcelable> PayloadCodec array(Parcelable.Creator<T> creator) {
+        return new PayloadCodec() {
+            @Override
+            public void write(Parcel out, Object data) {
+                out.writeTypedArray((Parcelable[]) data, 0);
+            }
+
+            @Override
+            public Object read(Parcel in) {
+                return in.createTypedArray(creator);
+            }
+        };
+    }
+
+    private static <T extends Parcelable> PayloadCodec list(Parcelable.Creator<T> creator) {
+        return new PayloadCodec() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void write(Parcel out, Object data) {
+                out.writeTypedList((List<T>) data);
+            }
+
+            @Override
+            public Object read(Parcel in) {
+                return in.createTypedArrayList(creator);
+            }
+        };
+    }
+
+    /**
+     * Bind every event carrying an object payload to the Parcelable.Creator of its type, as
+     * cast by ExtPhoneCallbackListener when dispatching it.
+     */
+    private static PayloadCodec[] createCodecs() {
+        PayloadCodec[] codecs = new PayloadCodec[ExtPhoneCallbackListener.EVENT_COUNT];
+        codecs[ExtPhoneCallbackListener.EVENT_GET_FACILITY_LOCK_FOR_APP_RESPONSE] =
+                new PayloadCodec() {
+                    @Override
+                    public void write(Parcel out, Object data) {
+                        out.writeIntArray((int[]) data);
+                    }
+
+                    @Override
+                    public Object read(Parcel in) {
+                        return in.createIntArray();
+                    }
+                };
+        codecs[ExtPhoneCallbackListener.EVENT_GET_NETWORK_SELECTION_MODE_RESPONSE] =
+                parcelable(NetworkSelectionMode.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_GET_QOS_PARAMETERS_RESPONSE] =
+                parcelable(QosParametersResult.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_NETWORK_SCAN_RESULT] = list(CellInfo.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_5G_CONFIG_INFO] =
+                parcelable(NrConfigType.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_ANY_NR_BEARER_ALLOCATION] =
+                parcelable(BearerAllocationStatus.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_IMEI_TYPE_CHANGED] =
+                array(QtiImeiInfo.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_NR_CONFIG_STATUS] =
+                parcelable(NrConfig.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_NR_DC_PARAM] = parcelable(DcParam.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE] =
+                parcelable(NrIconType.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_QOS_PARAMETERS_CHANGED] =
+                parcelable(QosParametersResult.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH] =
+                parcelable(SignalStrength.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_SIM_TYPE_CHANGED] = array(QtiSimType.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_UPPER_LAYER_IND_INFO] =
+                parcelable(UpperLayerIndInfo.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_QUERY_CALL_FORWARD_STATUS_RESPONSE] =
+                array(QtiCallForwardInfo.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_SEND_CDMA_SMS_RESPONSE] =
+                parcelable(SmsResult.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE] =
+                parcelable(QRadioResponseInfo.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_DUAL_DATA_RECOMMENDATION] =
+                parcelable(DualDataRecommendation.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_SIM_PERSO_UNLOCK_STATUS_CHANGE] =
+                parcelable(QtiPersoUnlockStatus.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_CIWLAN_CONFIG_CHANGE] =
+                parcelable(CiwlanConfig.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_ON_NR_ICON_CHANGE] = parcelable(NrIcon.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_QUERY_NR_ICON_RESPONSE] =
+                parcelable(NrIcon.CREATOR);
+        codecs[ExtPhoneCallbackListener.EVENT_QUERY_NR_SNAPSHOT_RESPONSE] =
+                parcelable(NrSnapshot.CREATOR);
+        return codecs;
+    }
+}
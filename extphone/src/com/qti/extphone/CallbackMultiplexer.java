@@ -0,0 +1,400 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.Parcel;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Registers a single IExtPhoneCallback with the service on behalf of all the
+ * ExtPhoneCallbackListeners of an ExtTelephonyManager, covering the union of their events,
+ * and fans the callbacks out to the listeners locally.
+ *
+ * Responses to requests sent with the Client of a listener are routed to that listener only;
+ * a response which arrives before its Token is routed is held back until it is, and dropped
+ * if it never is. Unsolicited callbacks go to every listener subscribed to the event.
+ *
+ * The service is only called without holding the lock taken on the binder thread. When the
+ * set of events is widened, the new registration is made before the old one is dropped so
+ * that no callback is missed; an indication may then be delivered twice.
+ */
+final class CallbackMultiplexer extends ExtPhoneCallbackListener {
+    private static final String TAG = "CallbackMultiplexer";
+
+    private static final int MAX_HELD_RESPONSES = 16;
+
+    private final ExtTelephonyManager mManager;
+    // Serializes the registrations with the service, held across the binder calls.
+    private final Object mRegistrationLock = new Object();
+    private final Object mLock = new Object();
+
+    // Copy on write, read without locking on the binder thread.
+    private volatile Subscriber[] mSubscribers = new Subscriber[0];
+
+    // Listener which sent the request, keyed by Token.get(). Dropped once the request is
+    // answered, expired or cancelled.
+    private final SparseArray<ExtPhoneCallbackListener> mRoutes = new SparseArray<>();
+    // Responses answering a request before it was routed, oldest first.
+    private final ArrayList<Held> mHeld = new ArrayList<>();
+
+    // Union of the events of the subscribers, as registered with the service.
+    private boolean mAllEvents;
+    private final boolean[] mEvents = new boolean[EVENT_COUNT];
+    private Client mClient;
+    // Callback of the current registration, a new one for each registration so that the
+    // previous one can be dropped after the next one is made.
+    private IExtPhoneCallback mBinder;
+
+    private static final class Held {
+        final int mKey;
+        final int mWhat;
+        final IExtPhoneCallbackStub.Result mResult;
+
+        Held(int key, int what, IExtPhoneCallbackStub.Result result) {
+            mKey = key;
+            mWhat = what;
+            mResult = result;
+        }
+    }
+
+    private static final class Subscriber {
+        final ExtPhoneCallbackListener mListener;
+        final boolean mAllEvents;
+        final boolean[] mEvents = new boolean[EVENT_COUNT];
+        // Only receives the responses routed to it, no unsolicited callbacks.
+        final boolean mResponsesOnly;
+
+        Subscriber(ExtPhoneCallbackListener listener, int[] events, boolean responsesOnly) {
+            mListener = listener;
+            mResponsesOnly = responsesOnly;
+            boolean all = false;
+            for (int event : events) {
+                if (event == EVENT_ALL) {
+                    all = true;
+                } else if (event > 0 && event < EVENT_COUNT) {
+                    mEvents[event] = true;
+                }
+            }
+            mAllEvents = all;
+        }
+
+        boolean wants(int event) {
+            if (mResponsesOnly) {
+                return false;
+            }
+            return mAllEvents || (event >= 0 && event < EVENT_COUNT && mEvents[event]);
+        }
+    }
+
+    /**
+     * Client handed out to a multiplexed listener. It identifies the shared registration
+     * with the service, and lets requests sent with it be routed back to the listener.
+     */
+    static final class MultiplexedClient extends Client {
+        private final CallbackMultiplexer mMultiplexer;
+        final ExtPhoneCallbackListener mListener;
+
+        private MultiplexedClient(CallbackMultiplexer multiplexer, Client client,
+                ExtPhoneCallbackListener listener) {
+            super(client.getId(), client.getUid(), client.getPackageName(),
+                    client.getCallback());
+            mMultiplexer = multiplexer;
+            mListener = listener;
+        }
+
+        private Client current() {
+            Client client = mMultiplexer.getClient();
+            return client != null ? client : new Client(super.getId(), super.getUid(),
+                    super.getPackageName(), super.getCallback());
+        }
+
+        @Override
+        public int getId() {
+            return current().getId();
+        }
+
+        @Override
+        public int getUid() {
+            return current().getUid();
+        }
+
+        @Override
+        public String getPackageName() {
+            return current().getPackageName();
+        }
+
+        @Override
+        public IExtPhoneCallback getCallback() {
+            return current().getCallback();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            current().writeToParcel(out, flags);
+        }
+
+        /**
+         * Route the response to the request identified by token to the listener.
+         */
+        void route(Token token) {
+            mMultiplexer.route(token, this);
+        }
+
+        void unroute(Token token) {
+            mMultiplexer.unroute(token);
+        }
+    }
+
+    CallbackMultiplexer(ExtTelephonyManager manager) {
+        // Callbacks are consumed by interceptCallback() on the binder thread.
+        super(Runnable::run);
+        mManager = manager;
+    }
+
+    Client getClient() {
+        synchronized (mLock) {
+            return mClient;
+        }
+    }
+
+    /**
+     * Subscribe listener to events, registering a new shared callback with a wider set of
+     * events if needed.
+     *
+     * @return Client to send requests with, null if the registration failed.
+     */
+    Client subscribe(String packageName, ExtPhoneCallbackListener listener, int[] events) {
+        return subscribe(packageName, listener, events, false);
+    }
+
+    /**
+     * @param responsesOnly true to only deliver to listener the responses to its requests,
+     *        events then only lists the response events to register for.
+     */
+    Client subscribe(String packageName, ExtPhoneCallbackListener listener, int[] events,
+            boolean responsesOnly) {
+        Subscriber subscriber = new Subscriber(listener, events, responsesOnly);
+        synchronized (mRegistrationLock) {
+            boolean allEvents;
+            int[] union;
+            IExtPhoneCallback oldBinder;
+            synchronized (mLock) {
+                boolean widen = mClient == null || (subscriber.mAllEvents && !mAllEvents);
+                for (int i = 0; i < EVENT_COUNT && !widen; i++) {
+                    widen = subscriber.mEvents[i] && !mEvents[i] && !mAllEvents;
+                }
+                if (!widen) {
+                    addLocked(subscriber);
+                    return new MultiplexedClient(this, mClient, listener);
+                }
+                allEvents = mAllEvents || subscriber.mAllEvents;
+                union = allEvents ? new int[] {EVENT_ALL} : unionWith(subscriber);
+                oldBinder = mClient != null ? mBinder : null;
+            }
+
+            IExtPhoneCallback binder = new IExtPhoneCallbackStub(this);
+            Client client = mManager.registerCallbackBinder(packageName, binder, union);
+            if (client == null) {
+                // The current registration, if any, keeps serving the other subscribers.
+                Log.e(TAG, "subscribe: registration failed");
+                return null;
+            }
+            synchronized (mLock) {
+                mClient = client;
+                mBinder = binder;
+                mAllEvents = allEvents;
+                for (int event : union) {
+                    if (event > 0 && event < EVENT_COUNT) {
+                        mEvents[event] = true;
+                    }
+                }
+                addLocked(subscriber);
+            }
+            if (oldBinder != null) {
+                mManager.unRegisterCallback(oldBinder);
+            }
+            return new MultiplexedClient(this, client, listener);
+        }
+    }
+
+    private void addLocked(Subscriber subscriber) {
+        Subscriber[] subscribers = removeFrom(mSubscribers, subscriber.mListener);
+        subscribers = Arrays.copyOf(subscribers, subscribers.length + 1);
+        subscribers[subscribers.length - 1] = subscriber;
+        mSubscribers = subscribers;
+    }
+
+    /**
+     * @return false if listener was not subscribed.
+     */
+    boolean unsubscribe(ExtPhoneCallbackListener listener) {
+        synchronized (mRegistrationLock) {
+            IExtPhoneCallback binder = null;
+            synchronized (mLock) {
+                Subscriber[] subscribers = removeFrom(mSubscribers, listener);
+                if (subscribers.length == mSubscribers.length) {
+                    return false;
+                }
+                mSubscribers = subscribers;
+                for (int i = mRoutes.size() - 1; i >= 0; i--) {
+                    if (mRoutes.valueAt(i) == listener) {
+                        mRoutes.removeAt(i);
+                    }
+                }
+                if (subscribers.length == 0) {
+                    // The event set is only ever widened; drop the registration with the
+                    // last subscriber.
+                    binder = mClient != null ? mBinder : null;
+                    resetLocked();
+                }
+            }
+            if (binder != null) {
+                mManager.unRegisterCallback(binder);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Route the response to the request identified by token to the listener of client.
+     */
+    void route(Token token, MultiplexedClient client) {
+        int key = token.get();
+        ArrayList<Held> held = null;
+        boolean answered = false;
+        synchronized (mLock) {
+            for (int i = 0; i < mHeld.size(); i++) {
+                if (mHeld.get(i).mKey == key) {
+                    if (held == null) {
+                        held = new ArrayList<>();
+                    }
+                    Held h = mHeld.remove(i--);
+                    held.add(h);
+                    answered |= !isScan(h.mWhat);
+                }
+            }
+            if (!answered) {
+                mRoutes.put(key, client.mListener);
+            }
+        }
+        if (held != null) {
+            for (Held h : held) {
+                deliver(client.mListener, h.mWhat, h.mResult);
+                h.mResult.recycle();
+            }
+        }
+    }
+
+    /**
+     * Stop routing the responses to the request identified by token, e.g. once it expired
+     * or was cancelled.
+     */
+    void unroute(Token token) {
+        synchronized (mLock) {
+            mRoutes.remove(token.get());
+        }
+    }
+
+    /**
+     * Forget all subscribers, e.g. once the connection to the service is lost. The routes
+     * of the requests still in flight are kept, they are sent again or fail.
+     */
+    void reset() {
+        synchronized (mRegistrationLock) {
+            synchronized (mLock) {
+                resetLocked();
+            }
+        }
+    }
+
+    private void resetLocked() {
+        mSubscribers = new Subscriber[0];
+        for (Held held : mHeld) {
+            held.mResult.recycle();
+        }
+        mHeld.clear();
+        mClient = null;
+        mBinder = null;
+        mAllEvents = false;
+        Arrays.fill(mEvents, false);
+    }
+
+    private static boolean isScan(int what) {
+        // A network scan keeps reporting results with the Token of its request.
+        return what == EVENT_START_NETWORK_SCAN_RESPONSE || what == EVENT_NETWORK_SCAN_RESULT;
+    }
+
+    @Override
+    boolean interceptCallback(int what, IExtPhoneCallbackStub.Result result) {
+        if (result.mToken != null && result.mToken.get() != Token.UNSOL) {
+            ExtPhoneCallbackListener target;
+            Held dropped = null;
+            synchronized (mLock) {
+                int key = result.mToken.get();
+                target = mRoutes.get(key);
+                if (target == null) {
+                    // Answered before the Token was returned to the sender, or answering a
+                    // request which is no longer routed.
+                    if (mHeld.size() >= MAX_HELD_RESPONSES) {
+                        dropped = mHeld.remove(0);
+                    }
+                    mHeld.add(new Held(key, what, result.copy()));
+                } else if (!isScan(what)) {
+                    mRoutes.remove(key);
+                }
+            }
+            if (dropped != null) {
+                Log.d(TAG, "Dropping unrouted response " + dropped.mResult.mToken
+                        + " for event " + dropped.mWhat);
+                dropped.mResult.recycle();
+            }
+            if (target != null) {
+                deliver(target, what, result);
+            }
+        } else {
+            for (Subscriber subscriber : mSubscribers) {
+                if (subscriber.wants(what)) {
+                    deliver(subscriber.mListener, what, result);
+                }
+            }
+        }
+        // result itself is recycled by the caller.
+        return true;
+    }
+
+    private static void deliver(ExtPhoneCallbackListener listener, int what,
+            IExtPhoneCallbackStub.Result result) {
+        ((IExtPhoneCallbackStub) listener.mCallback).dispatch(what, result.copy());
+    }
+
+    private int[] unionWith(Subscriber subscriber) {
+        int count = 0;
+        int[] union = new int[EVENT_COUNT];
+        for (int i = 1; i < EVENT_COUNT; i++) {
+            if (mEvents[i] || subscriber.mEvents[i]) {
+                union[count++] = i;
+            }
+        }
+        return Arrays.copyOf(union, count);
+    }
+
+    private static Subscriber[] removeFrom(Subscriber[] subscribers,
+            ExtPhoneCallbackListener listener) {
+        for (int i = 0; i < subscribers.length; i++) {
+            if (subscribers[i].mListener == listener) {
+                Subscriber[] result = new Subscriber[subscribers.length - 1];
+                System.arraycopy(subscribers, 0, result, 0, i);
+                System.arraycopy(subscribers, i + 1, result, i, subscribers.length - i - 1);
+                return result;
+            }
+        }
+        return subscribers;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Feeds callbacks captured by a CallbackJournal back to an ExtPhoneCallbackListener, at the
+ * recorded pace or faster, for load and regression testing. Replayed callbacks go through
+ * the same dispatch path as live ones, conflation included, but are not matched against
+ * in-flight requests.
+ */
+public final class CallbackReplayer {
+    private static final String TAG = "CallbackReplayer";
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    /** Replay the callbacks back to back, ignoring their recorded timing. */
+    public static final double SPEED_UNLIMITED = Double.POSITIVE_INFINITY;
+
+    private final Handler mHandler;
+
+    /**
+     * Create a replayer timing the callbacks on a thread of its own.
+     */
+    public CallbackReplayer() {
+        this(startThread());
+    }
+
+    /**
+     * Create a replayer timing the callbacks on looper.
+     */
+    public CallbackReplayer(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    private static Looper startThread() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        return thread.getLooper();
+    }
+
+    /**
+     * Deliver entries to listener, keeping their relative timing divided by speed.
+     *
+     * @param speed 1 for the recorded pace, 10 for ten times faster, SPEED_UNLIMITED for no
+     *        delay between callbacks.
+     * @return future completed once every entry was delivered; cancel it to stop the replay.
+     */
+    public CompletableFuture<Void> replay(List<CallbackJournal.Entry> entries,
+            ExtPhoneCallbackListener listener, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Invalid speed " + speed);
+        }
+        ExtPhoneCallbackListener.IExtPhoneCallbackStub stub =
+                (ExtPhoneCallbackListener.IExtPhoneCallbackStub) listener.mCallback;
+        Replay replay = new Replay(new ArrayList<>(entries), stub, speed);
+        mHandler.post(replay);
+        return replay.mFuture;
+    }
+
+    private final class Replay implements Runnable {
+        final List<CallbackJournal.Entry> mEntries;
+        final ExtPhoneCallbackListener.IExtPhoneCallbackStub mStub;
+        final double mSpeed;
+        final CompletableFuture<Void> mFuture = new CompletableFuture<>();
+        long mStart = -1;
+        int mNext;
+
+        Replay(List<CallbackJournal.Entry> entries,
+                ExtPhoneCallbackListener.IExtPhoneCallbackStub stub, double speed) {
+            mEntries = entries;
+            mStub = stub;
+            mSpeed = speed;
+        }
+
+        /**
+         * @return uptimeMillis() at which entry is due.
+         */
+        long dueTime(CallbackJournal.Entry entry) {
+            if (mSpeed == SPEED_UNLIMITED) {
+                return mStart;
+            }
+            long offset = entry.getTimeNanos() - mEntries.get(0).getTimeNanos();
+            return mStart + (long) (offset / mSpeed / NANOS_PER_MILLI);
+        }
+
+        @Override
+        public void run() {
+            if (mFuture.isDone()) {
+                // Cancelled.
+                return;
+            }
+            long now = SystemClock.uptimeMillis();
+            if (mStart < 0) {
+                mStart = now;
+            }
+            while (mNext < mEntries.size()) {
+                CallbackJournal.Entry entry = mEntries.get(mNext);
+                long due = dueTime(entry);
+                if (due > now) {
+                    mHandler.postAtTime(this, due);
+                    return;
+                }
+                mStub.deliver(entry.getEvent(), entry.toResult());
+                mNext++;
+            }
+            mFuture.complete(null);
+        }
+    }
+}
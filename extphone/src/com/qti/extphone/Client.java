@@ -100,6 +100,17 @@ public class Client implements Parcelable {
         }
     };
 
+    /**
+     * Take over the identity of other, the registration which replaces this one after the
+     * service restarted. Lets the holders of this Client keep using it.
+     */
+    void update(Client other) {
+        mId = other.getId();
+        mUid = other.getUid();
+        mPackageName = other.getPackageName();
+        mCallback = other.getCallback();
+    }
+
     public void readFromParcel(Parcel in) {
         mId = in.readInt();
         mUid = in.readInt();
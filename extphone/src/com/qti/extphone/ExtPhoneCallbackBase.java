@@ -49,6 +49,7 @@ import com.qti.extphone.NrConfig;
 import com.qti.extphone.NrConfigType;
 import com.qti.extphone.NrIcon;
 import com.qti.extphone.NrIconType;
+import com.qti.extphone.NrSnapshot;
 import com.qti.extphone.QRadioResponseInfo;
 import com.qti.extphone.SignalStrength;
 import com.qti.extphone.Status;
@@ -340,4 +341,9 @@ public class ExtPhoneCallbackBase extends IExtPhoneCallback.Stub {
     public void onNrIconResponse(int slotId, Token token, Status status, NrIcon icon)
             throws RemoteException {
     }
+
+    @Override
+    public void onNrSnapshotResponse(int slotId, Token token, Status status,
+            NrSnapshot snapshot) throws RemoteException {
+    }
 }
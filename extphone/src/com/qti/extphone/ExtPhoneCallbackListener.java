@@ -12,6 +12,7 @@ import android.os.Message;
 import android.os.RemoteException;
 import android.telephony.CellInfo;
 import android.util.Log;
+import android.util.LongSparseArray;
 
 import com.qti.extphone.BearerAllocationStatus;
 import com.qti.extphone.CiwlanConfig;
@@ -23,6 +24,7 @@ import com.qti.extphone.NrConfig;
 import com.qti.extphone.NrConfigType;
 import com.qti.extphone.NrIcon;
 import com.qti.extphone.NrIconType;
+import com.qti.extphone.NrSnapshot;
 import com.qti.extphone.QRadioResponseInfo;
 import com.qti.extphone.QtiPersoUnlockStatus;
 import com.qti.extphone.SignalStrength;
@@ -31,11 +33,15 @@ import com.qti.extphone.Token;
 import com.qti.extphone.UpperLayerIndInfo;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class ExtPhoneCallbackListener {
     private static final String TAG = "ExtPhoneCallbackListener";
     private static final boolean DBG = true;
+    // Per event tracing, kept off the dispatch path unless explicitly enabled.
+    private static final boolean VDBG = false;
 
     public static final int EVENT_ALL = 0;
     public static final int EVENT_GET_FACILITY_LOCK_FOR_APP_RESPONSE = 1;
@@ -90,12 +96,30 @@ public class ExtPhoneCallbackListener {
     public static final int EVENT_ON_CIWLAN_CONFIG_CHANGE = 50;
     public static final int EVENT_ON_NR_ICON_CHANGE = 51;
     public static final int EVENT_QUERY_NR_ICON_RESPONSE = 52;
+    public static final int EVENT_QUERY_NR_SNAPSHOT_RESPONSE = 53;
+
+    // Size of the dispatch table, must be kept above the highest EVENT_* value.
+    static final int EVENT_COUNT = EVENT_QUERY_NR_SNAPSHOT_RESPONSE + 1;
 
     private static final int UNUSED_ARGUMENT = 0;
     private static final int UNUSED_SLOT_ID = -1;
     private static final int SUCCESS = 0;
 
+    /**
+     * Delivers the callback of one EVENT_* to the listener.
+     */
+    private interface EventHandler {
+        void handle(IExtPhoneCallbackStub.Result result) throws RemoteException;
+    }
+
     private Handler mHandler;
+    private final EventHandler[] mEventHandlers = createEventHandlers();
+
+    // Latest undelivered value of the conflated events, keyed by conflationKey().
+    private final Object mConflationLock = new Object();
+    private final LongSparseArray<IExtPhoneCallbackStub.Result> mConflatedResults =
+            new LongSparseArray<>();
+    private volatile boolean mConflationEnabled;
     IExtPhoneCallback mCallback = new IExtPhoneCallbackStub(this);
 
     /**
@@ -105,17 +129,50 @@ public class ExtPhoneCallbackListener {
     private static HandlerThread sHandlerThread;
     private static Object sLock = new Object();
     private Looper mLooper;
+    // Set when callbacks are delivered on an Executor instead of a Looper.
+    private final Executor mExecutor;
+
+    // Runs the callbacks on the binder thread, for the listeners of this package which only
+    // update in-memory state.
+    static final Executor DIRECT_EXECUTOR = Runnable::run;
 
     public ExtPhoneCallbackListener() {
         mLooper = acquireGlobalLooper();
+        mExecutor = null;
         init();
     }
 
     public ExtPhoneCallbackListener(Looper looper) {
         mLooper = looper;
+        mExecutor = null;
         init();
     }
 
+    /**
+     * Deliver the callbacks on executor instead of a Looper. Callbacks may run concurrently
+     * and out of order if executor runs tasks in parallel, see
+     * {@link #ExtPhoneCallbackListener(Executor, boolean)}.
+     *
+     * @param - executor the callbacks are run on
+     */
+    public ExtPhoneCallbackListener(Executor executor) {
+        this(executor, false);
+    }
+
+    /**
+     * Deliver the callbacks on executor instead of a Looper.
+     *
+     * @param - executor the callbacks are run on
+     * @param - serial true to run the callbacks of this listener one at a time and in order
+     *          of arrival, even on a thread pool
+     */
+    public ExtPhoneCallbackListener(Executor executor, boolean serial) {
+        if (executor == null) {
+            throw new IllegalArgumentException("executor must not be null");
+        }
+        mExecutor = serial ? new SerialExecutor(executor) : executor;
+    }
+
     private Looper acquireGlobalLooper() {
         Looper looper = null;
         synchronized(sLock) {
@@ -137,6 +194,9 @@ public class ExtPhoneCallbackListener {
     }
 
     public void setup() {
+        if (mExecutor != null) {
+            return;
+        }
         // Whenever looper is null like either user passes or re-registers it,
         // try assigning a global looper.
         if (mLooper == null) {
@@ -156,562 +216,290 @@ public class ExtPhoneCallbackListener {
         }
         mHandler = new Handler(mLooper) {
             public void handleMessage(Message msg) {
-                Log.d(TAG, "handleMessage");
-                if (DBG) {
-                    Log.d(TAG, " what=0x" + Integer.toHexString(msg.what) + " msg=" + msg);
-                }
-                if (mLooper == null) {
-                    Log.d(TAG, "Client is unregistered for events. msg=" + msg);
-                    return;
-                }
-                switch (msg.what) {
-                    case EVENT_GET_FACILITY_LOCK_FOR_APP_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.getFacilityLockForAppResponse(
-                                    result.mStatus, (int[]) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_GET_FACILITY_LOCK_FOR_APP_RESPONSE : Exception = " +
-                                    e);
-                        }
-                        break;
-                    case EVENT_GET_NETWORK_SELECTION_MODE_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.getNetworkSelectionModeResponse(
-                                    result.mSlotId, result.mToken, result.mStatus,
-                                    (NetworkSelectionMode) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_GET_NETWORK_SELECTION_MODE_RESPONSE : Exception = " +
-                                    e);
-                        }
-                        break;
-                    case EVENT_GET_QOS_PARAMETERS_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.getQosParametersResponse(result.mSlotId,
-                                    result.mToken, result.mStatus,
-                                    (QosParametersResult) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_GET_QOS_PARAMETERS_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_GET_QTIRADIO_CAPABILITY_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.getQtiRadioCapabilityResponse(
-                                    result.mSlotId, result.mToken, result.mStatus,
-                                    (int) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_GET_QTIRADIO_CAPABILITY_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_GET_SECURE_MODE_STATUS_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.getSecureModeStatusResponse(result.mToken,
-                                    result.mStatus, (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_GET_SECURE_MODE_STATUS_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_NETWORK_SCAN_RESULT:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.networkScanResult(result.mSlotId,
-                                    result.mToken, result.mStatus.get(), result.mError,
-                                    (List<CellInfo>) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_NETWORK_SCAN_RESULT : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_5G_CONFIG_INFO:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.on5gConfigInfo(result.mSlotId,
-                                    result.mToken, result.mStatus, (NrConfigType) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_5G_CONFIG_INFO : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_5G_STATUS:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.on5gStatus(result.mSlotId, result.mToken,
-                                    result.mStatus, (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_5G_STATUS : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_ANY_NR_BEARER_ALLOCATION:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onAnyNrBearerAllocation(result.mSlotId,
-                                    result.mToken, result.mStatus,
-                                    (BearerAllocationStatus) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_ANY_NR_BEARER_ALLOCATION : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DATA_DEACTIVATE_DELAY_TIME:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDataDeactivateDelayTime(result.mSlotId,
-                                    (long) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DATA_DEACTIVATE_DELAY_TIME : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DDS_SWITCH_CAPABILITY_CHANGE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDdsSwitchCapabilityChange(
-                                    result.mSlotId, result.mToken, result.mStatus,
-                                    (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DDS_SWITCH_CAPABILITY_CHANGE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DDS_SWITCH_CONFIG_CAPABILITY_CHANGED:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDdsSwitchConfigCapabilityChanged(
-                                    result.mToken, result.mStatus,
-                                    (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DDS_SWITCH_CONFIG_CAPABILITY_CHANGED :"
-                                    + " Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DDS_SWITCH_CRITERIA_CHANGE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDdsSwitchCriteriaChange(result.mSlotId,
-                                    (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DDS_SWITCH_CRITERIA_CHANGE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DDS_SWITCH_CONFIG_CRITERIA_CHANGED:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDdsSwitchConfigCriteriaChanged(
-                                    (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DDS_SWITCH_CONFIG_CRITERIA_CHANGED :"
-                                    + " Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DDS_SWITCH_RECOMMENDATION:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDdsSwitchRecommendation(result.mSlotId,
-                                    (int) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DDS_SWITCH_RECOMMENDATION : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DDS_SWITCH_CONFIG_RECOMMENDATION:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDdsSwitchConfigRecommendation(
-                                    (int) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DDS_SWITCH_CONFIG_RECOMMENDATION :"
-                                    + " Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_ENABLE_ENDC:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onEnableEndc(result.mSlotId,
-                                    result.mToken, result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_ENABLE_ENDC : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_ENDC_STATUS:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onEndcStatus(result.mSlotId,
-                                    result.mToken, result.mStatus, (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_ENDC_STATUS : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_EPDG_OVER_CELLULAR_DATA_SUPPORTED:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onEpdgOverCellularDataSupported(
-                                    result.mSlotId, (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_EPDG_OVER_CELLULAR_DATA_SUPPORTED : Exception = "
-                                    + e);
-                        }
-                        break;
-                    case EVENT_ON_IMEI_TYPE_CHANGED:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onImeiTypeChanged(
-                                    (QtiImeiInfo[]) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_IMEI_TYPE_CHANGED : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_NR_CONFIG_STATUS:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onNrConfigStatus(result.mSlotId,
-                                    result.mToken, result.mStatus, (NrConfig) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_NR_CONFIG_STATUS : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_NR_DC_PARAM:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onNrDcParam(result.mSlotId,
-                                    result.mToken, result.mStatus, (DcParam) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_NR_DC_PARAM : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_NR_ICON_TYPE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onNrIconType(result.mSlotId,
-                                    result.mToken, result.mStatus, (NrIconType) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_NR_ICON_TYPE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_QOS_PARAMETERS_CHANGED:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onQosParametersChanged(result.mSlotId,
-                                    result.mError, (QosParametersResult) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_QOS_PARAMETERS_CHANGED : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_SECURE_MODE_STATUS_CHANGE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onSecureModeStatusChange(
-                                    (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_SECURE_MODE_STATUS_CHANGE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.
-                                    onSendUserPreferenceForDataDuringVoiceCall(result.mSlotId,
-                                    result.mToken, result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL : "
-                                    + "Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_CALL:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.
-                                    onSendUserPreferenceConfigForDataDuringVoiceCall(
-                                    result.mToken, result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_CALL"
-                                    + " : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_SET_NR_CONFIG:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onSetNrConfig(result.mSlotId,
-                                    result.mToken, result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_SET_NR_CONFIG : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_SIGNAL_STRENGTH:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onSignalStrength(result.mSlotId,
-                                    result.mToken, result.mStatus, (SignalStrength) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_SIGNAL_STRENGTH : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_SIM_TYPE_CHANGED:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onSimTypeChanged(
-                                    (QtiSimType[]) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_SIM_TYPE_CHANGED : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_UPPER_LAYER_IND_INFO:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onUpperLayerIndInfo(result.mSlotId,
-                                    result.mToken, result.mStatus,
-                                    (UpperLayerIndInfo) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_UPPER_LAYER_IND_INFO : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_QUERY_CALL_FORWARD_STATUS_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.queryCallForwardStatusResponse(
-                                    result.mStatus, (QtiCallForwardInfo[]) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_QUERY_CALL_FORWARD_STATUS_RESPONSE : Exception = " +
-                                    e);
-                        }
-                        break;
-                    case EVENT_SEND_CDMA_SMS_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.sendCdmaSmsResponse(result.mSlotId,
-                                    result.mToken, result.mStatus, (SmsResult) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SEND_CDMA_SMS_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setCarrierInfoForImsiEncryptionResponse(
-                                    result.mSlotId, result.mToken,
-                                    (QRadioResponseInfo) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE : " +
-                                    "Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_MSIM_PREFERENCE_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setMsimPreferenceResponse(result.mToken,
-                                    result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_MSIM_PREFERENCE_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setNetworkSelectionModeAutomaticResponse(
-                                    result.mSlotId, result.mToken, result.mError);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE : " +
-                                    "Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setNetworkSelectionModeManualResponse(
-                                    result.mSlotId, result.mToken, result.mError);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE : " +
-                                    "Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_SIM_TYPE_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setSimTypeResponse(result.mToken,
-                                    result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_SIM_TYPE_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_SMART_DDS_SWITCH_TOGGLE_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setSmartDdsSwitchToggleResponse(
-                                    result.mToken, (boolean) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_SMART_DDS_SWITCH_TOGGLE_RESPONSE : Exception = " +
-                                    e);
-                        }
-                        break;
-                    case EVENT_START_NETWORK_SCAN_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                        ExtPhoneCallbackListener.this.startNetworkScanResponse(result.mSlotId,
-                                result.mToken, result.mError);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_START_NETWORK_SCAN_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_STOP_NETWORK_SCAN_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.stopNetworkScanResponse(result.mSlotId,
-                                    result.mToken, result.mError);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_STOP_NETWORK_SCAN_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DUAL_DATA_CAPABILITY_CHANGED:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDualDataCapabilityChanged(
-                                    result.mToken, result.mStatus, (boolean)result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DUAL_DATA_CAPABILITY_CHANGED : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_DUAL_DATA_USER_PREFERENCE_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setDualDataUserPreferenceResponse(
-                                    result.mToken, result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_DUAL_DATA_USER_PREFERENCE_RESPONSE :" +
-                                    "Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_DUAL_DATA_RECOMMENDATION:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onDualDataRecommendation(
-                                    (DualDataRecommendation)result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_DUAL_DATA_RECOMMENDATION : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_SIM_PERSO_UNLOCK_STATUS_CHANGE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onSimPersoUnlockStatusChange(
-                                    result.mSlotId, (QtiPersoUnlockStatus)result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG,
-                                    "EVENT_ON_SIM_PERSO_UNLOCK_STATUS_CHANGE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_CELLULAR_ROAMING_PREFERENCE_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setCellularRoamingPreferenceResponse(
-                                    result.mSlotId, result.mToken, result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_CELLULAR_ROAMING_PREFERENCE_RESPONSE : " +
-                                    "Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_CIWLAN_AVAILABLE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onCiwlanAvailable(
-                                    result.mSlotId, (boolean)result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG,
-                                    "EVENT_ON_CIWLAN_AVAILABLE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_CIWLAN_CONFIG_CHANGE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onCiwlanConfigChange(
-                                    result.mSlotId, (CiwlanConfig)result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG,
-                                    "EVENT_ON_CIWLAN_CONFIG_CHANGE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_SET_CIWLAN_MODE_USER_PREFERENCE_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.setCiwlanModeUserPreferenceResponse(
-                                result.mSlotId, result.mToken, result.mStatus);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_SET_CIWLAN_MODE_USER_PREFERENCE_RESPONSE" +
-                                    " : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_ON_NR_ICON_CHANGE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onNrIconChange(result.mSlotId,
-                                    (NrIcon) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_ON_NR_ICON_CHANGE : Exception = " + e);
-                        }
-                        break;
-                    case EVENT_QUERY_NR_ICON_RESPONSE:
-                        try {
-                            IExtPhoneCallbackStub.Result result =
-                                    (IExtPhoneCallbackStub.Result) msg.obj;
-                            ExtPhoneCallbackListener.this.onNrIconResponse(result.mSlotId,
-                                    result.mToken, result.mStatus, (NrIcon) result.mData);
-                        } catch (RemoteException e) {
-                            Log.e(TAG, "EVENT_QUERY_NR_ICON_RESPONSE : Exception = " + e);
-                        }
-                        break;
-                    default :
-                        Log.d(TAG, "default : " + msg.what);
+                if (VDBG) {
+                    Log.d(TAG, "handleMessage: what=" + msg.what + " msg=" + msg);
                 }
+                long key = ((long) msg.arg1 << 32) | (msg.arg2 & 0xffffffffL);
+                handleEvent(msg.what, key, (IExtPhoneCallbackStub.Result) msg.obj);
             }
         };
     }
 
+    /**
+     * Queue a callback for delivery on the Looper or Executor of the listener.
+     *
+     * @param - what EVENT_* of the callback
+     * @param - key conflationKey() of the callback when result is null
+     * @param - result payload, null to deliver the latest conflated value for key
+     */
+    private void post(int what, long key, IExtPhoneCallbackStub.Result result) {
+        if (mExecutor != null) {
+            mExecutor.execute(() -> handleEvent(what, key, result));
+        } else {
+            Message.obtain(mHandler, what, (int) (key >>> 32), (int) key, result).sendToTarget();
+        }
+    }
+
+    private void handleEvent(int what, long key, IExtPhoneCallbackStub.Result result) {
+        if (result == null) {
+            result = takeConflatedResult(key);
+            if (result == null) {
+                return;
+            }
+        }
+        if (mExecutor == null && mLooper == null) {
+            Log.d(TAG, "Client is unregistered for events. what=" + what);
+            result.recycle();
+            return;
+        }
+        EventHandler handler = what >= 0 && what < mEventHandlers.length ?
+                mEventHandlers[what] : null;
+        if (handler == null) {
+            Log.d(TAG, "default : " + what);
+            result.recycle();
+            return;
+        }
+        try {
+            handler.handle(result);
+        } catch (RemoteException e) {
+            Log.e(TAG, "handleEvent: what=" + what + " : Exception = " + e);
+        } finally {
+            // The listener methods only see the unpacked fields, result can be reused.
+            result.recycle();
+        }
+    }
+
+    /**
+     * Runs the tasks submitted to it one at a time, in submission order, on an underlying
+     * Executor which may be shared with other listeners.
+     */
+    private static final class SerialExecutor implements Executor {
+        private final Executor mExecutor;
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+        private Runnable mActive;
+
+        SerialExecutor(Executor executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            mTasks.add(() -> {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (mActive == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            mActive = mTasks.poll();
+            if (mActive != null) {
+                mExecutor.execute(mActive);
+            }
+        }
+    }
+
+    /**
+     * Enable or disable conflation of the high rate unsolicited events: EVENT_ON_SIGNAL_STRENGTH,
+     * EVENT_ON_NR_ICON_CHANGE, EVENT_ON_NR_ICON_TYPE, EVENT_ON_UPPER_LAYER_IND_INFO and
+     * EVENT_ON_QOS_PARAMETERS_CHANGED. When enabled, only the newest value received for an
+     * event and slot, and for a cid of EVENT_ON_QOS_PARAMETERS_CHANGED, is delivered once the
+     * Looper of the listener gets to it, older values still waiting in the queue are dropped.
+     * Responses to requests are never conflated.
+     * Disabled by default.
+     *
+     * @param - enabled true to conflate the events
+     */
+    public void setConflationEnabled(boolean enabled) {
+        mConflationEnabled = enabled;
+    }
+
+    /**
+     * Record every callback delivered to this listener in journal, responses synthesized for
+     * expired requests included. Disabled by default.
+     *
+     * @param - journal the journal, null to stop recording
+     */
+    public void setJournal(CallbackJournal journal) {
+        ((IExtPhoneCallbackStub) mCallback).mJournal = journal;
+    }
+
+    private static boolean isConflatable(int what, IExtPhoneCallbackStub.Result result) {
+        switch (what) {
+            case EVENT_ON_SIGNAL_STRENGTH:
+            case EVENT_ON_NR_ICON_CHANGE:
+            case EVENT_ON_NR_ICON_TYPE:
+            case EVENT_ON_UPPER_LAYER_IND_INFO:
+            case EVENT_ON_QOS_PARAMETERS_CHANGED:
+                return result.mToken == null || result.mToken.get() == Token.UNSOL;
+            default:
+                return false;
+        }
+    }
+
+    private static long conflationKey(int what, IExtPhoneCallbackStub.Result result) {
+        // The parameters of each cid of a slot are separate values, the cid is in mError.
+        int cid = what == EVENT_ON_QOS_PARAMETERS_CHANGED ? result.mError : 0;
+        return ((long) what << 48) | ((long) (result.mSlotId & 0xffff) << 32)
+                | (cid & 0xffffffffL);
+    }
+
+    /**
+     * Store result as the latest value of its conflationKey(). A message is only queued when
+     * no value was pending, the queued message then delivers whichever value is latest.
+     */
+    private void postConflated(int what, IExtPhoneCallbackStub.Result result) {
+        long key = conflationKey(what, result);
+        IExtPhoneCallbackStub.Result pending;
+        synchronized (mConflationLock) {
+            pending = mConflatedResults.get(key);
+            mConflatedResults.put(key, result);
+        }
+        if (pending != null) {
+            pending.recycle();
+            return;
+        }
+        post(what, key, null);
+    }
+
+    private IExtPhoneCallbackStub.Result takeConflatedResult(long key) {
+        synchronized (mConflationLock) {
+            IExtPhoneCallbackStub.Result result = mConflatedResults.get(key);
+            mConflatedResults.remove(key);
+            return result;
+        }
+    }
+
+    /**
+     * Bind every EVENT_* to the listener method it is delivered to, so that dispatching a
+     * callback is a single array lookup.
+     */
+    @SuppressWarnings("unchecked")
+    private EventHandler[] createEventHandlers() {
+        EventHandler[] handlers = new EventHandler[EVENT_COUNT];
+        handlers[EVENT_GET_FACILITY_LOCK_FOR_APP_RESPONSE] =
+                result -> getFacilityLockForAppResponse(result.mStatus, (int[]) result.mData);
+        handlers[EVENT_GET_NETWORK_SELECTION_MODE_RESPONSE] =
+                result -> getNetworkSelectionModeResponse(result.mSlotId, result.mToken,
+                        result.mStatus, (NetworkSelectionMode) result.mData);
+        handlers[EVENT_GET_QOS_PARAMETERS_RESPONSE] = result -> getQosParametersResponse(
+                result.mSlotId, result.mToken, result.mStatus, (QosParametersResult) result.mData);
+        handlers[EVENT_GET_QTIRADIO_CAPABILITY_RESPONSE] = result -> getQtiRadioCapabilityResponse(
+                result.mSlotId, result.mToken, result.mStatus, result.mIntData);
+        handlers[EVENT_GET_SECURE_MODE_STATUS_RESPONSE] = result -> getSecureModeStatusResponse(
+                result.mToken, result.mStatus, result.mBooleanData);
+        handlers[EVENT_NETWORK_SCAN_RESULT] = result -> networkScanResult(result.mSlotId,
+                result.mToken, result.mStatus.get(), result.mError, (List<CellInfo>) result.mData);
+        handlers[EVENT_ON_5G_CONFIG_INFO] = result -> on5gConfigInfo(result.mSlotId, result.mToken,
+                result.mStatus, (NrConfigType) result.mData);
+        handlers[EVENT_ON_5G_STATUS] = result -> on5gStatus(result.mSlotId, result.mToken,
+                result.mStatus, result.mBooleanData);
+        handlers[EVENT_ON_ANY_NR_BEARER_ALLOCATION] = result -> onAnyNrBearerAllocation(
+                result.mSlotId, result.mToken, result.mStatus,
+                (BearerAllocationStatus) result.mData);
+        handlers[EVENT_ON_DATA_DEACTIVATE_DELAY_TIME] = result -> onDataDeactivateDelayTime(
+                result.mSlotId, result.mLongData);
+        handlers[EVENT_ON_DDS_SWITCH_CAPABILITY_CHANGE] = result -> onDdsSwitchCapabilityChange(
+                result.mSlotId, result.mToken, result.mStatus, result.mBooleanData);
+        handlers[EVENT_ON_DDS_SWITCH_CONFIG_CAPABILITY_CHANGED] =
+                result -> onDdsSwitchConfigCapabilityChanged(result.mToken, result.mStatus,
+                        result.mBooleanData);
+        handlers[EVENT_ON_DDS_SWITCH_CRITERIA_CHANGE] = result -> onDdsSwitchCriteriaChange(
+                result.mSlotId, result.mBooleanData);
+        handlers[EVENT_ON_DDS_SWITCH_CONFIG_CRITERIA_CHANGED] =
+                result -> onDdsSwitchConfigCriteriaChanged(result.mBooleanData);
+        handlers[EVENT_ON_DDS_SWITCH_RECOMMENDATION] = result -> onDdsSwitchRecommendation(
+                result.mSlotId, result.mIntData);
+        handlers[EVENT_ON_DDS_SWITCH_CONFIG_RECOMMENDATION] =
+                result -> onDdsSwitchConfigRecommendation(result.mIntData);
+        handlers[EVENT_ON_ENABLE_ENDC] = result -> onEnableEndc(result.mSlotId, result.mToken,
+                result.mStatus);
+        handlers[EVENT_ON_ENDC_STATUS] = result -> onEndcStatus(result.mSlotId, result.mToken,
+                result.mStatus, result.mBooleanData);
+        handlers[EVENT_ON_EPDG_OVER_CELLULAR_DATA_SUPPORTED] =
+                result -> onEpdgOverCellularDataSupported(result.mSlotId, result.mBooleanData);
+        handlers[EVENT_ON_IMEI_TYPE_CHANGED] = result -> onImeiTypeChanged(
+                (QtiImeiInfo[]) result.mData);
+        handlers[EVENT_ON_NR_CONFIG_STATUS] = result -> onNrConfigStatus(result.mSlotId,
+                result.mToken, result.mStatus, (NrConfig) result.mData);
+        handlers[EVENT_ON_NR_DC_PARAM] = result -> onNrDcParam(result.mSlotId, result.mToken,
+                result.mStatus, (DcParam) result.mData);
+        handlers[EVENT_ON_NR_ICON_TYPE] = result -> onNrIconType(result.mSlotId, result.mToken,
+                result.mStatus, (NrIconType) result.mData);
+        handlers[EVENT_ON_QOS_PARAMETERS_CHANGED] = result -> onQosParametersChanged(result.mSlotId,
+                result.mError, (QosParametersResult) result.mData);
+        handlers[EVENT_ON_SECURE_MODE_STATUS_CHANGE] = result -> onSecureModeStatusChange(
+                result.mBooleanData);
+        handlers[EVENT_ON_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL] =
+                result -> onSendUserPreferenceForDataDuringVoiceCall(result.mSlotId, result.mToken,
+                        result.mStatus);
+        handlers[EVENT_ON_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_CALL] =
+                result -> onSendUserPreferenceConfigForDataDuringVoiceCall(result.mToken,
+                        result.mStatus);
+        handlers[EVENT_ON_SET_NR_CONFIG] = result -> onSetNrConfig(result.mSlotId, result.mToken,
+                result.mStatus);
+        handlers[EVENT_ON_SIGNAL_STRENGTH] = result -> onSignalStrength(result.mSlotId,
+                result.mToken, result.mStatus, (SignalStrength) result.mData);
+        handlers[EVENT_ON_SIM_TYPE_CHANGED] = result -> onSimTypeChanged(
+                (QtiSimType[]) result.mData);
+        handlers[EVENT_ON_UPPER_LAYER_IND_INFO] = result -> onUpperLayerIndInfo(result.mSlotId,
+                result.mToken, result.mStatus, (UpperLayerIndInfo) result.mData);
+        handlers[EVENT_QUERY_CALL_FORWARD_STATUS_RESPONSE] =
+                result -> queryCallForwardStatusResponse(result.mStatus,
+                        (QtiCallForwardInfo[]) result.mData);
+        handlers[EVENT_SEND_CDMA_SMS_RESPONSE] = result -> sendCdmaSmsResponse(result.mSlotId,
+                result.mToken, result.mStatus, (SmsResult) result.mData);
+        handlers[EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE] =
+                result -> setCarrierInfoForImsiEncryptionResponse(result.mSlotId, result.mToken,
+                        (QRadioResponseInfo) result.mData);
+        handlers[EVENT_SET_MSIM_PREFERENCE_RESPONSE] = result -> setMsimPreferenceResponse(
+                result.mToken, result.mStatus);
+        handlers[EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE] =
+                result -> setNetworkSelectionModeAutomaticResponse(result.mSlotId, result.mToken,
+                        result.mError);
+        handlers[EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE] =
+                result -> setNetworkSelectionModeManualResponse(result.mSlotId, result.mToken,
+                        result.mError);
+        handlers[EVENT_SET_SIM_TYPE_RESPONSE] = result -> setSimTypeResponse(result.mToken,
+                result.mStatus);
+        handlers[EVENT_SET_SMART_DDS_SWITCH_TOGGLE_RESPONSE] =
+                result -> setSmartDdsSwitchToggleResponse(result.mToken, result.mBooleanData);
+        handlers[EVENT_START_NETWORK_SCAN_RESPONSE] = result -> startNetworkScanResponse(
+                result.mSlotId, result.mToken, result.mError);
+        handlers[EVENT_STOP_NETWORK_SCAN_RESPONSE] = result -> stopNetworkScanResponse(
+                result.mSlotId, result.mToken, result.mError);
+        handlers[EVENT_ON_DUAL_DATA_CAPABILITY_CHANGED] = result -> onDualDataCapabilityChanged(
+                result.mToken, result.mStatus, result.mBooleanData);
+        handlers[EVENT_SET_DUAL_DATA_USER_PREFERENCE_RESPONSE] =
+                result -> setDualDataUserPreferenceResponse(result.mToken, result.mStatus);
+        handlers[EVENT_ON_DUAL_DATA_RECOMMENDATION] = result -> onDualDataRecommendation(
+                (DualDataRecommendation) result.mData);
+        handlers[EVENT_ON_SIM_PERSO_UNLOCK_STATUS_CHANGE] = result -> onSimPersoUnlockStatusChange(
+                result.mSlotId, (QtiPersoUnlockStatus) result.mData);
+        handlers[EVENT_SET_CELLULAR_ROAMING_PREFERENCE_RESPONSE] =
+                result -> setCellularRoamingPreferenceResponse(result.mSlotId, result.mToken,
+                        result.mStatus);
+        handlers[EVENT_ON_CIWLAN_AVAILABLE] = result -> onCiwlanAvailable(result.mSlotId,
+                result.mBooleanData);
+        handlers[EVENT_ON_CIWLAN_CONFIG_CHANGE] = result -> onCiwlanConfigChange(result.mSlotId,
+                (CiwlanConfig) result.mData);
+        handlers[EVENT_SET_CIWLAN_MODE_USER_PREFERENCE_RESPONSE] =
+                result -> setCiwlanModeUserPreferenceResponse(result.mSlotId, result.mToken,
+                        result.mStatus);
+        handlers[EVENT_ON_NR_ICON_CHANGE] = result -> onNrIconChange(result.mSlotId,
+                (NrIcon) result.mData);
+        handlers[EVENT_QUERY_NR_ICON_RESPONSE] = result -> onNrIconResponse(result.mSlotId,
+                result.mToken, result.mStatus, (NrIcon) result.mData);
+        handlers[EVENT_QUERY_NR_SNAPSHOT_RESPONSE] = result -> onNrSnapshotResponse(
+                result.mSlotId, result.mToken, result.mStatus, (NrSnapshot) result.mData);
+        return handlers;
+    }
+
     public void onNrIconType(int slotId, Token token, Status status, NrIconType nrIconType) throws
             RemoteException {
         Log.d(TAG, "UNIMPLEMENTED: onNrIconType: slotId = " + slotId + " token = " + token +
@@ -1006,8 +794,25 @@ public class ExtPhoneCallbackListener {
                 + ", status = " + status + ", icon = " + icon);
     }
 
-    private static class IExtPhoneCallbackStub extends IExtPhoneCallback.Stub {
+    public void onNrSnapshotResponse(int slotId, Token token, Status status,
+            NrSnapshot snapshot) throws RemoteException {
+        Log.d(TAG, "UNIMPLEMENTED: onNrSnapshotResponse: slotId = " + slotId + ", token = " +
+                token + ", status = " + status + ", snapshot = " + snapshot);
+    }
+
+    /**
+     * Gives the listener a chance to consume a callback on the binder thread, before it is
+     * posted to the Handler.
+     *
+     * @return true if the callback has been consumed and must not be dispatched.
+     */
+    boolean interceptCallback(int what, IExtPhoneCallbackStub.Result result) {
+        return false;
+    }
+
+    static class IExtPhoneCallbackStub extends IExtPhoneCallback.Stub {
         private WeakReference<ExtPhoneCallbackListener> mExtPhoneCallbackListenerWeakRef;
+        volatile CallbackJournal mJournal;
 
         public IExtPhoneCallbackStub(ExtPhoneCallbackListener extPhoneCallbackListener) {
             mExtPhoneCallbackListenerWeakRef =
@@ -1015,300 +820,335 @@ public class ExtPhoneCallbackListener {
         }
 
         private void send(int what, int arg1, int arg2, Object obj) {
+            if (InFlightRequests.getInstance().onResponse(this, what, (Result) obj)) {
+                ((Result) obj).recycle();
+                return;
+            }
+            dispatch(what, (Result) obj);
+        }
+
+        /**
+         * Deliver result to the listener, bypassing the in-flight request bookkeeping. Used
+         * for the responses synthesized by InFlightRequests.
+         */
+        void dispatch(int what, Result result) {
+            CallbackJournal journal = mJournal;
+            if (journal != null) {
+                journal.record(what, result);
+            }
+            deliver(what, result);
+        }
+
+        /**
+         * Deliver result to the listener without recording it, used to replay a journal.
+         */
+        void deliver(int what, Result result) {
             ExtPhoneCallbackListener listener = mExtPhoneCallbackListenerWeakRef.get();
             if (listener != null) {
-                Message.obtain(listener.mHandler, what, arg1, arg2, obj).sendToTarget();
+                if (listener.interceptCallback(what, result)) {
+                    result.recycle();
+                    return;
+                }
+                if (listener.mConflationEnabled && isConflatable(what, result)) {
+                    listener.postConflated(what, result);
+                    return;
+                }
+                listener.post(what, 0, result);
             } else {
                 if (DBG) {
                     Log.d(TAG, " listener is null");
                 }
+                result.recycle();
             }
         }
 
         @Override
         public void onNrIconType(int slotId, Token token, Status status, NrIconType nrIconType)
                 throws RemoteException {
-            send(EVENT_ON_NR_ICON_TYPE, 0, 0, new Result(slotId, token, status, 0, nrIconType));
+            send(EVENT_ON_NR_ICON_TYPE, 0, 0, Result.obtain(slotId, token, status, 0, nrIconType));
         }
 
         @Override
         public void onEnableEndc(int slotId, Token token, Status status) throws RemoteException {
-            send(EVENT_ON_ENABLE_ENDC, 0, 0, new Result(slotId, token, status, 0, null));
+            send(EVENT_ON_ENABLE_ENDC, 0, 0, Result.obtain(slotId, token, status, 0, null));
         }
 
         @Override
         public void onEndcStatus(int slotId, Token token, Status status, boolean enableStatus)
                 throws RemoteException {
-            send(EVENT_ON_ENDC_STATUS, 0, 0, new Result(slotId, token, status, 0, enableStatus));
+            send(EVENT_ON_ENDC_STATUS, 0, 0, Result.obtain(slotId, token, status, 0, enableStatus));
         }
 
         @Override
         public void onSetNrConfig(int slotId, Token token, Status status) throws RemoteException {
-            send(EVENT_ON_SET_NR_CONFIG, 0, 0, new Result(slotId, token, status, 0, null));
+            send(EVENT_ON_SET_NR_CONFIG, 0, 0, Result.obtain(slotId, token, status, 0, null));
         }
 
         @Override
         public void onNrConfigStatus(int slotId, Token token, Status status, NrConfig nrConfig)
                 throws RemoteException {
-            send(EVENT_ON_NR_CONFIG_STATUS, 0, 0, new Result(slotId, token, status, 0, nrConfig));
+            send(EVENT_ON_NR_CONFIG_STATUS, 0, 0,
+                    Result.obtain(slotId, token, status, 0, nrConfig));
         }
 
         @Override
         public void sendCdmaSmsResponse(int slotId, Token token, Status status, SmsResult sms)
                 throws RemoteException {
-            send(EVENT_SEND_CDMA_SMS_RESPONSE, 0, 0, new Result(slotId, token, status, 0, sms));
+            send(EVENT_SEND_CDMA_SMS_RESPONSE, 0, 0, Result.obtain(slotId, token, status, 0, sms));
         }
 
         @Override
         public void on5gStatus(int slotId, Token token, Status status, boolean enableStatus) throws
                 RemoteException {
-            send(EVENT_ON_5G_STATUS, 0, 0, new Result(slotId, token, status, 0, enableStatus));
+            send(EVENT_ON_5G_STATUS, 0, 0, Result.obtain(slotId, token, status, 0, enableStatus));
         }
 
         @Override
         public void onAnyNrBearerAllocation(int slotId, Token token, Status status,
                 BearerAllocationStatus bearerStatus) throws RemoteException {
-            send(EVENT_ON_ANY_NR_BEARER_ALLOCATION, 0, 0, new Result(slotId, token, status, 0,
+            send(EVENT_ON_ANY_NR_BEARER_ALLOCATION, 0, 0, Result.obtain(slotId, token, status, 0,
                     bearerStatus));
         }
 
         @Override
         public void getQtiRadioCapabilityResponse(int slotId, Token token, Status status, int raf)
                 throws RemoteException {
-            send(EVENT_GET_QTIRADIO_CAPABILITY_RESPONSE, 0, 0, new Result(slotId, token, status, 0,
-                    raf));
+            send(EVENT_GET_QTIRADIO_CAPABILITY_RESPONSE, 0, 0,
+                    Result.obtain(slotId, token, status, 0, raf));
         }
 
         @Override
         public void getQosParametersResponse(int slotId, Token token, Status status,
                     QosParametersResult result) throws RemoteException {
-            send(EVENT_GET_QOS_PARAMETERS_RESPONSE, 0, 0, new Result(slotId, token, status, 0,
+            send(EVENT_GET_QOS_PARAMETERS_RESPONSE, 0, 0, Result.obtain(slotId, token, status, 0,
                     result));
         }
 
         public void onNrDcParam(int slotId, Token token, Status status, DcParam dcParam) throws
                 RemoteException {
-            send(EVENT_ON_NR_DC_PARAM, 0, 0, new Result(slotId, token, status, 0, dcParam));
+            send(EVENT_ON_NR_DC_PARAM, 0, 0, Result.obtain(slotId, token, status, 0, dcParam));
         }
 
         @Override
         public void onUpperLayerIndInfo(int slotId, Token token, Status status,
                 UpperLayerIndInfo uilInfo) throws RemoteException {
-            send(EVENT_ON_UPPER_LAYER_IND_INFO, 0, 0, new Result(slotId, token, status, 0,
+            send(EVENT_ON_UPPER_LAYER_IND_INFO, 0, 0, Result.obtain(slotId, token, status, 0,
                     uilInfo));
         }
 
         @Override
         public void on5gConfigInfo(int slotId, Token token, Status status,
                 NrConfigType nrConfigType) throws RemoteException {
-            send(EVENT_ON_5G_CONFIG_INFO, 0, 0, new Result(slotId, token, status, 0,
+            send(EVENT_ON_5G_CONFIG_INFO, 0, 0, Result.obtain(slotId, token, status, 0,
                     nrConfigType));
         }
 
         @Override
         public void onSignalStrength(int slotId, Token token, Status status,
                 SignalStrength signalStrength) throws RemoteException {
-            send(EVENT_ON_SIGNAL_STRENGTH, 0, 0, new Result(slotId, token, status, 0,
+            send(EVENT_ON_SIGNAL_STRENGTH, 0, 0, Result.obtain(slotId, token, status, 0,
                     signalStrength));
         }
 
         @Override
         public void setCarrierInfoForImsiEncryptionResponse(int slotId, Token token,
                 QRadioResponseInfo info) throws RemoteException {
-            send(EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE, 0, 0, new Result(slotId,
+            send(EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE, 0, 0, Result.obtain(slotId,
                     token, null, 0, info));
         }
 
         @Override
         public void queryCallForwardStatusResponse(Status status, QtiCallForwardInfo[] infos) throws
                 RemoteException {
-            send(EVENT_QUERY_CALL_FORWARD_STATUS_RESPONSE, 0, 0, new Result(0, null, status, 0,
+            send(EVENT_QUERY_CALL_FORWARD_STATUS_RESPONSE, 0, 0, Result.obtain(0, null, status, 0,
                     infos));
         }
 
         @Override
         public void getFacilityLockForAppResponse(Status status, int[] response) throws
                 RemoteException {
-            send(EVENT_GET_FACILITY_LOCK_FOR_APP_RESPONSE, 0, 0, new Result(0, null, status, 0,
+            send(EVENT_GET_FACILITY_LOCK_FOR_APP_RESPONSE, 0, 0, Result.obtain(0, null, status, 0,
                     response));
         }
 
         @Override
         public void setSmartDdsSwitchToggleResponse(Token token, boolean result) throws
                 RemoteException {
-            send(EVENT_SET_SMART_DDS_SWITCH_TOGGLE_RESPONSE, 0, 0, new Result(0, token, null, 0,
+            send(EVENT_SET_SMART_DDS_SWITCH_TOGGLE_RESPONSE, 0, 0, Result.obtain(0, token, null, 0,
                     result));
         }
 
         @Override
         public void onImeiTypeChanged(QtiImeiInfo[] imeiInfo) throws RemoteException {
-            send(EVENT_ON_IMEI_TYPE_CHANGED, 0, 0, new Result(-1 , null, null, -1, imeiInfo));
+            send(EVENT_ON_IMEI_TYPE_CHANGED, 0, 0, Result.obtain(-1, null, null, -1, imeiInfo));
         }
 
         public void onSendUserPreferenceForDataDuringVoiceCall(int slotId, Token token,
                 Status status) throws RemoteException {
-            send(EVENT_ON_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL, 0, 0, new Result(slotId,
-                    token, status, 0, null));
+            send(EVENT_ON_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL, 0, 0,
+                    Result.obtain(slotId, token, status, 0, null));
         }
 
         @Override
         public void onDdsSwitchCapabilityChange(int slotId, Token token, Status status,
                 boolean support) throws RemoteException {
-            send(EVENT_ON_DDS_SWITCH_CAPABILITY_CHANGE, 0, 0, new Result(slotId, token, status, 0,
-                    support));
+            send(EVENT_ON_DDS_SWITCH_CAPABILITY_CHANGE, 0, 0,
+                    Result.obtain(slotId, token, status, 0, support));
         }
 
         @Override
         public void onDdsSwitchCriteriaChange(int slotId, boolean telephonyDdsSwitch)
                 throws RemoteException {
             send(EVENT_ON_DDS_SWITCH_CRITERIA_CHANGE, 0, 0,
-                    new Result(slotId , null, null, -1, telephonyDdsSwitch));
+                    Result.obtain(slotId, null, null, -1, telephonyDdsSwitch));
         }
 
         @Override
         public void onDdsSwitchRecommendation(int slotId, int recommendedSlotId)
                 throws RemoteException {
             send(EVENT_ON_DDS_SWITCH_RECOMMENDATION, 0, 0,
-                    new Result(slotId , null, null, -1, recommendedSlotId));
+                    Result.obtain(slotId, null, null, -1, recommendedSlotId));
         }
 
         @Override
         public void onDataDeactivateDelayTime(int slotId, long delayTimeMilliSecs)
                 throws RemoteException {
             send(EVENT_ON_DATA_DEACTIVATE_DELAY_TIME, 0, 0,
-                    new Result(slotId , null, null, -1, delayTimeMilliSecs));
+                    Result.obtain(slotId, null, null, -1, delayTimeMilliSecs));
         }
 
         @Override
         public void onEpdgOverCellularDataSupported(int slotId, boolean support)
                 throws RemoteException {
             send(EVENT_ON_EPDG_OVER_CELLULAR_DATA_SUPPORTED, 0, 0,
-                    new Result(slotId , null, null, -1, support));
+                    Result.obtain(slotId, null, null, -1, support));
         }
 
         @Override
         public void getSecureModeStatusResponse(Token token, Status status, boolean enableStatus)
                 throws RemoteException {
-            send(EVENT_GET_SECURE_MODE_STATUS_RESPONSE, 0, 0, new Result(0, token, status, 0,
+            send(EVENT_GET_SECURE_MODE_STATUS_RESPONSE, 0, 0, Result.obtain(0, token, status, 0,
                     enableStatus));
         }
 
         @Override
         public void onSecureModeStatusChange(boolean enabled) throws RemoteException {
-            send(EVENT_ON_SECURE_MODE_STATUS_CHANGE, 0, 0, new Result(-1, null, null, -1, enabled));
+            send(EVENT_ON_SECURE_MODE_STATUS_CHANGE, 0, 0,
+                    Result.obtain(-1, null, null, -1, enabled));
         }
 
         @Override
         public void startNetworkScanResponse(int slotId, Token token, int errorCode) throws
                 RemoteException {
-            send(EVENT_START_NETWORK_SCAN_RESPONSE, 0, 0, new Result(slotId, token, null, errorCode,
-                    null));
+            send(EVENT_START_NETWORK_SCAN_RESPONSE, 0, 0,
+                    Result.obtain(slotId, token, null, errorCode, null));
         }
 
         @Override
         public void stopNetworkScanResponse(int slotId, Token token, int errorCode) throws
                 RemoteException {
-            send(EVENT_STOP_NETWORK_SCAN_RESPONSE, 0, 0, new Result(slotId, token, null, errorCode,
-                    null));
+            send(EVENT_STOP_NETWORK_SCAN_RESPONSE, 0, 0,
+                    Result.obtain(slotId, token, null, errorCode, null));
         }
 
         @Override
         public void setNetworkSelectionModeManualResponse(int slotId, Token token, int errorCode)
                 throws RemoteException {
-            send(EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE, 0, 0, new Result(slotId, token,
-                    null, errorCode, null));
+            send(EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE, 0, 0,
+                    Result.obtain(slotId, token, null, errorCode, null));
         }
 
         @Override
         public void setNetworkSelectionModeAutomaticResponse(int slotId, Token token, int errorCode)
                 throws RemoteException {
-            send(EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE, 0, 0, new Result(slotId,
+            send(EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE, 0, 0, Result.obtain(slotId,
                     token, null, errorCode, null));
         }
 
         @Override
         public void getNetworkSelectionModeResponse(int slotId, Token token, Status status,
                 NetworkSelectionMode modes) throws RemoteException {
-            send(EVENT_GET_NETWORK_SELECTION_MODE_RESPONSE, 0, 0, new Result(slotId, token,
+            send(EVENT_GET_NETWORK_SELECTION_MODE_RESPONSE, 0, 0, Result.obtain(slotId, token,
                     status, 0, modes));
         }
 
         @Override
         public void networkScanResult(int slotId, Token token, int status, int error,
                 List<CellInfo> cellInfos) throws RemoteException {
-            send(EVENT_NETWORK_SCAN_RESULT, 0, 0, new Result(slotId, token, new Status(status),
+            send(EVENT_NETWORK_SCAN_RESULT, 0, 0, Result.obtain(slotId, token, new Status(status),
                     error, cellInfos));
         }
 
         @Override
         public void setMsimPreferenceResponse(Token token, Status status) throws RemoteException {
-            send(EVENT_SET_MSIM_PREFERENCE_RESPONSE, 0, 0, new Result(0, token, status, 0, null));
+            send(EVENT_SET_MSIM_PREFERENCE_RESPONSE, 0, 0,
+                    Result.obtain(0, token, status, 0, null));
         }
 
         @Override
         public void onQosParametersChanged(int slotId, int cid, QosParametersResult result)
                 throws RemoteException {
             send(EVENT_ON_QOS_PARAMETERS_CHANGED, 0, 0,
-                    new Result(slotId, null, null, cid, result));
+                    Result.obtain(slotId, null, null, cid, result));
         }
 
         @Override
         public void setSimTypeResponse(Token token, Status status) throws RemoteException {
-            send(EVENT_SET_SIM_TYPE_RESPONSE, 0, 0, new Result(0, token, status, 0, null));
+            send(EVENT_SET_SIM_TYPE_RESPONSE, 0, 0, Result.obtain(0, token, status, 0, null));
         }
 
         @Override
         public void onSimTypeChanged(QtiSimType[] simtype) throws RemoteException {
-            send(EVENT_ON_SIM_TYPE_CHANGED, 0, 0, new Result(-1, null, null, -1, simtype));
+            send(EVENT_ON_SIM_TYPE_CHANGED, 0, 0, Result.obtain(-1, null, null, -1, simtype));
         }
 
         @Override
         public void onDualDataCapabilityChanged(Token token, Status status, boolean support)
                 throws RemoteException {
             send(EVENT_ON_DUAL_DATA_CAPABILITY_CHANGED, 0, 0,
-                    new Result(-1, token, status, -1, support));
+                    Result.obtain(-1, token, status, -1, support));
         }
 
         @Override
         public void setDualDataUserPreferenceResponse(Token token, Status status)
                 throws RemoteException {
             send(EVENT_SET_DUAL_DATA_USER_PREFERENCE_RESPONSE, 0, 0,
-                    new Result(-1, token, status, -1, null));
+                    Result.obtain(-1, token, status, -1, null));
         }
 
         @Override
         public void onDualDataRecommendation(DualDataRecommendation rec)
                 throws RemoteException {
             send(EVENT_ON_DUAL_DATA_RECOMMENDATION, 0, 0,
-                    new Result(-1, null, null, -1, rec));
+                    Result.obtain(-1, null, null, -1, rec));
         }
 
         @Override
         public void onSimPersoUnlockStatusChange(int slotId, QtiPersoUnlockStatus persoUnlockStatus)
                 throws RemoteException {
             send(EVENT_ON_SIM_PERSO_UNLOCK_STATUS_CHANGE, 0, 0,
-                    new Result(slotId, null, null, -1, persoUnlockStatus));
+                    Result.obtain(slotId, null, null, -1, persoUnlockStatus));
         }
 
         @Override
         public void onDdsSwitchConfigCapabilityChanged(Token token, Status status,
                 boolean isCapable) throws RemoteException {
             send(EVENT_ON_DDS_SWITCH_CONFIG_CAPABILITY_CHANGED, UNUSED_ARGUMENT, UNUSED_ARGUMENT,
-                    new Result(UNUSED_SLOT_ID, token, status, SUCCESS, isCapable));
+                    Result.obtain(UNUSED_SLOT_ID, token, status, SUCCESS, isCapable));
         }
 
         @Override
         public void onDdsSwitchConfigCriteriaChanged(boolean telephonyDdsSwitch)
                 throws RemoteException {
             send(EVENT_ON_DDS_SWITCH_CONFIG_CRITERIA_CHANGED, UNUSED_ARGUMENT, UNUSED_ARGUMENT,
-                    new Result(UNUSED_SLOT_ID, null, null, SUCCESS, telephonyDdsSwitch));
+                    Result.obtain(UNUSED_SLOT_ID, null, null, SUCCESS, telephonyDdsSwitch));
         }
 
         @Override
         public void onDdsSwitchConfigRecommendation(int recommendedSlotId)
                 throws RemoteException {
             send(EVENT_ON_DDS_SWITCH_CONFIG_RECOMMENDATION, UNUSED_ARGUMENT, UNUSED_ARGUMENT,
-                    new Result(UNUSED_SLOT_ID , null, null, SUCCESS, recommendedSlotId));
+                    Result.obtain(UNUSED_SLOT_ID, null, null, SUCCESS, recommendedSlotId));
         }
 
         @Override
@@ -1316,54 +1156,84 @@ public class ExtPhoneCallbackListener {
                 Status status) throws RemoteException {
             send(EVENT_ON_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_CALL,
                     UNUSED_ARGUMENT, UNUSED_ARGUMENT,
-                    new Result(UNUSED_SLOT_ID, token, status, SUCCESS, null));
+                    Result.obtain(UNUSED_SLOT_ID, token, status, SUCCESS, null));
         }
 
         @Override
         public void onCiwlanAvailable(int slotId, boolean ciwlanAvailable)
                 throws RemoteException {
             send(EVENT_ON_CIWLAN_AVAILABLE, 0, 0,
-                    new Result(slotId , null, null, -1, ciwlanAvailable));
+                    Result.obtain(slotId, null, null, -1, ciwlanAvailable));
         }
 
         @Override
         public void onCiwlanConfigChange(int slotId, CiwlanConfig ciwlanConfig)
                 throws RemoteException {
             send(EVENT_ON_CIWLAN_CONFIG_CHANGE, 0, 0,
-                    new Result(slotId , null, null, -1, ciwlanConfig));
+                    Result.obtain(slotId, null, null, -1, ciwlanConfig));
         }
 
         @Override
         public void setCiwlanModeUserPreferenceResponse(int slotId, Token token, Status status)
                 throws RemoteException {
             send(EVENT_SET_CIWLAN_MODE_USER_PREFERENCE_RESPONSE, 0, 0,
-                    new Result(slotId , token, status, -1, null));
+                    Result.obtain(slotId, token, status, -1, null));
         }
 
         @Override
         public void setCellularRoamingPreferenceResponse(int slotId, Token token, Status status)
                 throws RemoteException {
             send(EVENT_SET_CELLULAR_ROAMING_PREFERENCE_RESPONSE, 0, 0,
-                    new Result(slotId, token, status, -1, null));
+                    Result.obtain(slotId, token, status, -1, null));
         }
 
         @Override
         public void onNrIconChange(int slotId, NrIcon icon) throws RemoteException {
-            send(EVENT_ON_NR_ICON_CHANGE, 0, 0, new Result(slotId, null, null, -1, icon));
+            send(EVENT_ON_NR_ICON_CHANGE, 0, 0, Result.obtain(slotId, null, null, -1, icon));
         }
 
         @Override
         public void onNrIconResponse(int slotId, Token token, Status status, NrIcon icon)
                 throws RemoteException {
-            send(EVENT_QUERY_NR_ICON_RESPONSE, 0, 0, new Result(slotId, token, status, -1, icon));
+            send(EVENT_QUERY_NR_ICON_RESPONSE, 0, 0,
+                    Result.obtain(slotId, token, status, -1, icon));
+        }
+
+        @Override
+        public void onNrSnapshotResponse(int slotId, Token token, Status status,
+                NrSnapshot snapshot) throws RemoteException {
+            send(EVENT_QUERY_NR_SNAPSHOT_RESPONSE, 0, 0,
+                    Result.obtain(slotId, token, status, -1, snapshot));
         }
 
-        class Result {
+        /**
+         * Carries one callback from the binder thread to the Handler. Instances are pooled
+         * and recycled once dispatched; primitive payloads are kept in the typed slots so
+         * they are not boxed into mData.
+         */
+        static class Result {
+            private static final int MAX_POOL_SIZE = 32;
+
+            static final int DATA_OBJECT = 0;
+            static final int DATA_BOOLEAN = 1;
+            static final int DATA_INT = 2;
+            static final int DATA_LONG = 3;
+
+            private static final Object sPoolSync = new Object();
+            private static Result sPool;
+            private static int sPoolSize = 0;
+
             int mSlotId;
             Token mToken;
             Status mStatus;
             int mError;
             Object mData;
+            boolean mBooleanData;
+            int mIntData;
+            long mLongData;
+            int mDataType = DATA_OBJECT;
+            private Result mNext;
+            private boolean mInUse;
 
             public Result(int mSlotId, Token mToken, Status mStatus, int mError, Object mData) {
                 this.mSlotId = mSlotId;
@@ -1373,10 +1243,115 @@ public class ExtPhoneCallbackListener {
                 this.mData = mData;
             }
 
+            static Result obtain(int slotId, Token token, Status status, int error,
+                    Object data) {
+                Result result = obtain(slotId, token, status, error);
+                result.mData = data;
+                return result;
+            }
+
+            static Result obtain(int slotId, Token token, Status status, int error,
+                    boolean data) {
+                Result result = obtain(slotId, token, status, error);
+                result.mBooleanData = data;
+                result.mDataType = DATA_BOOLEAN;
+                return result;
+            }
+
+            static Result obtain(int slotId, Token token, Status status, int error, int data) {
+                Result result = obtain(slotId, token, status, error);
+                result.mIntData = data;
+                result.mDataType = DATA_INT;
+                return result;
+            }
+
+            static Result obtain(int slotId, Token token, Status status, int error, long data) {
+                Result result = obtain(slotId, token, status, error);
+                result.mLongData = data;
+                result.mDataType = DATA_LONG;
+                return result;
+            }
+
+            private static Result obtain(int slotId, Token token, Status status, int error) {
+                Result result = null;
+                synchronized (sPoolSync) {
+                    if (sPool != null) {
+                        result = sPool;
+                        sPool = result.mNext;
+                        result.mNext = null;
+                        sPoolSize--;
+                    }
+                }
+                if (result == null) {
+                    result = new Result(slotId, token, status, error, null);
+                } else {
+                    result.mSlotId = slotId;
+                    result.mToken = token;
+                    result.mStatus = status;
+                    result.mError = error;
+                }
+                result.mInUse = true;
+                return result;
+            }
+
+            /**
+             * @return a pooled copy of this instance, for delivery to another listener.
+             */
+            Result copy() {
+                Result result = obtain(mSlotId, mToken, mStatus, mError);
+                result.mData = mData;
+                result.mBooleanData = mBooleanData;
+                result.mIntData = mIntData;
+                result.mLongData = mLongData;
+                result.mDataType = mDataType;
+                return result;
+            }
+
+            /**
+             * Return this instance to the pool. It must not be used afterwards.
+             */
+            void recycle() {
+                if (!mInUse) {
+                    // Not obtained from the pool, or already recycled.
+                    return;
+                }
+                mInUse = false;
+                mToken = null;
+                mStatus = null;
+                mData = null;
+                mBooleanData = false;
+                mIntData = 0;
+                mLongData = 0;
+                mDataType = DATA_OBJECT;
+                synchronized (sPoolSync) {
+                    if (sPoolSize < MAX_POOL_SIZE) {
+                        mNext = sPool;
+                        sPool = this;
+                        sPoolSize++;
+                    }
+                }
+            }
+
+            /**
+             * @return the payload, boxing it if it is held in one of the primitive slots.
+             */
+            Object getData() {
+                switch (mDataType) {
+                    case DATA_BOOLEAN:
+                        return mBooleanData;
+                    case DATA_INT:
+                        return mIntData;
+                    case DATA_LONG:
+                        return mLongData;
+                    default:
+                        return mData;
+                }
+            }
+
             @Override
             public String toString() {
                 return "Result{" + "mSlotId=" + mSlotId + ", mToken=" + mToken + ", mStatus=" +
-                        mStatus + ", mError=" + mError + ", mData=" + mData + "}";
+                        mStatus + ", mError=" + mError + ", mData=" + getData() + "}";
             }
         }
     }
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.RemoteException;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Call counts, errors and latencies of the requests of an ExtTelephonyManager, see
+ * {@link ExtTelephonyManager#setMetricsEnabled}.
+ *
+ * Calls and not connected rejections are counted per ExtTelephonyManager API. Binder
+ * latencies and RemoteExceptions are recorded for the Token based requests, around the
+ * binder call sending them. Request to response latencies of these requests are recorded per
+ * response event, from the time the request was sent to the time its response reached the
+ * callback. Latencies are kept in log-linear
+ * histograms with a relative precision of 1/16, in microseconds.
+ */
+public final class ExtPhoneMetrics {
+    private static final long NANOS_PER_MICRO = 1000;
+
+    // Indexed by API id, and by response event. Created on first use.
+    private final String[] mApiNames;
+    private final AtomicReferenceArray<ApiRecorder> mApis;
+    private final AtomicReferenceArray<ResponseRecorder> mResponses =
+            new AtomicReferenceArray<>(ExtPhoneCallbackListener.EVENT_COUNT);
+
+    private static final class ApiRecorder {
+        final AtomicLong mCalls = new AtomicLong();
+        final AtomicLong mNotConnected = new AtomicLong();
+        final AtomicLong mRemoteExceptions = new AtomicLong();
+        final Recorder mLatency = new Recorder();
+    }
+
+    private static final class ResponseRecorder {
+        final AtomicLong mTimeouts = new AtomicLong();
+        final Recorder mLatency = new Recorder();
+    }
+
+    /**
+     * Log-linear histogram: values below 2 * SUB_BUCKETS have a bucket each, above that
+     * every power of two is split into SUB_BUCKETS buckets.
+     */
+    private static final class Recorder {
+        static final int SUB_BUCKET_BITS = 4;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // Values are capped at 2^40 us, about 12 days.
+        static final int MAX_EXPONENT = 40 - SUB_BUCKET_BITS;
+        static final int BUCKETS = (MAX_EXPONENT + 2) * SUB_BUCKETS;
+        static final long MAX_VALUE = (1L << 40) - 1;
+
+        final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        final AtomicLong mSum = new AtomicLong();
+        final AtomicLong mMax = new AtomicLong();
+
+        static int bucketOf(long value) {
+            int exponent = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+            return exponent * SUB_BUCKETS + (int) (value >>> exponent);
+        }
+
+        static long highestValueIn(int bucket) {
+            if (bucket < 2 * SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS - 1;
+            return ((long) (bucket - exponent * SUB_BUCKETS + 1) << exponent) - 1;
+        }
+
+        void record(long micros) {
+            long value = Math.max(0, Math.min(micros, MAX_VALUE));
+            mCounts.incrementAndGet(bucketOf(value));
+            mSum.addAndGet(value);
+            long max;
+            while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+                // Retry.
+            }
+        }
+
+        Histogram snapshot() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = mCounts.get(i);
+                total += counts[i];
+            }
+            return new Histogram(counts, total, mSum.get(), mMax.get());
+        }
+    }
+
+    /**
+     * Snapshot of a latency histogram, values in microseconds.
+     */
+    public static final class Histogram {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        private Histogram(long[] counts, long count, long sum, long max) {
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return upper bound of the bucket holding the percentile, 0 if empty.
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * mCount);
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return Math.min(Recorder.highestValueIn(i), mMax);
+                }
+            }
+            return mMax;
+        }
+    }
+
+    /**
+     * Counters of an API, named after its ExtTelephonyManager method.
+     */
+    public static final class ApiStats {
+        private final String mName;
+        private final long mCalls;
+        private final long mNotConnected;
+        private final long mRemoteExceptions;
+        private final Histogram mLatency;
+
+        private ApiStats(String name, ApiRecorder recorder) {
+            mName = name;
+            mCalls = recorder.mCalls.get();
+            mNotConnected = recorder.mNotConnected.get();
+            mRemoteExceptions = recorder.mRemoteExceptions.get();
+            mLatency = recorder.mLatency.snapshot();
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return number of calls made while the service was connected.
+         */
+        public long getCallCount() {
+            return mCalls;
+        }
+
+        /**
+         * @return number of calls rejected because the service was not connected.
+         */
+        public long getNotConnectedCount() {
+            return mNotConnected;
+        }
+
+        public long getRemoteExceptionCount() {
+            return mRemoteExceptions;
+        }
+
+        /**
+         * @return latencies of the binder calls of a Token based request, empty otherwise.
+         */
+        public Histogram getBinderLatency() {
+            return mLatency;
+        }
+    }
+
+    /**
+     * Counters of the responses carried by an ExtPhoneCallbackListener event.
+     */
+    public static final class ResponseStats {
+        private final int mEvent;
+        private final long mTimeouts;
+        private final Histogram mLatency;
+
+        private ResponseStats(int event, ResponseRecorder recorder) {
+            mEvent = event;
+            mTimeouts = recorder.mTimeouts.get();
+            mLatency = recorder.mLatency.snapshot();
+        }
+
+        /**
+         * @return the ExtPhoneCallbackListener.EVENT_* carrying the responses.
+         */
+        public int getEvent() {
+            return mEvent;
+        }
+
+        public long getTimeoutCount() {
+            return mTimeouts;
+        }
+
+        public Histogram getResponseLatency() {
+            return mLatency;
+        }
+    }
+
+    /**
+     * Point in time copy of the metrics.
+     */
+    public static final class Snapshot {
+        private final List<ApiStats> mApis;
+        private final List<ResponseStats> mResponses;
+
+        private Snapshot(List<ApiStats> apis, List<ResponseStats> responses) {
+            mApis = Collections.unmodifiableList(apis);
+            mResponses = Collections.unmodifiableList(responses);
+        }
+
+        /**
+         * @return the stats of the called methods, sorted by name.
+         */
+        public List<ApiStats> getApis() {
+            return mApis;
+        }
+
+        /**
+         * @return the stats of the answered requests, sorted by event.
+         */
+        public List<ResponseStats> getResponses() {
+            return mResponses;
+        }
+
+        public ApiStats getApi(String name) {
+            for (ApiStats stats : mApis) {
+                if (stats.mName.equals(name)) {
+                    return stats;
+                }
+            }
+            return null;
+        }
+
+        public ResponseStats getResponse(int event) {
+            for (ResponseStats stats : mResponses) {
+                if (stats.mEvent == event) {
+                    return stats;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param apiNames names of the APIs, indexed by the ids they are recorded with.
+     */
+    ExtPhoneMetrics(String[] apiNames) {
+        mApiNames = apiNames;
+        mApis = new AtomicReferenceArray<>(apiNames.length);
+    }
+
+    String getApiName(int api) {
+        return mApiNames[api];
+    }
+
+    /**
+     * @param connected whether the service was connected, i.e. whether the API is called.
+     */
+    void recordCall(int api, boolean connected) {
+        ApiRecorder recorder = getApi(api);
+        if (connected) {
+            recorder.mCalls.incrementAndGet();
+        } else {
+            recorder.mNotConnected.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return sender timing its binder calls and counting their RemoteExceptions as api.
+     */
+    InFlightRequests.Sender timed(int api, InFlightRequests.Sender sender) {
+        ApiRecorder recorder = getApi(api);
+        return client -> {
+            long start = System.nanoTime();
+            try {
+                return sender.send(client);
+            } catch (RemoteException e) {
+                recorder.mRemoteExceptions.incrementAndGet();
+                throw e;
+            } finally {
+                recorder.mLatency.record((System.nanoTime() - start) / NANOS_PER_MICRO);
+            }
+        };
+    }
+
+    void recordResponse(int event, long latencyNanos) {
+        ResponseRecorder recorder = getResponse(event);
+        if (recorder != null) {
+            recorder.mLatency.record(latencyNanos / NANOS_PER_MICRO);
+        }
+    }
+
+    void recordTimeout(int event) {
+        ResponseRecorder recorder = getResponse(event);
+        if (recorder != null) {
+            recorder.mTimeouts.incrementAndGet();
+        }
+    }
+
+    private ApiRecorder getApi(int api) {
+        ApiRecorder recorder = mApis.get(api);
+        if (recorder == null) {
+            mApis.compareAndSet(api, null, new ApiRecorder());
+            recorder = mApis.get(api);
+        }
+        return recorder;
+    }
+
+    /**
+     * @return the recorder of event, null if event is not an ExtPhoneCallbackListener.EVENT_*.
+     */
+    private ResponseRecorder getResponse(int event) {
+        if (event < 0 || event >= mResponses.length()) {
+            return null;
+        }
+        ResponseRecorder recorder = mResponses.get(event);
+        if (recorder == null) {
+            mResponses.compareAndSet(event, null, new ResponseRecorder());
+            recorder = mResponses.get(event);
+        }
+        return recorder;
+    }
+
+    /**
+     * Drop all the recorded metrics.
+     */
+    public void reset() {
+        for (int i = 0; i < mApis.length(); i++) {
+            mApis.set(i, null);
+        }
+        for (int i = 0; i < mResponses.length(); i++) {
+            mResponses.set(i, null);
+        }
+    }
+
+    public Snapshot snapshot() {
+        List<ApiStats> apis = new ArrayList<>();
+        for (int i = 0; i < mApis.length(); i++) {
+            ApiRecorder recorder = mApis.get(i);
+            if (recorder != null) {
+                apis.add(new ApiStats(mApiNames[i], recorder));
+            }
+        }
+        Collections.sort(apis, (a, b) -> a.mName.compareTo(b.mName));
+        List<ResponseStats> responses = new ArrayList<>();
+        for (int i = 0; i < mResponses.length(); i++) {
+            ResponseRecorder recorder = mResponses.get(i);
+            if (recorder != null) {
+                responses.add(new ResponseStats(i, recorder));
+            }
+        }
+        return new Snapshot(apis, responses);
+    }
+
+    /**
+     * Print the metrics in text form, latencies in microseconds.
+     */
+    public void dump(PrintWriter pw) {
+        Snapshot snapshot = snapshot();
+        pw.println("ExtPhoneMetrics:");
+        pw.println("  Calls (count, not connected, remote exceptions,"
+                + " binder p50/p90/p99/max us):");
+        for (ApiStats stats : snapshot.mApis) {
+            pw.println("    " + stats.mName + ": " + stats.mCalls + ", "
+                    + stats.mNotConnected + ", " + stats.mRemoteExceptions + ", "
+                    + format(stats.mLatency));
+        }
+        pw.println("  Responses (event, count, timeouts, p50/p90/p99/max us):");
+        for (ResponseStats stats : snapshot.mResponses) {
+            pw.println("    " + stats.mEvent + ": " + stats.mLatency.getCount() + ", "
+                    + stats.mTimeouts + ", " + format(stats.mLatency));
+        }
+        pw.flush();
+    }
+
+    private static String format(Histogram histogram) {
+        return histogram.getPercentile(50) + "/" + histogram.getPercentile(90) + "/"
+                + histogram.getPercentile(99) + "/" + histogram.getMax();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+/**
+ * Delivered through the futures returned by the asynchronous ExtTelephonyManager APIs when a
+ * request could not be sent or the modem answered it with a failure.
+ */
+public class ExtPhoneRequestException extends Exception {
+
+    public static final int NO_ERROR = 0;
+
+    private int mStatus = Status.FAILURE;
+    private int mErrorCode = NO_ERROR;
+
+    public ExtPhoneRequestException(String message) {
+        super(message);
+    }
+
+    public ExtPhoneRequestException(String message, Throwable cause) {
+        super(message, cause);
+        mStatus = Status.EXCEPTION;
+    }
+
+    public ExtPhoneRequestException(String message, int status, int errorCode) {
+        super(message + " (status=" + status + ", error=" + errorCode + ")");
+        mStatus = status;
+        mErrorCode = errorCode;
+    }
+
+    /**
+     * @return one of {@link Status#EXCEPTION}, {@link Status#FAILURE}, {@link Status#TIMEOUT}
+     */
+    public int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return the RIL error code reported by the response, {@link #NO_ERROR} if the response
+     *         carried a {@link Status} only.
+     */
+    public int getErrorCode() {
+        return mErrorCode;
+    }
+}
@@ -44,18 +44,31 @@ import android.content.ServiceConnection;
 import android.os.Message;
 import android.os.IBinder;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.telephony.ImsiEncryptionInfo;
 import android.telephony.NetworkScanRequest;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
 
 import com.qti.extphone.MsimPreference;
 
 import java.lang.Integer;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 /**
 * ExtTelephonyManager class provides ExtTelephonyService interface to
@@ -75,17 +88,182 @@ public class ExtTelephonyManager {
     public static final int FEATURE_CELLULAR_ROAMING                       = 4;
     public static final int FEATURE_CIWLAN_MODE_PREFERENCE                 = 5;
     public static final int FEATURE_NITZ_ENHANCEMENT                       = 6;
+    public static final int FEATURE_NR_SNAPSHOT                            = 7;
 
     private static ExtTelephonyManager mInstance;
 
     private Context mContext;
     private ExtTelephonyServiceConnection mConnection =
             new ExtTelephonyServiceConnection();
-    private IExtPhone mExtTelephonyService = null;
+    // Swapped by the main thread on (re)connection and read by the callers of every api.
+    private volatile IExtPhone mExtTelephonyService = null;
 
-    private List<ServiceCallback> mServiceCbs =
-            Collections.synchronizedList(new ArrayList<>());
-    private AtomicBoolean mServiceConnected = new AtomicBoolean();
+    // Copy on write, notified without holding a lock.
+    private final CopyOnWriteArrayList<ServiceCallback> mServiceCbs =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * State of the connection to the service. Transitions are made with compareAndSet, so
+     * that exactly one thread binds or unbinds:
+     * DISCONNECTED -> BINDING on connectService(),
+     * BINDING -> CONNECTED on onServiceConnected(),
+     * CONNECTED -> BINDING on onServiceDisconnected(), until the service restarts,
+     * CONNECTED or BINDING -> UNBINDING -> DISCONNECTED when the last client disconnects.
+     */
+    private static final int STATE_DISCONNECTED = 0;
+    private static final int STATE_BINDING = 1;
+    private static final int STATE_CONNECTED = 2;
+    private static final int STATE_UNBINDING = 3;
+    private final AtomicInteger mState = new AtomicInteger(STATE_DISCONNECTED);
+
+    private final Object mAsyncLock = new Object();
+    private final InFlightRequests mInFlightRequests = InFlightRequests.getInstance();
+    private AsyncResponseListener mAsyncListener;
+    private volatile Client mAsyncClient;
+    // Response events of the asynchronous APIs used since the client was registered.
+    private final boolean[] mAsyncEvents = new boolean[ExtPhoneCallbackListener.EVENT_COUNT];
+
+    private static final int PROPERTY_CACHE_SIZE = 64;
+    private final PropertyCache mPropertyCache = new PropertyCache(PROPERTY_CACHE_SIZE);
+
+    private volatile boolean mGetterCacheEnabled;
+    private volatile GetterCache mGetterCache;
+
+    private volatile boolean mMultiplexCallbacks;
+    private volatile CallbackMultiplexer mCallbackMultiplexer;
+
+    // Deadlines of the Token based requests, keyed by the event carrying the response.
+    private final SparseLongArray mRequestTimeouts = new SparseLongArray();
+    // No deadline unless the app opts in.
+    private long mDefaultRequestTimeout = 0;
+
+    private volatile boolean mDeduplicateQueries;
+
+    private volatile RequestScheduler mRequestScheduler;
+
+    // Ids of the APIs recorded by ExtPhoneMetrics, indexes of API_NAMES.
+    private static final int API_IS_FEATURE_SUPPORTED = 0;
+    private static final int API_GET_PROPERTY_VALUE_INT = 1;
+    private static final int API_GET_PROPERTY_VALUE_BOOL = 2;
+    private static final int API_GET_PROPERTY_VALUE_STRING = 3;
+    private static final int API_IS_PRIMARY_CARRIER_SLOT_ID = 4;
+    private static final int API_GET_CURRENT_PRIMARY_CARD_SLOT_ID = 5;
+    private static final int API_GET_PRIMARY_CARRIER_SLOT_ID = 6;
+    private static final int API_SET_PRIMARY_CARD_ON_SLOT = 7;
+    private static final int API_PERFORM_INCREMENTAL_SCAN = 8;
+    private static final int API_ABORT_INCREMENTAL_SCAN = 9;
+    private static final int API_IS_SMS_PROMPT_ENABLED = 10;
+    private static final int API_SET_SMS_PROMPT_ENABLED = 11;
+    private static final int API_SUPPLY_ICC_DEPERSONALIZATION = 12;
+    private static final int API_ENABLE_ENDC = 13;
+    private static final int API_QUERY_NR_ICON_TYPE = 14;
+    private static final int API_QUERY_ENDC_STATUS = 15;
+    private static final int API_SET_NR_CONFIG = 16;
+    private static final int API_SET_NETWORK_SELECTION_MODE_AUTOMATIC = 17;
+    private static final int API_GET_NETWORK_SELECTION_MODE = 18;
+    private static final int API_QUERY_NR_CONFIG = 19;
+    private static final int API_SEND_CDMA_SMS = 20;
+    private static final int API_START_NETWORK_SCAN = 21;
+    private static final int API_STOP_NETWORK_SCAN = 22;
+    private static final int API_SET_NETWORK_SELECTION_MODE_MANUAL = 23;
+    private static final int API_GET_QTI_RADIO_CAPABILITY = 24;
+    private static final int API_ENABLE_5G = 25;
+    private static final int API_DISABLE_5G = 26;
+    private static final int API_QUERY_NR_BEARER_ALLOCATION = 27;
+    private static final int API_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION = 28;
+    private static final int API_ENABLE_5G_ONLY = 29;
+    private static final int API_QUERY_5G_STATUS = 30;
+    private static final int API_QUERY_NR_DC_PARAM = 31;
+    private static final int API_QUERY_NR_SIGNAL_STRENGTH = 32;
+    private static final int API_QUERY_UPPER_LAYER_IND_INFO = 33;
+    private static final int API_QUERY_5G_CONFIG_INFO = 34;
+    private static final int API_GET_DDS_SWITCH_CAPABILITY = 35;
+    private static final int API_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL = 36;
+    private static final int API_GET_DDS_SWITCH_CONFIG_CAPABILITY = 37;
+    private static final int API_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_VOICE_CALL = 38;
+    private static final int API_IS_EPDG_OVER_CELLULAR_DATA_SUPPORTED = 39;
+    private static final int API_GET_QOS_PARAMETERS = 40;
+    private static final int API_GET_SECURE_MODE_STATUS = 41;
+    private static final int API_SET_MSIM_PREFERENCE = 42;
+    private static final int API_GET_SUPPORTED_SIM_TYPES = 43;
+    private static final int API_GET_CURRENT_SIM_TYPE = 44;
+    private static final int API_SET_SIM_TYPE = 45;
+    private static final int API_GET_CIWLAN_CONFIG = 46;
+    private static final int API_GET_DUAL_DATA_CAPABILITY = 47;
+    private static final int API_SET_DUAL_DATA_USER_PREFERENCE = 48;
+    private static final int API_IS_CIWLAN_AVAILABLE = 49;
+    private static final int API_SET_CIWLAN_MODE_USER_PREFERENCE = 50;
+    private static final int API_GET_CIWLAN_MODE_USER_PREFERENCE = 51;
+    private static final int API_GET_SIM_PERSO_UNLOCK_STATUS = 52;
+    private static final int API_GET_CELLULAR_ROAMING_PREFERENCE = 53;
+    private static final int API_SET_CELLULAR_ROAMING_PREFERENCE = 54;
+    private static final int API_QUERY_NR_ICON = 55;
+    private static final int API_QUERY_NR_SNAPSHOT = 56;
+    private static final int API_REGISTER_CALLBACK = 57;
+    private static final int API_REGISTER_CALLBACK_WITH_EVENTS = 58;
+    private static final int API_REGISTER_QTI_RADIO_CONFIG_CALLBACK = 59;
+    private static final int API_UNREGISTER_QTI_RADIO_CONFIG_CALLBACK = 60;
+    private static final String[] API_NAMES = {
+            "isFeatureSupported", "getPropertyValueInt", "getPropertyValueBool",
+            "getPropertyValueString", "isPrimaryCarrierSlotId", "getCurrentPrimaryCardSlotId",
+            "getPrimaryCarrierSlotId", "setPrimaryCardOnSlot", "performIncrementalScan",
+            "abortIncrementalScan", "isSMSPromptEnabled", "setSMSPromptEnabled",
+            "supplyIccDepersonalization", "enableEndc", "queryNrIconType", "queryEndcStatus",
+            "setNrConfig", "setNetworkSelectionModeAutomatic", "getNetworkSelectionMode",
+            "queryNrConfig", "sendCdmaSms", "startNetworkScan", "stopNetworkScan",
+            "setNetworkSelectionModeManual", "getQtiRadioCapability", "enable5g", "disable5g",
+            "queryNrBearerAllocation", "setCarrierInfoForImsiEncryption", "enable5gOnly",
+            "query5gStatus", "queryNrDcParam", "queryNrSignalStrength", "queryUpperLayerIndInfo",
+            "query5gConfigInfo", "getDdsSwitchCapability",
+            "sendUserPreferenceForDataDuringVoiceCall", "getDdsSwitchConfigCapability",
+            "sendUserPreferenceConfigForDataDuringVoiceCall", "isEpdgOverCellularDataSupported",
+            "getQosParameters", "getSecureModeStatus", "setMsimPreference", "getSupportedSimTypes",
+            "getCurrentSimType", "setSimType", "getCiwlanConfig", "getDualDataCapability",
+            "setDualDataUserPreference", "isCiwlanAvailable", "setCiwlanModeUserPreference",
+            "getCiwlanModeUserPreference", "getSimPersoUnlockStatus",
+            "getCellularRoamingPreference", "setCellularRoamingPreference", "queryNrIcon",
+            "queryNrSnapshot", "registerCallback", "registerCallbackWithEvents",
+            "registerQtiRadioConfigCallback", "unregisterQtiRadioConfigCallback",
+    };
+
+    private final ExtPhoneMetrics mMetrics = new ExtPhoneMetrics(API_NAMES);
+    private volatile boolean mMetricsEnabled;
+
+    private static final long RECONNECT_BASE_DELAY_MILLIS = 250;
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 30000;
+
+    private volatile boolean mAutoReconnect;
+    private volatile boolean mReplayRequests;
+    private final Handler mReconnectHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mReconnecting;
+    // Only accessed on the main thread.
+    private int mReconnectAttempts;
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            reconnect();
+        }
+    };
+
+    // Listeners registered through registerCallbackWithEvents(), registered again after
+    // a reconnection.
+    private final Map<ExtPhoneCallbackListener, Registration> mRegistrations = new HashMap<>();
+
+    // Futures waiting for the connection to the service.
+    private final List<CompletableFuture<ExtTelephonyManager>> mConnectWaiters =
+            new ArrayList<>();
+
+    private static final class Registration {
+        final String mPackageName;
+        final int[] mEvents;
+        final Client mClient;
+
+        Registration(String packageName, int[] events, Client client) {
+            mPackageName = packageName;
+            mEvents = events;
+            mClient = client;
+        }
+    }
 
     /**
      * This represents the state of the SIM before SIM_STATE_LOADED, when only the
@@ -133,7 +311,6 @@ public class ExtTelephonyManager {
             throw new IllegalArgumentException("Context is null");
         }
         this.mContext = context;
-        mServiceConnected.set(false);
         log("ExtTelephonyManager() ...");
     }
 
@@ -159,12 +336,60 @@ public class ExtTelephonyManager {
     * @return boolean true if service is connected, false oterwise
     */
     public boolean isServiceConnected() {
-        return mServiceConnected.get();
+        // The service is published right after the state moves to CONNECTED.
+        return mState.get() == STATE_CONNECTED && mExtTelephonyService != null;
+    }
+
+    /**
+     * Same as isServiceConnected(), counting the call of api, or its rejection when not
+     * connected.
+     * @param api one of API_*
+     */
+    private boolean isServiceConnected(int api) {
+        boolean connected = isServiceConnected();
+        if (mMetricsEnabled) {
+            mMetrics.recordCall(api, connected);
+        }
+        return connected;
+    }
+
+    /**
+    * Record the call counts, errors and latencies of the requests to the service, see
+    * getMetrics().
+    * @param - enabled true to record the metrics
+    */
+    public void setMetricsEnabled(boolean enabled) {
+        mMetricsEnabled = enabled;
+    }
+
+    /**
+    * @return - the metrics recorded while enabled by setMetricsEnabled(), use
+    *           ExtPhoneMetrics.snapshot() or ExtPhoneMetrics.dump() to read them
+    */
+    public ExtPhoneMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * @return the metrics to record to, null if disabled.
+     */
+    ExtPhoneMetrics getActiveMetrics() {
+        return mMetricsEnabled ? mMetrics : null;
+    }
+
+    /**
+     * @return true if the service can still be called to release resources, including
+     *         while the connection is being torn down.
+     */
+    private boolean isServiceBound() {
+        int state = mState.get();
+        return state == STATE_CONNECTED ||
+                (state == STATE_UNBINDING && mExtTelephonyService != null);
     }
 
     public boolean isFeatureSupported(int feature) {
         boolean ret = false;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_IS_FEATURE_SUPPORTED)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
@@ -189,28 +414,138 @@ public class ExtTelephonyManager {
     *                 to listen to the Result.
     */
     public boolean connectService(ServiceCallback cb) {
-        boolean success = true;
-        if (!isServiceConnected() && mServiceCbs.isEmpty()) {
-            log("Creating ExtTelephonyService. If not started yet, start ...");
-            addServiceCallback(cb);
-            Intent intent = new Intent();
-            intent.setComponent(new ComponentName("com.qti.phone",
-                    "com.qti.phone.ExtTelephonyService"));
-            success = mContext.bindService(intent, mConnection,
-                    Context.BIND_AUTO_CREATE);
-            log("bind Service result: " + success);
-        } else {
-            addServiceCallback(cb);
-            if (isServiceConnected() && cb != null) {
-                cb.onConnected();
+        addServiceCallback(cb);
+        if (mState.compareAndSet(STATE_DISCONNECTED, STATE_BINDING)) {
+            if (!bind()) {
+                if (cb != null) {
+                    mServiceCbs.remove(cb);
+                }
+                return false;
             }
+        } else if (isServiceConnected() && cb != null) {
+            cb.onConnected();
+        }
+        return true;
+    }
+
+    /**
+     * Called by the thread which moved the state to BINDING.
+     */
+    private boolean bind() {
+        log("Creating ExtTelephonyService. If not started yet, start ...");
+        boolean success = mContext.bindService(getServiceIntent(), mConnection,
+                Context.BIND_AUTO_CREATE);
+        log("bind Service result: " + success);
+        if (!success) {
+            unbind();
+            mState.compareAndSet(STATE_BINDING, STATE_DISCONNECTED);
         }
         return success;
     }
 
+    /**
+    * Initiate connection with the service, like connectService(), and return a future
+    * which completes with this manager once the service is connected. Completes right
+    * away if it already is.
+    *
+    * @param serviceCallback {@link ServiceCallback} to receive
+    *                        service-level callbacks, may be null.
+    *
+    * @return future completed exceptionally with ExtPhoneRequestException if the bind
+    *         fails or disconnectService() is called first.
+    */
+    public CompletableFuture<ExtTelephonyManager> connectAsync(ServiceCallback cb) {
+        CompletableFuture<ExtTelephonyManager> future = new CompletableFuture<>();
+        synchronized (mConnectWaiters) {
+            mConnectWaiters.add(future);
+        }
+        if (!connectService(cb)) {
+            synchronized (mConnectWaiters) {
+                mConnectWaiters.remove(future);
+            }
+            future.completeExceptionally(new ExtPhoneRequestException(
+                    "bind Service failed"));
+        } else if (isServiceConnected()) {
+            completeConnectWaiters();
+        }
+        return future;
+    }
+
+    /**
+    * connectAsync() without ServiceCallback, the connection is released with
+    * disconnectService().
+    */
+    public CompletableFuture<ExtTelephonyManager> connectAsync() {
+        return connectAsync(null);
+    }
+
+    /**
+    * Block until the connection initiated by connectService() or connectAsync() is
+    * established. Must not be called on the main thread, which delivers the connection.
+    *
+    * @param timeoutMillis maximum time to wait in milliseconds.
+    *
+    * @return true if the service is connected, false on timeout.
+    */
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        if (isServiceConnected()) {
+            return true;
+        }
+        if (Looper.getMainLooper().isCurrentThread()) {
+            throw new IllegalStateException("awaitConnected called on the main thread");
+        }
+        CompletableFuture<ExtTelephonyManager> future = new CompletableFuture<>();
+        synchronized (mConnectWaiters) {
+            mConnectWaiters.add(future);
+        }
+        try {
+            // Connected before the future was added.
+            if (isServiceConnected()) {
+                return true;
+            }
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return isServiceConnected();
+        } finally {
+            synchronized (mConnectWaiters) {
+                mConnectWaiters.remove(future);
+            }
+        }
+    }
+
+    private void completeConnectWaiters() {
+        ArrayList<CompletableFuture<ExtTelephonyManager>> waiters;
+        synchronized (mConnectWaiters) {
+            waiters = new ArrayList<>(mConnectWaiters);
+            mConnectWaiters.clear();
+        }
+        for (CompletableFuture<ExtTelephonyManager> future : waiters) {
+            future.complete(this);
+        }
+    }
+
+    private void failConnectWaiters(String reason) {
+        ArrayList<CompletableFuture<ExtTelephonyManager>> waiters;
+        synchronized (mConnectWaiters) {
+            waiters = new ArrayList<>(mConnectWaiters);
+            mConnectWaiters.clear();
+        }
+        for (CompletableFuture<ExtTelephonyManager> future : waiters) {
+            future.completeExceptionally(new ExtPhoneRequestException(reason));
+        }
+    }
+
+    private static Intent getServiceIntent() {
+        Intent intent = new Intent();
+        intent.setComponent(new ComponentName("com.qti.phone",
+                "com.qti.phone.ExtTelephonyService"));
+        return intent;
+    }
+
     private void addServiceCallback(ServiceCallback cb) {
-        if (cb != null && !mServiceCbs.contains(cb)) {
-             mServiceCbs.add(cb);
+        if (cb != null) {
+            mServiceCbs.addIfAbsent(cb);
         }
     }
 
@@ -236,14 +571,115 @@ public class ExtTelephonyManager {
             if (!isServiceConnected()) {
                 cb.onDisconnected();
             }
-            if (mServiceCbs.contains(cb)) {
-                mServiceCbs.remove(cb);
+            mServiceCbs.remove(cb);
+        }
+        if (!mServiceCbs.isEmpty()) {
+            return;
+        }
+        if (mState.compareAndSet(STATE_CONNECTED, STATE_UNBINDING)) {
+            cancelReconnect();
+            releaseAsyncClient();
+            mInFlightRequests.failAll(this);
+            synchronized (mRegistrations) {
+                mRegistrations.clear();
+            }
+            stopGetterCache();
+            if (mCallbackMultiplexer != null) {
+                mCallbackMultiplexer.reset();
+            }
+            mPropertyCache.invalidateAll();
+            unbind();
+            mExtTelephonyService = null;
+            log("Set ServiceConnected to false");
+            onUnbound();
+        } else if (mState.compareAndSet(STATE_BINDING, STATE_UNBINDING)) {
+            // Give up the pending bind or reconnection.
+            cancelReconnect();
+            mInFlightRequests.failAll(this);
+            synchronized (mRegistrations) {
+                mRegistrations.clear();
             }
+            unbind();
+            mExtTelephonyService = null;
+            onUnbound();
+        }
+    }
+
+    private void onUnbound() {
+        mState.set(STATE_DISCONNECTED);
+        failConnectWaiters("disconnectService called before the service connected");
+        // A client connected while the connection was torn down.
+        if (!mServiceCbs.isEmpty() && mState.compareAndSet(STATE_DISCONNECTED, STATE_BINDING)) {
+            bind();
+        }
+    }
+
+    /**
+    * Reconnect to the service by itself when the connection is lost, e.g. when the phone
+    * process crashed, until it succeeds or disconnectService() is called. Attempts are
+    * spaced by an exponential backoff with jitter. On reconnection the listeners
+    * registered with registerCallbackWithEvents() are registered again with their events,
+    * and the Clients returned for them stay valid.
+    * @param - enabled true to reconnect automatically
+    */
+    public void setAutoReconnectEnabled(boolean enabled) {
+        mAutoReconnect = enabled;
+        if (!enabled) {
+            cancelReconnect();
+        }
+    }
+
+    /**
+    * Send the idempotent queries (query*, get*) whose response was pending when the
+    * connection was lost again once it is restored, instead of failing them with
+    * Status.EXCEPTION. Their responses are delivered with the original Tokens.
+    * Only effective with setAutoReconnectEnabled(true), and only for requests sent with
+    * the Client of an ExtPhoneCallbackListener. Asynchronous APIs fail regardless.
+    * @param - enabled true to replay the queries
+    */
+    public void setRequestReplayEnabled(boolean enabled) {
+        mReplayRequests = enabled;
+    }
+
+    private void scheduleReconnect() {
+        if (!mReconnecting) {
+            mReconnecting = true;
+            mReconnectAttempts = 0;
         }
-        if (isServiceConnected() && mServiceCbs.isEmpty()) {
+        long delay = Math.min(RECONNECT_MAX_DELAY_MILLIS,
+                RECONNECT_BASE_DELAY_MILLIS << Math.min(mReconnectAttempts, 16));
+        // Equal jitter: keep half the backoff and randomize the other half, so that the
+        // clients of a crashed service do not all rebind at the same time.
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        mReconnectAttempts++;
+        log("Reconnecting in " + delay + " ms, attempt " + mReconnectAttempts);
+        mReconnectHandler.removeCallbacks(mReconnectRunnable);
+        mReconnectHandler.postDelayed(mReconnectRunnable, delay);
+    }
+
+    private void cancelReconnect() {
+        mReconnecting = false;
+        mReconnectHandler.removeCallbacks(mReconnectRunnable);
+    }
+
+    private void reconnect() {
+        if (mState.get() != STATE_BINDING || mServiceCbs.isEmpty() || !mAutoReconnect) {
+            return;
+        }
+        // The binding may be dead or still waiting for the service to restart; replace it.
+        unbind();
+        boolean success = mContext.bindService(getServiceIntent(), mConnection,
+                Context.BIND_AUTO_CREATE);
+        log("rebind Service result: " + success);
+        // Retried unless onServiceConnected() comes first.
+        scheduleReconnect();
+    }
+
+    private void unbind() {
+        try {
             mContext.unbindService(mConnection);
-            log("Set ServiceConnected to false");
-            mServiceConnected.set(false);
+        } catch (IllegalArgumentException e) {
+            // Not bound.
         }
     }
 
@@ -266,22 +702,377 @@ public class ExtTelephonyManager {
     private class ExtTelephonyServiceConnection implements ServiceConnection {
 
         public void onServiceConnected(ComponentName name, IBinder boundService) {
-            mExtTelephonyService = IExtPhone.Stub.asInterface((IBinder) boundService);
-            if (mExtTelephonyService == null) {
+            IExtPhone service = IExtPhone.Stub.asInterface((IBinder) boundService);
+            if (service == null) {
                 log("ExtTelephonyService Connect Failed (onServiceConnected)... ");
-            } else {
-                log("ExtTelephonyService connected ... ");
+                onConnectFailed();
+                return;
+            }
+            if (!mState.compareAndSet(STATE_BINDING, STATE_CONNECTED)) {
+                // Raced with disconnectService(), do not publish a service it let go.
+                return;
+            }
+            mExtTelephonyService = service;
+            log("ExtTelephonyService connected ... ");
+            cancelReconnect();
+            if (mAutoReconnect) {
+                restoreRegistrations();
+                mInFlightRequests.resumeAll(ExtTelephonyManager.this);
             }
-            mServiceConnected.set(true);
+            if (mGetterCacheEnabled) {
+                startGetterCache();
+            }
+            completeConnectWaiters();
             notifyConnected();
         }
 
         public void onServiceDisconnected(ComponentName name) {
             log("The connection to the service got disconnected!");
+            if (!mState.compareAndSet(STATE_CONNECTED, STATE_BINDING)) {
+                // Torn down by disconnectService().
+                return;
+            }
             mExtTelephonyService = null;
-            mServiceConnected.set(false);
+            releaseAsyncClient();
+            mInFlightRequests.suspendAll(ExtTelephonyManager.this,
+                    mAutoReconnect && mReplayRequests);
+            if (mCallbackMultiplexer != null) {
+                mCallbackMultiplexer.reset();
+            }
+            mPropertyCache.invalidateAll();
+            mGetterCache = null;
+            if (mAutoReconnect && !mServiceCbs.isEmpty()) {
+                // The system restarts the service of a live binding by itself, the
+                // reconnection only kicks in if that takes too long.
+                scheduleReconnect();
+            }
             notifyDisconnected();
         }
+
+        public void onBindingDied(ComponentName name) {
+            log("The binding to the service died!");
+            if (mAutoReconnect && !mServiceCbs.isEmpty()) {
+                mReconnectHandler.removeCallbacks(mReconnectRunnable);
+                mReconnectHandler.post(mReconnectRunnable);
+            }
+        }
+    }
+
+    /**
+     * The bound service is not an IExtPhone. Stay BINDING and retry when reconnecting
+     * automatically, give up the binding otherwise.
+     */
+    private void onConnectFailed() {
+        if (mAutoReconnect && !mServiceCbs.isEmpty()) {
+            if (mState.get() == STATE_BINDING) {
+                scheduleReconnect();
+            }
+            return;
+        }
+        if (!mState.compareAndSet(STATE_BINDING, STATE_DISCONNECTED)) {
+            // Raced with disconnectService().
+            return;
+        }
+        unbind();
+        failConnectWaiters("the service could not be connected");
+        notifyDisconnected();
+    }
+
+    private void restoreRegistrations() {
+        ArrayList<Map.Entry<ExtPhoneCallbackListener, Registration>> registrations;
+        synchronized (mRegistrations) {
+            registrations = new ArrayList<>(mRegistrations.entrySet());
+        }
+        for (Map.Entry<ExtPhoneCallbackListener, Registration> entry : registrations) {
+            Registration registration = entry.getValue();
+            Client client = registerListener(registration.mPackageName, entry.getKey(),
+                    registration.mEvents);
+            if (client == null) {
+                Log.e(LOG_TAG, "Failed to register " + entry.getKey() + " again");
+            } else if (client != registration.mClient) {
+                registration.mClient.update(client);
+            }
+        }
+    }
+
+    /**
+     * Listener backing the asynchronous APIs. Responses complete the pending futures through
+     * InFlightRequests on the binder thread and never reach the Handler.
+     */
+    private class AsyncResponseListener extends ExtPhoneCallbackListener {
+        @Override
+        boolean interceptCallback(int what, IExtPhoneCallbackStub.Result result) {
+            return true;
+        }
+    }
+
+    /**
+     * Sends a request for one of the asynchronous APIs on behalf of the internal client.
+     */
+    private interface AsyncRequest {
+        Token send(Client client) throws RemoteException;
+    }
+
+    /**
+     * @return the Client backing the asynchronous APIs, subscribed to the response event
+     *         of the request about to be sent.
+     */
+    private Client getAsyncClient(int event) {
+        synchronized (mAsyncLock) {
+            if (mAsyncClient != null && mAsyncEvents[event]) {
+                return mAsyncClient;
+            }
+            if (!isServiceConnected()) {
+                return null;
+            }
+            if (mAsyncListener == null) {
+                mAsyncListener = new AsyncResponseListener();
+            }
+            int count = 1;
+            int[] events = new int[mAsyncEvents.length];
+            events[0] = event;
+            for (int i = 0; i < mAsyncEvents.length; i++) {
+                if (mAsyncEvents[i]) {
+                    events[count++] = i;
+                }
+            }
+            // Shares the registration of the multiplexer, which routes the responses by Token
+            // and does not deliver indications to the listener.
+            mAsyncListener.setup();
+            Client client = getCallbackMultiplexer().subscribe(mContext.getPackageName(),
+                    mAsyncListener, Arrays.copyOf(events, count), true);
+            if (client == null) {
+                return null;
+            }
+            mAsyncEvents[event] = true;
+            mAsyncClient = client;
+            return client;
+        }
+    }
+
+    private void releaseAsyncClient() {
+        synchronized (mAsyncLock) {
+            if (mAsyncClient != null && isServiceBound()) {
+                unregisterCallback(mAsyncListener);
+            }
+            mAsyncClient = null;
+            Arrays.fill(mAsyncEvents, false);
+        }
+    }
+
+    /**
+     * @param event ExtPhoneCallbackListener.EVENT_* carrying the response to request.
+     */
+    private <T> CompletableFuture<T> sendAsync(String api, int event, AsyncRequest request) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Client client = getAsyncClient(event);
+        if (client == null) {
+            future.completeExceptionally(new ExtPhoneRequestException(
+                    api + ": service not connected!"));
+            return future;
+        }
+        Token token = null;
+        try {
+            token = request.send(client);
+        } catch (RemoteException e) {
+            future.completeExceptionally(new ExtPhoneRequestException(
+                    api + ", remote exception", e));
+            return future;
+        }
+        if (token == null) {
+            future.completeExceptionally(new ExtPhoneRequestException(
+                    api + ": request not sent"));
+            return future;
+        }
+        mInFlightRequests.attachFuture(token, future);
+        final Token sentToken = token;
+        future.whenComplete((result, t) -> {
+            if (future.isCancelled()) {
+                mInFlightRequests.detach(sentToken, future);
+            }
+        });
+        return future;
+    }
+
+    private Token route(Token token, Client client) {
+        if (token != null && client instanceof CallbackMultiplexer.MultiplexedClient) {
+            mCallbackMultiplexer.route(token, (CallbackMultiplexer.MultiplexedClient) client);
+        }
+        return token;
+    }
+
+    /**
+     * @param sender sends an idempotent request again after a reconnection.
+     */
+    private Token track(Token token, int event, int slotId, Client client,
+            InFlightRequests.Sender sender) {
+        route(token, client);
+        if (token != null) {
+            mInFlightRequests.track(this, token, event, slotId, client, getRequestTimeout(event),
+                    sender);
+        }
+        return token;
+    }
+
+    /**
+    * Let identical concurrent queryNrIcon, query5gStatus and getQosParameters requests share
+    * a single request to the modem. A caller joining an in-flight request gets its Token, and
+    * the response is delivered to the listener of every caller. A listener which is already
+    * waiting for the shared request receives it only once.
+    * Only applies to Clients registered with an ExtPhoneCallbackListener.
+    * @param - enabled true to deduplicate the queries
+    */
+    public void setQueryDeduplicationEnabled(boolean enabled) {
+        mDeduplicateQueries = enabled;
+    }
+
+    private Token joinInFlight(int event, int slotId, int arg, Client client) {
+        if (!mDeduplicateQueries) {
+            return null;
+        }
+        Token token = mInFlightRequests.join(InFlightRequests.shareKey(event, slotId, arg),
+                client);
+        if (token != null) {
+            log("Joined in-flight request " + token + " for event " + event);
+        }
+        return token;
+    }
+
+    private Token share(Token token, int event, int slotId, int arg) {
+        if (token != null && mDeduplicateQueries) {
+            mInFlightRequests.share(token, InFlightRequests.shareKey(event, slotId, arg));
+        }
+        return token;
+    }
+
+    /**
+    * Send the Token based requests through scheduler, which queues them per slot, bounds
+    * the number of requests in flight and enforces its rate limits.
+    * A queued request is identified by a placeholder Token, with which its response is
+    * reported. Requests which are not sent with the Client of an ExtPhoneCallbackListener
+    * are rejected when they cannot be sent right away: they return a Token whose value is
+    * RequestScheduler.REJECTED and no response will be reported for it.
+    * @param - scheduler the scheduler, null to send the requests right away
+    */
+    public void setRequestScheduler(RequestScheduler scheduler) {
+        mRequestScheduler = scheduler;
+    }
+
+    /**
+     * Like scheduleOrThrow(), for the APIs which report a failed binder call with a null Token.
+     * @param api one of API_*
+     */
+    private Token schedule(int api, int event, int apiClass, int slotId, Client client,
+            InFlightRequests.Sender sender, boolean idempotent) {
+        try {
+            return scheduleOrThrow(api, event, apiClass, slotId, client, sender, idempotent);
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, API_NAMES[api] + ", remote exception", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param sender sends the request with the Client given to it.
+     * @param idempotent whether the request can be sent again after a reconnection.
+     */
+    private Token scheduleOrThrow(int api, int event, int apiClass, int slotId, Client client,
+            InFlightRequests.Sender sender, boolean idempotent) throws RemoteException {
+        if (mMetricsEnabled) {
+            sender = mMetrics.timed(api, sender);
+        }
+        RequestScheduler scheduler = mRequestScheduler;
+        if (scheduler == null) {
+            if (!needsTracking(event, client)) {
+                return route(sender.send(client), client);
+            }
+            mInFlightRequests.beginSend();
+            try {
+                return track(sender.send(client), event, slotId, client,
+                        idempotent ? sender : null);
+            } finally {
+                mInFlightRequests.endSend();
+            }
+        }
+        return scheduler.submit(this, event, apiClass, slotId, client, getRequestTimeout(event),
+                sender, idempotent ? sender : null);
+    }
+
+
+    /**
+     * @return whether a request sent without scheduler has to be tracked by
+     *         mInFlightRequests: it has a deadline or a future, can be joined, is replayed or
+     *         failed when the connection is lost, or its response latency is recorded.
+     */
+    private boolean needsTracking(int event, Client client) {
+        return getRequestTimeout(event) > 0
+                || client == mAsyncClient
+                || mAutoReconnect
+                || (mDeduplicateQueries && isShareable(event))
+                || mMetricsEnabled;
+    }
+
+    private static boolean isShareable(int event) {
+        switch (event) {
+            case ExtPhoneCallbackListener.EVENT_ON_5G_STATUS:
+            case ExtPhoneCallbackListener.EVENT_GET_QOS_PARAMETERS_RESPONSE:
+            case ExtPhoneCallbackListener.EVENT_QUERY_NR_ICON_RESPONSE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+    * Set the deadline of the Token based requests answered by the given event. A request
+    * whose response did not arrive in time is completed with Status.TIMEOUT, a late
+    * response to it is dropped. Requests have no deadline unless one is set here or with
+    * setDefaultRequestTimeout().
+    * Only applies to Clients registered with an ExtPhoneCallbackListener.
+    * @param - event ExtPhoneCallbackListener.EVENT_* carrying the response
+    * @param - timeoutMillis deadline in milliseconds, 0 to wait forever
+    */
+    public void setRequestTimeout(int event, long timeoutMillis) {
+        synchronized (mRequestTimeouts) {
+            mRequestTimeouts.put(event, timeoutMillis);
+        }
+    }
+
+    /**
+    * Set the deadline of the Token based requests which have no specific deadline, see
+    * setRequestTimeout(). By default requests have no deadline and wait for their response
+    * forever, as do the futures of the asynchronous APIs.
+    * @param - timeoutMillis deadline in milliseconds, 0 to wait forever
+    */
+    public void setDefaultRequestTimeout(long timeoutMillis) {
+        synchronized (mRequestTimeouts) {
+            mDefaultRequestTimeout = timeoutMillis;
+        }
+    }
+
+    /**
+    * @param - event ExtPhoneCallbackListener.EVENT_* carrying the response
+    * @return - deadline in milliseconds of the requests answered by event, 0 if none
+    */
+    public long getRequestTimeout(int event) {
+        synchronized (mRequestTimeouts) {
+            return mRequestTimeouts.get(event, mDefaultRequestTimeout);
+        }
+    }
+
+    /**
+    * Stop waiting for the response to a Token based request. The response, if it arrives
+    * later, is not delivered to the listener. The request itself is not aborted in the modem.
+    * @param - token returned by the request
+    * @return - true if the request was still in flight. For a request which has no deadline,
+    *           future or replay, and is therefore not tracked, true unless it was cancelled
+    *           or expired already.
+    */
+    public boolean cancelRequest(Token token) {
+        if (token == null) {
+            return false;
+        }
+        return mInFlightRequests.cancel(token);
     }
 
     /**
@@ -292,13 +1083,18 @@ public class ExtTelephonyManager {
     */
     public int getPropertyValueInt(String property, int def) {
         int ret = INVALID;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_PROPERTY_VALUE_INT)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
+        long cached = mPropertyCache.getInt(property, def);
+        if (cached != PropertyCache.MISS) {
+            return (int) cached;
+        }
         log("getPropertyValueInt: property=" + property);
         try {
             ret = mExtTelephonyService.getPropertyValueInt(property, def);
+            mPropertyCache.putInt(property, def, ret);
         } catch (RemoteException e) {
             Log.e(LOG_TAG, "getPropertyValueInt, remote exception", e);
         }
@@ -313,13 +1109,18 @@ public class ExtTelephonyManager {
     */
     public boolean getPropertyValueBool(String property, boolean def) {
         boolean ret = def;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_PROPERTY_VALUE_BOOL)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
+        long cached = mPropertyCache.getBool(property, def);
+        if (cached != PropertyCache.MISS) {
+            return cached != 0;
+        }
         log("getPropertyValueBool: property=" + property);
         try {
             ret = mExtTelephonyService.getPropertyValueBool(property, def);
+            mPropertyCache.putBool(property, def, ret);
         } catch (RemoteException e) {
             Log.e(LOG_TAG, "getPropertyValueBool, remote exception", e);
         }
@@ -334,19 +1135,141 @@ public class ExtTelephonyManager {
     */
     public String getPropertyValueString(String property, String def) {
         String ret = def;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_PROPERTY_VALUE_STRING)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
+        String cached = mPropertyCache.getString(property, def);
+        if (cached != PropertyCache.MISS_STRING) {
+            return cached;
+        }
         log("getPropertyValueString: property=" + property);
         try {
             ret = mExtTelephonyService.getPropertyValueString(property, def);
+            mPropertyCache.putString(property, def, ret);
         } catch (RemoteException e) {
             Log.e(LOG_TAG, "getPropertyValueString, remote exception", e);
         }
         return ret;
     }
 
+    /**
+    * Cache the values returned by getPropertyValueInt(), getPropertyValueBool() and
+    * getPropertyValueString() for ttlMillis, sparing the binder call on repeated reads.
+    * Each type of a property keeps the value read with its latest default value.
+    * Disabled by default.
+    * @param - ttlMillis time a value stays cached, 0 to disable the cache
+    */
+    public void setPropertyCacheTtl(long ttlMillis) {
+        mPropertyCache.setTtl(ttlMillis);
+    }
+
+    /**
+    * Drop the cached values of a vendor property, e.g. after changing it.
+    * @param - property name
+    */
+    public void invalidatePropertyCache(String property) {
+        mPropertyCache.invalidate(property);
+    }
+
+    /**
+    * Drop all the cached vendor property values.
+    */
+    public void invalidatePropertyCache() {
+        mPropertyCache.invalidateAll();
+    }
+
+    /**
+    * @return - number of vendor property reads answered from the cache
+    */
+    public long getPropertyCacheHitCount() {
+        return mPropertyCache.getHitCount();
+    }
+
+    /**
+    * @return - number of vendor property reads which had to query the service while the
+    *           cache was enabled
+    */
+    public long getPropertyCacheMissCount() {
+        return mPropertyCache.getMissCount();
+    }
+
+    /**
+    * Serve getImeiInfo(), getSupportedSimTypes(), getCurrentSimType(), getCiwlanConfig(),
+    * getCiwlanModeUserPreference(), getSimPersoUnlockStatus() and
+    * getCellularRoamingPreference() from memory once read. The cached values are refreshed or
+    * dropped by the onImeiTypeChanged, onSimTypeChanged, onCiwlanConfigChange and
+    * onSimPersoUnlockStatusChange events, and dropped when changed through this manager.
+    * getCiwlanModeUserPreference() and getCellularRoamingPreference() have no change event,
+    * their values are read again once they are 10 seconds old.
+    * Disabled by default.
+    * @param - enabled true to cache the getters
+    */
+    public void setGetterCacheEnabled(boolean enabled) {
+        mGetterCacheEnabled = enabled;
+        if (enabled) {
+            startGetterCache();
+        } else {
+            stopGetterCache();
+        }
+    }
+
+    private void startGetterCache() {
+        synchronized (mAsyncLock) {
+            if (mGetterCache != null || !isServiceConnected()) {
+                return;
+            }
+            GetterCache cache = new GetterCache();
+            if (registerListener(mContext.getPackageName(), cache,
+                    GetterCache.EVENTS) == null) {
+                Log.e(LOG_TAG, "startGetterCache: registration failed");
+                return;
+            }
+            mGetterCache = cache;
+        }
+    }
+
+    private void stopGetterCache() {
+        GetterCache cache;
+        synchronized (mAsyncLock) {
+            cache = mGetterCache;
+            mGetterCache = null;
+        }
+        if (cache != null && isServiceBound()) {
+            unregisterCallback(cache);
+        }
+    }
+
+    private interface Getter<T> {
+        T get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getCached(int kind, int slotId, Getter<T> getter) {
+        GetterCache cache = mGetterCache;
+        if (cache == null) {
+            return getter.get();
+        }
+        Object cached = cache.get(kind, slotId);
+        if (cached != null) {
+            return (T) (cached instanceof Object[] ? ((Object[]) cached).clone() : cached);
+        }
+        long generation = cache.getGeneration(kind);
+        T value = getter.get();
+        if (value != null) {
+            cache.put(kind, slotId,
+                    value instanceof Object[] ? ((Object[]) value).clone() : value, generation);
+        }
+        return value;
+    }
+
+    private void invalidateGetterCache(int kind) {
+        GetterCache cache = mGetterCache;
+        if (cache != null) {
+            cache.invalidate(kind);
+        }
+    }
+
     /**
     * Check if slotId has PrimaryCarrier SIM card present or not.
     * @param - slotId
@@ -354,7 +1277,7 @@ public class ExtTelephonyManager {
     */
     public boolean isPrimaryCarrierSlotId(int slotId) {
         boolean ret = false;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_IS_PRIMARY_CARRIER_SLOT_ID)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
@@ -373,7 +1296,7 @@ public class ExtTelephonyManager {
     */
     public int getCurrentPrimaryCardSlotId() {
         int ret = INVALID;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_CURRENT_PRIMARY_CARD_SLOT_ID)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
@@ -392,7 +1315,7 @@ public class ExtTelephonyManager {
     */
     public int getPrimaryCarrierSlotId() {
         int ret = INVALID;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_PRIMARY_CARRIER_SLOT_ID)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
@@ -410,7 +1333,7 @@ public class ExtTelephonyManager {
     * @return void
     */
     public void setPrimaryCardOnSlot(int slotId) {
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SET_PRIMARY_CARD_ON_SLOT)) {
             Log.e(LOG_TAG, "service not connected!");
             return;
         }
@@ -430,7 +1353,7 @@ public class ExtTelephonyManager {
     */
     public boolean performIncrementalScan(int slotId) {
         boolean ret = false;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_PERFORM_INCREMENTAL_SCAN)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
@@ -451,7 +1374,7 @@ public class ExtTelephonyManager {
     */
     public boolean abortIncrementalScan(int slotId) {
         boolean ret = false;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_ABORT_INCREMENTAL_SCAN)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
@@ -472,7 +1395,7 @@ public class ExtTelephonyManager {
     */
     public boolean isSMSPromptEnabled() {
         boolean ret = false;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_IS_SMS_PROMPT_ENABLED)) {
             Log.e(LOG_TAG, "service not connected!");
             return ret;
         }
@@ -492,7 +1415,7 @@ public class ExtTelephonyManager {
     * Requires Permission: android.Manifest.permission.MODIFY_PHONE_STATE
     */
     public void setSMSPromptEnabled(boolean enabled) {
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SET_SMS_PROMPT_ENABLED)) {
             Log.e(LOG_TAG, "service not connected!");
             return;
         }
@@ -513,7 +1436,7 @@ public class ExtTelephonyManager {
     */
     public void supplyIccDepersonalization(String netpin, String type,
             IDepersoResCallback callback, int phoneId) {
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SUPPLY_ICC_DEPERSONALIZATION)) {
             Log.e(LOG_TAG, "service not connected!");
             return;
         }
@@ -526,309 +1449,244 @@ public class ExtTelephonyManager {
     }
 
     public Token enableEndc(int slot, boolean enable, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_ENABLE_ENDC)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.enableEndc(slot, enable, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "enableEndc, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_ENABLE_ENDC, ExtPhoneCallbackListener.EVENT_ON_ENABLE_ENDC,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.enableEndc(slot, enable, c), false);
     }
 
     public Token queryNrIconType(int slot, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_QUERY_NR_ICON_TYPE)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.queryNrIconType(slot, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "queryNrIconType, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_QUERY_NR_ICON_TYPE, ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.queryNrIconType(slot, c), true);
     }
 
     public Token queryEndcStatus(int slot, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_QUERY_ENDC_STATUS)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.queryEndcStatus(slot, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "queryEndcStatus, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_QUERY_ENDC_STATUS, ExtPhoneCallbackListener.EVENT_ON_ENDC_STATUS,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.queryEndcStatus(slot, c), true);
     }
 
     public Token setNrConfig(int slot, NrConfig config, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SET_NR_CONFIG)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.setNrConfig(slot, config, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "setNrConfig, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SET_NR_CONFIG, ExtPhoneCallbackListener.EVENT_ON_SET_NR_CONFIG,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.setNrConfig(slot, config, c), false);
     }
 
     public Token setNetworkSelectionModeAutomatic(int slot, int accessType, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SET_NETWORK_SELECTION_MODE_AUTOMATIC)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.setNetworkSelectionModeAutomatic(slot, accessType, client);
-        } catch(RemoteException e) {
-            Log.e(LOG_TAG, "setNetworkSelectionModeAutomatic, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SET_NETWORK_SELECTION_MODE_AUTOMATIC,
+                ExtPhoneCallbackListener.EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.setNetworkSelectionModeAutomatic(
+                        slot, accessType, c),
+                false);
     }
 
     public Token getNetworkSelectionMode(int slot, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_NETWORK_SELECTION_MODE)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.getNetworkSelectionMode(slot, client);
-        } catch(RemoteException e) {
-            Log.e(LOG_TAG, "getNetworkSelectionMode, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_GET_NETWORK_SELECTION_MODE,
+                ExtPhoneCallbackListener.EVENT_GET_NETWORK_SELECTION_MODE_RESPONSE,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.getNetworkSelectionMode(slot, c), true);
     }
 
     public Token queryNrConfig(int slot, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_QUERY_NR_CONFIG)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.queryNrConfig(slot, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "queryNrConfig, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_QUERY_NR_CONFIG, ExtPhoneCallbackListener.EVENT_ON_NR_CONFIG_STATUS,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.queryNrConfig(slot, c), true);
     }
 
     public Token sendCdmaSms(int slot, byte[] pdu, boolean expectMore, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SEND_CDMA_SMS)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.sendCdmaSms(slot, pdu, expectMore, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "sendCdmaSms, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SEND_CDMA_SMS, ExtPhoneCallbackListener.EVENT_SEND_CDMA_SMS_RESPONSE,
+                RequestScheduler.CLASS_SMS, slot, client,
+                c -> mExtTelephonyService.sendCdmaSms(slot, pdu, expectMore, c), false);
     }
 
     public Token startNetworkScan(int slot, NetworkScanRequest networkScanRequest, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_START_NETWORK_SCAN)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.startNetworkScan(slot, networkScanRequest, client);
-        } catch(RemoteException e) {
-            Log.e(LOG_TAG, "startNetworkScan, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_START_NETWORK_SCAN,
+                ExtPhoneCallbackListener.EVENT_START_NETWORK_SCAN_RESPONSE,
+                RequestScheduler.CLASS_SCAN, slot, client,
+                c -> mExtTelephonyService.startNetworkScan(slot, networkScanRequest, c), false);
     }
 
     public Token stopNetworkScan(int slot, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_STOP_NETWORK_SCAN)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.stopNetworkScan(slot, client);
-        } catch(RemoteException e) {
-            Log.e(LOG_TAG, "stopNetworkScan, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_STOP_NETWORK_SCAN,
+                ExtPhoneCallbackListener.EVENT_STOP_NETWORK_SCAN_RESPONSE,
+                RequestScheduler.CLASS_SCAN, slot, client,
+                c -> mExtTelephonyService.stopNetworkScan(slot, c), false);
     }
 
     public Token setNetworkSelectionModeManual(int slot, QtiSetNetworkSelectionMode mode,
             Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SET_NETWORK_SELECTION_MODE_MANUAL)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.setNetworkSelectionModeManual(slot, mode, client);
-        } catch(RemoteException e) {
-            Log.e(LOG_TAG, "startNetworkScan, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SET_NETWORK_SELECTION_MODE_MANUAL,
+                ExtPhoneCallbackListener.EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.setNetworkSelectionModeManual(slot, mode, c), false);
     }
 
     public Token getQtiRadioCapability(int slotId, Client client) throws RemoteException {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_QTI_RADIO_CAPABILITY)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
+            return null;
         }
-        token = mExtTelephonyService.getQtiRadioCapability(slotId, client);
-        return token;
+        return scheduleOrThrow(API_GET_QTI_RADIO_CAPABILITY,
+                ExtPhoneCallbackListener.EVENT_GET_QTIRADIO_CAPABILITY_RESPONSE,
+                RequestScheduler.CLASS_QUERY, slotId, client,
+                c -> mExtTelephonyService.getQtiRadioCapability(slotId, c), true);
     }
 
     public Token enable5g(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_ENABLE_5G)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.enable5g(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "enable5g, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_ENABLE_5G, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.enable5g(slot, c), false);
     }
 
     public Token disable5g(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_DISABLE_5G)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.disable5g(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "disable5g, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_DISABLE_5G, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.disable5g(slot, c), false);
     }
 
     public Token queryNrBearerAllocation(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_QUERY_NR_BEARER_ALLOCATION)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.queryNrBearerAllocation(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "queryNrBearerAllocation, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_QUERY_NR_BEARER_ALLOCATION,
+                ExtPhoneCallbackListener.EVENT_ON_ANY_NR_BEARER_ALLOCATION,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.queryNrBearerAllocation(slot, c), true);
     }
 
     public Token setCarrierInfoForImsiEncryption(int slot, ImsiEncryptionInfo info,
             Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.setCarrierInfoForImsiEncryption(slot, info, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "setCarrierInfoForImsiEncryption, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION,
+                ExtPhoneCallbackListener.EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.setCarrierInfoForImsiEncryption(slot, info, c),
+                false);
     }
 
     public Token enable5gOnly(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_ENABLE_5G_ONLY)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.enable5gOnly(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "enable5gOnly, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_ENABLE_5G_ONLY, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.enable5gOnly(slot, c), false);
     }
 
     public Token query5gStatus(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_QUERY_5G_STATUS)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
+            return null;
         }
-        try {
-            token = mExtTelephonyService.query5gStatus(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "query5gStatus, remote exception", e);
+        Token shared = joinInFlight(ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, slot, 0,
+                client);
+        if (shared != null) {
+            return shared;
         }
-        return token;
+        return share(schedule(API_QUERY_5G_STATUS, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.query5gStatus(slot, c), true),
+                ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, slot, 0);
     }
 
     public Token queryNrDcParam(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_QUERY_NR_DC_PARAM)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.queryNrDcParam(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "queryNrDcParam, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_QUERY_NR_DC_PARAM, ExtPhoneCallbackListener.EVENT_ON_NR_DC_PARAM,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.queryNrDcParam(slot, c), true);
     }
 
     public Token queryNrSignalStrength(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_QUERY_NR_SIGNAL_STRENGTH)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.queryNrSignalStrength(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "queryNrSignalStrength, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_QUERY_NR_SIGNAL_STRENGTH,
+                ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.queryNrSignalStrength(slot, c), true);
     }
 
     public Token queryUpperLayerIndInfo(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_QUERY_UPPER_LAYER_IND_INFO)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.queryUpperLayerIndInfo(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "queryUpperLayerIndInfo, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_QUERY_UPPER_LAYER_IND_INFO,
+                ExtPhoneCallbackListener.EVENT_ON_UPPER_LAYER_IND_INFO,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.queryUpperLayerIndInfo(slot, c), true);
     }
 
     public Token query5gConfigInfo(int slot, Client client) {
-        Token token = null;
-        if(!isServiceConnected()){
+        if(!isServiceConnected(API_QUERY_5G_CONFIG_INFO)){
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.query5gConfigInfo(slot, client);
-        } catch (RemoteException e){
-            Log.e(LOG_TAG, "query5gConfigInfo, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_QUERY_5G_CONFIG_INFO, ExtPhoneCallbackListener.EVENT_ON_5G_CONFIG_INFO,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.query5gConfigInfo(slot, c), true);
     }
 
     public void queryCallForwardStatus(int slotId, int cfReason, int serviceClass, String number,
@@ -861,15 +1719,17 @@ public class ExtTelephonyManager {
     * application has to use the slotId that present in QtiImeiInfo object to know the IMEI
     * corresponds to a slot.
     *
-    * Requires Permission: android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE
-    */
-    public QtiImeiInfo[] getImeiInfo() {
-        try {
-            return mExtTelephonyService.getImeiInfo();
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "getImeiInfo ended in remote exception", e);
-        }
-        return null;
+    * Requires Permission: android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE
+    */
+    public QtiImeiInfo[] getImeiInfo() {
+        return getCached(GetterCache.IMEI_INFO, GetterCache.ALL_SLOTS, () -> {
+            try {
+                return mExtTelephonyService.getImeiInfo();
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, "getImeiInfo ended in remote exception", e);
+            }
+            return null;
+        });
     }
 
     public boolean isSmartDdsSwitchFeatureAvailable() throws RemoteException {
@@ -890,63 +1750,53 @@ public class ExtTelephonyManager {
     }
 
     public Token getDdsSwitchCapability(int slot, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_DDS_SWITCH_CAPABILITY)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.getDdsSwitchCapability(slot, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "getDdsSwitchCapability, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_GET_DDS_SWITCH_CAPABILITY,
+                ExtPhoneCallbackListener.EVENT_ON_DDS_SWITCH_CAPABILITY_CHANGE,
+                RequestScheduler.CLASS_QUERY, slot, client,
+                c -> mExtTelephonyService.getDdsSwitchCapability(slot, c), true);
     }
 
     public Token sendUserPreferenceForDataDuringVoiceCall(int slot,
             boolean userPreference, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.sendUserPreferenceForDataDuringVoiceCall(slot,
-                    userPreference, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "sendUserPreferenceForDataDuringVoiceCall, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL,
+                ExtPhoneCallbackListener.EVENT_ON_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL,
+                RequestScheduler.CLASS_CONFIG, slot, client,
+                c -> mExtTelephonyService.sendUserPreferenceForDataDuringVoiceCall(
+                        slot, userPreference, c),
+                false);
     }
 
     public Token getDdsSwitchConfigCapability(Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_DDS_SWITCH_CONFIG_CAPABILITY)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.getDdsSwitchConfigCapability(client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "getDdsSwitchConfigCapability, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_GET_DDS_SWITCH_CONFIG_CAPABILITY,
+                ExtPhoneCallbackListener.EVENT_ON_DDS_SWITCH_CONFIG_CAPABILITY_CHANGED,
+                RequestScheduler.CLASS_QUERY, INVALID, client,
+                c -> mExtTelephonyService.getDdsSwitchConfigCapability(c), true);
     }
 
     public Token sendUserPreferenceConfigForDataDuringVoiceCall(boolean[] isAllowedOnSlot,
             Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_VOICE_CALL)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.sendUserPreferenceConfigForDataDuringVoiceCall(
-                    isAllowedOnSlot, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "sendUserPreferenceConfigForDataDuringVoiceCall, remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_VOICE_CALL,
+                ExtPhoneCallbackListener.EVENT_ON_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_CALL,
+                RequestScheduler.CLASS_CONFIG, INVALID, client,
+                c -> mExtTelephonyService.sendUserPreferenceConfigForDataDuringVoiceCall(
+                        isAllowedOnSlot, c),
+                false);
     }
 
     @RequiresPermission(android.Manifest.permission.MODIFY_PHONE_STATE)
@@ -1006,7 +1856,7 @@ public class ExtTelephonyManager {
 
     public boolean isEpdgOverCellularDataSupported(int slot) throws RemoteException {
         boolean support = false;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_IS_EPDG_OVER_CELLULAR_DATA_SUPPORTED)) {
             Log.e(LOG_TAG, "service not connected!");
             return support;
         }
@@ -1020,45 +1870,42 @@ public class ExtTelephonyManager {
 
     public Token getQosParameters(int slotId, int cid, Client client) throws RemoteException {
         Log.d(LOG_TAG, "[" + slotId + "] getQosParameters, cid: " + cid);
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_QOS_PARAMETERS)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
+            return null;
         }
-        try {
-            token = mExtTelephonyService.getQosParameters(slotId, cid, client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "getQosParameters ended in remote exception", e);
+        Token shared = joinInFlight(ExtPhoneCallbackListener.EVENT_GET_QOS_PARAMETERS_RESPONSE,
+                slotId, cid, client);
+        if (shared != null) {
+            return shared;
         }
-        return token;
+        return share(schedule(API_GET_QOS_PARAMETERS,
+                ExtPhoneCallbackListener.EVENT_GET_QOS_PARAMETERS_RESPONSE,
+                RequestScheduler.CLASS_QUERY, slotId, client,
+                c -> mExtTelephonyService.getQosParameters(slotId, cid, c), true),
+                ExtPhoneCallbackListener.EVENT_GET_QOS_PARAMETERS_RESPONSE, slotId, cid);
     }
 
     public Token getSecureModeStatus(Client client) throws RemoteException {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_GET_SECURE_MODE_STATUS)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.getSecureModeStatus(client);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "getSecureModeStatus ended in remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_GET_SECURE_MODE_STATUS,
+                ExtPhoneCallbackListener.EVENT_GET_SECURE_MODE_STATUS_RESPONSE,
+                RequestScheduler.CLASS_QUERY, INVALID, client,
+                c -> mExtTelephonyService.getSecureModeStatus(c), true);
     }
 
     public Token setMsimPreference(Client client, MsimPreference pref) throws RemoteException {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SET_MSIM_PREFERENCE)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.setMsimPreference(client, pref);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "setMsimPreference ended in remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SET_MSIM_PREFERENCE,
+                ExtPhoneCallbackListener.EVENT_SET_MSIM_PREFERENCE_RESPONSE,
+                RequestScheduler.CLASS_CONFIG, INVALID, client,
+                c -> mExtTelephonyService.setMsimPreference(c, pref), false);
     }
 
    /**
@@ -1070,16 +1917,18 @@ public class ExtTelephonyManager {
     * Requires Permission: android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE
     */
     public QtiSimType[] getSupportedSimTypes() {
-        if (isServiceConnected()) {
-            try {
-                return mExtTelephonyService.getSupportedSimTypes();
-            } catch (RemoteException e) {
-                Log.e(LOG_TAG, "getSupportedSimTypes ended in remote exception", e);
+        return getCached(GetterCache.SUPPORTED_SIM_TYPES, GetterCache.ALL_SLOTS, () -> {
+            if (isServiceConnected(API_GET_SUPPORTED_SIM_TYPES)) {
+                try {
+                    return mExtTelephonyService.getSupportedSimTypes();
+                } catch (RemoteException e) {
+                    Log.e(LOG_TAG, "getSupportedSimTypes ended in remote exception", e);
+                }
+            } else {
+                Log.e(LOG_TAG, "service not connected!");
             }
-        } else {
-            Log.e(LOG_TAG, "service not connected!");
-        }
-        return null;
+            return null;
+        });
     }
 
    /**
@@ -1090,16 +1939,18 @@ public class ExtTelephonyManager {
     * Requires Permission: android.Manifest.permission.READ_PRIVILEGED_PHONE_STATE
     */
     public QtiSimType[] getCurrentSimType() {
-        if (isServiceConnected()) {
-            try {
-                return mExtTelephonyService.getCurrentSimType();
-            } catch (RemoteException e) {
-                Log.e(LOG_TAG, "getCurrentSimType ended in remote exception", e);
+        return getCached(GetterCache.CURRENT_SIM_TYPE, GetterCache.ALL_SLOTS, () -> {
+            if (isServiceConnected(API_GET_CURRENT_SIM_TYPE)) {
+                try {
+                    return mExtTelephonyService.getCurrentSimType();
+                } catch (RemoteException e) {
+                    Log.e(LOG_TAG, "getCurrentSimType ended in remote exception", e);
+                }
+            } else {
+                Log.e(LOG_TAG, "getCurrentSimType, service not connected!");
             }
-        } else {
-            Log.e(LOG_TAG, "getCurrentSimType, service not connected!");
-        }
-        return null;
+            return null;
+        });
     }
 
    /**
@@ -1115,12 +1966,11 @@ public class ExtTelephonyManager {
     * Requires Permission: android.Manifest.permission.MODIFY_PHONE_STATE
     */
     public Token setSimType(Client client, QtiSimType[] simType) throws RemoteException {
-        if (isServiceConnected()) {
-            try {
-                return mExtTelephonyService.setSimType(client, simType);
-            } catch (RemoteException e) {
-                Log.e(LOG_TAG, "setSimType ended in remote exception", e);
-            }
+        invalidateGetterCache(GetterCache.CURRENT_SIM_TYPE);
+        if (isServiceConnected(API_SET_SIM_TYPE)) {
+            return schedule(API_SET_SIM_TYPE, ExtPhoneCallbackListener.EVENT_SET_SIM_TYPE_RESPONSE,
+                    RequestScheduler.CLASS_CONFIG, INVALID, client,
+                    c -> mExtTelephonyService.setSimType(c, simType), false);
         } else {
             Log.e(LOG_TAG, "setSimType, service not connected!");
         }
@@ -1128,17 +1978,19 @@ public class ExtTelephonyManager {
     }
 
     public CiwlanConfig getCiwlanConfig(int slotId) throws RemoteException {
-        CiwlanConfig config = null;
-        if (!isServiceConnected()) {
-            Log.e(LOG_TAG, "service not connected!");
+        return getCached(GetterCache.CIWLAN_CONFIG, slotId, () -> {
+            CiwlanConfig config = null;
+            if (!isServiceConnected(API_GET_CIWLAN_CONFIG)) {
+                Log.e(LOG_TAG, "service not connected!");
+                return config;
+            }
+            try {
+                config = mExtTelephonyService.getCiwlanConfig(slotId);
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, "getCiwlanConfig ended in remote exception", e);
+            }
             return config;
-        }
-        try {
-            config = mExtTelephonyService.getCiwlanConfig(slotId);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "getCiwlanConfig ended in remote exception", e);
-        }
-        return config;
+        });
     }
 
     /**
@@ -1148,7 +2000,7 @@ public class ExtTelephonyManager {
      * @return - boolean TRUE/FALSE based on modem supporting dual data capability feature.
      */
     public boolean getDualDataCapability() {
-        if (isServiceConnected()) {
+        if (isServiceConnected(API_GET_DUAL_DATA_CAPABILITY)) {
             try {
                 return mExtTelephonyService.getDualDataCapability();
             } catch (RemoteException ex) {
@@ -1172,17 +2024,14 @@ public class ExtTelephonyManager {
      * Response function is IExtPhoneCallback#setDualDataUserPreferenceResponse().
      */
     public Token setDualDataUserPreference(Client client, boolean enable) throws RemoteException {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_SET_DUAL_DATA_USER_PREFERENCE)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.setDualDataUserPreference(client, enable);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "setDualDataUserPreference ended in remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SET_DUAL_DATA_USER_PREFERENCE,
+                ExtPhoneCallbackListener.EVENT_SET_DUAL_DATA_USER_PREFERENCE_RESPONSE,
+                RequestScheduler.CLASS_CONFIG, INVALID, client,
+                c -> mExtTelephonyService.setDualDataUserPreference(c, enable), false);
     }
 
     /**
@@ -1196,7 +2045,7 @@ public class ExtTelephonyManager {
      * @return - boolean TRUE/FALSE based on C_IWLAN availability.
      */
     public boolean isCiwlanAvailable(int slotId) {
-        if (isServiceConnected()) {
+        if (isServiceConnected(API_IS_CIWLAN_AVAILABLE)) {
             try {
                 return mExtTelephonyService.isCiwlanAvailable(slotId);
             } catch (RemoteException ex) {
@@ -1216,17 +2065,16 @@ public class ExtTelephonyManager {
      * @return - Integer Token can be used to compare with the response.
      */
     public Token setCiwlanModeUserPreference(int slotId, Client client, CiwlanConfig ciwlanConfig) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        invalidateGetterCache(GetterCache.CIWLAN_MODE_USER_PREFERENCE);
+        if (!isServiceConnected(API_SET_CIWLAN_MODE_USER_PREFERENCE)) {
             Log.e(LOG_TAG, "service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.setCiwlanModeUserPreference(slotId, client, ciwlanConfig);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "setCiwlanModeUserPreference ended in remote exception", e);
+            return null;
         }
-        return token;
+        return schedule(API_SET_CIWLAN_MODE_USER_PREFERENCE,
+                ExtPhoneCallbackListener.EVENT_SET_CIWLAN_MODE_USER_PREFERENCE_RESPONSE,
+                RequestScheduler.CLASS_CONFIG, slotId, client,
+                c -> mExtTelephonyService.setCiwlanModeUserPreference(slotId, c, ciwlanConfig),
+                false);
     }
 
     /**
@@ -1239,79 +2087,404 @@ public class ExtTelephonyManager {
      * @return - The C_IWLAN mode user preference (only vs preferred) for home and roaming.
      */
     public CiwlanConfig getCiwlanModeUserPreference(int slotId) {
-        CiwlanConfig config = null;
-        if (!isServiceConnected()) {
-            Log.e(LOG_TAG, "service not connected!");
+        return getCached(GetterCache.CIWLAN_MODE_USER_PREFERENCE, slotId, () -> {
+            CiwlanConfig config = null;
+            if (!isServiceConnected(API_GET_CIWLAN_MODE_USER_PREFERENCE)) {
+                Log.e(LOG_TAG, "service not connected!");
+                return config;
+            }
+            try {
+                config = mExtTelephonyService.getCiwlanModeUserPreference(slotId);
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, "getCiwlanModeUserPreference ended in remote exception", e);
+            }
             return config;
-        }
-        try {
-            config = mExtTelephonyService.getCiwlanModeUserPreference(slotId);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "getCiwlanModeUserPreference ended in remote exception", e);
-        }
-        return config;
+        });
     }
 
     public QtiPersoUnlockStatus getSimPersoUnlockStatus(int slotId) {
-        QtiPersoUnlockStatus persoUnlockStatus = null;
-        if (!isServiceConnected()) {
-            Log.e(LOG_TAG, "service not connected!");
+        return getCached(GetterCache.SIM_PERSO_UNLOCK_STATUS, slotId, () -> {
+            QtiPersoUnlockStatus persoUnlockStatus = null;
+            if (!isServiceConnected(API_GET_SIM_PERSO_UNLOCK_STATUS)) {
+                Log.e(LOG_TAG, "service not connected!");
+                return persoUnlockStatus;
+            }
+            try {
+                persoUnlockStatus = mExtTelephonyService.getSimPersoUnlockStatus(slotId);
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, "Remote exception for getSimPersoUnlockStatus", e);
+            }
             return persoUnlockStatus;
-        }
-        try {
-            persoUnlockStatus = mExtTelephonyService.getSimPersoUnlockStatus(slotId);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, "Remote exception for getSimPersoUnlockStatus", e);
-        }
-        return persoUnlockStatus;
+        });
     }
 
     public CellularRoamingPreference getCellularRoamingPreference(int slotId) {
-        CellularRoamingPreference pref = null;
-        if (!isServiceConnected()) {
-            Log.e(LOG_TAG, "getCellularRoamingPreference: service not connected!");
+        return getCached(GetterCache.CELLULAR_ROAMING_PREFERENCE, slotId, () -> {
+            CellularRoamingPreference pref = null;
+            if (!isServiceConnected(API_GET_CELLULAR_ROAMING_PREFERENCE)) {
+                Log.e(LOG_TAG, "getCellularRoamingPreference: service not connected!");
+                return pref;
+            }
+            try {
+                pref = mExtTelephonyService.getCellularRoamingPreference(slotId);
+            } catch (RemoteException ex) {
+                Log.e(LOG_TAG, "getCellularRoamingPreference failed.", ex);
+            }
             return pref;
-        }
-        try {
-            pref = mExtTelephonyService.getCellularRoamingPreference(slotId);
-        } catch (RemoteException ex) {
-            Log.e(LOG_TAG, "getCellularRoamingPreference failed.", ex);
-        }
-        return pref;
+        });
     }
 
     public Token setCellularRoamingPreference(Client client, int slotId,
             CellularRoamingPreference pref) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        invalidateGetterCache(GetterCache.CELLULAR_ROAMING_PREFERENCE);
+        if (!isServiceConnected(API_SET_CELLULAR_ROAMING_PREFERENCE)) {
             Log.e(LOG_TAG, "setCellularRoamingPreference: service not connected!");
-            return token;
-        }
-        try {
-            token = mExtTelephonyService.setCellularRoamingPreference(client, slotId, pref);
-        } catch (RemoteException ex) {
-            Log.e(LOG_TAG, "setCellularRoamingPreference failed.", ex);
+            return null;
         }
-        return token;
+        return schedule(API_SET_CELLULAR_ROAMING_PREFERENCE,
+                ExtPhoneCallbackListener.EVENT_SET_CELLULAR_ROAMING_PREFERENCE_RESPONSE,
+                RequestScheduler.CLASS_CONFIG, slotId, client,
+                c -> mExtTelephonyService.setCellularRoamingPreference(c, slotId, pref), false);
     }
 
     public Token queryNrIcon(int slotId, Client client) {
-        Token token = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_QUERY_NR_ICON)) {
             Log.e(LOG_TAG, "queryNrIcon: service not connected!");
-            return token;
+            return null;
         }
-        try {
-            token = mExtTelephonyService.queryNrIcon(slotId, client);
-        } catch (RemoteException ex) {
-            Log.e(LOG_TAG, "queryNrIcon failed.", ex);
+        Token shared = joinInFlight(ExtPhoneCallbackListener.EVENT_QUERY_NR_ICON_RESPONSE,
+                slotId, 0, client);
+        if (shared != null) {
+            return shared;
         }
-        return token;
+        return share(schedule(API_QUERY_NR_ICON,
+                ExtPhoneCallbackListener.EVENT_QUERY_NR_ICON_RESPONSE,
+                RequestScheduler.CLASS_QUERY, slotId, client,
+                c -> mExtTelephonyService.queryNrIcon(slotId, c), true),
+                ExtPhoneCallbackListener.EVENT_QUERY_NR_ICON_RESPONSE, slotId, 0);
+    }
+
+    /**
+    * Get the complete 5G state of a slot with a single request, instead of
+    * queryNrIconType, queryEndcStatus, queryNrConfig, query5gStatus, queryNrDcParam,
+    * queryNrSignalStrength and queryUpperLayerIndInfo.
+    * Supported if isFeatureSupported(FEATURE_NR_SNAPSHOT) returns true.
+    * @param - slotId slot ID
+    * @param - client registered with packagename to receive callbacks
+    * @return - Integer Token to be used to compare with the response,
+    *           null if the request could not be sent.
+    */
+    public Token queryNrSnapshot(int slotId, Client client) {
+        if (!isServiceConnected(API_QUERY_NR_SNAPSHOT)) {
+            Log.e(LOG_TAG, "queryNrSnapshot: service not connected!");
+            return null;
+        }
+        return schedule(API_QUERY_NR_SNAPSHOT,
+                ExtPhoneCallbackListener.EVENT_QUERY_NR_SNAPSHOT_RESPONSE,
+                RequestScheduler.CLASS_QUERY, slotId, client,
+                c -> mExtTelephonyService.queryNrSnapshot(slotId, c), true);
+    }
+
+    /*
+     * Asynchronous variants of the Token based APIs. The returned future completes with the
+     * payload of the response callback, or exceptionally with an ExtPhoneRequestException if
+     * the request could not be sent or the modem reported a failure. Responses are correlated
+     * internally, so callers do not need to register an ExtPhoneCallbackListener. A future
+     * only times out once a deadline is set with setRequestTimeout() or
+     * setDefaultRequestTimeout().
+     */
+
+    public CompletableFuture<Void> enableEndcAsync(int slot, boolean enable) {
+        return sendAsync("enableEndcAsync", ExtPhoneCallbackListener.EVENT_ON_ENABLE_ENDC,
+                client -> enableEndc(slot, enable, client));
+    }
+
+    public CompletableFuture<NrIconType> queryNrIconTypeAsync(int slot) {
+        return sendAsync("queryNrIconTypeAsync", ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE,
+                client -> queryNrIconType(slot, client));
+    }
+
+    public CompletableFuture<Boolean> queryEndcStatusAsync(int slot) {
+        return sendAsync("queryEndcStatusAsync", ExtPhoneCallbackListener.EVENT_ON_ENDC_STATUS,
+                client -> queryEndcStatus(slot, client));
+    }
+
+    public CompletableFuture<Void> setNrConfigAsync(int slot, NrConfig config) {
+        return sendAsync("setNrConfigAsync", ExtPhoneCallbackListener.EVENT_ON_SET_NR_CONFIG,
+                client -> setNrConfig(slot, config, client));
+    }
+
+    public CompletableFuture<Void> setNetworkSelectionModeAutomaticAsync(int slot,
+            int accessType) {
+        return sendAsync("setNetworkSelectionModeAutomaticAsync",
+                ExtPhoneCallbackListener.EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE,
+                client -> setNetworkSelectionModeAutomatic(slot, accessType, client));
+    }
+
+    public CompletableFuture<NetworkSelectionMode> getNetworkSelectionModeAsync(int slot) {
+        return sendAsync("getNetworkSelectionModeAsync",
+                ExtPhoneCallbackListener.EVENT_GET_NETWORK_SELECTION_MODE_RESPONSE,
+                client -> getNetworkSelectionMode(slot, client));
+    }
+
+    public CompletableFuture<NrConfig> queryNrConfigAsync(int slot) {
+        return sendAsync("queryNrConfigAsync", ExtPhoneCallbackListener.EVENT_ON_NR_CONFIG_STATUS,
+                client -> queryNrConfig(slot, client));
+    }
+
+    public CompletableFuture<SmsResult> sendCdmaSmsAsync(int slot, byte[] pdu,
+            boolean expectMore) {
+        return sendAsync("sendCdmaSmsAsync", ExtPhoneCallbackListener.EVENT_SEND_CDMA_SMS_RESPONSE,
+                client -> sendCdmaSms(slot, pdu, expectMore, client));
+    }
+
+    /**
+     * Completes once the scan has been started. Scan results are only delivered to
+     * listeners registered for EVENT_NETWORK_SCAN_RESULT.
+     */
+    public CompletableFuture<Void> startNetworkScanAsync(int slot,
+            NetworkScanRequest networkScanRequest) {
+        return sendAsync("startNetworkScanAsync",
+                ExtPhoneCallbackListener.EVENT_START_NETWORK_SCAN_RESPONSE,
+                client -> startNetworkScan(slot, networkScanRequest, client));
+    }
+
+    public CompletableFuture<Void> stopNetworkScanAsync(int slot) {
+        return sendAsync("stopNetworkScanAsync",
+                ExtPhoneCallbackListener.EVENT_STOP_NETWORK_SCAN_RESPONSE,
+                client -> stopNetworkScan(slot, client));
+    }
+
+    public CompletableFuture<Void> setNetworkSelectionModeManualAsync(int slot,
+            QtiSetNetworkSelectionMode mode) {
+        return sendAsync("setNetworkSelectionModeManualAsync",
+                ExtPhoneCallbackListener.EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE,
+                client -> setNetworkSelectionModeManual(slot, mode, client));
+    }
+
+    public CompletableFuture<Integer> getQtiRadioCapabilityAsync(int slotId) {
+        return sendAsync("getQtiRadioCapabilityAsync",
+                ExtPhoneCallbackListener.EVENT_GET_QTIRADIO_CAPABILITY_RESPONSE,
+                client -> getQtiRadioCapability(slotId, client));
+    }
+
+    public CompletableFuture<Boolean> enable5gAsync(int slot) {
+        return sendAsync("enable5gAsync", ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                client -> enable5g(slot, client));
+    }
+
+    public CompletableFuture<Boolean> disable5gAsync(int slot) {
+        return sendAsync("disable5gAsync", ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                client -> disable5g(slot, client));
+    }
+
+    public CompletableFuture<BearerAllocationStatus> queryNrBearerAllocationAsync(int slot) {
+        return sendAsync("queryNrBearerAllocationAsync",
+                ExtPhoneCallbackListener.EVENT_ON_ANY_NR_BEARER_ALLOCATION,
+                client -> queryNrBearerAllocation(slot, client));
+    }
+
+    public CompletableFuture<QRadioResponseInfo> setCarrierInfoForImsiEncryptionAsync(int slot,
+            ImsiEncryptionInfo info) {
+        return sendAsync("setCarrierInfoForImsiEncryptionAsync",
+                ExtPhoneCallbackListener.EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE,
+                client -> setCarrierInfoForImsiEncryption(slot, info, client));
+    }
+
+    public CompletableFuture<Boolean> enable5gOnlyAsync(int slot) {
+        return sendAsync("enable5gOnlyAsync", ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                client -> enable5gOnly(slot, client));
+    }
+
+    public CompletableFuture<Boolean> query5gStatusAsync(int slot) {
+        return sendAsync("query5gStatusAsync", ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                client -> query5gStatus(slot, client));
+    }
+
+    public CompletableFuture<DcParam> queryNrDcParamAsync(int slot) {
+        return sendAsync("queryNrDcParamAsync", ExtPhoneCallbackListener.EVENT_ON_NR_DC_PARAM,
+                client -> queryNrDcParam(slot, client));
+    }
+
+    public CompletableFuture<SignalStrength> queryNrSignalStrengthAsync(int slot) {
+        return sendAsync("queryNrSignalStrengthAsync",
+                ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH,
+                client -> queryNrSignalStrength(slot, client));
+    }
+
+    public CompletableFuture<UpperLayerIndInfo> queryUpperLayerIndInfoAsync(int slot) {
+        return sendAsync("queryUpperLayerIndInfoAsync",
+                ExtPhoneCallbackListener.EVENT_ON_UPPER_LAYER_IND_INFO,
+                client -> queryUpperLayerIndInfo(slot, client));
+    }
+
+    public CompletableFuture<NrConfigType> query5gConfigInfoAsync(int slot) {
+        return sendAsync("query5gConfigInfoAsync", ExtPhoneCallbackListener.EVENT_ON_5G_CONFIG_INFO,
+                client -> query5gConfigInfo(slot, client));
+    }
+
+    public CompletableFuture<Boolean> getDdsSwitchCapabilityAsync(int slot) {
+        return sendAsync("getDdsSwitchCapabilityAsync",
+                ExtPhoneCallbackListener.EVENT_ON_DDS_SWITCH_CAPABILITY_CHANGE,
+                client -> getDdsSwitchCapability(slot, client));
+    }
+
+    public CompletableFuture<Void> sendUserPreferenceForDataDuringVoiceCallAsync(int slot,
+            boolean userPreference) {
+        return sendAsync("sendUserPreferenceForDataDuringVoiceCallAsync",
+                ExtPhoneCallbackListener.EVENT_ON_SEND_USER_PREFERENCE_FOR_DATA_DURING_VOICE_CALL,
+                client -> sendUserPreferenceForDataDuringVoiceCall(slot, userPreference, client));
+    }
+
+    public CompletableFuture<Boolean> getDdsSwitchConfigCapabilityAsync() {
+        return sendAsync("getDdsSwitchConfigCapabilityAsync",
+                ExtPhoneCallbackListener.EVENT_ON_DDS_SWITCH_CONFIG_CAPABILITY_CHANGED,
+                client -> getDdsSwitchConfigCapability(client));
+    }
+
+    public CompletableFuture<Void> sendUserPreferenceConfigForDataDuringVoiceCallAsync(
+            boolean[] isAllowedOnSlot) {
+        return sendAsync("sendUserPreferenceConfigForDataDuringVoiceCallAsync",
+                ExtPhoneCallbackListener.EVENT_ON_SEND_USER_PREFERENCE_CONFIG_FOR_DATA_DURING_CALL,
+                client -> sendUserPreferenceConfigForDataDuringVoiceCall(isAllowedOnSlot, client));
+    }
+
+    public CompletableFuture<QosParametersResult> getQosParametersAsync(int slotId, int cid) {
+        return sendAsync("getQosParametersAsync",
+                ExtPhoneCallbackListener.EVENT_GET_QOS_PARAMETERS_RESPONSE,
+                client -> getQosParameters(slotId, cid, client));
+    }
+
+    public CompletableFuture<Boolean> getSecureModeStatusAsync() {
+        return sendAsync("getSecureModeStatusAsync",
+                ExtPhoneCallbackListener.EVENT_GET_SECURE_MODE_STATUS_RESPONSE,
+                client -> getSecureModeStatus(client));
+    }
+
+    public CompletableFuture<Void> setMsimPreferenceAsync(MsimPreference pref) {
+        return sendAsync("setMsimPreferenceAsync",
+                ExtPhoneCallbackListener.EVENT_SET_MSIM_PREFERENCE_RESPONSE,
+                client -> setMsimPreference(client, pref));
+    }
+
+    public CompletableFuture<Void> setSimTypeAsync(QtiSimType[] simType) {
+        return sendAsync("setSimTypeAsync", ExtPhoneCallbackListener.EVENT_SET_SIM_TYPE_RESPONSE,
+                client -> setSimType(client, simType));
+    }
+
+    public CompletableFuture<Void> setDualDataUserPreferenceAsync(boolean enable) {
+        return sendAsync("setDualDataUserPreferenceAsync",
+                ExtPhoneCallbackListener.EVENT_SET_DUAL_DATA_USER_PREFERENCE_RESPONSE,
+                client -> setDualDataUserPreference(client, enable));
+    }
+
+    public CompletableFuture<Void> setCiwlanModeUserPreferenceAsync(int slotId,
+            CiwlanConfig ciwlanConfig) {
+        return sendAsync("setCiwlanModeUserPreferenceAsync",
+                ExtPhoneCallbackListener.EVENT_SET_CIWLAN_MODE_USER_PREFERENCE_RESPONSE,
+                client -> setCiwlanModeUserPreference(slotId, client, ciwlanConfig));
+    }
+
+    public CompletableFuture<Void> setCellularRoamingPreferenceAsync(int slotId,
+            CellularRoamingPreference pref) {
+        return sendAsync("setCellularRoamingPreferenceAsync",
+                ExtPhoneCallbackListener.EVENT_SET_CELLULAR_ROAMING_PREFERENCE_RESPONSE,
+                client -> setCellularRoamingPreference(client, slotId, pref));
+    }
+
+    public CompletableFuture<NrIcon> queryNrIconAsync(int slotId) {
+        return sendAsync("queryNrIconAsync", ExtPhoneCallbackListener.EVENT_QUERY_NR_ICON_RESPONSE,
+                client -> queryNrIcon(slotId, client));
+    }
+
+    public CompletableFuture<NrSnapshot> queryNrSnapshotAsync(int slotId) {
+        return sendAsync("queryNrSnapshotAsync",
+                ExtPhoneCallbackListener.EVENT_QUERY_NR_SNAPSHOT_RESPONSE,
+                client -> queryNrSnapshot(slotId, client));
+    }
+
+    /*
+     * Multi-slot variants. The request is sent to all the slots at once and the future
+     * completes when every slot answered, with the value or the error of each slot. The
+     * future itself only fails if the slots are invalid.
+     */
+
+    public CompletableFuture<SlotResults<NrConfig>> queryNrConfigAsync(int[] slots) {
+        return forEachSlotAsync(slots, this::queryNrConfigAsync);
+    }
+
+    public CompletableFuture<SlotResults<NetworkSelectionMode>> getNetworkSelectionModeAsync(
+            int[] slots) {
+        return forEachSlotAsync(slots, this::getNetworkSelectionModeAsync);
+    }
+
+    public CompletableFuture<SlotResults<Boolean>> getDdsSwitchCapabilityAsync(int[] slots) {
+        return forEachSlotAsync(slots, this::getDdsSwitchCapabilityAsync);
+    }
+
+    public CompletableFuture<SlotResults<NrIcon>> queryNrIconAsync(int[] slots) {
+        return forEachSlotAsync(slots, this::queryNrIconAsync);
+    }
+
+    public CompletableFuture<SlotResults<NrSnapshot>> queryNrSnapshotAsync(int[] slots) {
+        return forEachSlotAsync(slots, this::queryNrSnapshotAsync);
+    }
+
+    /**
+    * Send a request to several slots at once.
+    * @param - slots slot IDs, without duplicates
+    * @param - request sends the request for one slot, e.g. one of the *Async(int) APIs
+    * @return - future completed once every slot answered
+    */
+    public <T> CompletableFuture<SlotResults<T>> forEachSlotAsync(int[] slots,
+            IntFunction<CompletableFuture<T>> request) {
+        CompletableFuture<SlotResults<T>> result = new CompletableFuture<>();
+        if (slots == null || request == null) {
+            result.completeExceptionally(new IllegalArgumentException(
+                    "slots and request must not be null"));
+            return result;
+        }
+        int[] sorted = slots.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] == sorted[i - 1]) {
+                result.completeExceptionally(new IllegalArgumentException(
+                        "duplicate slot " + sorted[i]));
+                return result;
+            }
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T>[] futures = new CompletableFuture[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            try {
+                futures[i] = request.apply(sorted[i]);
+            } catch (RuntimeException e) {
+                futures[i] = new CompletableFuture<>();
+                futures[i].completeExceptionally(e);
+            }
+        }
+        // allOf() completes once all of them are done, whether they failed or not.
+        CompletableFuture.allOf(futures).whenComplete((ignored, t) -> {
+            SparseArray<T> values = new SparseArray<>();
+            SparseArray<Throwable> errors = new SparseArray<>();
+            for (int i = 0; i < sorted.length; i++) {
+                try {
+                    values.put(sorted[i], futures[i].join());
+                } catch (CompletionException e) {
+                    errors.put(sorted[i], e.getCause() != null ? e.getCause() : e);
+                } catch (RuntimeException e) {
+                    // Cancelled.
+                    errors.put(sorted[i], e);
+                }
+            }
+            result.complete(new SlotResults<>(sorted, values, errors));
+        });
+        return result;
     }
 
     public Client registerCallback(String packageName, IExtPhoneCallback callback) {
         Client client = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_REGISTER_CALLBACK)) {
             Log.e(LOG_TAG, "service not connected!");
             return client;
         }
@@ -1332,22 +2505,65 @@ public class ExtTelephonyManager {
             Log.e(LOG_TAG, "Callback is null");
             return null;
         }
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_REGISTER_CALLBACK_WITH_EVENTS)) {
             Log.e(LOG_TAG, "service not connected!");
             return client;
         }
+        client = registerListener(packageName, callback, events);
+        if (client != null) {
+            synchronized (mRegistrations) {
+                mRegistrations.put(callback, new Registration(packageName, events, client));
+            }
+        }
+        return client;
+    }
+
+    private Client registerListener(String packageName, ExtPhoneCallbackListener callback,
+            int[] events) {
         callback.setup();
+        if (mMultiplexCallbacks) {
+            return getCallbackMultiplexer().subscribe(packageName, callback, events);
+        }
+        return registerCallbackBinder(packageName, callback.mCallback, events);
+    }
+
+    Client registerCallbackBinder(String packageName, IExtPhoneCallback callback, int[] events) {
+        Client client = null;
+        if (!isServiceConnected(API_REGISTER_CALLBACK_WITH_EVENTS)) {
+            Log.e(LOG_TAG, "service not connected!");
+            return client;
+        }
         try {
-            client = mExtTelephonyService.registerCallbackWithEvents(packageName,
-                    callback.mCallback, events);
+            client = mExtTelephonyService.registerCallbackWithEvents(packageName, callback,
+                    events);
         } catch (RemoteException e) {
             Log.e(LOG_TAG, "registerCallbackWithEvents, remote exception", e);
         }
         return client;
     }
 
+    /**
+    * Register the ExtPhoneCallbackListeners of this manager through a single callback with
+    * the service, covering the union of their events, and fan the callbacks out locally.
+    * This saves one binder transaction per listener and event. Applies to the listeners
+    * registered with registerCallbackWithEvents() after the call.
+    * @param - enabled true to multiplex the listeners
+    */
+    public void setCallbackMultiplexingEnabled(boolean enabled) {
+        mMultiplexCallbacks = enabled;
+    }
+
+    private CallbackMultiplexer getCallbackMultiplexer() {
+        synchronized (mAsyncLock) {
+            if (mCallbackMultiplexer == null) {
+                mCallbackMultiplexer = new CallbackMultiplexer(this);
+            }
+            return mCallbackMultiplexer;
+        }
+    }
+
     public void unRegisterCallback(IExtPhoneCallback callback) {
-        if (!isServiceConnected()) {
+        if (!isServiceBound()) {
             Log.e(LOG_TAG, "service not connected!");
             return;
         }
@@ -1363,13 +2579,20 @@ public class ExtTelephonyManager {
             Log.e(LOG_TAG, "Callback is null");
             return;
         }
+        synchronized (mRegistrations) {
+            mRegistrations.remove(callback);
+        }
         callback.cleanup();
+        CallbackMultiplexer multiplexer = mCallbackMultiplexer;
+        if (multiplexer != null && multiplexer.unsubscribe(callback)) {
+            return;
+        }
         unRegisterCallback(callback.mCallback);
     }
 
     public Client registerQtiRadioConfigCallback(String packageName, IExtPhoneCallback callback) {
         Client client = null;
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_REGISTER_QTI_RADIO_CONFIG_CALLBACK)) {
             Log.e(LOG_TAG, "Service not connected!");
             return client;
         }
@@ -1382,7 +2605,7 @@ public class ExtTelephonyManager {
     }
 
     public void unregisterQtiRadioConfigCallback(IExtPhoneCallback callback) {
-        if (!isServiceConnected()) {
+        if (!isServiceConnected(API_UNREGISTER_QTI_RADIO_CONFIG_CALLBACK)) {
             Log.e(LOG_TAG, "Service not connected!");
             return;
         }
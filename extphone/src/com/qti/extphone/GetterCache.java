@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.util.SparseLongArray;
+
+/**
+ * Snapshots of the values returned by the synchronous ExtTelephonyManager getters, kept up to
+ * date by the unsolicited events reporting their changes. Values without a change event can
+ * also be changed by other apps, they expire after UNTRACKED_TTL_MILLIS on top of being
+ * dropped when set through ExtTelephonyManager or when the service disconnects.
+ */
+final class GetterCache extends ExtPhoneCallbackListener {
+    static final int IMEI_INFO = 0;
+    static final int SUPPORTED_SIM_TYPES = 1;
+    static final int CURRENT_SIM_TYPE = 2;
+    static final int CIWLAN_CONFIG = 3;
+    static final int CIWLAN_MODE_USER_PREFERENCE = 4;
+    static final int SIM_PERSO_UNLOCK_STATUS = 5;
+    static final int CELLULAR_ROAMING_PREFERENCE = 6;
+    private static final int KIND_COUNT = 7;
+
+    static final int[] EVENTS = {
+            EVENT_ON_IMEI_TYPE_CHANGED,
+            EVENT_ON_SIM_TYPE_CHANGED,
+            EVENT_ON_CIWLAN_CONFIG_CHANGE,
+            EVENT_ON_SIM_PERSO_UNLOCK_STATUS_CHANGE
+    };
+
+    // Key of the values which are not slot specific.
+    static final int ALL_SLOTS = -1;
+
+    // Lifetime of the values which have no change event.
+    static final long UNTRACKED_TTL_MILLIS = 10000;
+
+    private final Object mLock = new Object();
+    private final SparseArray<Object> mValues = new SparseArray<>();
+    // SystemClock.elapsedRealtime() at which the values of the untracked kinds expire.
+    private final SparseLongArray mExpiries = new SparseLongArray();
+    // Bumped whenever a kind changes, so that a value read from the service concurrently with
+    // a change event does not overwrite the newer value.
+    private final long[] mGenerations = new long[KIND_COUNT];
+
+    GetterCache() {
+        super(DIRECT_EXECUTOR);
+    }
+
+    private static int key(int kind, int slotId) {
+        return (kind << 16) | (slotId & 0xffff);
+    }
+
+    /**
+     * @return whether no event reports the changes of kind.
+     */
+    private static boolean isUntracked(int kind) {
+        return kind == CIWLAN_MODE_USER_PREFERENCE || kind == CELLULAR_ROAMING_PREFERENCE;
+    }
+
+    /**
+     * @return the cached value, null if not cached or expired.
+     */
+    Object get(int kind, int slotId) {
+        int key = key(kind, slotId);
+        synchronized (mLock) {
+            if (isUntracked(kind)
+                    && mExpiries.get(key, Long.MIN_VALUE) <= SystemClock.elapsedRealtime()) {
+                mValues.remove(key);
+                return null;
+            }
+            return mValues.get(key);
+        }
+    }
+
+    long getGeneration(int kind) {
+        synchronized (mLock) {
+            return mGenerations[kind];
+        }
+    }
+
+    /**
+     * Cache value read from the service, unless kind changed since generation was read.
+     */
+    void put(int kind, int slotId, Object value, long generation) {
+        synchronized (mLock) {
+            if (mGenerations[kind] == generation) {
+                int key = key(kind, slotId);
+                mValues.put(key, value);
+                if (isUntracked(kind)) {
+                    mExpiries.put(key, SystemClock.elapsedRealtime() + UNTRACKED_TTL_MILLIS);
+                }
+            }
+        }
+    }
+
+    void update(int kind, int slotId, Object value) {
+        synchronized (mLock) {
+            mGenerations[kind]++;
+            if (value != null) {
+                mValues.put(key(kind, slotId), value);
+            } else {
+                mValues.remove(key(kind, slotId));
+            }
+        }
+    }
+
+    /**
+     * Drop the cached values of kind for all slots.
+     */
+    void invalidate(int kind) {
+        synchronized (mLock) {
+            mGenerations[kind]++;
+            for (int i = mValues.size() - 1; i >= 0; i--) {
+                if ((mValues.keyAt(i) >> 16) == kind) {
+                    mValues.removeAt(i);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onImeiTypeChanged(QtiImeiInfo[] imeiInfo) throws RemoteException {
+        update(IMEI_INFO, ALL_SLOTS, imeiInfo != null ? imeiInfo.clone() : null);
+    }
+
+    @Override
+    public void onSimTypeChanged(QtiSimType[] simtype) throws RemoteException {
+        invalidate(CURRENT_SIM_TYPE);
+        invalidate(SUPPORTED_SIM_TYPES);
+    }
+
+    @Override
+    public void onCiwlanConfigChange(int slotId, CiwlanConfig ciwlanConfig)
+            throws RemoteException {
+        update(CIWLAN_CONFIG, slotId, ciwlanConfig);
+    }
+
+    @Override
+    public void onSimPersoUnlockStatusChange(int slotId, QtiPersoUnlockStatus persoUnlockStatus)
+            throws RemoteException {
+        update(SIM_PERSO_UNLOCK_STATUS, slotId, persoUnlockStatus);
+    }
+}
@@ -0,0 +1,857 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.HandlerThread;
+import android.os.RemoteException;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Process wide registry of the Token based requests which are waiting for their response,
+ * keyed by Token.get(). It is fed by ExtPhoneCallbackListener.IExtPhoneCallbackStub and
+ * - completes the futures handed out by the asynchronous ExtTelephonyManager APIs,
+ * - expires requests whose response did not arrive within their deadline, delivering a
+ *   {@link Status#TIMEOUT} response to the listener of the request,
+ * - drops late responses to requests which were cancelled or timed out,
+ * - suspends the idempotent requests of a manager whose connection to the service is lost,
+ *   and sends them again once it is restored,
+ * - lets identical concurrent queries share a single request, see {@link #join}.
+ *
+ * Only requests sent with a Client backed by an ExtPhoneCallbackListener are tracked, as the
+ * responses to other clients never pass through IExtPhoneCallbackStub. Callers only track the
+ * requests which need one of the above, the responses to the others are let through without
+ * taking the lock while nothing is tracked.
+ */
+final class InFlightRequests {
+    private static final String TAG = "InFlightRequests";
+
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_BUCKETS = 512;
+
+    // A response can overtake the binder call that returned its Token. While a request to be
+    // tracked is being sent, such responses are parked here until the caller registers the
+    // Token.
+    private static final int MAX_EARLY_RESPONSES = 16;
+
+    // Tokens of the requests which were cancelled or expired. Late responses are dropped.
+    private static final int MAX_RETIRED_TOKENS = 64;
+
+    private static InFlightRequests sInstance;
+
+    private final Object mLock = new Object();
+    private final SparseArray<Request> mRequests = new SparseArray<>();
+    private final SparseArray<Response> mEarlyResponses = new SparseArray<>();
+    private final TokenRing mEarlyTokens = new TokenRing(MAX_EARLY_RESPONSES);
+    private final TokenRing mRetiredTokens = new TokenRing(MAX_RETIRED_TOKENS);
+    private TimerWheel mTimerWheel;
+
+    // Sends in progress of requests which are about to be tracked, see beginSend().
+    private int mSending;
+    // True when no response needs to be looked at, read by onResponse() without the lock.
+    private volatile boolean mIdle = true;
+
+    // Requests waiting for the connection to the service to be restored.
+    private final ArrayList<Request> mSuspended = new ArrayList<>();
+
+    // While requests are sent again, a response to an unknown Token may answer one of them
+    // before its new Token is registered. Such responses are held back until then.
+    private int mReplays;
+    private final ArrayList<Deferred> mDeferred = new ArrayList<>();
+
+    // Shared requests which can still be joined, keyed by shareKey().
+    private final HashMap<Long, Request> mShared = new HashMap<>();
+
+    /**
+     * Sends a request to the service again, e.g. once the connection is restored.
+     */
+    interface Sender {
+        Token send(Client client) throws RemoteException;
+    }
+
+    private static class Request {
+        final Object mOwner;
+        // Token handed out to the caller, kept when the request is sent again.
+        final Token mToken;
+        final int mEvent;
+        final int mSlotId;
+        final Client mClient;
+        final ExtPhoneCallbackListener.IExtPhoneCallbackStub mCallback;
+        final Sender mSender;
+        ArrayList<CompletableFuture<Object>> mFutures;
+        // Listeners of the callers which joined the request, they get a copy of the response.
+        ArrayList<ExtPhoneCallbackListener.IExtPhoneCallbackStub> mJoiners;
+        long mShareKey;
+        // Run once the request is answered, expired or cancelled.
+        Runnable mOnDone;
+        TimerWheel.Timeout mTimeout;
+        // Token.get() of the last time the request was sent.
+        int mKey;
+        // System.nanoTime() of the first time the request was sent.
+        final long mSentAt = System.nanoTime();
+
+        Request(Object owner, Token token, int event, int slotId, Client client,
+                Sender sender) {
+            mOwner = owner;
+            mToken = token;
+            mKey = token.get();
+            mEvent = event;
+            mSlotId = slotId;
+            mClient = client;
+            mCallback = (ExtPhoneCallbackListener.IExtPhoneCallbackStub) client.getCallback();
+            mSender = sender;
+        }
+    }
+
+    private static class Deferred {
+        final ExtPhoneCallbackListener.IExtPhoneCallbackStub mStub;
+        final int mEvent;
+        final ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result mResult;
+
+        Deferred(ExtPhoneCallbackListener.IExtPhoneCallbackStub stub, int event,
+                ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result result) {
+            mStub = stub;
+            mEvent = event;
+            mResult = result;
+        }
+    }
+
+    // Copy of an early response, the Result itself is recycled once dispatched.
+    private static class Response {
+        final int mEvent;
+        final Status mStatus;
+        final int mError;
+        final Object mData;
+
+        Response(int event, ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result result) {
+            mEvent = event;
+            mStatus = result.mStatus;
+            mError = result.mError;
+            mData = result.getData();
+        }
+    }
+
+    /**
+     * Bounded FIFO of Token values, the oldest one is dropped to make room for a new one.
+     */
+    private static final class TokenRing {
+        private final int[] mKeys;
+        private int mHead;
+        private int mSize;
+
+        TokenRing(int capacity) {
+            mKeys = new int[capacity];
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        boolean isFull() {
+            return mSize == mKeys.length;
+        }
+
+        /**
+         * @return the oldest value, which is removed.
+         */
+        int poll() {
+            int key = mKeys[mHead];
+            mHead = (mHead + 1) % mKeys.length;
+            mSize--;
+            return key;
+        }
+
+        void add(int key) {
+            if (isFull()) {
+                poll();
+            }
+            mKeys[(mHead + mSize) % mKeys.length] = key;
+            mSize++;
+        }
+
+        boolean contains(int key) {
+            return indexOf(key) >= 0;
+        }
+
+        /**
+         * @return false if key was not in the ring.
+         */
+        boolean remove(int key) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return false;
+            }
+            for (int j = i + 1; j < mSize; j++) {
+                mKeys[(mHead + j - 1) % mKeys.length] = mKeys[(mHead + j) % mKeys.length];
+            }
+            mSize--;
+            return true;
+        }
+
+        private int indexOf(int key) {
+            for (int i = 0; i < mSize; i++) {
+                if (mKeys[(mHead + i) % mKeys.length] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void clear() {
+            mHead = 0;
+            mSize = 0;
+        }
+    }
+
+    static synchronized InFlightRequests getInstance() {
+        if (sInstance == null) {
+            sInstance = new InFlightRequests();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Called before sending a request which is tracked once its Token is returned, so that a
+     * response overtaking the Token is kept for it. Must be followed by endSend().
+     */
+    void beginSend() {
+        synchronized (mLock) {
+            mSending++;
+            mIdle = false;
+        }
+    }
+
+    void endSend() {
+        synchronized (mLock) {
+            mSending--;
+            updateIdleLocked();
+        }
+    }
+
+    /**
+     * Start waiting for the response to the request identified by token.
+     *
+     * @param owner ExtTelephonyManager which sent the request.
+     * @param token Token returned by the service for the request.
+     * @param event ExtPhoneCallbackListener.EVENT_* carrying the response.
+     * @param slotId slot the request was sent for, -1 if not slot specific.
+     * @param client Client the response is delivered to.
+     * @param timeoutMillis deadline of the response, 0 to wait forever.
+     * @param sender sends the request again after a reconnection, null if it is not
+     *        idempotent.
+     */
+    void track(Object owner, Token token, int event, int slotId, Client client,
+            long timeoutMillis, Sender sender) {
+        if (token == null || client == null ||
+                !(client.getCallback() instanceof ExtPhoneCallbackListener.IExtPhoneCallbackStub)) {
+            return;
+        }
+        int key = token.get();
+        synchronized (mLock) {
+            if (mEarlyResponses.get(key) != null) {
+                // Already answered, the early response is kept for attachFuture().
+                return;
+            }
+            Request request = new Request(owner, token, event, slotId, client, sender);
+            mRequests.put(key, request);
+            mIdle = false;
+            if (timeoutMillis > 0) {
+                request.mTimeout = getTimerWheel().schedule(
+                        () -> expire(request, Status.TIMEOUT), timeoutMillis);
+            }
+        }
+    }
+
+    /**
+     * Complete future with the payload of the response to the request identified by token.
+     */
+    @SuppressWarnings("unchecked")
+    <T> void attachFuture(Token token, CompletableFuture<T> future) {
+        CompletableFuture<Object> f = (CompletableFuture<Object>) (CompletableFuture<?>) future;
+        int key = token.get();
+        Response early;
+        synchronized (mLock) {
+            Request request = mRequests.get(key);
+            if (request != null) {
+                if (request.mFutures == null) {
+                    request.mFutures = new ArrayList<>();
+                }
+                request.mFutures.add(f);
+                return;
+            }
+            early = mEarlyResponses.get(key);
+            if (early != null) {
+                mEarlyResponses.remove(key);
+                mEarlyTokens.remove(key);
+            }
+        }
+        if (early != null) {
+            complete(f, early.mEvent, early.mStatus, early.mError, early.mData);
+        } else {
+            f.completeExceptionally(new ExtPhoneRequestException("Request is not tracked"));
+        }
+    }
+
+    /**
+     * Key of the requests which are interchangeable: same response event and arguments.
+     */
+    static long shareKey(int event, int slotId, int arg) {
+        return ((long) event << 48) | ((long) (slotId & 0xffff) << 32) | (arg & 0xffffffffL);
+    }
+
+    /**
+     * Let the in-flight request identified by token be joined by identical requests, until
+     * it is answered.
+     */
+    void share(Token token, long shareKey) {
+        synchronized (mLock) {
+            Request request = mRequests.get(token.get());
+            if (request != null && request.mShareKey == 0) {
+                request.mShareKey = shareKey;
+                mShared.put(shareKey, request);
+            }
+        }
+    }
+
+    /**
+     * Join the in-flight request sharing shareKey instead of sending an identical one. The
+     * response is delivered to the listener of client as well, with the Token of the shared
+     * request. A listener waiting for the request already receives it once.
+     *
+     * @return Token of the shared request, null if there is none or client is not backed by
+     *         an ExtPhoneCallbackListener.
+     */
+    Token join(long shareKey, Client client) {
+        if (client == null) {
+            return null;
+        }
+        ExtPhoneCallbackListener.IExtPhoneCallbackStub stub;
+        if (client instanceof CallbackMultiplexer.MultiplexedClient) {
+            // Deliver to the listener itself, the multiplexer only routes the Token once.
+            stub = (ExtPhoneCallbackListener.IExtPhoneCallbackStub)
+                    ((CallbackMultiplexer.MultiplexedClient) client).mListener.mCallback;
+        } else if (client.getCallback() instanceof ExtPhoneCallbackListener.IExtPhoneCallbackStub) {
+            stub = (ExtPhoneCallbackListener.IExtPhoneCallbackStub) client.getCallback();
+        } else {
+            return null;
+        }
+        synchronized (mLock) {
+            Request request = mShared.get(shareKey);
+            if (request == null) {
+                return null;
+            }
+            if (stub != request.mCallback) {
+                if (request.mJoiners == null) {
+                    request.mJoiners = new ArrayList<>();
+                }
+                if (!request.mJoiners.contains(stub)) {
+                    request.mJoiners.add(stub);
+                }
+            }
+            return request.mToken;
+        }
+    }
+
+    /**
+     * Called by IExtPhoneCallbackStub for every callback before it is dispatched.
+     *
+     * @return true if the callback answers a cancelled or expired request, or is held back
+     *         until a request sent again is registered, and must not be dispatched.
+     */
+    boolean onResponse(ExtPhoneCallbackListener.IExtPhoneCallbackStub stub, int event,
+            ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result result) {
+        if (mIdle || result.mToken == null || result.mToken.get() == Token.UNSOL) {
+            return false;
+        }
+        int key = result.mToken.get();
+        Request request;
+        synchronized (mLock) {
+            request = mRequests.get(key);
+            if (request == null) {
+                if (mRetiredTokens.remove(key)) {
+                    updateIdleLocked();
+                    Log.d(TAG, "Dropping late response to " + result.mToken);
+                    return true;
+                }
+                if (mReplays > 0) {
+                    mDeferred.add(new Deferred(stub, event, result.copy()));
+                    return true;
+                }
+                if (mSending > 0) {
+                    if (mEarlyTokens.isFull()) {
+                        mEarlyResponses.remove(mEarlyTokens.poll());
+                    }
+                    mEarlyResponses.put(key, new Response(event, result));
+                    mEarlyTokens.add(key);
+                }
+                return false;
+            }
+            mRequests.remove(key);
+            updateIdleLocked();
+            unshareLocked(request);
+            if (request.mTimeout != null) {
+                getTimerWheel().cancel(request.mTimeout);
+            }
+        }
+        if (request.mToken.get() != key) {
+            // Answer to a request sent again, report it with the Token the caller knows.
+            result.mToken = request.mToken;
+        }
+        if (request.mEvent != event) {
+            Log.e(TAG, "Response event " + event + " does not match request event " +
+                    request.mEvent + " for " + result.mToken);
+        }
+        ExtPhoneMetrics metrics = getMetrics(request);
+        if (metrics != null) {
+            metrics.recordResponse(event, System.nanoTime() - request.mSentAt);
+        }
+        if (request.mFutures != null) {
+            Object data = result.getData();
+            for (CompletableFuture<Object> future : request.mFutures) {
+                complete(future, event, result.mStatus, result.mError, data);
+            }
+        }
+        if (request.mJoiners != null) {
+            for (ExtPhoneCallbackListener.IExtPhoneCallbackStub joiner : request.mJoiners) {
+                joiner.dispatch(event, result.copy());
+            }
+        }
+        if (request.mOnDone != null) {
+            request.mOnDone.run();
+        }
+        return false;
+    }
+
+    /**
+     * Stop waiting for the response to the request identified by token. A response arriving
+     * later is dropped.
+     *
+     * @return true if the request was still in flight. For a request which is not tracked,
+     *         true unless it was cancelled already.
+     */
+    boolean cancel(Token token) {
+        Request request;
+        synchronized (mLock) {
+            request = findLocked(token.get());
+            if (request == null) {
+                if (mRetiredTokens.contains(token.get())) {
+                    return false;
+                }
+                retireLocked(token.get());
+                return true;
+            }
+            removeLocked(request);
+        }
+        if (request.mFutures != null) {
+            for (CompletableFuture<Object> future : request.mFutures) {
+                future.cancel(false);
+            }
+        }
+        if (request.mOnDone != null) {
+            request.mOnDone.run();
+        }
+        unroute(request);
+        return true;
+    }
+
+    /**
+     * Stop completing future, which was cancelled by its caller. The request itself is only
+     * cancelled if nobody else waits for it.
+     */
+    void detach(Token token, CompletableFuture<?> future) {
+        Request request;
+        synchronized (mLock) {
+            request = findLocked(token.get());
+            if (request == null || request.mFutures == null) {
+                return;
+            }
+            request.mFutures.remove(future);
+            if (!request.mFutures.isEmpty()
+                    || (request.mJoiners != null && !request.mJoiners.isEmpty())) {
+                return;
+            }
+            removeLocked(request);
+        }
+        if (request.mOnDone != null) {
+            request.mOnDone.run();
+        }
+        unroute(request);
+    }
+
+    /**
+     * Fail every request sent by owner, e.g. when it disconnects from the service.
+     */
+    void failAll(Object owner) {
+        suspendAll(owner, false);
+    }
+
+    /**
+     * Called when the connection of owner to the service is lost. Requests which can be sent
+     * again are kept until {@link #resumeAll}, unless replay is false; the others fail with
+     * {@link Status#EXCEPTION}. Deadlines keep running meanwhile.
+     */
+    void suspendAll(Object owner, boolean replay) {
+        ArrayList<Request> failed = new ArrayList<>();
+        synchronized (mLock) {
+            for (int i = mRequests.size() - 1; i >= 0; i--) {
+                Request request = mRequests.valueAt(i);
+                if (request.mOwner != owner) {
+                    continue;
+                }
+                if (replay && request.mSender != null && request.mFutures == null) {
+                    mRequests.removeAt(i);
+                    unshareLocked(request);
+                    mSuspended.add(request);
+                } else {
+                    failed.add(request);
+                }
+            }
+            if (!replay) {
+                for (Request request : mSuspended) {
+                    if (request.mOwner == owner) {
+                        failed.add(request);
+                    }
+                }
+            }
+            // A new instance of the service hands out Tokens from scratch.
+            mEarlyResponses.clear();
+            mEarlyTokens.clear();
+            mRetiredTokens.clear();
+            updateIdleLocked();
+        }
+        for (Request request : failed) {
+            expire(request, Status.EXCEPTION);
+        }
+    }
+
+    /**
+     * Send the suspended requests of owner again, once its connection to the service is
+     * restored. Their responses are delivered with the original Tokens.
+     */
+    void resumeAll(Object owner) {
+        ArrayList<Request> requests = new ArrayList<>();
+        synchronized (mLock) {
+            for (Request request : mSuspended) {
+                if (request.mOwner == owner) {
+                    requests.add(request);
+                }
+            }
+            if (requests.isEmpty()) {
+                return;
+            }
+            mReplays++;
+            mIdle = false;
+        }
+        try {
+            for (Request request : requests) {
+                resume(request, request.mSender);
+            }
+        } finally {
+            endReplay();
+        }
+    }
+
+    /**
+     * Run r once the request identified by token is answered, expired or cancelled.
+     *
+     * @return false if the request is not in flight, r is not run then.
+     */
+    boolean setOnDone(Token token, Runnable r) {
+        synchronized (mLock) {
+            Request request = mRequests.get(token.get());
+            if (request == null) {
+                return false;
+            }
+            request.mOnDone = r;
+            return true;
+        }
+    }
+
+    /**
+     * Send a request which was tracked with a placeholder Token while it waited for its
+     * turn, see RequestScheduler. The response is delivered with the placeholder.
+     *
+     * @return false if the request was cancelled or expired meanwhile and was not sent.
+     */
+    boolean sendQueued(Token placeholder, Sender sender) {
+        Request request;
+        synchronized (mLock) {
+            request = mRequests.get(placeholder.get());
+            if (request == null || request.mToken != placeholder) {
+                return false;
+            }
+            mRequests.remove(placeholder.get());
+            mSuspended.add(request);
+            mReplays++;
+            mIdle = false;
+        }
+        try {
+            resume(request, sender);
+        } finally {
+            endReplay();
+        }
+        return true;
+    }
+
+    private void endReplay() {
+        ArrayList<Deferred> deferred = null;
+        synchronized (mLock) {
+            if (--mReplays == 0) {
+                deferred = new ArrayList<>(mDeferred);
+                mDeferred.clear();
+                updateIdleLocked();
+            }
+        }
+        if (deferred != null) {
+            for (Deferred d : deferred) {
+                deliver(d);
+            }
+        }
+    }
+
+    private void resume(Request request, Sender sender) {
+        Token token = null;
+        try {
+            token = sender.send(request.mClient);
+        } catch (RemoteException | RuntimeException e) {
+            Log.e(TAG, "Failed to send " + request.mToken, e);
+        }
+        if (token != null && request.mClient instanceof CallbackMultiplexer.MultiplexedClient) {
+            // Responses are routed by the Token the caller knows, whichever Token the
+            // request is sent with.
+            ((CallbackMultiplexer.MultiplexedClient) request.mClient).route(request.mToken);
+        }
+        ArrayList<Deferred> answered = new ArrayList<>();
+        boolean done = false;
+        synchronized (mLock) {
+            if (!mSuspended.remove(request)) {
+                // Expired or cancelled meanwhile, its response is dropped as a late one.
+                if (token != null) {
+                    retireLocked(token.get());
+                }
+                done = true;
+            } else if (token != null) {
+                request.mKey = token.get();
+                mRequests.put(request.mKey, request);
+                mIdle = false;
+                for (int i = mDeferred.size() - 1; i >= 0; i--) {
+                    Deferred d = mDeferred.get(i);
+                    if (d.mResult.mToken.get() == request.mKey) {
+                        answered.add(0, mDeferred.remove(i));
+                    }
+                }
+            }
+        }
+        if (done) {
+            unroute(request);
+            return;
+        }
+        if (token == null) {
+            if (request.mTimeout != null) {
+                getTimerWheel().cancel(request.mTimeout);
+            }
+            notifyExpired(request, Status.EXCEPTION);
+            return;
+        }
+        Log.d(TAG, "Sent " + request.mToken + " as " + token);
+        for (Deferred d : answered) {
+            deliver(d);
+        }
+    }
+
+    private void deliver(Deferred d) {
+        if (onResponse(d.mStub, d.mEvent, d.mResult)) {
+            d.mResult.recycle();
+        } else {
+            d.mStub.dispatch(d.mEvent, d.mResult);
+        }
+    }
+
+    private void expire(Request request, int status) {
+        synchronized (mLock) {
+            if (!removeLocked(request)) {
+                return;
+            }
+        }
+        notifyExpired(request, status);
+    }
+
+    private void notifyExpired(Request request, int status) {
+        Log.e(TAG, "Request " + request.mToken + " for event " + request.mEvent +
+                " expired, status=" + status);
+        ExtPhoneMetrics metrics = getMetrics(request);
+        if (metrics != null && status == Status.TIMEOUT) {
+            metrics.recordTimeout(request.mEvent);
+        }
+        if (request.mFutures != null) {
+            for (CompletableFuture<Object> future : request.mFutures) {
+                future.completeExceptionally(new ExtPhoneRequestException(
+                        status == Status.TIMEOUT ? "Request timed out" : "Request aborted",
+                        status, ExtPhoneRequestException.NO_ERROR));
+            }
+        }
+        request.mCallback.dispatch(request.mEvent, failureResult(request, status));
+        if (request.mJoiners != null) {
+            for (ExtPhoneCallbackListener.IExtPhoneCallbackStub joiner : request.mJoiners) {
+                joiner.dispatch(request.mEvent, failureResult(request, status));
+            }
+        }
+        if (request.mOnDone != null) {
+            request.mOnDone.run();
+        }
+        unroute(request);
+    }
+
+    /**
+     * Drop the route of a multiplexed request which will not be answered.
+     */
+    private static void unroute(Request request) {
+        if (request.mClient instanceof CallbackMultiplexer.MultiplexedClient) {
+            ((CallbackMultiplexer.MultiplexedClient) request.mClient).unroute(request.mToken);
+        }
+    }
+
+    private static ExtPhoneMetrics getMetrics(Request request) {
+        return request.mOwner instanceof ExtTelephonyManager
+                ? ((ExtTelephonyManager) request.mOwner).getActiveMetrics() : null;
+    }
+
+    /**
+     * @return the request the caller knows by token, whether it was sent again or not.
+     */
+    private Request findLocked(int token) {
+        Request request = mRequests.get(token);
+        if (request != null && request.mToken.get() == token) {
+            return request;
+        }
+        for (int i = 0; i < mRequests.size(); i++) {
+            if (mRequests.valueAt(i).mToken.get() == token) {
+                return mRequests.valueAt(i);
+            }
+        }
+        for (Request suspended : mSuspended) {
+            if (suspended.mToken.get() == token) {
+                return suspended;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return false if the request was no longer in flight.
+     */
+    private boolean removeLocked(Request request) {
+        if (mSuspended.remove(request)) {
+            if (request.mTimeout != null) {
+                getTimerWheel().cancel(request.mTimeout);
+            }
+            return true;
+        }
+        if (mRequests.get(request.mKey) != request) {
+            return false;
+        }
+        mRequests.remove(request.mKey);
+        unshareLocked(request);
+        if (request.mTimeout != null) {
+            getTimerWheel().cancel(request.mTimeout);
+        }
+        retireLocked(request.mKey);
+        return true;
+    }
+
+    private void unshareLocked(Request request) {
+        if (request.mShareKey != 0 && mShared.get(request.mShareKey) == request) {
+            mShared.remove(request.mShareKey);
+        }
+    }
+
+    private void retireLocked(int key) {
+        mRetiredTokens.add(key);
+        mIdle = false;
+    }
+
+    private void updateIdleLocked() {
+        mIdle = mRequests.size() == 0 && mRetiredTokens.isEmpty() && mSending == 0
+                && mReplays == 0;
+    }
+
+    private TimerWheel getTimerWheel() {
+        synchronized (mLock) {
+            if (mTimerWheel == null) {
+                HandlerThread thread = new HandlerThread(TAG);
+                thread.start();
+                mTimerWheel = new TimerWheel(thread.getLooper(), TICK_MILLIS, WHEEL_BUCKETS);
+            }
+            return mTimerWheel;
+        }
+    }
+
+    private static void complete(CompletableFuture<Object> future, int event, Status status,
+            int error, Object data) {
+        if (status != null && status.get() != Status.SUCCESS) {
+            future.completeExceptionally(new ExtPhoneRequestException(
+                    "Request failed", status.get(), ExtPhoneRequestException.NO_ERROR));
+        } else if (isErrorCodeResponse(event) && error != 0) {
+            future.completeExceptionally(new ExtPhoneRequestException(
+                    "Request failed", Status.FAILURE, error));
+        } else {
+            future.complete(data);
+        }
+    }
+
+    /**
+     * Build the response delivered to the listener of a request which did not get one.
+     */
+    private static ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result failureResult(
+            Request request, int status) {
+        switch (request.mEvent) {
+            case ExtPhoneCallbackListener.EVENT_START_NETWORK_SCAN_RESPONSE:
+            case ExtPhoneCallbackListener.EVENT_STOP_NETWORK_SCAN_RESPONSE:
+            case ExtPhoneCallbackListener.EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE:
+            case ExtPhoneCallbackListener.EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE:
+                return ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result.obtain(
+                        request.mSlotId, request.mToken, null,
+                        QRadioResponseInfo.GENERIC_FAILURE, null);
+            case ExtPhoneCallbackListener.EVENT_SET_CARRIER_INFO_FOR_IMSI_ENCRYPTION_RESPONSE:
+                return ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result.obtain(
+                        request.mSlotId, request.mToken, null, 0,
+                        new QRadioResponseInfo(QRadioResponseInfo.SOLICITED,
+                                request.mToken.get(), QRadioResponseInfo.GENERIC_FAILURE));
+            case ExtPhoneCallbackListener.EVENT_ON_ENDC_STATUS:
+            case ExtPhoneCallbackListener.EVENT_ON_5G_STATUS:
+            case ExtPhoneCallbackListener.EVENT_ON_DDS_SWITCH_CAPABILITY_CHANGE:
+            case ExtPhoneCallbackListener.EVENT_ON_DDS_SWITCH_CONFIG_CAPABILITY_CHANGED:
+            case ExtPhoneCallbackListener.EVENT_GET_SECURE_MODE_STATUS_RESPONSE:
+                return ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result.obtain(
+                        request.mSlotId, request.mToken, new Status(status), 0, false);
+            case ExtPhoneCallbackListener.EVENT_GET_QTIRADIO_CAPABILITY_RESPONSE:
+                return ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result.obtain(
+                        request.mSlotId, request.mToken, new Status(status), 0, 0);
+            default:
+                return ExtPhoneCallbackListener.IExtPhoneCallbackStub.Result.obtain(
+                        request.mSlotId, request.mToken, new Status(status), 0, null);
+        }
+    }
+
+    /**
+     * Responses which report the RIL error code instead of a Status.
+     */
+    private static boolean isErrorCodeResponse(int event) {
+        switch (event) {
+            case ExtPhoneCallbackListener.EVENT_START_NETWORK_SCAN_RESPONSE:
+            case ExtPhoneCallbackListener.EVENT_STOP_NETWORK_SCAN_RESPONSE:
+            case ExtPhoneCallbackListener.EVENT_SET_NETWORK_SELECTION_MODE_AUTOMATIC_RESPONSE:
+            case ExtPhoneCallbackListener.EVENT_SET_NETWORK_SELECTION_MODE_MANUAL_RESPONSE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Listeners registered with the Executor they are notified on. A change is queued with
+ * enqueue() under the lock which orders the changes, and handed to the executors by
+ * dispatch() once that lock is released. The notifications of concurrent dispatch() calls
+ * still reach the executors one at a time, in the order they were queued.
+ */
+final class ListenerList<L> {
+    interface Notification<L> {
+        void notify(L listener);
+    }
+
+    private static final class ListenerRecord<L> {
+        final Executor mExecutor;
+        final L mListener;
+
+        ListenerRecord(Executor executor, L listener) {
+            mExecutor = executor;
+            mListener = listener;
+        }
+    }
+
+    private final CopyOnWriteArrayList<ListenerRecord<L>> mListeners =
+            new CopyOnWriteArrayList<>();
+    // Guarded by itself.
+    private final ArrayDeque<Notification<L>> mPending = new ArrayDeque<>();
+    private boolean mDispatching;
+
+    void add(Executor executor, L listener) {
+        if (executor == null || listener == null) {
+            throw new IllegalArgumentException("executor and listener must not be null");
+        }
+        mListeners.add(new ListenerRecord<>(executor, listener));
+    }
+
+    void remove(L listener) {
+        for (ListenerRecord<L> record : mListeners) {
+            if (record.mListener == listener) {
+                mListeners.remove(record);
+            }
+        }
+    }
+
+    /**
+     * Queue notification for the listeners, to be called under the lock of the change.
+     */
+    void enqueue(Notification<L> notification) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        synchronized (mPending) {
+            mPending.add(notification);
+        }
+    }
+
+    /**
+     * Hand the queued notifications to the executors, to be called without holding the lock
+     * of the change. Returns right away if another thread is already doing it.
+     */
+    void dispatch() {
+        synchronized (mPending) {
+            if (mDispatching || mPending.isEmpty()) {
+                return;
+            }
+            mDispatching = true;
+        }
+        boolean done = false;
+        try {
+            while (true) {
+                Notification<L> notification;
+                synchronized (mPending) {
+                    notification = mPending.poll();
+                    if (notification == null) {
+                        mDispatching = false;
+                        done = true;
+                        return;
+                    }
+                }
+                for (ListenerRecord<L> record : mListeners) {
+                    record.mExecutor.execute(() -> notification.notify(record.mListener));
+                }
+            }
+        } finally {
+            if (!done) {
+                // An executor threw, let the next dispatch() go on with the queue.
+                synchronized (mPending) {
+                    mDispatching = false;
+                }
+            }
+        }
+    }
+}
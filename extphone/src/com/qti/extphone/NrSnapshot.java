@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+/**
+ * The 5G state of a slot as returned by queryNrSnapshot, i.e. the results of
+ * queryNrIconType, queryEndcStatus, queryNrConfig, query5gStatus, queryNrDcParam,
+ * queryNrSignalStrength and queryUpperLayerIndInfo in a single response. An object field is
+ * null if the modem did not report it, hasEndcStatus() and has5gStatus() tell whether the
+ * boolean fields were reported.
+ */
+public class NrSnapshot implements Parcelable {
+
+    private static final String TAG = "NrSnapshot";
+
+    private NrIconType mNrIconType;
+    private boolean mHasEndcStatus;
+    private boolean mEndcEnabled;
+    private NrConfig mNrConfig;
+    private boolean mHas5gStatus;
+    private boolean m5gEnabled;
+    private DcParam mDcParam;
+    private SignalStrength mSignalStrength;
+    private UpperLayerIndInfo mUpperLayerIndInfo;
+
+    public NrSnapshot(NrIconType nrIconType, boolean endcEnabled, NrConfig nrConfig,
+            boolean enabled5g, DcParam dcParam, SignalStrength signalStrength,
+            UpperLayerIndInfo upperLayerIndInfo) {
+        this(nrIconType, Boolean.valueOf(endcEnabled), nrConfig, Boolean.valueOf(enabled5g),
+                dcParam, signalStrength, upperLayerIndInfo);
+    }
+
+    /**
+     * @param endcEnabled null if the ENDC status was not reported
+     * @param enabled5g null if the 5G status was not reported
+     */
+    public NrSnapshot(NrIconType nrIconType, Boolean endcEnabled, NrConfig nrConfig,
+            Boolean enabled5g, DcParam dcParam, SignalStrength signalStrength,
+            UpperLayerIndInfo upperLayerIndInfo) {
+        mNrIconType = nrIconType;
+        mHasEndcStatus = endcEnabled != null;
+        mEndcEnabled = mHasEndcStatus && endcEnabled;
+        mNrConfig = nrConfig;
+        mHas5gStatus = enabled5g != null;
+        m5gEnabled = mHas5gStatus && enabled5g;
+        mDcParam = dcParam;
+        mSignalStrength = signalStrength;
+        mUpperLayerIndInfo = upperLayerIndInfo;
+    }
+
+    public NrSnapshot(Parcel in) {
+        readFromParcel(in);
+    }
+
+    public NrIconType getNrIconType() {
+        return mNrIconType;
+    }
+
+    public boolean hasEndcStatus() {
+        return mHasEndcStatus;
+    }
+
+    /**
+     * @return the ENDC status, false if it was not reported
+     */
+    public boolean isEndcEnabled() {
+        return mEndcEnabled;
+    }
+
+    public NrConfig getNrConfig() {
+        return mNrConfig;
+    }
+
+    public boolean has5gStatus() {
+        return mHas5gStatus;
+    }
+
+    /**
+     * @return the 5G status, false if it was not reported
+     */
+    public boolean is5gEnabled() {
+        return m5gEnabled;
+    }
+
+    public DcParam getDcParam() {
+        return mDcParam;
+    }
+
+    public SignalStrength getSignalStrength() {
+        return mSignalStrength;
+    }
+
+    public UpperLayerIndInfo getUpperLayerIndInfo() {
+        return mUpperLayerIndInfo;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeParcelable(mNrIconType, flags);
+        out.writeBoolean(mHasEndcStatus);
+        out.writeBoolean(mEndcEnabled);
+        out.writeParcelable(mNrConfig, flags);
+        out.writeBoolean(mHas5gStatus);
+        out.writeBoolean(m5gEnabled);
+        out.writeParcelable(mDcParam, flags);
+        out.writeParcelable(mSignalStrength, flags);
+        out.writeParcelable(mUpperLayerIndInfo, flags);
+    }
+
+    public static final Parcelable.Creator<NrSnapshot> CREATOR = new Parcelable.Creator() {
+        public NrSnapshot createFromParcel(Parcel in) {
+            return new NrSnapshot(in);
+        }
+
+        public NrSnapshot[] newArray(int size) {
+            return new NrSnapshot[size];
+        }
+    };
+
+    public void readFromParcel(Parcel in) {
+        mNrIconType = in.readParcelable(NrIconType.class.getClassLoader());
+        mHasEndcStatus = in.readBoolean();
+        mEndcEnabled = in.readBoolean();
+        mNrConfig = in.readParcelable(NrConfig.class.getClassLoader());
+        mHas5gStatus = in.readBoolean();
+        m5gEnabled = in.readBoolean();
+        mDcParam = in.readParcelable(DcParam.class.getClassLoader());
+        mSignalStrength = in.readParcelable(SignalStrength.class.getClassLoader());
+        mUpperLayerIndInfo = in.readParcelable(UpperLayerIndInfo.class.getClassLoader());
+    }
+
+    @Override
+    public String toString() {
+        return TAG + ": nrIconType = " + mNrIconType +
+                ", endcEnabled = " + (mHasEndcStatus ? mEndcEnabled : "unknown") +
+                ", nrConfig = " + mNrConfig +
+                ", 5gEnabled = " + (mHas5gStatus ? m5gEnabled : "unknown") +
+                ", dcParam = " + mDcParam + ", signalStrength = " + mSignalStrength +
+                ", upperLayerIndInfo = " + mUpperLayerIndInfo;
+    }
+}
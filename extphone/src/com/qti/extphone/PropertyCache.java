@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of the vendor property values read through ExtTelephonyManager. Entries
+ * expire after a TTL; a TTL of 0 disables the cache. Values are keyed by property name, with
+ * one slot per type remembering the default value it was read with, since the service
+ * answers with the default for unset properties. A hit allocates nothing.
+ */
+final class PropertyCache {
+    // Returned by getInt() and getBool() when the value is not cached.
+    static final long MISS = Long.MIN_VALUE;
+
+    // Returned by getString() when the value is not cached, compared by identity.
+    static final String MISS_STRING = new String("");
+
+    private final LruCache<String, Entry> mEntries;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private volatile long mTtlMillis;
+
+    /**
+     * Cached values of a property, guarded by the PropertyCache. An expiry of 0 marks an
+     * empty slot.
+     */
+    private static final class Entry {
+        int mIntDef;
+        int mIntValue;
+        long mIntExpiry;
+        boolean mBoolDef;
+        boolean mBoolValue;
+        long mBoolExpiry;
+        String mStringDef;
+        String mStringValue;
+        long mStringExpiry;
+    }
+
+    PropertyCache(int maxEntries) {
+        mEntries = new LruCache<>(maxEntries);
+    }
+
+    void setTtl(long ttlMillis) {
+        mTtlMillis = ttlMillis;
+        if (ttlMillis <= 0) {
+            mEntries.evictAll();
+        }
+    }
+
+    long getTtl() {
+        return mTtlMillis;
+    }
+
+    /**
+     * @return the entry of property to store a value to, null if the cache is disabled.
+     */
+    private Entry lookupForPut(String property) {
+        if (mTtlMillis <= 0 || property == null) {
+            return null;
+        }
+        Entry entry = mEntries.get(property);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(property, entry);
+        }
+        return entry;
+    }
+
+    private boolean count(boolean hit) {
+        (hit ? mHits : mMisses).incrementAndGet();
+        return hit;
+    }
+
+    /**
+     * @return the cached value of property read with def, {@link #MISS} if not cached.
+     */
+    synchronized long getInt(String property, int def) {
+        if (mTtlMillis <= 0 || property == null) {
+            return MISS;
+        }
+        Entry entry = mEntries.get(property);
+        boolean hit = entry != null && entry.mIntDef == def
+                && entry.mIntExpiry > SystemClock.elapsedRealtime();
+        return count(hit) ? entry.mIntValue : MISS;
+    }
+
+    /**
+     * @return the cached value of property read with def as 1 or 0, {@link #MISS} if not
+     *         cached.
+     */
+    synchronized long getBool(String property, boolean def) {
+        if (mTtlMillis <= 0 || property == null) {
+            return MISS;
+        }
+        Entry entry = mEntries.get(property);
+        boolean hit = entry != null && entry.mBoolDef == def
+                && entry.mBoolExpiry > SystemClock.elapsedRealtime();
+        return count(hit) ? (entry.mBoolValue ? 1 : 0) : MISS;
+    }
+
+    /**
+     * @return the cached value of property read with def, {@link #MISS_STRING} if not
+     *         cached.
+     */
+    synchronized String getString(String property, String def) {
+        if (mTtlMillis <= 0 || property == null) {
+            return MISS_STRING;
+        }
+        Entry entry = mEntries.get(property);
+        boolean hit = entry != null && Objects.equals(entry.mStringDef, def)
+                && entry.mStringExpiry > SystemClock.elapsedRealtime();
+        return count(hit) ? entry.mStringValue : MISS_STRING;
+    }
+
+    synchronized void putInt(String property, int def, int value) {
+        Entry entry = lookupForPut(property);
+        if (entry != null) {
+            entry.mIntDef = def;
+            entry.mIntValue = value;
+            entry.mIntExpiry = SystemClock.elapsedRealtime() + mTtlMillis;
+        }
+    }
+
+    synchronized void putBool(String property, boolean def, boolean value) {
+        Entry entry = lookupForPut(property);
+        if (entry != null) {
+            entry.mBoolDef = def;
+            entry.mBoolValue = value;
+            entry.mBoolExpiry = SystemClock.elapsedRealtime() + mTtlMillis;
+        }
+    }
+
+    synchronized void putString(String property, String def, String value) {
+        Entry entry = lookupForPut(property);
+        if (entry != null) {
+            entry.mStringDef = def;
+            entry.mStringValue = value;
+            entry.mStringExpiry = SystemClock.elapsedRealtime() + mTtlMillis;
+        }
+    }
+
+    /**
+     * Drop the cached values of property, whatever their type and default.
+     */
+    void invalidate(String property) {
+        if (property != null) {
+            mEntries.remove(property);
+        }
+    }
+
+    void invalidateAll() {
+        mEntries.evictAll();
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+/**
+ * Running totals of the guaranteed and maximum bitrates granted on each slot and cid,
+ * summed over the default QoS and the dedicated bearer sessions. The totals follow the
+ * diffs of a {@link QosParametersTracker}, which is fed the QoS parameters instead, and
+ * keep no other copy of them.
+ *
+ * Each diff only adds and subtracts the bearers whose QoS changed. Reads return an
+ * immutable Totals without locking.
+ */
+public class QosBandwidthAggregator implements QosParametersTracker.Listener {
+    private static final Totals EMPTY = new Totals(0, 0, 0, 0, 0);
+
+    /**
+     * Sums of the bitrates of a set of bearers, in kbps.
+     */
+    public static final class Totals {
+        private final long mUplinkGuaranteedKbps;
+        private final long mUplinkMaxKbps;
+        private final long mDownlinkGuaranteedKbps;
+        private final long mDownlinkMaxKbps;
+        private final int mBearerCount;
+
+        private Totals(long uplinkGuaranteedKbps, long uplinkMaxKbps,
+                long downlinkGuaranteedKbps, long downlinkMaxKbps, int bearerCount) {
+            mUplinkGuaranteedKbps = uplinkGuaranteedKbps;
+            mUplinkMaxKbps = uplinkMaxKbps;
+            mDownlinkGuaranteedKbps = downlinkGuaranteedKbps;
+            mDownlinkMaxKbps = downlinkMaxKbps;
+            mBearerCount = bearerCount;
+        }
+
+        public long getUplinkGuaranteedKbps() {
+            return mUplinkGuaranteedKbps;
+        }
+
+        public long getUplinkMaxKbps() {
+            return mUplinkMaxKbps;
+        }
+
+        public long getDownlinkGuaranteedKbps() {
+            return mDownlinkGuaranteedKbps;
+        }
+
+        public long getDownlinkMaxKbps() {
+            return mDownlinkMaxKbps;
+        }
+
+        /**
+         * @return number of default and dedicated bearers summed up.
+         */
+        public int getBearerCount() {
+            return mBearerCount;
+        }
+
+        private Totals plus(Delta delta) {
+            return new Totals(mUplinkGuaranteedKbps + delta.mUplinkGuaranteedKbps,
+                    mUplinkMaxKbps + delta.mUplinkMaxKbps,
+                    mDownlinkGuaranteedKbps + delta.mDownlinkGuaranteedKbps,
+                    mDownlinkMaxKbps + delta.mDownlinkMaxKbps,
+                    mBearerCount + delta.mBearerCount);
+        }
+
+        @Override
+        public String toString() {
+            return "Totals{ul gbr=" + mUplinkGuaranteedKbps + ", ul mbr=" + mUplinkMaxKbps
+                    + ", dl gbr=" + mDownlinkGuaranteedKbps + ", dl mbr=" + mDownlinkMaxKbps
+                    + ", bearers=" + mBearerCount + "}";
+        }
+    }
+
+    /**
+     * Change of the totals of a cid, accumulated over the bearers of a diff.
+     */
+    private static final class Delta {
+        long mUplinkGuaranteedKbps;
+        long mUplinkMaxKbps;
+        long mDownlinkGuaranteedKbps;
+        long mDownlinkMaxKbps;
+        int mBearerCount;
+
+        void add(Qos qos, int sign) {
+            if (qos == null) {
+                return;
+            }
+            Qos.QosBandwidth uplink = qos.getUplinkBandwidth();
+            Qos.QosBandwidth downlink = qos.getDownlinkBandwidth();
+            // The HAL reports the bitrates as uint32.
+            mUplinkGuaranteedKbps +=
+                    sign * Integer.toUnsignedLong(uplink.getGuaranteedBitrateKbps());
+            mUplinkMaxKbps += sign * Integer.toUnsignedLong(uplink.getMaxBitrateKbps());
+            mDownlinkGuaranteedKbps +=
+                    sign * Integer.toUnsignedLong(downlink.getGuaranteedBitrateKbps());
+            mDownlinkMaxKbps += sign * Integer.toUnsignedLong(downlink.getMaxBitrateKbps());
+            mBearerCount += sign;
+        }
+
+        boolean isEmpty() {
+            return mUplinkGuaranteedKbps == 0 && mUplinkMaxKbps == 0
+                    && mDownlinkGuaranteedKbps == 0 && mDownlinkMaxKbps == 0
+                    && mBearerCount == 0;
+        }
+    }
+
+    private final Object mLock = new Object();
+    // Copy on write, indexed by slot id then cid and read without locking.
+    private volatile SparseArray<Totals>[] mCidTotals = newSlots(0);
+    // Copy on write, indexed by slot id and read without locking.
+    private volatile Totals[] mSlotTotals = new Totals[0];
+
+    /**
+     * Sum the bitrates of the parameters reported to tracker from now on, create it before
+     * tracker is fed.
+     */
+    public QosBandwidthAggregator(QosParametersTracker tracker) {
+        tracker.addListener(ExtPhoneCallbackListener.DIRECT_EXECUTOR, this);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SparseArray<Totals>[] newSlots(int length) {
+        return (SparseArray<Totals>[]) new SparseArray[length];
+    }
+
+    /**
+     * @return the totals of the cids of slotId, null if it has none.
+     */
+    private SparseArray<Totals> getCids(int slotId) {
+        SparseArray<Totals>[] slots = mCidTotals;
+        return slotId >= 0 && slotId < slots.length ? slots[slotId] : null;
+    }
+
+    private void publishCidsLocked(int slotId, SparseArray<Totals> cids) {
+        SparseArray<Totals>[] slots = mCidTotals;
+        if (slotId >= slots.length) {
+            SparseArray<Totals>[] grown = newSlots(slotId + 1);
+            System.arraycopy(slots, 0, grown, 0, slots.length);
+            slots = grown;
+        } else {
+            slots = slots.clone();
+        }
+        slots[slotId] = cids;
+        mCidTotals = slots;
+    }
+
+    /**
+     * @return the totals of all the data connections of slotId.
+     */
+    public Totals getSlotTotals(int slotId) {
+        Totals[] totals = mSlotTotals;
+        if (slotId < 0 || slotId >= totals.length || totals[slotId] == null) {
+            return EMPTY;
+        }
+        return totals[slotId];
+    }
+
+    /**
+     * @return the totals of the data connection of cid on slotId.
+     */
+    public Totals getCidTotals(int slotId, int cid) {
+        SparseArray<Totals> cids = getCids(slotId);
+        Totals totals = cids != null ? cids.get(cid) : null;
+        return totals != null ? totals : EMPTY;
+    }
+
+    @Override
+    public void onQosParametersDiff(int slotId, int cid, QosParametersResult result,
+            QosParametersDiff diff) {
+        Delta delta = new Delta();
+        if (diff.isDefaultQosChanged()) {
+            delta.add(diff.getOldDefaultQos(), -1);
+            delta.add(diff.getNewDefaultQos(), 1);
+        }
+        for (QosBearerSession session : diff.getRemovedSessions()) {
+            delta.add(session.getQos(), -1);
+        }
+        for (QosBearerSession session : diff.getAddedSessions()) {
+            delta.add(session.getQos(), 1);
+        }
+        for (QosParametersDiff.SessionDiff session : diff.getModifiedSessions()) {
+            if (session.isQosChanged()) {
+                delta.add(session.getOldSession().getQos(), -1);
+                delta.add(session.getNewSession().getQos(), 1);
+            }
+        }
+        synchronized (mLock) {
+            SparseArray<Totals> current = getCids(slotId);
+            if (result == null) {
+                if (current != null && current.get(cid) != null) {
+                    SparseArray<Totals> cids = current.clone();
+                    cids.remove(cid);
+                    publishCidsLocked(slotId, cids.size() > 0 ? cids : null);
+                }
+            } else if (!delta.isEmpty()) {
+                SparseArray<Totals> cids = current != null ? current.clone() : new SparseArray<>();
+                cids.put(cid, getCidTotals(slotId, cid).plus(delta));
+                publishCidsLocked(slotId, cids);
+            }
+            if (delta.isEmpty()) {
+                return;
+            }
+
+            Totals[] totals = mSlotTotals;
+            totals = slotId >= totals.length
+                    ? Arrays.copyOf(totals, slotId + 1) : totals.clone();
+            totals[slotId] = getSlotTotals(slotId).plus(delta);
+            mSlotTotals = totals;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import android.net.InetAddresses;
 import android.net.LinkAddress;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.util.LruCache;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -100,6 +101,12 @@ public final class QosBearerFilter implements Parcelable {
 
     private @QosBearerFilterDirection int filterDirection;
 
+    // Parsed addresses by HAL string. The same addresses come back in every QoS update of a
+    // data connection, and across its sessions.
+    private static final int LINK_ADDRESS_CACHE_SIZE = 256;
+    private static final LruCache<String, LinkAddress> sLinkAddresses =
+            new LruCache<>(LINK_ADDRESS_CACHE_SIZE);
+
     /**
      * Specified the order in which the filter needs to be matched.
      * A Lower numerical value has a higher precedence.
@@ -183,19 +190,8 @@ public final class QosBearerFilter implements Parcelable {
             /* @NonNull */ android.hardware.radio.V1_6.QosFilter qosFilter) {
         QosBearerFilter ret = new QosBearerFilter();
 
-        String[] localAddresses = qosFilter.localAddresses.stream().toArray(String[]::new);
-        if (localAddresses != null) {
-            for (String address : localAddresses) {
-                ret.localAddresses.add(createLinkAddressFromString(address));
-            }
-        }
-
-        String[] remoteAddresses = qosFilter.remoteAddresses.stream().toArray(String[]::new);
-        if (remoteAddresses != null) {
-            for (String address : remoteAddresses) {
-                ret.remoteAddresses.add(createLinkAddressFromString(address));
-            }
-        }
+        addLinkAddresses(qosFilter.localAddresses, ret.localAddresses);
+        addLinkAddresses(qosFilter.remoteAddresses, ret.remoteAddresses);
 
         if (qosFilter.localPort != null) {
             if (qosFilter.localPort.getDiscriminator()
@@ -379,20 +375,49 @@ public final class QosBearerFilter implements Parcelable {
                 && precedence == other.precedence;
     }
 
+    private static void addLinkAddresses(/* @Nullable */ List<String> addressStrings,
+            List<LinkAddress> addresses) {
+        if (addressStrings == null) {
+            return;
+        }
+        int size = addressStrings.size();
+        if (addresses instanceof ArrayList) {
+            ((ArrayList<LinkAddress>) addresses).ensureCapacity(size);
+        }
+        for (int i = 0; i < size; i++) {
+            addresses.add(createLinkAddressFromString(addressStrings.get(i)));
+        }
+    }
+
+    /**
+     * @return the LinkAddress parsed from addressString, shared with the previous filters
+     *         which carried the same string. LinkAddress is immutable.
+     */
     private static LinkAddress createLinkAddressFromString(String addressString) {
+        if (addressString == null) {
+            throw new IllegalArgumentException("Invalid link address null");
+        }
+        LinkAddress linkAddress = sLinkAddresses.get(addressString);
+        if (linkAddress == null) {
+            linkAddress = parseLinkAddress(addressString);
+            sLinkAddresses.put(addressString, linkAddress);
+        }
+        return linkAddress;
+    }
+
+    private static LinkAddress parseLinkAddress(String addressString) {
         addressString = addressString.trim();
         InetAddress address = null;
         int prefixLength = -1;
         try {
-            String[] pieces = addressString.split("/", 2);
-            address = InetAddresses.parseNumericAddress(pieces[0]);
-            if (pieces.length == 1) {
+            int slash = addressString.indexOf('/');
+            address = InetAddresses.parseNumericAddress(
+                    slash < 0 ? addressString : addressString.substring(0, slash));
+            if (slash < 0) {
                 prefixLength = (address instanceof Inet4Address) ? 32 : 128;
-            } else if (pieces.length == 2) {
-                prefixLength = Integer.parseInt(pieces[1]);
+            } else {
+                prefixLength = Integer.parseInt(addressString.substring(slash + 1));
             }
-        } catch (NullPointerException e) {            // Null string.
-        } catch (ArrayIndexOutOfBoundsException e) {  // No prefix length.
         } catch (NumberFormatException e) {           // Non-numeric prefix.
         } catch (IllegalArgumentException e) {        // Invalid IP address.
         }
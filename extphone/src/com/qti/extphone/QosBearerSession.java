@@ -81,12 +81,16 @@ public final class QosBearerSession implements Parcelable{
     // @NonNull
     public static QosBearerSession create(
             /* @NonNull */ android.hardware.radio.V1_6.QosSession qosSession) {
-        List<QosBearerFilter> qosBearerFilters = new ArrayList<>();
+        List<QosBearerFilter> qosBearerFilters;
 
         if (qosSession.qosFilters != null) {
-            for (android.hardware.radio.V1_6.QosFilter filter : qosSession.qosFilters) {
-                qosBearerFilters.add(QosBearerFilter.create(filter));
+            int size = qosSession.qosFilters.size();
+            qosBearerFilters = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                qosBearerFilters.add(QosBearerFilter.create(qosSession.qosFilters.get(i)));
             }
+        } else {
+            qosBearerFilters = new ArrayList<>();
         }
 
         return new QosBearerSession(
@@ -0,0 +1,553 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.net.LinkAddress;
+import android.os.RemoteException;
+import android.util.SparseArray;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps flows to the dedicated bearer carrying them, from the QoS filters reported by
+ * onQosParametersChanged. Register it with
+ * {@link ExtTelephonyManager#registerCallbackWithEvents} for {@link #EVENTS}, or feed it
+ * the results of getQosParameters with {@link #update}.
+ *
+ * The filters of each slot and cid are compiled into an immutable index: a binary prefix
+ * trie per address family for the local and remote addresses, sorted port boundaries for
+ * the port ranges, and per protocol and direction rule sets. A lookup walks the tries,
+ * binary searches the ports and intersects the sets, the first rule left in precedence
+ * order wins. The indexes are published copy on write, an array indexed by slot id of
+ * arrays keyed by cid, so lookups never lock nor allocate.
+ */
+public class QosClassifier extends ExtPhoneCallbackListener {
+    public static final int[] EVENTS = {
+            EVENT_ON_QOS_PARAMETERS_CHANGED
+    };
+
+    /**
+     * Returned by classify() for the flows carried by the default bearer.
+     */
+    public static final int DEFAULT_BEARER = -1;
+
+    private static final int IPV4_LENGTH = 4;
+    private static final byte[] EMPTY_ADDRESS = new byte[0];
+
+    private final Object mLock = new Object();
+    // Copy on write, indexed by slot id, read without locking. Neither the array nor the
+    // SparseArrays in it are modified once published.
+    private volatile SparseArray<Index>[] mIndexes = newSlots(0);
+
+    /**
+     * A flow to classify. Addresses and ports are seen from the device, whatever the
+     * direction: the local address is the one of the device.
+     */
+    public static final class Flow {
+        private final int mDirection;
+        private final byte[] mLocalAddress;
+        private final int mLocalPort;
+        private final byte[] mRemoteAddress;
+        private final int mRemotePort;
+        private final int mProtocol;
+        private int mTypeOfService;
+        private long mFlowLabel;
+        private long mSpi;
+
+        /**
+         * @param direction QOS_FILTER_DIRECTION_UPLINK or QOS_FILTER_DIRECTION_DOWNLINK.
+         * @param localPort -1 for the protocols without ports.
+         * @param remotePort -1 for the protocols without ports.
+         * @param protocol QosBearerFilter.QOS_PROTOCOL_*, the IP protocol number otherwise.
+         */
+        public Flow(int direction, InetAddress localAddress, int localPort,
+                InetAddress remoteAddress, int remotePort, int protocol) {
+            if (direction != QosBearerFilter.QOS_FILTER_DIRECTION_UPLINK
+                    && direction != QosBearerFilter.QOS_FILTER_DIRECTION_DOWNLINK) {
+                throw new IllegalArgumentException("Invalid direction " + direction);
+            }
+            mDirection = direction;
+            mLocalAddress = localAddress.getAddress();
+            mLocalPort = localPort;
+            mRemoteAddress = remoteAddress.getAddress();
+            mRemotePort = remotePort;
+            mProtocol = protocol;
+        }
+
+        public Flow setTypeOfService(int typeOfService) {
+            mTypeOfService = typeOfService;
+            return this;
+        }
+
+        public Flow setFlowLabel(long flowLabel) {
+            mFlowLabel = flowLabel;
+            return this;
+        }
+
+        public Flow setSpi(long spi) {
+            mSpi = spi;
+            return this;
+        }
+    }
+
+    /**
+     * The fields of a QosBearerFilter in the form the index is built from.
+     */
+    private static final class Terms {
+        final byte[][] mLocalAddresses;
+        final int[] mLocalPrefixLengths;
+        final byte[][] mRemoteAddresses;
+        final int[] mRemotePrefixLengths;
+        final int mLocalPortStart;
+        final int mLocalPortEnd;
+        final int mRemotePortStart;
+        final int mRemotePortEnd;
+        final int mProtocol;
+        final int mTypeOfService;
+        final long mFlowLabel;
+        final long mSpi;
+        final int mDirection;
+        final int mPrecedence;
+
+        Terms(QosBearerFilter filter) {
+            List<LinkAddress> local = filter.getLocalAddresses();
+            mLocalAddresses = new byte[local.size()][];
+            mLocalPrefixLengths = new int[local.size()];
+            for (int i = 0; i < local.size(); i++) {
+                mLocalAddresses[i] = local.get(i).getAddress().getAddress();
+                mLocalPrefixLengths[i] = local.get(i).getPrefixLength();
+            }
+            List<LinkAddress> remote = filter.getRemoteAddresses();
+            mRemoteAddresses = new byte[remote.size()][];
+            mRemotePrefixLengths = new int[remote.size()];
+            for (int i = 0; i < remote.size(); i++) {
+                mRemoteAddresses[i] = remote.get(i).getAddress().getAddress();
+                mRemotePrefixLengths[i] = remote.get(i).getPrefixLength();
+            }
+            QosBearerFilter.PortRange localPort = filter.getLocalPortRange();
+            boolean anyLocalPort = localPort == null || !localPort.isValid();
+            mLocalPortStart = anyLocalPort ? -1 : localPort.getStart();
+            mLocalPortEnd = anyLocalPort ? -1 : localPort.getEnd();
+            QosBearerFilter.PortRange remotePort = filter.getRemotePortRange();
+            boolean anyRemotePort = remotePort == null || !remotePort.isValid();
+            mRemotePortStart = anyRemotePort ? -1 : remotePort.getStart();
+            mRemotePortEnd = anyRemotePort ? -1 : remotePort.getEnd();
+            mProtocol = filter.getProtocol();
+            mTypeOfService = filter.getTypeOfServiceMask();
+            mFlowLabel = filter.getFlowLabel();
+            mSpi = filter.getSpi();
+            mDirection = filter.getDirection();
+            mPrecedence = filter.getPrecedence();
+        }
+
+        /**
+         * @return whether the fields left out of the index match flow. Those are rarely
+         *         set, a value of 0 matches any flow.
+         */
+        boolean matchesUnindexed(Flow flow) {
+            return (mTypeOfService == 0 || mTypeOfService == flow.mTypeOfService)
+                    && (mFlowLabel == 0 || mFlowLabel == flow.mFlowLabel)
+                    && (mSpi == 0 || mSpi == flow.mSpi);
+        }
+    }
+
+    private static final class Rule {
+        final int mSessionId;
+        final Terms mTerms;
+
+        Rule(int sessionId, Terms terms) {
+            mSessionId = sessionId;
+            mTerms = terms;
+        }
+    }
+
+    /**
+     * Binary trie over the bits of the addresses of one family. Every node holds the set of
+     * rules whose prefixes cover it, so a lookup returns the set of its deepest node.
+     */
+    private static final class Trie {
+        static final class Node {
+            Node mZero;
+            Node mOne;
+            long[] mOwn;
+            long[] mMatch;
+        }
+
+        final Node mRoot = new Node();
+        final int mWords;
+
+        Trie(int words) {
+            mWords = words;
+        }
+
+        void insert(byte[] address, int prefixLength, int rule) {
+            int length = Math.max(0, Math.min(prefixLength, address.length * 8));
+            Node node = mRoot;
+            for (int bit = 0; bit < length; bit++) {
+                if (isSet(address, bit)) {
+                    if (node.mOne == null) {
+                        node.mOne = new Node();
+                    }
+                    node = node.mOne;
+                } else {
+                    if (node.mZero == null) {
+                        node.mZero = new Node();
+                    }
+                    node = node.mZero;
+                }
+            }
+            if (node.mOwn == null) {
+                node.mOwn = new long[mWords];
+            }
+            setBit(node.mOwn, rule);
+        }
+
+        /**
+         * Fill the mMatch of every node, sharing the set of the parent where the node adds
+         * no rule.
+         */
+        void seal() {
+            seal(mRoot, new long[mWords]);
+        }
+
+        private static void seal(Node node, long[] inherited) {
+            if (node.mOwn == null) {
+                node.mMatch = inherited;
+            } else {
+                node.mMatch = node.mOwn;
+                for (int w = 0; w < inherited.length; w++) {
+                    node.mMatch[w] |= inherited[w];
+                }
+            }
+            if (node.mZero != null) {
+                seal(node.mZero, node.mMatch);
+            }
+            if (node.mOne != null) {
+                seal(node.mOne, node.mMatch);
+            }
+        }
+
+        long[] lookup(byte[] address) {
+            Node node = mRoot;
+            int length = address.length * 8;
+            for (int bit = 0; bit < length; bit++) {
+                Node next = isSet(address, bit) ? node.mOne : node.mZero;
+                if (next == null) {
+                    break;
+                }
+                node = next;
+            }
+            return node.mMatch;
+        }
+
+        private static boolean isSet(byte[] address, int bit) {
+            return (address[bit >>> 3] & (0x80 >>> (bit & 7))) != 0;
+        }
+    }
+
+    /**
+     * Port ranges cut into segments at their boundaries, every segment holding the set of
+     * rules covering it.
+     */
+    private static final class PortIndex {
+        final int[] mBounds;
+        final long[][] mSets;
+        final long[] mAny;
+
+        PortIndex(Rule[] rules, boolean local, int words) {
+            mAny = new long[words];
+            int[] bounds = new int[rules.length * 2];
+            int count = 0;
+            for (int i = 0; i < rules.length; i++) {
+                int start = local ? rules[i].mTerms.mLocalPortStart
+                        : rules[i].mTerms.mRemotePortStart;
+                int end = local ? rules[i].mTerms.mLocalPortEnd : rules[i].mTerms.mRemotePortEnd;
+                if (start < 0) {
+                    setBit(mAny, i);
+                } else {
+                    bounds[count++] = start;
+                    bounds[count++] = end + 1;
+                }
+            }
+            Arrays.sort(bounds, 0, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                if (distinct == 0 || bounds[distinct - 1] != bounds[i]) {
+                    bounds[distinct++] = bounds[i];
+                }
+            }
+            mBounds = Arrays.copyOf(bounds, distinct);
+            mSets = new long[distinct][];
+            for (int i = 0; i < distinct; i++) {
+                mSets[i] = mAny.clone();
+            }
+            for (int i = 0; i < rules.length; i++) {
+                int start = local ? rules[i].mTerms.mLocalPortStart
+                        : rules[i].mTerms.mRemotePortStart;
+                int end = local ? rules[i].mTerms.mLocalPortEnd : rules[i].mTerms.mRemotePortEnd;
+                if (start < 0) {
+                    continue;
+                }
+                int last = Arrays.binarySearch(mBounds, end + 1);
+                for (int s = Arrays.binarySearch(mBounds, start); s < last; s++) {
+                    setBit(mSets[s], i);
+                }
+            }
+        }
+
+        long[] lookup(int port) {
+            int i = Arrays.binarySearch(mBounds, port);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            return i < 0 ? mAny : mSets[i];
+        }
+    }
+
+    /**
+     * Compiled filters of the sessions of a cid.
+     */
+    private static final class Index {
+        final Rule[] mRules;
+        final int mWords;
+        final QosParametersResult mResult;
+        final Map<QosBearerFilter, Terms> mTerms;
+        final Trie mLocal4;
+        final Trie mLocal6;
+        final Trie mRemote4;
+        final Trie mRemote6;
+        final PortIndex mLocalPorts;
+        final PortIndex mRemotePorts;
+        final SparseArray<long[]> mProtocols = new SparseArray<>();
+        final long[] mAnyProtocol;
+        final long[] mUplink;
+        final long[] mDownlink;
+
+        /**
+         * @param previous index of the same cid, whose compiled filters are reused.
+         */
+        Index(QosParametersResult result, Index previous) {
+            mResult = result;
+            mTerms = new HashMap<>();
+            List<Rule> rules = new ArrayList<>();
+            for (QosBearerSession session : result.getQosBearerSessions()) {
+                for (QosBearerFilter filter : session.getQosBearerFilterList()) {
+                    Terms terms = mTerms.get(filter);
+                    if (terms == null && previous != null) {
+                        terms = previous.mTerms.get(filter);
+                    }
+                    if (terms == null) {
+                        terms = new Terms(filter);
+                    }
+                    mTerms.put(filter, terms);
+                    rules.add(new Rule(session.getQosBearerSessionId(), terms));
+                }
+            }
+            // Stable, the rules of equal precedence keep the order of the result.
+            Collections.sort(rules,
+                    (a, b) -> Integer.compare(a.mTerms.mPrecedence, b.mTerms.mPrecedence));
+            mRules = rules.toArray(new Rule[rules.size()]);
+            mWords = (mRules.length + 63) / 64;
+
+            mLocal4 = new Trie(mWords);
+            mLocal6 = new Trie(mWords);
+            mRemote4 = new Trie(mWords);
+            mRemote6 = new Trie(mWords);
+            mAnyProtocol = new long[mWords];
+            mUplink = new long[mWords];
+            mDownlink = new long[mWords];
+            for (int i = 0; i < mRules.length; i++) {
+                Terms terms = mRules[i].mTerms;
+                insert(mLocal4, mLocal6, terms.mLocalAddresses, terms.mLocalPrefixLengths, i);
+                insert(mRemote4, mRemote6, terms.mRemoteAddresses, terms.mRemotePrefixLengths,
+                        i);
+                if (terms.mProtocol == QosBearerFilter.QOS_PROTOCOL_UNSPECIFIED) {
+                    setBit(mAnyProtocol, i);
+                } else if (mProtocols.get(terms.mProtocol) == null) {
+                    mProtocols.put(terms.mProtocol, new long[mWords]);
+                }
+                if (terms.mDirection != QosBearerFilter.QOS_FILTER_DIRECTION_DOWNLINK) {
+                    setBit(mUplink, i);
+                }
+                if (terms.mDirection != QosBearerFilter.QOS_FILTER_DIRECTION_UPLINK) {
+                    setBit(mDownlink, i);
+                }
+            }
+            for (int p = 0; p < mProtocols.size(); p++) {
+                long[] set = mProtocols.valueAt(p);
+                System.arraycopy(mAnyProtocol, 0, set, 0, mWords);
+                for (int i = 0; i < mRules.length; i++) {
+                    if (mRules[i].mTerms.mProtocol == mProtocols.keyAt(p)) {
+                        setBit(set, i);
+                    }
+                }
+            }
+            mLocal4.seal();
+            mLocal6.seal();
+            mRemote4.seal();
+            mRemote6.seal();
+            mLocalPorts = new PortIndex(mRules, true, mWords);
+            mRemotePorts = new PortIndex(mRules, false, mWords);
+        }
+
+        /**
+         * Insert the addresses of a rule, or make it match any address if it has none.
+         */
+        private static void insert(Trie trie4, Trie trie6, byte[][] addresses,
+                int[] prefixLengths, int rule) {
+            if (addresses.length == 0) {
+                trie4.insert(EMPTY_ADDRESS, 0, rule);
+                trie6.insert(EMPTY_ADDRESS, 0, rule);
+                return;
+            }
+            for (int i = 0; i < addresses.length; i++) {
+                Trie trie = addresses[i].length == IPV4_LENGTH ? trie4 : trie6;
+                trie.insert(addresses[i], prefixLengths[i], rule);
+            }
+        }
+
+        int classify(Flow flow) {
+            long[] direction =
+                    flow.mDirection == QosBearerFilter.QOS_FILTER_DIRECTION_DOWNLINK
+                    ? mDownlink : mUplink;
+            long[] protocol = mProtocols.get(flow.mProtocol, mAnyProtocol);
+            long[] localPort = mLocalPorts.lookup(flow.mLocalPort);
+            long[] remotePort = mRemotePorts.lookup(flow.mRemotePort);
+            long[] local = (flow.mLocalAddress.length == IPV4_LENGTH ? mLocal4 : mLocal6)
+                    .lookup(flow.mLocalAddress);
+            long[] remote = (flow.mRemoteAddress.length == IPV4_LENGTH ? mRemote4 : mRemote6)
+                    .lookup(flow.mRemoteAddress);
+            for (int w = 0; w < mWords; w++) {
+                long bits = direction[w] & protocol[w] & localPort[w] & remotePort[w]
+                        & local[w] & remote[w];
+                while (bits != 0) {
+                    Rule rule = mRules[w * 64 + Long.numberOfTrailingZeros(bits)];
+                    if (rule.mTerms.matchesUnindexed(flow)) {
+                        return rule.mSessionId;
+                    }
+                    bits &= bits - 1;
+                }
+            }
+            return DEFAULT_BEARER;
+        }
+    }
+
+    public QosClassifier() {
+        super(DIRECT_EXECUTOR);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SparseArray<Index>[] newSlots(int length) {
+        return (SparseArray<Index>[]) new SparseArray[length];
+    }
+
+    /**
+     * @return the indexes of the cids of slotId, null if it has none.
+     */
+    private SparseArray<Index> getIndexes(int slotId) {
+        SparseArray<Index>[] slots = mIndexes;
+        return slotId >= 0 && slotId < slots.length ? slots[slotId] : null;
+    }
+
+    private void publishLocked(int slotId, SparseArray<Index> indexes) {
+        SparseArray<Index>[] slots = mIndexes;
+        if (slotId >= slots.length) {
+            SparseArray<Index>[] grown = newSlots(slotId + 1);
+            System.arraycopy(slots, 0, grown, 0, slots.length);
+            slots = grown;
+        } else {
+            slots = slots.clone();
+        }
+        slots[slotId] = indexes;
+        mIndexes = slots;
+    }
+
+    private static void setBit(long[] set, int bit) {
+        set[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Replace the filters of cid on slotId by the ones of result. Nothing is rebuilt if the
+     * filters did not change, filters which were already present keep their compiled form,
+     * and the other cids are left untouched.
+     *
+     * @param result null or without sessions if all the flows of cid use the default bearer.
+     */
+    public void update(int slotId, int cid, QosParametersResult result) {
+        if (slotId < 0) {
+            return;
+        }
+        synchronized (mLock) {
+            SparseArray<Index> current = getIndexes(slotId);
+            Index previous = current != null ? current.get(cid) : null;
+            SparseArray<Index> indexes;
+            if (result == null || result.getQosBearerSessions().isEmpty()) {
+                if (previous == null) {
+                    return;
+                }
+                indexes = current.clone();
+                indexes.remove(cid);
+            } else {
+                if (previous != null && !hasFilterChanges(
+                        QosParametersDiff.compute(previous.mResult, result))) {
+                    return;
+                }
+                indexes = current != null ? current.clone() : new SparseArray<>();
+                indexes.put(cid, new Index(result, previous));
+            }
+            publishLocked(slotId, indexes);
+        }
+    }
+
+    /**
+     * @return whether diff adds, removes or modifies any filter.
+     */
+    private static boolean hasFilterChanges(QosParametersDiff diff) {
+        if (!diff.getAddedSessions().isEmpty() || !diff.getRemovedSessions().isEmpty()) {
+            return true;
+        }
+        for (QosParametersDiff.SessionDiff session : diff.getModifiedSessions()) {
+            if (!session.getAddedFilters().isEmpty() || !session.getRemovedFilters().isEmpty()
+                    || !session.getModifiedFilters().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forget the filters of every cid of slotId, e.g. when its SIM is removed.
+     */
+    public void clear(int slotId) {
+        synchronized (mLock) {
+            if (getIndexes(slotId) != null) {
+                publishLocked(slotId, null);
+            }
+        }
+    }
+
+    /**
+     * @return the qosBearerSessionId of the highest precedence filter of cid on slotId
+     *         matching flow, DEFAULT_BEARER if none does.
+     */
+    public int classify(int slotId, int cid, Flow flow) {
+        SparseArray<Index> indexes = getIndexes(slotId);
+        Index index = indexes != null ? indexes.get(cid) : null;
+        return index == null ? DEFAULT_BEARER : index.classify(flow);
+    }
+
+    @Override
+    public void onQosParametersChanged(int slotId, int cid, QosParametersResult result)
+            throws RemoteException {
+        update(slotId, cid, result);
+    }
+}
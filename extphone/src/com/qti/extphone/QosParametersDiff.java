@@ -0,0 +1,322 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.net.LinkAddress;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Changes between two QosParametersResult of a data connection, so that only the changed
+ * bearers and filters need to be re-programmed.
+ *
+ * Sessions are matched by qosBearerSessionId. Filters, which have no id, are matched by
+ * content through an order insensitive hash; a removed and an added filter of the same
+ * precedence, which is unique within a data connection, are reported as a modified filter.
+ * Computing a diff costs about one hash per filter, where {@link QosParametersResult#equals}
+ * compares every filter with every other.
+ */
+public final class QosParametersDiff {
+    private final boolean mDefaultQosChanged;
+    private final Qos mOldDefaultQos;
+    private final Qos mNewDefaultQos;
+    private final List<QosBearerSession> mAddedSessions;
+    private final List<QosBearerSession> mRemovedSessions;
+    private final List<SessionDiff> mModifiedSessions;
+
+    /**
+     * Changes of a session present in both results.
+     */
+    public static final class SessionDiff {
+        private final QosBearerSession mOldSession;
+        private final QosBearerSession mNewSession;
+        private final boolean mQosChanged;
+        private final List<QosBearerFilter> mAddedFilters;
+        private final List<QosBearerFilter> mRemovedFilters;
+        private final List<FilterChange> mModifiedFilters;
+
+        private SessionDiff(QosBearerSession oldSession, QosBearerSession newSession,
+                boolean qosChanged, List<QosBearerFilter> addedFilters,
+                List<QosBearerFilter> removedFilters, List<FilterChange> modifiedFilters) {
+            mOldSession = oldSession;
+            mNewSession = newSession;
+            mQosChanged = qosChanged;
+            mAddedFilters = Collections.unmodifiableList(addedFilters);
+            mRemovedFilters = Collections.unmodifiableList(removedFilters);
+            mModifiedFilters = Collections.unmodifiableList(modifiedFilters);
+        }
+
+        public int getSessionId() {
+            return mNewSession.getQosBearerSessionId();
+        }
+
+        public QosBearerSession getOldSession() {
+            return mOldSession;
+        }
+
+        public QosBearerSession getNewSession() {
+            return mNewSession;
+        }
+
+        public boolean isQosChanged() {
+            return mQosChanged;
+        }
+
+        public List<QosBearerFilter> getAddedFilters() {
+            return mAddedFilters;
+        }
+
+        public List<QosBearerFilter> getRemovedFilters() {
+            return mRemovedFilters;
+        }
+
+        public List<FilterChange> getModifiedFilters() {
+            return mModifiedFilters;
+        }
+
+        @Override
+        public String toString() {
+            return "SessionDiff{id=" + getSessionId() + ", qosChanged=" + mQosChanged
+                    + ", added=" + mAddedFilters.size() + ", removed=" + mRemovedFilters.size()
+                    + ", modified=" + mModifiedFilters.size() + "}";
+        }
+    }
+
+    /**
+     * A filter whose content changed but kept its precedence.
+     */
+    public static final class FilterChange {
+        private final QosBearerFilter mOldFilter;
+        private final QosBearerFilter mNewFilter;
+
+        private FilterChange(QosBearerFilter oldFilter, QosBearerFilter newFilter) {
+            mOldFilter = oldFilter;
+            mNewFilter = newFilter;
+        }
+
+        public QosBearerFilter getOldFilter() {
+            return mOldFilter;
+        }
+
+        public QosBearerFilter getNewFilter() {
+            return mNewFilter;
+        }
+    }
+
+    /**
+     * A filter hashed regardless of the order of its addresses, as QosBearerFilter.equals
+     * compares them.
+     */
+    private static final class FilterKey {
+        final QosBearerFilter mFilter;
+        final int mHash;
+
+        FilterKey(QosBearerFilter filter) {
+            mFilter = filter;
+            int hash = Objects.hash(filter.getLocalPortRange(), filter.getRemotePortRange(),
+                    filter.getProtocol(), filter.getTypeOfServiceMask(),
+                    filter.getFlowLabel(), filter.getSpi(), filter.getDirection(),
+                    filter.getPrecedence());
+            hash = 31 * hash + sum(filter.getLocalAddresses());
+            mHash = 31 * hash + sum(filter.getRemoteAddresses());
+        }
+
+        private static int sum(List<LinkAddress> addresses) {
+            int sum = 0;
+            for (LinkAddress address : addresses) {
+                sum += Objects.hashCode(address);
+            }
+            return sum;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FilterKey)) {
+                return false;
+            }
+            FilterKey other = (FilterKey) o;
+            return mHash == other.mHash && mFilter.equals(other.mFilter);
+        }
+    }
+
+    private QosParametersDiff(Qos oldDefaultQos, Qos newDefaultQos,
+            List<QosBearerSession> addedSessions, List<QosBearerSession> removedSessions,
+            List<SessionDiff> modifiedSessions) {
+        mDefaultQosChanged = !Objects.equals(oldDefaultQos, newDefaultQos);
+        mOldDefaultQos = oldDefaultQos;
+        mNewDefaultQos = newDefaultQos;
+        mAddedSessions = Collections.unmodifiableList(addedSessions);
+        mRemovedSessions = Collections.unmodifiableList(removedSessions);
+        mModifiedSessions = Collections.unmodifiableList(modifiedSessions);
+    }
+
+    /**
+     * @param oldResult previous result, null if there was none.
+     * @param newResult current result, null if the data connection went away.
+     */
+    public static QosParametersDiff compute(QosParametersResult oldResult,
+            QosParametersResult newResult) {
+        List<QosBearerSession> oldSessions = oldResult != null
+                ? oldResult.getQosBearerSessions() : Collections.emptyList();
+        List<QosBearerSession> newSessions = newResult != null
+                ? newResult.getQosBearerSessions() : Collections.emptyList();
+
+        SparseArray<QosBearerSession> oldById = new SparseArray<>(oldSessions.size());
+        for (QosBearerSession session : oldSessions) {
+            oldById.put(session.getQosBearerSessionId(), session);
+        }
+        List<QosBearerSession> added = new ArrayList<>();
+        List<SessionDiff> modified = new ArrayList<>();
+        for (QosBearerSession session : newSessions) {
+            int id = session.getQosBearerSessionId();
+            QosBearerSession oldSession = oldById.get(id);
+            if (oldSession == null) {
+                added.add(session);
+                continue;
+            }
+            oldById.remove(id);
+            SessionDiff diff = diff(oldSession, session);
+            if (diff != null) {
+                modified.add(diff);
+            }
+        }
+        List<QosBearerSession> removed = new ArrayList<>(oldById.size());
+        for (QosBearerSession session : oldSessions) {
+            if (oldById.get(session.getQosBearerSessionId()) != null) {
+                removed.add(session);
+            }
+        }
+        return new QosParametersDiff(oldResult != null ? oldResult.getDefaultQos() : null,
+                newResult != null ? newResult.getDefaultQos() : null, added, removed, modified);
+    }
+
+    /**
+     * @return the changes between the two versions of a session, null if there are none.
+     */
+    private static SessionDiff diff(QosBearerSession oldSession, QosBearerSession newSession) {
+        boolean qosChanged = !Objects.equals(oldSession.getQos(), newSession.getQos());
+        List<QosBearerFilter> oldFilters = oldSession.getQosBearerFilterList();
+        List<QosBearerFilter> newFilters = newSession.getQosBearerFilterList();
+
+        // Multiset of the old filters, the unchanged ones are consumed by the new filters.
+        Map<FilterKey, Integer> remaining = new HashMap<>(oldFilters.size() * 2);
+        for (QosBearerFilter filter : oldFilters) {
+            remaining.merge(new FilterKey(filter), 1, Integer::sum);
+        }
+        List<QosBearerFilter> added = new ArrayList<>();
+        for (QosBearerFilter filter : newFilters) {
+            FilterKey key = new FilterKey(filter);
+            Integer count = remaining.get(key);
+            if (count == null) {
+                added.add(filter);
+            } else if (count == 1) {
+                remaining.remove(key);
+            } else {
+                remaining.put(key, count - 1);
+            }
+        }
+        if (!qosChanged && added.isEmpty() && remaining.isEmpty()) {
+            return null;
+        }
+
+        List<QosBearerFilter> removed = new ArrayList<>();
+        SparseArray<QosBearerFilter> removedByPrecedence = new SparseArray<>();
+        for (QosBearerFilter filter : oldFilters) {
+            FilterKey key = new FilterKey(filter);
+            Integer count = remaining.get(key);
+            if (count == null) {
+                continue;
+            }
+            if (count == 1) {
+                remaining.remove(key);
+            } else {
+                remaining.put(key, count - 1);
+            }
+            removed.add(filter);
+            if (removedByPrecedence.get(filter.getPrecedence()) == null) {
+                removedByPrecedence.put(filter.getPrecedence(), filter);
+            }
+        }
+
+        // Pair the added and removed filters sharing a precedence.
+        List<FilterChange> changed = new ArrayList<>();
+        Set<QosBearerFilter> paired = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<QosBearerFilter> unpaired = new ArrayList<>(added.size());
+        for (QosBearerFilter filter : added) {
+            QosBearerFilter oldFilter = removedByPrecedence.get(filter.getPrecedence());
+            if (oldFilter == null) {
+                unpaired.add(filter);
+                continue;
+            }
+            removedByPrecedence.remove(filter.getPrecedence());
+            paired.add(oldFilter);
+            changed.add(new FilterChange(oldFilter, filter));
+        }
+        if (!paired.isEmpty()) {
+            removed.removeIf(paired::contains);
+        }
+        added = unpaired;
+        return new SessionDiff(oldSession, newSession, qosChanged, added, removed, changed);
+    }
+
+    /**
+     * @return whether both results carry the same default QoS, sessions and filters.
+     */
+    public boolean isEmpty() {
+        return !mDefaultQosChanged && mAddedSessions.isEmpty() && mRemovedSessions.isEmpty()
+                && mModifiedSessions.isEmpty();
+    }
+
+    public boolean isDefaultQosChanged() {
+        return mDefaultQosChanged;
+    }
+
+    /**
+     * @return default QoS of the previous result, null if there was none.
+     */
+    public Qos getOldDefaultQos() {
+        return mOldDefaultQos;
+    }
+
+    /**
+     * @return default QoS of the current result, null if the data connection went away.
+     */
+    public Qos getNewDefaultQos() {
+        return mNewDefaultQos;
+    }
+
+    public List<QosBearerSession> getAddedSessions() {
+        return mAddedSessions;
+    }
+
+    public List<QosBearerSession> getRemovedSessions() {
+        return mRemovedSessions;
+    }
+
+    public List<SessionDiff> getModifiedSessions() {
+        return mModifiedSessions;
+    }
+
+    @Override
+    public String toString() {
+        return "QosParametersDiff{defaultQosChanged=" + mDefaultQosChanged
+                + ", added=" + mAddedSessions.size() + ", removed=" + mRemovedSessions.size()
+                + ", modified=" + mModifiedSessions + "}";
+    }
+}
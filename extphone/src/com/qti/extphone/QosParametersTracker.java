@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.RemoteException;
+import android.util.SparseArray;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the last QosParametersResult of every slot and cid and turns each
+ * onQosParametersChanged into a QosParametersDiff. Register it with
+ * {@link ExtTelephonyManager#registerCallbackWithEvents} for {@link #EVENTS}.
+ *
+ * Listeners are only notified when something actually changed.
+ */
+public class QosParametersTracker extends ExtPhoneCallbackListener {
+    public static final int[] EVENTS = {
+            EVENT_ON_QOS_PARAMETERS_CHANGED
+    };
+
+    public interface Listener {
+        /**
+         * @param result the current parameters of cid, null if its data connection is gone.
+         * @param diff changes since the previous parameters of cid, never empty.
+         */
+        void onQosParametersDiff(int slotId, int cid, QosParametersResult result,
+                QosParametersDiff diff);
+    }
+
+    private final Object mLock = new Object();
+    // Copy on write, indexed by slot id then cid and read without locking.
+    private volatile SparseArray<QosParametersResult>[] mResults = newSlots(0);
+    private final ListenerList<Listener> mListeners = new ListenerList<>();
+
+    public QosParametersTracker() {
+        super(DIRECT_EXECUTOR);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SparseArray<QosParametersResult>[] newSlots(int length) {
+        return (SparseArray<QosParametersResult>[]) new SparseArray[length];
+    }
+
+    /**
+     * @return the results of the cids of slotId, null if it has none.
+     */
+    private SparseArray<QosParametersResult> getResults(int slotId) {
+        SparseArray<QosParametersResult>[] slots = mResults;
+        return slotId >= 0 && slotId < slots.length ? slots[slotId] : null;
+    }
+
+    private void publishLocked(int slotId, SparseArray<QosParametersResult> results) {
+        SparseArray<QosParametersResult>[] slots = mResults;
+        if (slotId >= slots.length) {
+            SparseArray<QosParametersResult>[] grown = newSlots(slotId + 1);
+            System.arraycopy(slots, 0, grown, 0, slots.length);
+            slots = grown;
+        } else {
+            slots = slots.clone();
+        }
+        slots[slotId] = results;
+        mResults = slots;
+    }
+
+    /**
+     * @return the last parameters reported for cid on slotId, null if none.
+     */
+    public QosParametersResult getQosParameters(int slotId, int cid) {
+        SparseArray<QosParametersResult> results = getResults(slotId);
+        return results != null ? results.get(cid) : null;
+    }
+
+    /**
+     * Notify listener of the changes of any slot and cid on executor. Changes are handed to
+     * the executors in the order they were applied.
+     */
+    public void addListener(Executor executor, Listener listener) {
+        mListeners.add(executor, listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Replace the parameters of cid on slotId, e.g. with the result of getQosParameters.
+     *
+     * @param result null if the data connection of cid is gone.
+     * @return the changes, empty if result carries the same parameters as before.
+     */
+    public QosParametersDiff update(int slotId, int cid, QosParametersResult result) {
+        if (slotId < 0) {
+            return QosParametersDiff.compute(null, null);
+        }
+        QosParametersDiff diff;
+        synchronized (mLock) {
+            SparseArray<QosParametersResult> current = getResults(slotId);
+            QosParametersResult oldResult = current != null ? current.get(cid) : null;
+            diff = QosParametersDiff.compute(oldResult, result);
+            if (diff.isEmpty()) {
+                return diff;
+            }
+            SparseArray<QosParametersResult> results =
+                    current != null ? current.clone() : new SparseArray<>();
+            if (result != null) {
+                results.put(cid, result);
+            } else {
+                results.remove(cid);
+            }
+            publishLocked(slotId, results.size() > 0 ? results : null);
+            mListeners.enqueue(l -> l.onQosParametersDiff(slotId, cid, result, diff));
+        }
+        mListeners.dispatch();
+        return diff;
+    }
+
+    /**
+     * Forget the data connections of slotId, e.g. when its SIM is removed. Listeners are
+     * notified of the removal of each of them.
+     */
+    public void clear(int slotId) {
+        SparseArray<QosParametersResult> results = getResults(slotId);
+        if (results == null) {
+            return;
+        }
+        for (int i = 0; i < results.size(); i++) {
+            update(slotId, results.keyAt(i), null);
+        }
+    }
+
+    @Override
+    public void onQosParametersChanged(int slotId, int cid, QosParametersResult result)
+            throws RemoteException {
+        update(slotId, cid, result);
+    }
+}
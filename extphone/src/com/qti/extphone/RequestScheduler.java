@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayDeque;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the Token based requests of ExtTelephonyManager, see
+ * {@link ExtTelephonyManager#setRequestScheduler}.
+ *
+ * Requests are queued per slot and sent in order, user visible ones ahead of background
+ * ones. The number of requests in flight across all slots is bounded, and every API class
+ * can be rate limited per slot with a token bucket.
+ *
+ * A request which cannot be sent right away is given a placeholder Token. Its response,
+ * timeout or cancellation is reported with that Token. Only requests sent with the Client
+ * of an ExtPhoneCallbackListener can be queued: the others are rejected when they cannot
+ * be sent right away, and the request returns a Token whose value is REJECTED.
+ *
+ * A request holds its place among the requests in flight until it is answered, expires or
+ * is cancelled, but no longer than setMaxInFlightMillis(), so that requests without
+ * deadline which are never answered cannot stall the scheduler.
+ */
+public final class RequestScheduler {
+    private static final String TAG = "RequestScheduler";
+
+    public static final int CLASS_QUERY = 0;
+    public static final int CLASS_CONFIG = 1;
+    public static final int CLASS_SCAN = 2;
+    public static final int CLASS_SMS = 3;
+    private static final int CLASS_COUNT = 4;
+
+    public static final int PRIORITY_USER_VISIBLE = 0;
+    public static final int PRIORITY_BACKGROUND = 1;
+    private static final int PRIORITY_COUNT = 2;
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+    public static final long DEFAULT_MAX_IN_FLIGHT_MILLIS = 60000;
+
+    /**
+     * Value of the Token returned for a request which was neither sent nor queued, see
+     * the class documentation. Distinct from the null Token returned when the service is
+     * not connected or the request failed.
+     */
+    public static final int REJECTED = Integer.MIN_VALUE;
+
+    // Placeholder Tokens are negative so as not to clash with the Tokens of the service,
+    // Token.UNSOL and REJECTED excluded. Shared by all schedulers since InFlightRequests is.
+    private static final int FIRST_PLACEHOLDER = Token.UNSOL - 1;
+    private static final int LAST_PLACEHOLDER = REJECTED + 1;
+    private static final AtomicInteger sNextPlaceholder = new AtomicInteger(FIRST_PLACEHOLDER);
+
+    private final InFlightRequests mInFlightRequests = InFlightRequests.getInstance();
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+    private final SparseArray<SlotQueue> mSlots = new SparseArray<>();
+    private final double[] mRates = new double[CLASS_COUNT];
+    private final int[] mBursts = new int[CLASS_COUNT];
+    private int mMaxConcurrent = DEFAULT_MAX_CONCURRENT_REQUESTS;
+    private long mMaxInFlightMillis = DEFAULT_MAX_IN_FLIGHT_MILLIS;
+    private int mInFlight;
+    private long mSeq;
+
+    // Weak keys so that a dropped Client does not leak.
+    private final WeakHashMap<Client, Integer> mPriorities = new WeakHashMap<>();
+
+    private final Runnable mPump = new Runnable() {
+        @Override
+        public void run() {
+            pump();
+        }
+    };
+
+    private final class Entry implements Runnable {
+        final Token mToken;
+        final int mApiClass;
+        final long mSeq;
+        final InFlightRequests.Sender mSender;
+        // Guarded by mLock.
+        boolean mSent;
+        boolean mReleased;
+
+        Entry(Token token, int apiClass, long seq, InFlightRequests.Sender sender) {
+            mToken = token;
+            mApiClass = apiClass;
+            mSeq = seq;
+            mSender = sender;
+        }
+
+        /**
+         * Held its place for too long, give it up. The request stays in flight.
+         */
+        @Override
+        public void run() {
+            Log.e(TAG, "No response to " + (mToken != null ? mToken : "request") + " after "
+                    + mMaxInFlightMillis + " ms, releasing its place");
+            release(this);
+        }
+    }
+
+    private static final class TokenBucket {
+        // Permits per millisecond, unlimited if not positive.
+        double mRate;
+        double mBurst;
+        double mPermits;
+        long mLast;
+
+        void configure(double permitsPerSecond, int burst, long now) {
+            mRate = permitsPerSecond / 1000;
+            mBurst = Math.max(1, burst);
+            mPermits = mBurst;
+            mLast = now;
+        }
+
+        /**
+         * @return milliseconds until a permit is available, 0 if one is.
+         */
+        long delayMillis(long now) {
+            if (mRate <= 0) {
+                return 0;
+            }
+            mPermits = Math.min(mBurst, mPermits + (now - mLast) * mRate);
+            mLast = now;
+            return mPermits >= 1 ? 0 : (long) Math.ceil((1 - mPermits) / mRate);
+        }
+
+        void acquire() {
+            if (mRate > 0) {
+                mPermits -= 1;
+            }
+        }
+    }
+
+    private final class SlotQueue {
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<Entry>[] mQueues = new ArrayDeque[PRIORITY_COUNT];
+        final TokenBucket[] mBuckets = new TokenBucket[CLASS_COUNT];
+
+        SlotQueue(long now) {
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                mQueues[i] = new ArrayDeque<>();
+            }
+            for (int i = 0; i < CLASS_COUNT; i++) {
+                mBuckets[i] = new TokenBucket();
+                mBuckets[i].configure(mRates[i], mBursts[i], now);
+            }
+        }
+
+        /**
+         * @return the first request of priority still waiting, null if none.
+         */
+        Entry peek(int priority) {
+            ArrayDeque<Entry> queue = mQueues[priority];
+            while (!queue.isEmpty() && queue.peek().mReleased) {
+                queue.poll();
+            }
+            return queue.peek();
+        }
+
+        boolean isEmpty() {
+            for (int i = 0; i < PRIORITY_COUNT; i++) {
+                if (peek(i) != null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Create a scheduler running on a thread of its own.
+     */
+    public RequestScheduler() {
+        this(startThread());
+    }
+
+    /**
+     * Create a scheduler sending the queued requests on looper.
+     */
+    public RequestScheduler(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    private static Looper startThread() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        return thread.getLooper();
+    }
+
+    /**
+     * Set the maximum number of requests in flight across all slots.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrent) {
+        synchronized (mLock) {
+            mMaxConcurrent = Math.max(1, maxConcurrent);
+        }
+        mHandler.post(mPump);
+    }
+
+    /**
+     * Set the longest time a request holds its place among the requests in flight,
+     * DEFAULT_MAX_IN_FLIGHT_MILLIS by default. Past it, the next requests are sent even if
+     * the request was not answered; its response is still delivered.
+     */
+    public void setMaxInFlightMillis(long maxInFlightMillis) {
+        if (maxInFlightMillis <= 0) {
+            throw new IllegalArgumentException("Invalid duration " + maxInFlightMillis);
+        }
+        synchronized (mLock) {
+            mMaxInFlightMillis = maxInFlightMillis;
+        }
+    }
+
+    /**
+     * Limit the rate of the requests of apiClass on each slot.
+     *
+     * @param apiClass one of the CLASS_* constants.
+     * @param permitsPerSecond sustained rate, 0 or less for no limit.
+     * @param burst number of requests which can be sent at once after an idle period.
+     */
+    public void setRateLimit(int apiClass, double permitsPerSecond, int burst) {
+        if (apiClass < 0 || apiClass >= CLASS_COUNT) {
+            throw new IllegalArgumentException("Invalid API class " + apiClass);
+        }
+        long now = SystemClock.elapsedRealtime();
+        synchronized (mLock) {
+            mRates[apiClass] = permitsPerSecond;
+            mBursts[apiClass] = burst;
+            for (int i = 0; i < mSlots.size(); i++) {
+                mSlots.valueAt(i).mBuckets[apiClass].configure(permitsPerSecond, burst, now);
+            }
+        }
+        mHandler.post(mPump);
+    }
+
+    /**
+     * Set the priority of the requests sent with client, PRIORITY_USER_VISIBLE by default.
+     */
+    public void setPriority(Client client, int priority) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            throw new IllegalArgumentException("Invalid priority " + priority);
+        }
+        synchronized (mPriorities) {
+            mPriorities.put(client, priority);
+        }
+    }
+
+    private int getPriority(Client client) {
+        synchronized (mPriorities) {
+            Integer priority = mPriorities.get(client);
+            return priority != null ? priority : PRIORITY_USER_VISIBLE;
+        }
+    }
+
+    /**
+     * Send a request, or queue it behind the requests waiting on slotId.
+     *
+     * @param sender sends the request with the Client given to it.
+     * @param replaySender sends an idempotent request again after a reconnection, or null.
+     * @return Token of the request, a placeholder if it was queued, one of value REJECTED if
+     *         it could not be queued; null if it failed.
+     * @throws RemoteException if the request was sent right away and the binder call failed.
+     */
+    Token submit(Object owner, int event, int apiClass, int slotId, Client client,
+            long timeoutMillis, InFlightRequests.Sender sender,
+            InFlightRequests.Sender replaySender) throws RemoteException {
+        long now = SystemClock.elapsedRealtime();
+        Entry entry = null;
+        synchronized (mLock) {
+            SlotQueue queue = getQueueLocked(slotId, now);
+            TokenBucket bucket = queue.mBuckets[apiClass];
+            if (queue.isEmpty() && mInFlight < mMaxConcurrent && bucket.delayMillis(now) == 0) {
+                bucket.acquire();
+                mInFlight++;
+                entry = new Entry(null, apiClass, mSeq++, sender);
+                entry.mSent = true;
+                mHandler.postDelayed(entry, mMaxInFlightMillis);
+            }
+        }
+        if (entry != null) {
+            try {
+                return sendNow(entry, owner, event, slotId, client, timeoutMillis, replaySender);
+            } catch (RemoteException e) {
+                release(entry);
+                throw e;
+            }
+        }
+
+        if (client == null ||
+                !(client.getCallback() instanceof ExtPhoneCallbackListener.IExtPhoneCallbackStub)) {
+            Log.e(TAG, "Request for event " + event + " on slot " + slotId
+                    + " rejected, its Client cannot be correlated");
+            return new Token(REJECTED);
+        }
+        Token placeholder = new Token(nextPlaceholder());
+        if (client instanceof CallbackMultiplexer.MultiplexedClient) {
+            ((CallbackMultiplexer.MultiplexedClient) client).route(placeholder);
+        }
+        mInFlightRequests.track(owner, placeholder, event, slotId, client, timeoutMillis,
+                replaySender);
+        int priority = getPriority(client);
+        synchronized (mLock) {
+            entry = new Entry(placeholder, apiClass, mSeq++, sender);
+            getQueueLocked(slotId, now).mQueues[priority].add(entry);
+        }
+        final Entry queued = entry;
+        if (!mInFlightRequests.setOnDone(placeholder, () -> release(queued))) {
+            release(queued);
+            return null;
+        }
+        mHandler.post(mPump);
+        return placeholder;
+    }
+
+    private Token sendNow(Entry entry, Object owner, int event, int slotId, Client client,
+            long timeoutMillis, InFlightRequests.Sender replaySender) throws RemoteException {
+        Token token;
+        mInFlightRequests.beginSend();
+        try {
+            token = entry.mSender.send(client);
+            if (token == null) {
+                release(entry);
+                return null;
+            }
+            if (client instanceof CallbackMultiplexer.MultiplexedClient) {
+                ((CallbackMultiplexer.MultiplexedClient) client).route(token);
+            }
+            mInFlightRequests.track(owner, token, event, slotId, client, timeoutMillis,
+                    replaySender);
+        } finally {
+            mInFlightRequests.endSend();
+        }
+        // Not tracked, or already answered.
+        if (!mInFlightRequests.setOnDone(token, () -> release(entry))) {
+            release(entry);
+        }
+        return token;
+    }
+
+    private static int nextPlaceholder() {
+        while (true) {
+            int value = sNextPlaceholder.get();
+            int next = value == LAST_PLACEHOLDER ? FIRST_PLACEHOLDER : value - 1;
+            if (sNextPlaceholder.compareAndSet(value, next)) {
+                return value;
+            }
+        }
+    }
+
+    private SlotQueue getQueueLocked(int slotId, long now) {
+        SlotQueue queue = mSlots.get(slotId);
+        if (queue == null) {
+            queue = new SlotQueue(now);
+            mSlots.put(slotId, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Give back the slot of entry once it is answered, expired or cancelled.
+     */
+    private void release(Entry entry) {
+        synchronized (mLock) {
+            if (entry.mReleased) {
+                return;
+            }
+            entry.mReleased = true;
+            if (!entry.mSent) {
+                // Still queued, skipped by pump().
+                return;
+            }
+            mInFlight--;
+        }
+        mHandler.removeCallbacks(entry);
+        mHandler.post(mPump);
+    }
+
+    private void pump() {
+        while (true) {
+            Entry next = null;
+            SlotQueue nextQueue = null;
+            int nextPriority = 0;
+            long wait = Long.MAX_VALUE;
+            synchronized (mLock) {
+                if (mInFlight >= mMaxConcurrent) {
+                    return;
+                }
+                long now = SystemClock.elapsedRealtime();
+                for (int p = 0; p < PRIORITY_COUNT && next == null; p++) {
+                    for (int i = 0; i < mSlots.size(); i++) {
+                        SlotQueue queue = mSlots.valueAt(i);
+                        Entry head = queue.peek(p);
+                        if (head == null) {
+                            continue;
+                        }
+                        long delay = queue.mBuckets[head.mApiClass].delayMillis(now);
+                        if (delay > 0) {
+                            wait = Math.min(wait, delay);
+                        } else if (next == null || head.mSeq < next.mSeq) {
+                            next = head;
+                            nextQueue = queue;
+                            nextPriority = p;
+                        }
+                    }
+                }
+                if (next == null) {
+                    if (wait != Long.MAX_VALUE) {
+                        mHandler.removeCallbacks(mPump);
+                        mHandler.postDelayed(mPump, wait);
+                    }
+                    return;
+                }
+                nextQueue.mQueues[nextPriority].poll();
+                nextQueue.mBuckets[next.mApiClass].acquire();
+                next.mSent = true;
+                mInFlight++;
+                mHandler.postDelayed(next, mMaxInFlightMillis);
+            }
+            if (!mInFlightRequests.sendQueued(next.mToken, next.mSender)) {
+                release(next);
+            }
+        }
+    }
+}
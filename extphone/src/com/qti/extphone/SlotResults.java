@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+/**
+ * Per-slot outcome of a request sent to several slots at once. Each slot either succeeded
+ * with a value, which may be null, or failed with an error, usually an
+ * ExtPhoneRequestException.
+ */
+public final class SlotResults<T> {
+
+    private final int[] mSlots;
+    private final SparseArray<T> mValues;
+    private final SparseArray<Throwable> mErrors;
+
+    SlotResults(int[] slots, SparseArray<T> values, SparseArray<Throwable> errors) {
+        mSlots = slots;
+        mValues = values;
+        mErrors = errors;
+    }
+
+    /**
+     * @return the slots the request was sent to.
+     */
+    public int[] getSlots() {
+        return mSlots.clone();
+    }
+
+    public boolean isSuccess(int slotId) {
+        return mErrors.get(slotId) == null && Arrays.binarySearch(mSlots, slotId) >= 0;
+    }
+
+    /**
+     * @return the value of slotId, null if it failed.
+     */
+    public T get(int slotId) {
+        return mValues.get(slotId);
+    }
+
+    /**
+     * @return the error of slotId, null if it succeeded.
+     */
+    public Throwable getError(int slotId) {
+        return mErrors.get(slotId);
+    }
+
+    public boolean hasFailures() {
+        return mErrors.size() > 0;
+    }
+
+    public int[] getFailedSlots() {
+        int[] slots = new int[mErrors.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = mErrors.keyAt(i);
+        }
+        return slots;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("SlotResults{");
+        for (int i = 0; i < mSlots.length; i++) {
+            int slot = mSlots[i];
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(slot).append('=');
+            sb.append(mErrors.get(slot) != null ? mErrors.get(slot) : mValues.get(slot));
+        }
+        return sb.append('}').toString();
+    }
+}
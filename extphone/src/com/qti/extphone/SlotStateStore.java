@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.RemoteException;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Materialized view of the NR state of each slot, built from the NR indications and query
+ * responses of the service. Register it with
+ * {@link ExtTelephonyManager#registerCallbackWithEvents} for {@link #EVENTS}; the responses
+ * to queries sent with the returned Client update it as well.
+ *
+ * Every change publishes a new immutable {@link SlotState} with a higher version. Reads never
+ * lock nor call the service. Listeners are only notified when a value actually changed.
+ */
+public class SlotStateStore extends ExtPhoneCallbackListener {
+    public static final int[] EVENTS = {
+            EVENT_ON_NR_ICON_TYPE,
+            EVENT_ON_ENDC_STATUS,
+            EVENT_ON_5G_STATUS,
+            EVENT_ON_NR_CONFIG_STATUS,
+            EVENT_ON_NR_DC_PARAM,
+            EVENT_ON_UPPER_LAYER_IND_INFO,
+            EVENT_ON_SIGNAL_STRENGTH,
+            EVENT_QUERY_NR_SNAPSHOT_RESPONSE
+    };
+
+    /**
+     * Value of the int fields of a SlotState which were not reported yet.
+     */
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final SlotState EMPTY = new SlotState();
+
+    public interface Listener {
+        /**
+         * @param slotId slot whose state changed.
+         * @param oldState state before the change.
+         * @param newState state after the change, with a higher version.
+         */
+        void onSlotStateChanged(int slotId, SlotState oldState, SlotState newState);
+    }
+
+    /**
+     * Immutable snapshot of the NR state of a slot.
+     */
+    public static final class SlotState {
+        private final long mVersion;
+        private final int mNrIconType;
+        private final Boolean mEndcEnabled;
+        private final Boolean m5gEnabled;
+        private final int mNrConfig;
+        private final int mEndc;
+        private final int mDcnr;
+        private final int mPlmnInfoListAvailable;
+        private final int mUpperLayerIndInfoAvailable;
+        private final int mRsrp;
+        private final int mSnr;
+
+        private SlotState() {
+            this(0, UNKNOWN, null, null, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN,
+                    UNKNOWN);
+        }
+
+        private SlotState(long version, int nrIconType, Boolean endcEnabled, Boolean enabled5g,
+                int nrConfig, int endc, int dcnr, int plmnInfoListAvailable,
+                int upperLayerIndInfoAvailable, int rsrp, int snr) {
+            mVersion = version;
+            mNrIconType = nrIconType;
+            mEndcEnabled = endcEnabled;
+            m5gEnabled = enabled5g;
+            mNrConfig = nrConfig;
+            mEndc = endc;
+            mDcnr = dcnr;
+            mPlmnInfoListAvailable = plmnInfoListAvailable;
+            mUpperLayerIndInfoAvailable = upperLayerIndInfoAvailable;
+            mRsrp = rsrp;
+            mSnr = snr;
+        }
+
+        /**
+         * @return version of the snapshot, 0 until the first event of the slot.
+         */
+        public long getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * @return NrIconType value, UNKNOWN if not reported.
+         */
+        public int getNrIconType() {
+            return mNrIconType;
+        }
+
+        /**
+         * @return ENDC enable status, null if not reported.
+         */
+        public Boolean isEndcEnabled() {
+            return mEndcEnabled;
+        }
+
+        /**
+         * @return 5G enable status, null if not reported.
+         */
+        public Boolean is5gEnabled() {
+            return m5gEnabled;
+        }
+
+        /**
+         * @return NrConfig value, UNKNOWN if not reported.
+         */
+        public int getNrConfig() {
+            return mNrConfig;
+        }
+
+        /**
+         * @return DcParam ENDC availability, UNKNOWN if not reported.
+         */
+        public int getEndc() {
+            return mEndc;
+        }
+
+        /**
+         * @return DcParam DCNR restriction, UNKNOWN if not reported.
+         */
+        public int getDcnr() {
+            return mDcnr;
+        }
+
+        public int getPlmnInfoListAvailable() {
+            return mPlmnInfoListAvailable;
+        }
+
+        public int getUpperLayerIndInfoAvailable() {
+            return mUpperLayerIndInfoAvailable;
+        }
+
+        /**
+         * @return NR RSRP, UNKNOWN if not reported.
+         */
+        public int getRsrp() {
+            return mRsrp;
+        }
+
+        /**
+         * @return NR SNR, UNKNOWN if not reported.
+         */
+        public int getSnr() {
+            return mSnr;
+        }
+
+        /**
+         * @return true if both snapshots hold the same values, whatever their versions.
+         */
+        public boolean sameValues(SlotState other) {
+            return other != null
+                    && mNrIconType == other.mNrIconType
+                    && Objects.equals(mEndcEnabled, other.mEndcEnabled)
+                    && Objects.equals(m5gEnabled, other.m5gEnabled)
+                    && mNrConfig == other.mNrConfig
+                    && mEndc == other.mEndc
+                    && mDcnr == other.mDcnr
+                    && mPlmnInfoListAvailable == other.mPlmnInfoListAvailable
+                    && mUpperLayerIndInfoAvailable == other.mUpperLayerIndInfoAvailable
+                    && mRsrp == other.mRsrp
+                    && mSnr == other.mSnr;
+        }
+
+        @Override
+        public String toString() {
+            return "SlotState{version=" + mVersion + ", nrIconType=" + mNrIconType +
+                    ", endcEnabled=" + mEndcEnabled + ", 5gEnabled=" + m5gEnabled +
+                    ", nrConfig=" + mNrConfig + ", endc=" + mEndc + ", dcnr=" + mDcnr +
+                    ", plmnInfoListAvailable=" + mPlmnInfoListAvailable +
+                    ", upperLayerIndInfoAvailable=" + mUpperLayerIndInfoAvailable +
+                    ", rsrp=" + mRsrp + ", snr=" + mSnr + "}";
+        }
+    }
+
+    /**
+     * Produces the next state of a slot from the current one.
+     */
+    private interface Mutation {
+        SlotState apply(SlotState s, long version);
+    }
+
+    private final Object mLock = new Object();
+    // Copy on write, indexed by slot id and read without locking.
+    private volatile SlotState[] mStates = new SlotState[0];
+    private final ListenerList<Listener> mListeners = new ListenerList<>();
+
+    public SlotStateStore() {
+        super(DIRECT_EXECUTOR);
+    }
+
+    /**
+     * @return the current state of slotId, with version 0 if nothing was reported yet.
+     */
+    public SlotState getSlotState(int slotId) {
+        SlotState[] states = mStates;
+        if (slotId < 0 || slotId >= states.length || states[slotId] == null) {
+            return EMPTY;
+        }
+        return states[slotId];
+    }
+
+    /**
+     * Notify listener of the changes of any slot on executor. Changes are handed to the
+     * executors in the order they were applied.
+     */
+    public void addListener(Executor executor, Listener listener) {
+        mListeners.add(executor, listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void update(int slotId, Status status, Mutation mutation) {
+        if (slotId < 0 || (status != null && status.get() != Status.SUCCESS)) {
+            return;
+        }
+        synchronized (mLock) {
+            SlotState oldState = getSlotState(slotId);
+            SlotState newState = mutation.apply(oldState, oldState.mVersion + 1);
+            if (newState.sameValues(oldState)) {
+                return;
+            }
+            SlotState[] states = mStates;
+            if (slotId >= states.length) {
+                states = Arrays.copyOf(states, slotId + 1);
+            } else {
+                states = states.clone();
+            }
+            states[slotId] = newState;
+            mStates = states;
+            mListeners.enqueue(l -> l.onSlotStateChanged(slotId, oldState, newState));
+        }
+        mListeners.dispatch();
+    }
+
+    @Override
+    public void onNrIconType(int slotId, Token token, Status status, NrIconType nrIconType)
+            throws RemoteException {
+        if (nrIconType == null) {
+            return;
+        }
+        update(slotId, status, (s, v) -> new SlotState(v, nrIconType.get(), s.mEndcEnabled,
+                s.m5gEnabled, s.mNrConfig, s.mEndc, s.mDcnr, s.mPlmnInfoListAvailable,
+                s.mUpperLayerIndInfoAvailable, s.mRsrp, s.mSnr));
+    }
+
+    @Override
+    public void onEndcStatus(int slotId, Token token, Status status, boolean enableStatus)
+            throws RemoteException {
+        update(slotId, status, (s, v) -> new SlotState(v, s.mNrIconType, enableStatus,
+                s.m5gEnabled, s.mNrConfig, s.mEndc, s.mDcnr, s.mPlmnInfoListAvailable,
+                s.mUpperLayerIndInfoAvailable, s.mRsrp, s.mSnr));
+    }
+
+    @Override
+    public void on5gStatus(int slotId, Token token, Status status, boolean enableStatus)
+            throws RemoteException {
+        update(slotId, status, (s, v) -> new SlotState(v, s.mNrIconType, s.mEndcEnabled,
+                enableStatus, s.mNrConfig, s.mEndc, s.mDcnr, s.mPlmnInfoListAvailable,
+                s.mUpperLayerIndInfoAvailable, s.mRsrp, s.mSnr));
+    }
+
+    @Override
+    public void onNrConfigStatus(int slotId, Token token, Status status, NrConfig nrConfig)
+            throws RemoteException {
+        if (nrConfig == null) {
+            return;
+        }
+        update(slotId, status, (s, v) -> new SlotState(v, s.mNrIconType, s.mEndcEnabled,
+                s.m5gEnabled, nrConfig.get(), s.mEndc, s.mDcnr, s.mPlmnInfoListAvailable,
+                s.mUpperLayerIndInfoAvailable, s.mRsrp, s.mSnr));
+    }
+
+    @Override
+    public void onNrDcParam(int slotId, Token token, Status status, DcParam dcParam)
+            throws RemoteException {
+        if (dcParam == null) {
+            return;
+        }
+        update(slotId, status, (s, v) -> new SlotState(v, s.mNrIconType, s.mEndcEnabled,
+                s.m5gEnabled, s.mNrConfig, dcParam.getEndc(), dcParam.getDcnr(),
+                s.mPlmnInfoListAvailable, s.mUpperLayerIndInfoAvailable, s.mRsrp, s.mSnr));
+    }
+
+    @Override
+    public void onUpperLayerIndInfo(int slotId, Token token, Status status,
+            UpperLayerIndInfo uilInfo) throws RemoteException {
+        if (uilInfo == null) {
+            return;
+        }
+        update(slotId, status, (s, v) -> new SlotState(v, s.mNrIconType, s.mEndcEnabled,
+                s.m5gEnabled, s.mNrConfig, s.mEndc, s.mDcnr, uilInfo.getPlmnInfoListAvailable(),
+                uilInfo.getUpperLayerIndInfoAvailable(), s.mRsrp, s.mSnr));
+    }
+
+    @Override
+    public void onSignalStrength(int slotId, Token token, Status status,
+            SignalStrength signalStrength) throws RemoteException {
+        if (signalStrength == null) {
+            return;
+        }
+        update(slotId, status, (s, v) -> new SlotState(v, s.mNrIconType, s.mEndcEnabled,
+                s.m5gEnabled, s.mNrConfig, s.mEndc, s.mDcnr, s.mPlmnInfoListAvailable,
+                s.mUpperLayerIndInfoAvailable, signalStrength.getRsrp(),
+                signalStrength.getSnr()));
+    }
+
+    @Override
+    public void onNrSnapshotResponse(int slotId, Token token, Status status,
+            NrSnapshot snapshot) throws RemoteException {
+        if (snapshot == null) {
+            return;
+        }
+        NrIconType icon = snapshot.getNrIconType();
+        NrConfig config = snapshot.getNrConfig();
+        DcParam dc = snapshot.getDcParam();
+        UpperLayerIndInfo uil = snapshot.getUpperLayerIndInfo();
+        SignalStrength ss = snapshot.getSignalStrength();
+        // Parts the modem did not report keep their previous value.
+        update(slotId, status, (s, v) -> new SlotState(v,
+                icon != null ? icon.get() : s.mNrIconType,
+                snapshot.hasEndcStatus() ? Boolean.valueOf(snapshot.isEndcEnabled())
+                        : s.mEndcEnabled,
+                snapshot.has5gStatus() ? Boolean.valueOf(snapshot.is5gEnabled())
+                        : s.m5gEnabled,
+                config != null ? config.get() : s.mNrConfig,
+                dc != null ? dc.getEndc() : s.mEndc,
+                dc != null ? dc.getDcnr() : s.mDcnr,
+                uil != null ? uil.getPlmnInfoListAvailable() : s.mPlmnInfoListAvailable,
+                uil != null ? uil.getUpperLayerIndInfoAvailable()
+                        : s.mUpperLayerIndInfoAvailable,
+                ss != null ? ss.getRsrp() : s.mRsrp,
+                ss != null ? ss.getSnr() : s.mSnr));
+    }
+}
@@ -45,6 +45,8 @@ public class Status implements Parcelable {
     public static final int EXCEPTION = -1;
     public static final int FAILURE = 0;
     public static final int SUCCESS = 1;
+    // No response was received before the deadline of the request.
+    public static final int TIMEOUT = 2;
 
     private int mStatus;
 
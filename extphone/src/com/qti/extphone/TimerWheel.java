@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+
+/**
+ * Hashed timer wheel. Scheduling and cancelling are O(1); expiry has a resolution of one
+ * tick. The wheel only ticks on its Looper while at least one timeout is armed.
+ */
+final class TimerWheel {
+
+    /**
+     * Handle returned by {@link #schedule}, used to cancel the timeout.
+     */
+    static final class Timeout {
+        private final Runnable mTask;
+        private int mBucket = -1;
+        private long mRounds;
+        private Timeout mPrev;
+        private Timeout mNext;
+
+        private Timeout(Runnable task) {
+            mTask = task;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Handler mHandler;
+    private final long mTickMillis;
+    private final Timeout[] mBuckets;
+    private int mCursor;
+    private int mSize;
+    private long mLastTick;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+        }
+    };
+
+    TimerWheel(Looper looper, long tickMillis, int buckets) {
+        mHandler = new Handler(looper);
+        mTickMillis = tickMillis;
+        mBuckets = new Timeout[buckets];
+    }
+
+    /**
+     * Run task on the Looper of the wheel once delayMillis elapsed.
+     */
+    Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task);
+        long ticks = Math.max(1, (delayMillis + mTickMillis - 1) / mTickMillis);
+        synchronized (mLock) {
+            if (mSize == 0) {
+                mLastTick = SystemClock.uptimeMillis();
+                mHandler.postDelayed(mTick, mTickMillis);
+            }
+            timeout.mRounds = (ticks - 1) / mBuckets.length;
+            timeout.mBucket = (int) ((mCursor + ticks) % mBuckets.length);
+            link(timeout);
+            mSize++;
+        }
+        return timeout;
+    }
+
+    /**
+     * @return true if the timeout was armed and will no longer fire.
+     */
+    boolean cancel(Timeout timeout) {
+        synchronized (mLock) {
+            if (timeout == null || timeout.mBucket < 0) {
+                return false;
+            }
+            unlink(timeout);
+            if (--mSize == 0) {
+                mHandler.removeCallbacks(mTick);
+            }
+            return true;
+        }
+    }
+
+    private void onTick() {
+        ArrayList<Runnable> expired = new ArrayList<>();
+        synchronized (mLock) {
+            long now = SystemClock.uptimeMillis();
+            // Catch up on ticks missed while the Looper was busy.
+            long ticks = Math.max(1, (now - mLastTick) / mTickMillis);
+            mLastTick += ticks * mTickMillis;
+            for (long i = 0; i < ticks && mSize > 0; i++) {
+                mCursor = (mCursor + 1) % mBuckets.length;
+                Timeout t = mBuckets[mCursor];
+                while (t != null) {
+                    Timeout next = t.mNext;
+                    if (t.mRounds > 0) {
+                        t.mRounds--;
+                    } else {
+                        unlink(t);
+                        mSize--;
+                        expired.add(t.mTask);
+                    }
+                    t = next;
+                }
+            }
+            if (mSize > 0) {
+                mHandler.postDelayed(mTick, mTickMillis - (now - mLastTick));
+            }
+        }
+        for (Runnable task : expired) {
+            task.run();
+        }
+    }
+
+    private void link(Timeout t) {
+        Timeout head = mBuckets[t.mBucket];
+        t.mPrev = null;
+        t.mNext = head;
+        if (head != null) {
+            head.mPrev = t;
+        }
+        mBuckets[t.mBucket] = t;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.mPrev != null) {
+            t.mPrev.mNext = t.mNext;
+        } else {
+            mBuckets[t.mBucket] = t.mNext;
+        }
+        if (t.mNext != null) {
+            t.mNext.mPrev = t.mPrev;
+        }
+        t.mPrev = null;
+        t.mNext = null;
+        t.mBucket = -1;
+    }
+}
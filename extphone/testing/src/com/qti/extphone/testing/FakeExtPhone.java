@@ -0,0 +1,995 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone.testing;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.telephony.ImsiEncryptionInfo;
+import android.telephony.NetworkScanRequest;
+import android.util.Log;
+
+import com.qti.extphone.BearerAllocationStatus;
+import com.qti.extphone.CellularRoamingPreference;
+import com.qti.extphone.CiwlanConfig;
+import com.qti.extphone.Client;
+import com.qti.extphone.DcParam;
+import com.qti.extphone.ExtPhoneCallbackListener;
+import com.qti.extphone.IDepersoResCallback;
+import com.qti.extphone.IExtPhone;
+import com.qti.extphone.IExtPhoneCallback;
+import com.qti.extphone.MsimPreference;
+import com.qti.extphone.NetworkSelectionMode;
+import com.qti.extphone.NrConfig;
+import com.qti.extphone.NrConfigType;
+import com.qti.extphone.NrIcon;
+import com.qti.extphone.NrIconType;
+import com.qti.extphone.NrSnapshot;
+import com.qti.extphone.QRadioResponseInfo;
+import com.qti.extphone.QosParametersResult;
+import com.qti.extphone.QtiImeiInfo;
+import com.qti.extphone.QtiPersoUnlockStatus;
+import com.qti.extphone.QtiSetNetworkSelectionMode;
+import com.qti.extphone.QtiSimType;
+import com.qti.extphone.SignalStrength;
+import com.qti.extphone.SmsResult;
+import com.qti.extphone.Status;
+import com.qti.extphone.Token;
+import com.qti.extphone.UpperLayerIndInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the com.qti.phone ExtTelephonyService, to load test and benchmark
+ * ExtTelephonyManager and ExtPhoneCallbackListener without a modem.
+ *
+ * Hand it to ExtTelephonyManager through the ServiceConnection of a test Context. Requests
+ * are answered from a per slot state on the Looper of the fake, after a scriptable latency.
+ * Per IExtPhone method, the binder call can be slowed down or made to throw, and the
+ * response can carry an injected Status or error code, or be dropped. Unsolicited
+ * callbacks are sent with the notify* methods, or periodically with startGenerator().
+ */
+public class FakeExtPhone extends IExtPhone.Stub {
+    private static final String TAG = "FakeExtPhone";
+
+    public static final int MAX_SLOTS = 2;
+
+    private final Handler mHandler;
+    private final Object mLock = new Object();
+    private final AtomicInteger mNextToken = new AtomicInteger(1);
+    private final AtomicInteger mNextClientId = new AtomicInteger(1);
+    private final List<Registration> mRegistrations = new ArrayList<>();
+    private final Map<String, Behavior> mBehaviors = new HashMap<>();
+    private final SlotState[] mSlots = new SlotState[MAX_SLOTS];
+    private long mDefaultResponseLatency;
+
+    /**
+     * Sends an unsolicited callback.
+     */
+    public interface Emitter {
+        /**
+         * @param n number of the callback, counting from 0, for generated sequences.
+         */
+        void emit(IExtPhoneCallback callback, int n) throws RemoteException;
+    }
+
+    /**
+     * Handle of a periodic event generator.
+     */
+    public final class Generator {
+        private final int mEvent;
+        private final long mPeriodMillis;
+        private final int mCount;
+        private final Emitter mEmitter;
+        private int mEmitted;
+        private boolean mStopped;
+
+        private final Runnable mTick = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    if (mStopped) {
+                        return;
+                    }
+                }
+                broadcast(mEvent, mEmitter, mEmitted++);
+                if (mCount <= 0 || mEmitted < mCount) {
+                    mHandler.postDelayed(this, mPeriodMillis);
+                }
+            }
+        };
+
+        private Generator(int event, long periodMillis, int count, Emitter emitter) {
+            mEvent = event;
+            mPeriodMillis = periodMillis;
+            mCount = count;
+            mEmitter = emitter;
+        }
+
+        public void stop() {
+            synchronized (mLock) {
+                mStopped = true;
+            }
+            mHandler.removeCallbacks(mTick);
+        }
+    }
+
+    private static final class Registration {
+        final IExtPhoneCallback mCallback;
+        // Null for all events.
+        final boolean[] mEvents;
+
+        Registration(IExtPhoneCallback callback, int[] events) {
+            mCallback = callback;
+            boolean[] wanted = null;
+            if (events != null) {
+                wanted = new boolean[ExtPhoneCallbackListener.EVENT_QUERY_NR_SNAPSHOT_RESPONSE
+                        + 1];
+                for (int event : events) {
+                    if (event == ExtPhoneCallbackListener.EVENT_ALL) {
+                        wanted = null;
+                        break;
+                    }
+                    if (event > 0 && event < wanted.length) {
+                        wanted[event] = true;
+                    }
+                }
+            }
+            mEvents = wanted;
+        }
+
+        boolean wants(int event) {
+            return mEvents == null || (event >= 0 && event < mEvents.length && mEvents[event]);
+        }
+    }
+
+    private static final class Behavior {
+        long mBinderLatency;
+        long mResponseLatency = -1;
+        int mStatus = Status.SUCCESS;
+        int mError;
+        boolean mThrow;
+        boolean mDrop;
+    }
+
+    private static final class SlotState {
+        NrIconType mNrIconType = new NrIconType(NrIconType.TYPE_5G_BASIC);
+        NrIcon mNrIcon = new NrIcon(NrIconType.TYPE_5G_BASIC, 2);
+        boolean mEndcEnabled = true;
+        NrConfig mNrConfig = new NrConfig(NrConfig.NR_CONFIG_COMBINED_SA_NSA);
+        boolean m5gEnabled = true;
+        DcParam mDcParam = new DcParam(DcParam.ENDC_AVAILABLE, DcParam.DCNR_UNRESTRICTED);
+        SignalStrength mSignalStrength = new SignalStrength(-95, 10);
+        UpperLayerIndInfo mUpperLayerIndInfo = new UpperLayerIndInfo(
+                UpperLayerIndInfo.PLMN_INFO_LIST_AVAILABLE,
+                UpperLayerIndInfo.UPPER_LAYER_IND_INFO_AVAILABLE);
+        NetworkSelectionMode mNetworkSelectionMode = new NetworkSelectionMode(
+                NetworkSelectionMode.ACCESS_MODE_INVALID, false);
+        CiwlanConfig mCiwlanConfig = new CiwlanConfig(CiwlanConfig.PREFERRED,
+                CiwlanConfig.PREFERRED);
+        CellularRoamingPreference mRoamingPreference = new CellularRoamingPreference(
+                CellularRoamingPreference.ENABLED, CellularRoamingPreference.ENABLED);
+        QosParametersResult mQosParameters = new QosParametersResult();
+    }
+
+    /**
+     * Create a fake answering on a thread of its own.
+     */
+    public FakeExtPhone() {
+        this(startThread());
+    }
+
+    /**
+     * Create a fake answering the requests on looper.
+     */
+    public FakeExtPhone(Looper looper) {
+        mHandler = new Handler(looper);
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            mSlots[i] = new SlotState();
+        }
+    }
+
+    private static Looper startThread() {
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        return thread.getLooper();
+    }
+
+    private Behavior getBehaviorLocked(String method) {
+        Behavior behavior = mBehaviors.get(method);
+        if (behavior == null) {
+            behavior = new Behavior();
+            mBehaviors.put(method, behavior);
+        }
+        return behavior;
+    }
+
+    /**
+     * Delay the responses of the requests which have no specific response latency.
+     */
+    public void setDefaultResponseLatency(long millis) {
+        synchronized (mLock) {
+            mDefaultResponseLatency = millis;
+        }
+    }
+
+    /**
+     * Delay the response of the requests sent with method, e.g. "queryNrIconType".
+     */
+    public void setResponseLatency(String method, long millis) {
+        synchronized (mLock) {
+            getBehaviorLocked(method).mResponseLatency = millis;
+        }
+    }
+
+    /**
+     * Block the binder calls to method for millis before returning.
+     */
+    public void setBinderLatency(String method, long millis) {
+        synchronized (mLock) {
+            getBehaviorLocked(method).mBinderLatency = millis;
+        }
+    }
+
+    /**
+     * Answer the requests sent with method with status, and error for the responses
+     * carrying an error code.
+     */
+    public void setResponseStatus(String method, int status, int error) {
+        synchronized (mLock) {
+            Behavior behavior = getBehaviorLocked(method);
+            behavior.mStatus = status;
+            behavior.mError = error;
+        }
+    }
+
+    /**
+     * Make the binder calls to method throw a RemoteException.
+     */
+    public void setThrowRemoteException(String method, boolean enabled) {
+        synchronized (mLock) {
+            getBehaviorLocked(method).mThrow = enabled;
+        }
+    }
+
+    /**
+     * Never answer the requests sent with method, to exercise the request timeouts.
+     */
+    public void setDropResponses(String method, boolean enabled) {
+        synchronized (mLock) {
+            getBehaviorLocked(method).mDrop = enabled;
+        }
+    }
+
+    /**
+     * Restore the default behavior of all methods.
+     */
+    public void resetBehaviors() {
+        synchronized (mLock) {
+            mBehaviors.clear();
+            mDefaultResponseLatency = 0;
+        }
+    }
+
+    /**
+     * @return number of callbacks currently registered.
+     */
+    public int getRegistrationCount() {
+        synchronized (mLock) {
+            return mRegistrations.size();
+        }
+    }
+
+    /**
+     * Apply the binder latency and exception injected for method.
+     */
+    private Behavior enter(String method) throws RemoteException {
+        Behavior behavior;
+        synchronized (mLock) {
+            Behavior b = mBehaviors.get(method);
+            behavior = new Behavior();
+            if (b != null) {
+                behavior.mBinderLatency = b.mBinderLatency;
+                behavior.mResponseLatency = b.mResponseLatency;
+                behavior.mStatus = b.mStatus;
+                behavior.mError = b.mError;
+                behavior.mThrow = b.mThrow;
+                behavior.mDrop = b.mDrop;
+            }
+            if (behavior.mResponseLatency < 0) {
+                behavior.mResponseLatency = mDefaultResponseLatency;
+            }
+        }
+        if (behavior.mBinderLatency > 0) {
+            SystemClock.sleep(behavior.mBinderLatency);
+        }
+        if (behavior.mThrow) {
+            throw new RemoteException(method + " failed");
+        }
+        return behavior;
+    }
+
+    private SlotState slot(int slotId) {
+        return mSlots[Math.floorMod(slotId, MAX_SLOTS)];
+    }
+
+    /**
+     * Sends the response of a request.
+     */
+    private interface Response {
+        void send(IExtPhoneCallback callback, Token token, Status status, int error)
+                throws RemoteException;
+    }
+
+    private Token request(String method, Client client, Response response)
+            throws RemoteException {
+        Behavior behavior = enter(method);
+        Token token = new Token(mNextToken.getAndIncrement());
+        IExtPhoneCallback callback = client != null ? client.getCallback() : null;
+        if (callback == null || behavior.mDrop) {
+            return token;
+        }
+        Status status = new Status(behavior.mStatus);
+        mHandler.postDelayed(() -> {
+            try {
+                response.send(callback, token, status, behavior.mError);
+            } catch (RemoteException e) {
+                Log.e(TAG, method + " response failed", e);
+            }
+        }, behavior.mResponseLatency);
+        return token;
+    }
+
+    /**
+     * Send an unsolicited callback to the registrations subscribed to event.
+     */
+    public void notify(int event, Emitter emitter) {
+        broadcast(event, emitter, 0);
+    }
+
+    /**
+     * Send count callbacks to the registrations subscribed to event, one every periodMillis.
+     *
+     * @param count number of callbacks, 0 or less to run until stopped.
+     */
+    public Generator startGenerator(int event, long periodMillis, int count, Emitter emitter) {
+        Generator generator = new Generator(event, periodMillis, count, emitter);
+        mHandler.post(generator.mTick);
+        return generator;
+    }
+
+    private void broadcast(int event, Emitter emitter, int n) {
+        List<IExtPhoneCallback> callbacks = new ArrayList<>();
+        synchronized (mLock) {
+            for (Registration registration : mRegistrations) {
+                if (registration.wants(event)) {
+                    callbacks.add(registration.mCallback);
+                }
+            }
+        }
+        // Not under mLock, the callbacks may call back into the fake.
+        for (IExtPhoneCallback callback : callbacks) {
+            try {
+                emitter.emit(callback, n);
+            } catch (RemoteException e) {
+                Log.e(TAG, "Event " + event + " failed", e);
+            }
+        }
+    }
+
+    public void notifyNrIconChange(int slotId, NrIcon icon) {
+        synchronized (mLock) {
+            slot(slotId).mNrIcon = icon;
+        }
+        notify(ExtPhoneCallbackListener.EVENT_ON_NR_ICON_CHANGE,
+                (cb, n) -> cb.onNrIconChange(slotId, icon));
+    }
+
+    public void notifySignalStrength(int slotId, SignalStrength signalStrength) {
+        synchronized (mLock) {
+            slot(slotId).mSignalStrength = signalStrength;
+        }
+        Token unsol = new Token(Token.UNSOL);
+        Status success = new Status(Status.SUCCESS);
+        notify(ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH,
+                (cb, n) -> cb.onSignalStrength(slotId, unsol, success, signalStrength));
+    }
+
+    public void notifyCiwlanAvailable(int slotId, boolean available) {
+        notify(ExtPhoneCallbackListener.EVENT_ON_CIWLAN_AVAILABLE,
+                (cb, n) -> cb.onCiwlanAvailable(slotId, available));
+    }
+
+    public void notifyDdsSwitchRecommendation(int slotId, int recommendedSlotId) {
+        notify(ExtPhoneCallbackListener.EVENT_ON_DDS_SWITCH_RECOMMENDATION,
+                (cb, n) -> cb.onDdsSwitchRecommendation(slotId, recommendedSlotId));
+    }
+
+    public void notifyQosParametersChanged(int slotId, int cid, QosParametersResult result) {
+        synchronized (mLock) {
+            slot(slotId).mQosParameters = result;
+        }
+        notify(ExtPhoneCallbackListener.EVENT_ON_QOS_PARAMETERS_CHANGED,
+                (cb, n) -> cb.onQosParametersChanged(slotId, cid, result));
+    }
+
+    @Override
+    public int getPropertyValueInt(String property, int def) throws RemoteException {
+        enter("getPropertyValueInt");
+        return def;
+    }
+
+    @Override
+    public boolean getPropertyValueBool(String property, boolean def) throws RemoteException {
+        enter("getPropertyValueBool");
+        return def;
+    }
+
+    @Override
+    public String getPropertyValueString(String property, String def) throws RemoteException {
+        enter("getPropertyValueString");
+        return def;
+    }
+
+    @Override
+    public int getCurrentPrimaryCardSlotId() throws RemoteException {
+        enter("getCurrentPrimaryCardSlotId");
+        return 0;
+    }
+
+    @Override
+    public int getPrimaryCarrierSlotId() throws RemoteException {
+        enter("getPrimaryCarrierSlotId");
+        return 0;
+    }
+
+    @Override
+    public boolean isPrimaryCarrierSlotId(int slotId) throws RemoteException {
+        enter("isPrimaryCarrierSlotId");
+        return slotId == 0;
+    }
+
+    @Override
+    public void setPrimaryCardOnSlot(int slotId) throws RemoteException {
+        enter("setPrimaryCardOnSlot");
+    }
+
+    @Override
+    public boolean performIncrementalScan(int slotId) throws RemoteException {
+        enter("performIncrementalScan");
+        return true;
+    }
+
+    @Override
+    public boolean abortIncrementalScan(int slotId) throws RemoteException {
+        enter("abortIncrementalScan");
+        return true;
+    }
+
+    @Override
+    public Token startNetworkScan(int slot, NetworkScanRequest networkScanRequest,
+            Client client) throws RemoteException {
+        return request("startNetworkScan", client,
+                (cb, token, status, error) -> cb.startNetworkScanResponse(slot, token, error));
+    }
+
+    @Override
+    public Token stopNetworkScan(int slot, Client client) throws RemoteException {
+        return request("stopNetworkScan", client,
+                (cb, token, status, error) -> cb.stopNetworkScanResponse(slot, token, error));
+    }
+
+    @Override
+    public Token setNetworkSelectionModeManual(int slot, QtiSetNetworkSelectionMode mode,
+            Client client) throws RemoteException {
+        return request("setNetworkSelectionModeManual", client,
+                (cb, token, status, error) ->
+                        cb.setNetworkSelectionModeManualResponse(slot, token, error));
+    }
+
+    @Override
+    public Token setNetworkSelectionModeAutomatic(int slotId, int accessType, Client client)
+            throws RemoteException {
+        return request("setNetworkSelectionModeAutomatic", client,
+                (cb, token, status, error) ->
+                        cb.setNetworkSelectionModeAutomaticResponse(slotId, token, error));
+    }
+
+    @Override
+    public Token getNetworkSelectionMode(int slotId, Client client) throws RemoteException {
+        NetworkSelectionMode mode;
+        synchronized (mLock) {
+            mode = slot(slotId).mNetworkSelectionMode;
+        }
+        return request("getNetworkSelectionMode", client,
+                (cb, token, status, error) ->
+                        cb.getNetworkSelectionModeResponse(slotId, token, status, mode));
+    }
+
+    @Override
+    public boolean isSMSPromptEnabled() throws RemoteException {
+        enter("isSMSPromptEnabled");
+        return false;
+    }
+
+    @Override
+    public void setSMSPromptEnabled(boolean enabled) throws RemoteException {
+        enter("setSMSPromptEnabled");
+    }
+
+    @Override
+    public void supplyIccDepersonalization(String netpin, String type,
+            IDepersoResCallback callback, int phoneId) throws RemoteException {
+        enter("supplyIccDepersonalization");
+    }
+
+    @Override
+    public Token queryNrIconType(int slotId, Client client) throws RemoteException {
+        NrIconType type;
+        synchronized (mLock) {
+            type = slot(slotId).mNrIconType;
+        }
+        return request("queryNrIconType", client,
+                (cb, token, status, error) -> cb.onNrIconType(slotId, token, status, type));
+    }
+
+    @Override
+    public Token enableEndc(int slotId, boolean enable, Client client) throws RemoteException {
+        synchronized (mLock) {
+            slot(slotId).mEndcEnabled = enable;
+        }
+        return request("enableEndc", client,
+                (cb, token, status, error) -> cb.onEnableEndc(slotId, token, status));
+    }
+
+    @Override
+    public Token queryEndcStatus(int slotId, Client client) throws RemoteException {
+        boolean enabled;
+        synchronized (mLock) {
+            enabled = slot(slotId).mEndcEnabled;
+        }
+        return request("queryEndcStatus", client,
+                (cb, token, status, error) -> cb.onEndcStatus(slotId, token, status, enabled));
+    }
+
+    @Override
+    public Client registerCallback(String packageName, IExtPhoneCallback callback)
+            throws RemoteException {
+        return registerCallbackWithEvents(packageName, callback, null);
+    }
+
+    @Override
+    public Client registerCallbackWithEvents(String packageName, IExtPhoneCallback callback,
+            int[] events) throws RemoteException {
+        enter("registerCallbackWithEvents");
+        synchronized (mLock) {
+            mRegistrations.add(new Registration(callback, events));
+        }
+        return new Client(mNextClientId.getAndIncrement(), 0, packageName, callback);
+    }
+
+    @Override
+    public void unRegisterCallback(IExtPhoneCallback callback) throws RemoteException {
+        enter("unRegisterCallback");
+        synchronized (mLock) {
+            for (int i = mRegistrations.size() - 1; i >= 0; i--) {
+                if (mRegistrations.get(i).mCallback == callback) {
+                    mRegistrations.remove(i);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Client registerQtiRadioConfigCallback(String packageName, IExtPhoneCallback callback)
+            throws RemoteException {
+        return registerCallbackWithEvents(packageName, callback, null);
+    }
+
+    @Override
+    public void unregisterQtiRadioConfigCallback(IExtPhoneCallback callback)
+            throws RemoteException {
+        unRegisterCallback(callback);
+    }
+
+    @Override
+    public Token setNrConfig(int slotId, NrConfig def, Client client) throws RemoteException {
+        synchronized (mLock) {
+            slot(slotId).mNrConfig = def;
+        }
+        return request("setNrConfig", client,
+                (cb, token, status, error) -> cb.onSetNrConfig(slotId, token, status));
+    }
+
+    @Override
+    public Token queryNrConfig(int slotId, Client client) throws RemoteException {
+        NrConfig config;
+        synchronized (mLock) {
+            config = slot(slotId).mNrConfig;
+        }
+        return request("queryNrConfig", client,
+                (cb, token, status, error) -> cb.onNrConfigStatus(slotId, token, status, config));
+    }
+
+    @Override
+    public Token sendCdmaSms(int slotId, byte[] pdu, boolean expectMore, Client client)
+            throws RemoteException {
+        return request("sendCdmaSms", client,
+                (cb, token, status, error) -> cb.sendCdmaSmsResponse(slotId, token, status,
+                        new SmsResult(token.get(), null, error)));
+    }
+
+    @Override
+    public Token getQtiRadioCapability(int slotId, Client client) throws RemoteException {
+        return request("getQtiRadioCapability", client,
+                (cb, token, status, error) ->
+                        cb.getQtiRadioCapabilityResponse(slotId, token, status, 0));
+    }
+
+    @Override
+    public Token enable5g(int slotId, Client client) throws RemoteException {
+        synchronized (mLock) {
+            slot(slotId).m5gEnabled = true;
+        }
+        return request("enable5g", client,
+                (cb, token, status, error) -> cb.on5gStatus(slotId, token, status, true));
+    }
+
+    @Override
+    public Token disable5g(int slotId, Client client) throws RemoteException {
+        synchronized (mLock) {
+            slot(slotId).m5gEnabled = false;
+        }
+        return request("disable5g", client,
+                (cb, token, status, error) -> cb.on5gStatus(slotId, token, status, false));
+    }
+
+    @Override
+    public Token queryNrBearerAllocation(int slotId, Client client) throws RemoteException {
+        return request("queryNrBearerAllocation", client,
+                (cb, token, status, error) -> cb.onAnyNrBearerAllocation(slotId, token, status,
+                        new BearerAllocationStatus(BearerAllocationStatus.ALLOCATED)));
+    }
+
+    @Override
+    public Token enable5gOnly(int slotId, Client client) throws RemoteException {
+        synchronized (mLock) {
+            slot(slotId).m5gEnabled = true;
+        }
+        return request("enable5gOnly", client,
+                (cb, token, status, error) -> cb.on5gStatus(slotId, token, status, true));
+    }
+
+    @Override
+    public Token query5gStatus(int slotId, Client client) throws RemoteException {
+        boolean enabled;
+        synchronized (mLock) {
+            enabled = slot(slotId).m5gEnabled;
+        }
+        return request("query5gStatus", client,
+                (cb, token, status, error) -> cb.on5gStatus(slotId, token, status, enabled));
+    }
+
+    @Override
+    public Token queryNrDcParam(int slotId, Client client) throws RemoteException {
+        DcParam param;
+        synchronized (mLock) {
+            param = slot(slotId).mDcParam;
+        }
+        return request("queryNrDcParam", client,
+                (cb, token, status, error) -> cb.onNrDcParam(slotId, token, status, param));
+    }
+
+    @Override
+    public Token queryNrSignalStrength(int slotId, Client client) throws RemoteException {
+        SignalStrength signalStrength;
+        synchronized (mLock) {
+            signalStrength = slot(slotId).mSignalStrength;
+        }
+        return request("queryNrSignalStrength", client,
+                (cb, token, status, error) ->
+                        cb.onSignalStrength(slotId, token, status, signalStrength));
+    }
+
+    @Override
+    public Token queryUpperLayerIndInfo(int slotId, Client client) throws RemoteException {
+        UpperLayerIndInfo info;
+        synchronized (mLock) {
+            info = slot(slotId).mUpperLayerIndInfo;
+        }
+        return request("queryUpperLayerIndInfo", client,
+                (cb, token, status, error) -> cb.onUpperLayerIndInfo(slotId, token, status, info));
+    }
+
+    @Override
+    public Token query5gConfigInfo(int slotId, Client client) throws RemoteException {
+        return request("query5gConfigInfo", client,
+                (cb, token, status, error) -> cb.on5gConfigInfo(slotId, token, status,
+                        new NrConfigType(NrConfigType.NSA_CONFIGURATION)));
+    }
+
+    @Override
+    public Token setCarrierInfoForImsiEncryption(int slotId, ImsiEncryptionInfo info,
+            Client client) throws RemoteException {
+        return request("setCarrierInfoForImsiEncryption", client,
+                (cb, token, status, error) -> cb.setCarrierInfoForImsiEncryptionResponse(slotId,
+                        token, new QRadioResponseInfo(0, token.get(), error)));
+    }
+
+    @Override
+    public void queryCallForwardStatus(int slotId, int cfReason, int serviceClass,
+            String number, boolean expectMore, Client client) throws RemoteException {
+        request("queryCallForwardStatus", client,
+                (cb, token, status, error) -> cb.queryCallForwardStatusResponse(status, null));
+    }
+
+    @Override
+    public void getFacilityLockForApp(int slotId, String facility, String password,
+            int serviceClass, String appId, boolean expectMore, Client client)
+            throws RemoteException {
+        request("getFacilityLockForApp", client,
+                (cb, token, status, error) -> cb.getFacilityLockForAppResponse(status,
+                        new int[] {0}));
+    }
+
+    @Override
+    public boolean isSmartDdsSwitchFeatureAvailable() throws RemoteException {
+        enter("isSmartDdsSwitchFeatureAvailable");
+        return true;
+    }
+
+    @Override
+    public void setSmartDdsSwitchToggle(boolean isEnabled, Client client)
+            throws RemoteException {
+        request("setSmartDdsSwitchToggle", client,
+                (cb, token, status, error) -> cb.setSmartDdsSwitchToggleResponse(token,
+                        status.get() == Status.SUCCESS));
+    }
+
+    @Override
+    public boolean setAirplaneMode(boolean on) throws RemoteException {
+        enter("setAirplaneMode");
+        return true;
+    }
+
+    @Override
+    public boolean getAirplaneMode() throws RemoteException {
+        enter("getAirplaneMode");
+        return false;
+    }
+
+    @Override
+    public boolean checkSimPinLockStatus(int subId) throws RemoteException {
+        enter("checkSimPinLockStatus");
+        return false;
+    }
+
+    @Override
+    public boolean toggleSimPinLock(int subId, boolean enabled, String pin)
+            throws RemoteException {
+        enter("toggleSimPinLock");
+        return true;
+    }
+
+    @Override
+    public boolean verifySimPin(int subId, String pin) throws RemoteException {
+        enter("verifySimPin");
+        return true;
+    }
+
+    @Override
+    public boolean verifySimPukChangePin(int subId, String puk, String newPin)
+            throws RemoteException {
+        enter("verifySimPukChangePin");
+        return true;
+    }
+
+    @Override
+    public boolean isFeatureSupported(int feature) throws RemoteException {
+        enter("isFeatureSupported");
+        return true;
+    }
+
+    @Override
+    public QtiImeiInfo[] getImeiInfo() throws RemoteException {
+        enter("getImeiInfo");
+        QtiImeiInfo[] info = new QtiImeiInfo[MAX_SLOTS];
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            info[i] = new QtiImeiInfo(i, "35000000000000" + i, i == 0
+                    ? QtiImeiInfo.IMEI_TYPE_PRIMARY : QtiImeiInfo.IMEI_TYPE_SECONDARY);
+        }
+        return info;
+    }
+
+    @Override
+    public Token getDdsSwitchCapability(int slotId, Client client) throws RemoteException {
+        return request("getDdsSwitchCapability", client,
+                (cb, token, status, error) ->
+                        cb.onDdsSwitchCapabilityChange(slotId, token, status, true));
+    }
+
+    @Override
+    public Token sendUserPreferenceForDataDuringVoiceCall(int slotId, boolean userPreference,
+            Client client) throws RemoteException {
+        return request("sendUserPreferenceForDataDuringVoiceCall", client,
+                (cb, token, status, error) ->
+                        cb.onSendUserPreferenceForDataDuringVoiceCall(slotId, token, status));
+    }
+
+    @Override
+    public boolean isEpdgOverCellularDataSupported(int slotId) throws RemoteException {
+        enter("isEpdgOverCellularDataSupported");
+        return true;
+    }
+
+    @Override
+    public Token getQosParameters(int slot, int cid, Client client) throws RemoteException {
+        QosParametersResult result;
+        synchronized (mLock) {
+            result = slot(slot).mQosParameters;
+        }
+        return request("getQosParameters", client,
+                (cb, token, status, error) ->
+                        cb.getQosParametersResponse(slot, token, status, result));
+    }
+
+    @Override
+    public Token getSecureModeStatus(Client client) throws RemoteException {
+        return request("getSecureModeStatus", client,
+                (cb, token, status, error) -> cb.getSecureModeStatusResponse(token, status,
+                        false));
+    }
+
+    @Override
+    public Token setMsimPreference(Client client, MsimPreference pref) throws RemoteException {
+        return request("setMsimPreference", client,
+                (cb, token, status, error) -> cb.setMsimPreferenceResponse(token, status));
+    }
+
+    @Override
+    public QtiSimType[] getCurrentSimType() throws RemoteException {
+        enter("getCurrentSimType");
+        return simTypes(QtiSimType.SIM_TYPE_PHYSICAL);
+    }
+
+    @Override
+    public QtiSimType[] getSupportedSimTypes() throws RemoteException {
+        enter("getSupportedSimTypes");
+        return simTypes(QtiSimType.SIM_TYPE_PHYSICAL_ESIM);
+    }
+
+    private static QtiSimType[] simTypes(int type) {
+        QtiSimType[] types = new QtiSimType[MAX_SLOTS];
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            types[i] = new QtiSimType(type);
+        }
+        return types;
+    }
+
+    @Override
+    public Token setSimType(Client client, QtiSimType[] simType) throws RemoteException {
+        return request("setSimType", client,
+                (cb, token, status, error) -> cb.setSimTypeResponse(token, status));
+    }
+
+    @Override
+    public CiwlanConfig getCiwlanConfig(int slotId) throws RemoteException {
+        enter("getCiwlanConfig");
+        synchronized (mLock) {
+            return slot(slotId).mCiwlanConfig;
+        }
+    }
+
+    @Override
+    public boolean getDualDataCapability() throws RemoteException {
+        enter("getDualDataCapability");
+        return true;
+    }
+
+    @Override
+    public Token setDualDataUserPreference(Client client, boolean enable)
+            throws RemoteException {
+        return request("setDualDataUserPreference", client,
+                (cb, token, status, error) -> cb.setDualDataUserPreferenceResponse(token,
+                        status));
+    }
+
+    @Override
+    public QtiPersoUnlockStatus getSimPersoUnlockStatus(int slotId) throws RemoteException {
+        enter("getSimPersoUnlockStatus");
+        return new QtiPersoUnlockStatus(QtiPersoUnlockStatus.UNKNOWN);
+    }
+
+    @Override
+    public Token sendUserPreferenceConfigForDataDuringVoiceCall(boolean[] isAllowedOnSlot,
+            Client client) throws RemoteException {
+        return request("sendUserPreferenceConfigForDataDuringVoiceCall", client,
+                (cb, token, status, error) ->
+                        cb.onSendUserPreferenceConfigForDataDuringVoiceCall(token, status));
+    }
+
+    @Override
+    public Token getDdsSwitchConfigCapability(Client client) throws RemoteException {
+        return request("getDdsSwitchConfigCapability", client,
+                (cb, token, status, error) ->
+                        cb.onDdsSwitchConfigCapabilityChanged(token, status, true));
+    }
+
+    @Override
+    public CellularRoamingPreference getCellularRoamingPreference(int slotId)
+            throws RemoteException {
+        enter("getCellularRoamingPreference");
+        synchronized (mLock) {
+            return slot(slotId).mRoamingPreference;
+        }
+    }
+
+    @Override
+    public Token setCellularRoamingPreference(Client client, int slotId,
+            CellularRoamingPreference pref) throws RemoteException {
+        synchronized (mLock) {
+            slot(slotId).mRoamingPreference = pref;
+        }
+        return request("setCellularRoamingPreference", client,
+                (cb, token, status, error) ->
+                        cb.setCellularRoamingPreferenceResponse(slotId, token, status));
+    }
+
+    @Override
+    public boolean isCiwlanAvailable(int slotId) throws RemoteException {
+        enter("isCiwlanAvailable");
+        return true;
+    }
+
+    @Override
+    public Token setCiwlanModeUserPreference(int slotId, Client client,
+            CiwlanConfig ciwlanConfig) throws RemoteException {
+        synchronized (mLock) {
+            slot(slotId).mCiwlanConfig = ciwlanConfig;
+        }
+        return request("setCiwlanModeUserPreference", client,
+                (cb, token, status, error) ->
+                        cb.setCiwlanModeUserPreferenceResponse(slotId, token, status));
+    }
+
+    @Override
+    public CiwlanConfig getCiwlanModeUserPreference(int slotId) throws RemoteException {
+        enter("getCiwlanModeUserPreference");
+        synchronized (mLock) {
+            return slot(slotId).mCiwlanConfig;
+        }
+    }
+
+    @Override
+    public Token queryNrIcon(int slotId, Client client) throws RemoteException {
+        NrIcon icon;
+        synchronized (mLock) {
+            icon = slot(slotId).mNrIcon;
+        }
+        return request("queryNrIcon", client,
+                (cb, token, status, error) -> cb.onNrIconResponse(slotId, token, status, icon));
+    }
+
+    @Override
+    public Token queryNrSnapshot(int slotId, Client client) throws RemoteException {
+        NrSnapshot snapshot;
+        synchronized (mLock) {
+            SlotState state = slot(slotId);
+            snapshot = new NrSnapshot(state.mNrIconType, state.mEndcEnabled, state.mNrConfig,
+                    state.m5gEnabled, state.mDcParam, state.mSignalStrength,
+                    state.mUpperLayerIndInfo);
+        }
+        return request("queryNrSnapshot", client,
+                (cb, token, status, error) ->
+                        cb.onNrSnapshotResponse(slotId, token, status, snapshot));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording of the callbacks of a listener into a CallbackJournal, and their replay to
+ * another listener with CallbackReplayer.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CallbackJournalTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final Token UNSOL = new Token(Token.UNSOL);
+    private static final Status SUCCESS = new Status(Status.SUCCESS);
+
+    private final CallbackJournal mJournal = new CallbackJournal(2);
+    private final RecordingListener mListener = new RecordingListener();
+
+    @Before
+    public void setUp() {
+        mListener.setJournal(mJournal);
+    }
+
+    @Test
+    public void journalKeepsTheNewestCallbacks() throws Exception {
+        mListener.mCallback.on5gStatus(0, new Token(1), SUCCESS, true);
+        mListener.mCallback.onEnableEndc(1, new Token(2), new Status(Status.FAILURE));
+        mListener.mCallback.onSignalStrength(0, UNSOL, SUCCESS, new SignalStrength(-90, 15));
+
+        List<CallbackJournal.Entry> entries = mJournal.snapshot();
+        assertEquals(3, mJournal.getRecordedCount());
+        assertEquals(2, entries.size());
+        CallbackJournal.Entry endc = entries.get(0);
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_ENABLE_ENDC, endc.getEvent());
+        assertEquals(1, endc.getSlotId());
+        assertEquals(2, endc.getToken());
+        assertEquals(Status.FAILURE, endc.getStatus());
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH,
+                entries.get(1).getEvent());
+    }
+
+    @Test
+    public void payloadsAreCopiedWhenRecorded() throws Exception {
+        SignalStrength signalStrength = new SignalStrength(-90, 15);
+
+        mListener.mCallback.onSignalStrength(0, UNSOL, SUCCESS, signalStrength);
+
+        SignalStrength recorded = (SignalStrength) mJournal.snapshot().get(0).getData();
+        assertNotSame(signalStrength, recorded);
+        assertEquals(-90, recorded.getRsrp());
+        assertEquals(15, recorded.getSnr());
+    }
+
+    @Test
+    public void exportedJournalIsImportedBack() throws Exception {
+        mListener.mCallback.on5gStatus(0, new Token(1), SUCCESS, true);
+        mListener.mCallback.onSignalStrength(1, UNSOL, SUCCESS, new SignalStrength(-90, 15));
+
+        List<CallbackJournal.Entry> entries =
+                CallbackJournal.importEntries(mJournal.export());
+
+        assertEquals(2, entries.size());
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, entries.get(0).getEvent());
+        assertTrue(entries.get(0).hasToken());
+        assertEquals(Boolean.TRUE, entries.get(0).getData());
+        assertFalse(entries.get(1).hasToken());
+        assertEquals(-90, ((SignalStrength) entries.get(1).getData()).getRsrp());
+    }
+
+    @Test
+    public void replayDeliversTheCallbacksInOrder() throws Exception {
+        mListener.mCallback.on5gStatus(0, new Token(1), SUCCESS, true);
+        mListener.mCallback.onSignalStrength(1, UNSOL, SUCCESS, new SignalStrength(-90, 15));
+        RecordingListener target = new RecordingListener();
+
+        new CallbackReplayer().replay(mJournal.snapshot(), target,
+                CallbackReplayer.SPEED_UNLIMITED).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        RecordingListener.Callback first = target.poll(0);
+        RecordingListener.Callback second = target.poll(0);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, first.mEvent);
+        assertEquals(1, first.mToken);
+        assertEquals(Boolean.TRUE, first.mValue);
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH, second.mEvent);
+        assertEquals(1, second.mSlotId);
+        assertNull(target.poll(0));
+    }
+}
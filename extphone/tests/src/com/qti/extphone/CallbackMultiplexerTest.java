@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.qti.extphone.testing.FakeExtPhone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Listeners of ExtTelephonyManager multiplexed over a single registration with
+ * FakeExtPhone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CallbackMultiplexerTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+    // How long to wait for a callback which must not come.
+    private static final long QUIET_MILLIS = 500;
+    private static final String PACKAGE_NAME = "com.qti.extphone.tests";
+
+    private final ServiceCallback mServiceCallback = new ServiceCallback() {
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+    };
+
+    private FakeExtPhone mFake;
+    private ExtTelephonyManager mManager;
+    private final RecordingListener mFirst = new RecordingListener();
+    private final RecordingListener mSecond = new RecordingListener();
+
+    @Before
+    public void setUp() throws Exception {
+        mFake = new FakeExtPhone();
+        mManager = new ExtTelephonyManager(new FakeServiceContext(mFake));
+        mManager.setCallbackMultiplexingEnabled(true);
+        assertTrue(mManager.connectService(mServiceCallback));
+        assertTrue(mManager.awaitConnected(TIMEOUT_MILLIS));
+    }
+
+    @After
+    public void tearDown() {
+        mManager.disconnectService(mServiceCallback);
+    }
+
+    private Client register(RecordingListener listener, int... events) {
+        Client client = mManager.registerCallbackWithEvents(PACKAGE_NAME, listener, events);
+        assertNotNull(client);
+        return client;
+    }
+
+    @Test
+    public void listenersShareOneRegistration() throws Exception {
+        register(mFirst, ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH);
+        // Widens the registration, which replaces the previous one.
+        register(mSecond, ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH,
+                ExtPhoneCallbackListener.EVENT_ON_5G_STATUS);
+
+        assertEquals(1, mFake.getRegistrationCount());
+        mFake.notifySignalStrength(0, new SignalStrength(-90, 15));
+
+        RecordingListener.Callback first = mFirst.poll(TIMEOUT_MILLIS);
+        RecordingListener.Callback second = mSecond.poll(TIMEOUT_MILLIS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH, first.mEvent);
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH, second.mEvent);
+    }
+
+    @Test
+    public void responseGoesToTheSendingListenerOnly() throws Exception {
+        Client first = register(mFirst, ExtPhoneCallbackListener.EVENT_ALL);
+        register(mSecond, ExtPhoneCallbackListener.EVENT_ALL);
+
+        Token token = mManager.query5gStatus(0, first);
+
+        RecordingListener.Callback callback = mFirst.poll(TIMEOUT_MILLIS);
+        assertNotNull(callback);
+        assertEquals(token.get(), callback.mToken);
+        assertNull(mSecond.poll(QUIET_MILLIS));
+    }
+
+    @Test
+    public void unregisteredListenerIsNotCalled() throws Exception {
+        register(mFirst, ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH);
+        register(mSecond, ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH);
+
+        mManager.unregisterCallback(mFirst);
+        mFake.notifySignalStrength(1, new SignalStrength(-100, 5));
+
+        assertNotNull(mSecond.poll(TIMEOUT_MILLIS));
+        assertNull(mFirst.poll(QUIET_MILLIS));
+        assertEquals(1, mFake.getRegistrationCount());
+
+        mManager.unregisterCallback(mSecond);
+        assertEquals(0, mFake.getRegistrationCount());
+    }
+}
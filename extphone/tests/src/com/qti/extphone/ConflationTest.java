@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Latest-value conflation of ExtPhoneCallbackListener, with the callbacks delivered on an
+ * Executor which only runs them when the test drains it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConflationTest {
+    private static final Token UNSOL = new Token(Token.UNSOL);
+    private static final Status SUCCESS = new Status(Status.SUCCESS);
+
+    private final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+    private final List<Object[]> mDelivered = new ArrayList<>();
+    private ExtPhoneCallbackListener mListener;
+
+    @Before
+    public void setUp() {
+        mListener = new ExtPhoneCallbackListener(mTasks::add) {
+            @Override
+            public void onQosParametersChanged(int slotId, int cid,
+                    QosParametersResult result) {
+                mDelivered.add(new Object[] {slotId, cid, result});
+            }
+
+            @Override
+            public void onSignalStrength(int slotId, Token token, Status status,
+                    SignalStrength signalStrength) {
+                mDelivered.add(new Object[] {slotId, token.get(), signalStrength});
+            }
+        };
+        mListener.setConflationEnabled(true);
+    }
+
+    private void drain() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void qosParametersOfEachCidAreKept() throws Exception {
+        QosParametersResult first = new QosParametersResult();
+        QosParametersResult other = new QosParametersResult();
+        QosParametersResult latest = new QosParametersResult();
+
+        mListener.mCallback.onQosParametersChanged(0, 1, first);
+        mListener.mCallback.onQosParametersChanged(0, 2, other);
+        mListener.mCallback.onQosParametersChanged(0, 1, latest);
+        drain();
+
+        assertEquals(2, mDelivered.size());
+        assertEquals(1, mDelivered.get(0)[1]);
+        assertSame(latest, mDelivered.get(0)[2]);
+        assertEquals(2, mDelivered.get(1)[1]);
+        assertSame(other, mDelivered.get(1)[2]);
+    }
+
+    @Test
+    public void onlyTheLatestValueOfASlotIsDelivered() throws Exception {
+        SignalStrength latest = new SignalStrength(-80, 20);
+
+        mListener.mCallback.onSignalStrength(0, UNSOL, SUCCESS, new SignalStrength(-100, 5));
+        mListener.mCallback.onSignalStrength(1, UNSOL, SUCCESS, new SignalStrength(-90, 10));
+        mListener.mCallback.onSignalStrength(0, UNSOL, SUCCESS, latest);
+        drain();
+
+        assertEquals(2, mDelivered.size());
+        assertEquals(0, mDelivered.get(0)[0]);
+        assertSame(latest, mDelivered.get(0)[2]);
+        assertEquals(1, mDelivered.get(1)[0]);
+    }
+
+    @Test
+    public void responsesAreNotConflated() throws Exception {
+        mListener.mCallback.onSignalStrength(0, new Token(1), SUCCESS,
+                new SignalStrength(-100, 5));
+        mListener.mCallback.onSignalStrength(0, new Token(2), SUCCESS,
+                new SignalStrength(-90, 10));
+        drain();
+
+        assertEquals(2, mDelivered.size());
+        assertEquals(1, mDelivered.get(0)[1]);
+        assertEquals(2, mDelivered.get(1)[1]);
+    }
+
+    @Test
+    public void valuesAreNotConflatedWhenDisabled() throws Exception {
+        mListener.setConflationEnabled(false);
+
+        mListener.mCallback.onQosParametersChanged(0, 1, new QosParametersResult());
+        mListener.mCallback.onQosParametersChanged(0, 1, new QosParametersResult());
+        drain();
+
+        assertEquals(2, mDelivered.size());
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.qti.extphone.testing.FakeExtPhone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Request tracking of ExtTelephonyManager against FakeExtPhone: deadlines, late responses,
+ * cancellation, shared queries and replay once the service restarted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExtTelephonyManagerTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+    // How long to wait for a callback which must not come.
+    private static final long QUIET_MILLIS = 500;
+    private static final String PACKAGE_NAME = "com.qti.extphone.tests";
+
+    private final ServiceCallback mServiceCallback = new ServiceCallback() {
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+    };
+
+    private FakeExtPhone mFake;
+    private FakeServiceContext mContext;
+    private ExtTelephonyManager mManager;
+    private RecordingListener mListener;
+    private Client mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mFake = new FakeExtPhone();
+        mContext = new FakeServiceContext(mFake);
+        mManager = new ExtTelephonyManager(mContext);
+        assertTrue(mManager.connectService(mServiceCallback));
+        assertTrue(mManager.awaitConnected(TIMEOUT_MILLIS));
+        mListener = new RecordingListener();
+        mClient = register(mListener);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.disconnectService(mServiceCallback);
+    }
+
+    private Client register(RecordingListener listener) {
+        Client client = mManager.registerCallbackWithEvents(PACKAGE_NAME, listener,
+                new int[] {ExtPhoneCallbackListener.EVENT_ALL});
+        assertNotNull(client);
+        return client;
+    }
+
+    private static RecordingListener.Callback expect(RecordingListener listener, int event,
+            Token token, int status) throws InterruptedException {
+        RecordingListener.Callback callback = listener.poll(TIMEOUT_MILLIS);
+        assertNotNull("No callback for " + token, callback);
+        assertEquals(event, callback.mEvent);
+        assertEquals(token.get(), callback.mToken);
+        assertEquals(status, callback.mStatus);
+        return callback;
+    }
+
+    @Test
+    public void responseBeforeDeadlineIsDeliveredOnce() throws Exception {
+        mManager.setRequestTimeout(ExtPhoneCallbackListener.EVENT_ON_5G_STATUS,
+                TIMEOUT_MILLIS);
+
+        Token token = mManager.query5gStatus(0, mClient);
+
+        assertNotNull(token);
+        RecordingListener.Callback callback = expect(mListener,
+                ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, token, Status.SUCCESS);
+        assertEquals(Boolean.TRUE, callback.mValue);
+        assertNull(mListener.poll(QUIET_MILLIS));
+    }
+
+    @Test
+    public void expiredRequestReportsTimeoutAndDropsLateResponse() throws Exception {
+        mManager.setRequestTimeout(ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, 100);
+        mFake.setResponseLatency("query5gStatus", 400);
+
+        Token token = mManager.query5gStatus(0, mClient);
+
+        expect(mListener, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, token, Status.TIMEOUT);
+        // The response itself arrives 300 ms later and must be dropped.
+        assertNull(mListener.poll(QUIET_MILLIS + 300));
+        assertFalse(mManager.cancelRequest(token));
+    }
+
+    @Test
+    public void requestWithoutDeadlineWaitsForItsResponse() throws Exception {
+        mManager.setRequestTimeout(ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE, 0);
+        mFake.setResponseLatency("queryNrIconType", 300);
+
+        Token token = mManager.queryNrIconType(0, mClient);
+
+        expect(mListener, ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE, token,
+                Status.SUCCESS);
+    }
+
+    @Test
+    public void cancelledRequestIsNotDelivered() throws Exception {
+        mFake.setResponseLatency("queryNrIconType", 200);
+
+        Token token = mManager.queryNrIconType(0, mClient);
+
+        assertTrue(mManager.cancelRequest(token));
+        assertFalse(mManager.cancelRequest(token));
+        assertNull(mListener.poll(QUIET_MILLIS));
+    }
+
+    @Test
+    public void sharedQueryIsDeliveredToEveryCaller() throws Exception {
+        mManager.setQueryDeduplicationEnabled(true);
+        mFake.setResponseLatency("query5gStatus", 200);
+        RecordingListener other = new RecordingListener();
+        Client otherClient = register(other);
+
+        Token token = mManager.query5gStatus(0, mClient);
+        Token joined = mManager.query5gStatus(0, otherClient);
+        // The first caller asking again waits for the same response, delivered once.
+        Token again = mManager.query5gStatus(0, mClient);
+
+        assertEquals(token.get(), joined.get());
+        assertEquals(token.get(), again.get());
+        expect(mListener, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, token, Status.SUCCESS);
+        expect(other, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, token, Status.SUCCESS);
+        assertNull(mListener.poll(QUIET_MILLIS));
+        assertNull(other.poll(0));
+    }
+
+    @Test
+    public void sharedQueryIsNotJoinedOnceAnswered() throws Exception {
+        mManager.setQueryDeduplicationEnabled(true);
+
+        Token first = mManager.query5gStatus(0, mClient);
+        expect(mListener, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, first, Status.SUCCESS);
+        Token second = mManager.query5gStatus(0, mClient);
+
+        assertFalse(first.get() == second.get());
+        expect(mListener, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, second,
+                Status.SUCCESS);
+    }
+
+    @Test
+    public void queriesOfDifferentSlotsAreNotShared() throws Exception {
+        mManager.setQueryDeduplicationEnabled(true);
+        mFake.setResponseLatency("query5gStatus", 200);
+
+        Token slot0 = mManager.query5gStatus(0, mClient);
+        Token slot1 = mManager.query5gStatus(1, mClient);
+
+        assertFalse(slot0.get() == slot1.get());
+        RecordingListener.Callback a = mListener.poll(TIMEOUT_MILLIS);
+        RecordingListener.Callback b = mListener.poll(TIMEOUT_MILLIS);
+        assertNotNull(a);
+        assertNotNull(b);
+        assertEquals(1, a.mSlotId + b.mSlotId);
+    }
+
+    @Test
+    public void cancelledSharedQueryIsDeliveredToNoCaller() throws Exception {
+        mManager.setQueryDeduplicationEnabled(true);
+        mFake.setResponseLatency("query5gStatus", 200);
+        RecordingListener other = new RecordingListener();
+        Client otherClient = register(other);
+
+        Token token = mManager.query5gStatus(0, mClient);
+        Token joined = mManager.query5gStatus(0, otherClient);
+
+        assertTrue(mManager.cancelRequest(joined));
+        assertNull(mListener.poll(QUIET_MILLIS));
+        assertNull(other.poll(0));
+        // A cancelled request cannot be joined anymore.
+        Token next = mManager.query5gStatus(0, otherClient);
+        assertFalse(token.get() == next.get());
+        expect(other, ExtPhoneCallbackListener.EVENT_ON_5G_STATUS, next, Status.SUCCESS);
+    }
+
+    @Test
+    public void queriesAreReplayedAfterServiceDisconnected() throws Exception {
+        mManager.setAutoReconnectEnabled(true);
+        mManager.setRequestReplayEnabled(true);
+        // A crashing service never answers.
+        mFake.setDropResponses("queryNrIconType", true);
+        mFake.setDropResponses("enableEndc", true);
+
+        Token query = mManager.queryNrIconType(0, mClient);
+        Token config = mManager.enableEndc(0, true, mClient);
+        // The restarted service answers again.
+        mFake.resetBehaviors();
+        mContext.disconnect();
+
+        // Requests which are not idempotent fail right away.
+        expect(mListener, ExtPhoneCallbackListener.EVENT_ON_ENABLE_ENDC, config,
+                Status.EXCEPTION);
+        assertFalse(mManager.isServiceConnected());
+
+        mContext.connect();
+        assertTrue(mManager.awaitConnected(TIMEOUT_MILLIS));
+
+        // Answered with the Token returned before the crash.
+        expect(mListener, ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE, query,
+                Status.SUCCESS);
+        // The registration of the listener was restored as well.
+        mFake.notifySignalStrength(1, new SignalStrength(-90, 15));
+        RecordingListener.Callback callback = mListener.poll(TIMEOUT_MILLIS);
+        assertNotNull(callback);
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_SIGNAL_STRENGTH, callback.mEvent);
+        assertEquals(1, callback.mSlotId);
+    }
+
+    @Test
+    public void queriesFailAfterServiceDisconnectedWithoutReplay() throws Exception {
+        mManager.setAutoReconnectEnabled(true);
+        mManager.setRequestReplayEnabled(false);
+        mFake.setDropResponses("queryNrIconType", true);
+
+        Token query = mManager.queryNrIconType(0, mClient);
+        mFake.resetBehaviors();
+        mContext.disconnect();
+
+        expect(mListener, ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE, query,
+                Status.EXCEPTION);
+        mContext.connect();
+        assertTrue(mManager.awaitConnected(TIMEOUT_MILLIS));
+        assertNull(mListener.poll(QUIET_MILLIS));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Context binding ExtTelephonyManager to an in-process service, e.g. FakeExtPhone. The
+ * connection is delivered on the main thread, like the system does, and can be dropped
+ * and restored with disconnect() and connect().
+ */
+final class FakeServiceContext extends ContextWrapper {
+    private static final ComponentName COMPONENT = new ComponentName("com.qti.phone",
+            "com.qti.phone.ExtTelephonyService");
+
+    private final IBinder mService;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private ServiceConnection mConnection;
+
+    FakeServiceContext(IBinder service) {
+        super(InstrumentationRegistry.getInstrumentation().getTargetContext());
+        mService = service;
+    }
+
+    @Override
+    public boolean bindService(Intent service, ServiceConnection conn, int flags) {
+        synchronized (this) {
+            mConnection = conn;
+        }
+        mMainHandler.post(() -> conn.onServiceConnected(COMPONENT, mService));
+        return true;
+    }
+
+    @Override
+    public void unbindService(ServiceConnection conn) {
+        synchronized (this) {
+            if (mConnection != conn) {
+                throw new IllegalArgumentException("Service not registered");
+            }
+            mConnection = null;
+        }
+    }
+
+    private synchronized ServiceConnection getConnection() {
+        return mConnection;
+    }
+
+    /**
+     * Report the service as crashed, the binding is kept.
+     */
+    void disconnect() {
+        ServiceConnection conn = getConnection();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                () -> conn.onServiceDisconnected(COMPONENT));
+    }
+
+    /**
+     * Report the service as restarted.
+     */
+    void connect() {
+        ServiceConnection conn = getConnection();
+        if (conn != null) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(
+                    () -> conn.onServiceConnected(COMPONENT, mService));
+        }
+    }
+}
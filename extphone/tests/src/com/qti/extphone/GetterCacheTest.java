@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class GetterCacheTest {
+    private final GetterCache mCache = new GetterCache();
+
+    @Test
+    public void changeEventsReplaceTheCachedValue() throws Exception {
+        CiwlanConfig read = new CiwlanConfig(0, 0);
+        CiwlanConfig changed = new CiwlanConfig(1, 1);
+        mCache.put(GetterCache.CIWLAN_CONFIG, 0, read,
+                mCache.getGeneration(GetterCache.CIWLAN_CONFIG));
+
+        mCache.onCiwlanConfigChange(0, changed);
+
+        assertSame(changed, mCache.get(GetterCache.CIWLAN_CONFIG, 0));
+        assertNull(mCache.get(GetterCache.CIWLAN_CONFIG, 1));
+    }
+
+    @Test
+    public void valueReadBeforeAChangeIsNotCached() throws Exception {
+        long generation = mCache.getGeneration(GetterCache.CIWLAN_CONFIG);
+        CiwlanConfig changed = new CiwlanConfig(1, 1);
+
+        mCache.onCiwlanConfigChange(0, changed);
+        // Read from the service before the change, returned after it.
+        mCache.put(GetterCache.CIWLAN_CONFIG, 0, new CiwlanConfig(0, 0), generation);
+
+        assertSame(changed, mCache.get(GetterCache.CIWLAN_CONFIG, 0));
+    }
+
+    @Test
+    public void simTypeChangeDropsTheSimTypes() throws Exception {
+        QtiSimType[] types = {new QtiSimType(QtiSimType.SIM_TYPE_PHYSICAL)};
+        mCache.put(GetterCache.CURRENT_SIM_TYPE, GetterCache.ALL_SLOTS, types,
+                mCache.getGeneration(GetterCache.CURRENT_SIM_TYPE));
+        mCache.put(GetterCache.SUPPORTED_SIM_TYPES, GetterCache.ALL_SLOTS, types,
+                mCache.getGeneration(GetterCache.SUPPORTED_SIM_TYPES));
+
+        mCache.onSimTypeChanged(types);
+
+        assertNull(mCache.get(GetterCache.CURRENT_SIM_TYPE, GetterCache.ALL_SLOTS));
+        assertNull(mCache.get(GetterCache.SUPPORTED_SIM_TYPES, GetterCache.ALL_SLOTS));
+    }
+
+    @Test
+    public void imeiInfoIsCopiedFromTheEvent() throws Exception {
+        QtiImeiInfo[] info = {new QtiImeiInfo(0, "490154203237518", 1)};
+
+        mCache.onImeiTypeChanged(info);
+
+        QtiImeiInfo[] cached = (QtiImeiInfo[]) mCache.get(GetterCache.IMEI_INFO,
+                GetterCache.ALL_SLOTS);
+        assertNotSame(info, cached);
+        assertSame(info[0], cached[0]);
+    }
+
+    @Test
+    public void untrackedValueIsCachedUntilInvalidated() {
+        mCache.put(GetterCache.CIWLAN_MODE_USER_PREFERENCE, 0, Boolean.TRUE,
+                mCache.getGeneration(GetterCache.CIWLAN_MODE_USER_PREFERENCE));
+
+        assertSame(Boolean.TRUE, mCache.get(GetterCache.CIWLAN_MODE_USER_PREFERENCE, 0));
+        mCache.invalidate(GetterCache.CIWLAN_MODE_USER_PREFERENCE);
+        assertNull(mCache.get(GetterCache.CIWLAN_MODE_USER_PREFERENCE, 0));
+    }
+}
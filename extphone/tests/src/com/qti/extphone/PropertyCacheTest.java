@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyCacheTest {
+    private static final String PROPERTY = "persist.vendor.radio.test";
+
+    private final PropertyCache mCache = new PropertyCache(4);
+
+    @Test
+    public void disabledCacheKeepsNothing() {
+        mCache.putInt(PROPERTY, 0, 5);
+
+        assertEquals(PropertyCache.MISS, mCache.getInt(PROPERTY, 0));
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    @Test
+    public void valueIsCachedForItsDefault() {
+        mCache.setTtl(60000);
+        mCache.putInt(PROPERTY, 0, 5);
+
+        assertEquals(5, mCache.getInt(PROPERTY, 0));
+        assertEquals(PropertyCache.MISS, mCache.getInt(PROPERTY, 1));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void eachTypeHasItsOwnSlot() {
+        mCache.setTtl(60000);
+        mCache.putInt(PROPERTY, 0, 5);
+        mCache.putBool(PROPERTY, false, true);
+        mCache.putString(PROPERTY, "def", null);
+
+        assertEquals(5, mCache.getInt(PROPERTY, 0));
+        assertEquals(1, mCache.getBool(PROPERTY, false));
+        assertNull(mCache.getString(PROPERTY, "def"));
+        assertSame(PropertyCache.MISS_STRING, mCache.getString(PROPERTY, null));
+    }
+
+    @Test
+    public void invalidateDropsEveryType() {
+        mCache.setTtl(60000);
+        mCache.putInt(PROPERTY, 0, 5);
+        mCache.putBool(PROPERTY, false, true);
+        mCache.putInt("other", 0, 7);
+
+        mCache.invalidate(PROPERTY);
+
+        assertEquals(PropertyCache.MISS, mCache.getInt(PROPERTY, 0));
+        assertEquals(PropertyCache.MISS, mCache.getBool(PROPERTY, false));
+        assertEquals(7, mCache.getInt("other", 0));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class QosBandwidthAggregatorTest {
+    private final QosParametersTracker mTracker = new QosParametersTracker();
+    private final QosBandwidthAggregator mAggregator = new QosBandwidthAggregator(mTracker);
+
+    private static NrQos createNrQos(int uplinkKbps, int downlinkKbps) {
+        android.hardware.radio.V1_6.NrQos qos = new android.hardware.radio.V1_6.NrQos();
+        qos.fiveQi = 1;
+        qos.uplink.guaranteedBitrateKbps = uplinkKbps;
+        qos.uplink.maxBitrateKbps = 2 * uplinkKbps;
+        qos.downlink.guaranteedBitrateKbps = downlinkKbps;
+        qos.downlink.maxBitrateKbps = 2 * downlinkKbps;
+        return new NrQos(qos);
+    }
+
+    private static QosParametersResult createResult(NrQos defaultQos,
+            QosBearerSession... sessions) {
+        return new QosParametersResult(defaultQos, Arrays.asList(sessions));
+    }
+
+    private static QosBearerSession createSession(int id, NrQos qos) {
+        return new QosBearerSession(id, qos, new ArrayList<>());
+    }
+
+    private static void assertTotals(QosBandwidthAggregator.Totals totals, long uplinkKbps,
+            long downlinkKbps, int bearers) {
+        assertEquals(uplinkKbps, totals.getUplinkGuaranteedKbps());
+        assertEquals(2 * uplinkKbps, totals.getUplinkMaxKbps());
+        assertEquals(downlinkKbps, totals.getDownlinkGuaranteedKbps());
+        assertEquals(2 * downlinkKbps, totals.getDownlinkMaxKbps());
+        assertEquals(bearers, totals.getBearerCount());
+    }
+
+    @Test
+    public void totalsSumTheBearersOfEachCid() {
+        mTracker.update(0, 1, createResult(createNrQos(10, 20),
+                createSession(1, createNrQos(100, 200))));
+        mTracker.update(0, 2, createResult(createNrQos(1, 2)));
+
+        assertTotals(mAggregator.getCidTotals(0, 1), 110, 220, 2);
+        assertTotals(mAggregator.getCidTotals(0, 2), 1, 2, 1);
+        assertTotals(mAggregator.getSlotTotals(0), 111, 222, 3);
+        assertTotals(mAggregator.getSlotTotals(1), 0, 0, 0);
+    }
+
+    @Test
+    public void updatesApplyOnlyTheChanges() {
+        mTracker.update(0, 1, createResult(createNrQos(10, 20),
+                createSession(1, createNrQos(100, 200))));
+        mTracker.update(0, 1, createResult(createNrQos(10, 20),
+                createSession(1, createNrQos(50, 60)), createSession(2, createNrQos(5, 5))));
+
+        assertTotals(mAggregator.getCidTotals(0, 1), 65, 85, 3);
+        assertTotals(mAggregator.getSlotTotals(0), 65, 85, 3);
+
+        // The same parameters again change nothing.
+        mTracker.update(0, 1, createResult(createNrQos(10, 20),
+                createSession(1, createNrQos(50, 60)), createSession(2, createNrQos(5, 5))));
+        assertTotals(mAggregator.getSlotTotals(0), 65, 85, 3);
+    }
+
+    @Test
+    public void goneConnectionIsSubtracted() {
+        mTracker.update(1, 1, createResult(createNrQos(10, 20),
+                createSession(1, createNrQos(100, 200))));
+        mTracker.update(1, 2, createResult(createNrQos(1, 2)));
+
+        mTracker.update(1, 1, null);
+
+        assertTotals(mAggregator.getCidTotals(1, 1), 0, 0, 0);
+        assertTotals(mAggregator.getSlotTotals(1), 1, 2, 1);
+    }
+
+    @Test
+    public void bitratesAreUnsigned() {
+        // The HAL reports uint32 bitrates, they must not add up as negative ints.
+        android.hardware.radio.V1_6.NrQos qos = new android.hardware.radio.V1_6.NrQos();
+        qos.uplink.guaranteedBitrateKbps = 0x80000000;
+        qos.uplink.maxBitrateKbps = 0xffffffff;
+        mTracker.update(0, 1, createResult(new NrQos(qos)));
+
+        assertEquals(0x80000000L, mAggregator.getSlotTotals(0).getUplinkGuaranteedKbps());
+        assertEquals(0xffffffffL, mAggregator.getSlotTotals(0).getUplinkMaxKbps());
+    }
+
+    @Test
+    public void clearForgetsOnlyItsSlot() {
+        mTracker.update(0, 1, createResult(createNrQos(10, 20)));
+        mTracker.update(1, 1, createResult(createNrQos(30, 40)));
+
+        mTracker.clear(0);
+
+        assertTotals(mAggregator.getSlotTotals(0), 0, 0, 0);
+        assertTotals(mAggregator.getCidTotals(0, 1), 0, 0, 0);
+        assertTotals(mAggregator.getSlotTotals(1), 30, 40, 1);
+        // Updates after a clear start from scratch.
+        mTracker.update(0, 1, createResult(createNrQos(10, 20)));
+        assertTotals(mAggregator.getSlotTotals(0), 10, 20, 1);
+    }
+}
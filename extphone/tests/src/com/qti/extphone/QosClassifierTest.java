@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+
+import android.net.LinkAddress;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class QosClassifierTest {
+    private static final int UPLINK = QosBearerFilter.QOS_FILTER_DIRECTION_UPLINK;
+    private static final int DOWNLINK = QosBearerFilter.QOS_FILTER_DIRECTION_DOWNLINK;
+    private static final int BIDIRECTIONAL = QosBearerFilter.QOS_FILTER_DIRECTION_BIDIRECTIONAL;
+    private static final int UDP = QosBearerFilter.QOS_PROTOCOL_UDP;
+    private static final int TCP = QosBearerFilter.QOS_PROTOCOL_TCP;
+    private static final EpsQos QOS = QosParametersDiffTest.createEpsQos(1000);
+
+    private final QosClassifier mClassifier = new QosClassifier();
+
+    private static List<LinkAddress> addresses(String address, int prefixLength)
+            throws Exception {
+        List<LinkAddress> addresses = new ArrayList<>();
+        if (address != null) {
+            addresses.add(new LinkAddress(InetAddress.getByName(address), prefixLength));
+        }
+        return addresses;
+    }
+
+    private static QosBearerFilter createFilter(String remote, int remotePrefixLength,
+            int portStart, int portEnd, int protocol, int direction, int precedence)
+            throws Exception {
+        return new QosBearerFilter(new ArrayList<>(), addresses(remote, remotePrefixLength),
+                null, new QosBearerFilter.PortRange(portStart, portEnd), protocol, 0, 0, 0,
+                direction, precedence);
+    }
+
+    private static QosBearerSession createSession(int id, QosBearerFilter... filters) {
+        return new QosBearerSession(id, QOS, Arrays.asList(filters));
+    }
+
+    private void update(QosBearerSession... sessions) {
+        mClassifier.update(0, 1, new QosParametersResult(QOS, Arrays.asList(sessions)));
+    }
+
+    private int classify(int direction, String remote, int remotePort, int protocol)
+            throws Exception {
+        InetAddress local = InetAddress.getByName(remote.contains(":") ? "2001:db8::2"
+                : "10.0.0.2");
+        return mClassifier.classify(0, 1, new QosClassifier.Flow(direction, local, 40000,
+                InetAddress.getByName(remote), remotePort, protocol));
+    }
+
+    @Test
+    public void highestPrecedenceWinsAcrossSessions() throws Exception {
+        update(createSession(1, createFilter(null, 0, 1000, 2000, UDP, BIDIRECTIONAL, 5)),
+                createSession(2, createFilter(null, 0, 1500, 1600, UDP, BIDIRECTIONAL, 3)));
+
+        assertEquals(2, classify(UPLINK, "198.51.100.1", 1550, UDP));
+        assertEquals(1, classify(UPLINK, "198.51.100.1", 1400, UDP));
+        assertEquals(QosClassifier.DEFAULT_BEARER, classify(UPLINK, "198.51.100.1", 2500, UDP));
+    }
+
+    @Test
+    public void portRangesAreInclusive() throws Exception {
+        update(createSession(1, createFilter(null, 0, 1000, 2000, UDP, BIDIRECTIONAL, 1)));
+
+        assertEquals(QosClassifier.DEFAULT_BEARER, classify(UPLINK, "198.51.100.1", 999, UDP));
+        assertEquals(1, classify(UPLINK, "198.51.100.1", 1000, UDP));
+        assertEquals(1, classify(UPLINK, "198.51.100.1", 2000, UDP));
+        assertEquals(QosClassifier.DEFAULT_BEARER,
+                classify(UPLINK, "198.51.100.1", 2001, UDP));
+    }
+
+    @Test
+    public void directionAndProtocolMustMatch() throws Exception {
+        update(createSession(1, createFilter(null, 0, 1000, 1000, UDP, UPLINK, 1)),
+                createSession(2, createFilter(null, 0, 1000, 1000, TCP, DOWNLINK, 2)));
+
+        assertEquals(1, classify(UPLINK, "198.51.100.1", 1000, UDP));
+        assertEquals(QosClassifier.DEFAULT_BEARER,
+                classify(DOWNLINK, "198.51.100.1", 1000, UDP));
+        assertEquals(2, classify(DOWNLINK, "198.51.100.1", 1000, TCP));
+        assertEquals(QosClassifier.DEFAULT_BEARER,
+                classify(UPLINK, "198.51.100.1", 1000, TCP));
+    }
+
+    @Test
+    public void longestPrefixDoesNotOverridePrecedence() throws Exception {
+        update(createSession(1, createFilter("198.51.0.0", 16, -1, -1, UDP, BIDIRECTIONAL, 1)),
+                createSession(2,
+                        createFilter("198.51.100.0", 24, -1, -1, UDP, BIDIRECTIONAL, 2)));
+
+        assertEquals(1, classify(UPLINK, "198.51.100.1", 80, UDP));
+        assertEquals(1, classify(UPLINK, "198.51.7.1", 80, UDP));
+        assertEquals(QosClassifier.DEFAULT_BEARER, classify(UPLINK, "198.52.0.1", 80, UDP));
+    }
+
+    @Test
+    public void addressFamiliesAreKeptApart() throws Exception {
+        update(createSession(1, createFilter("198.51.100.0", 24, -1, -1, UDP, UPLINK, 1)),
+                createSession(2, createFilter("2001:db8:1::", 48, -1, -1, UDP, UPLINK, 2)),
+                createSession(3, createFilter(null, 0, -1, -1, UDP, UPLINK, 3)));
+
+        assertEquals(1, classify(UPLINK, "198.51.100.1", 80, UDP));
+        assertEquals(2, classify(UPLINK, "2001:db8:1::1", 80, UDP));
+        // A filter without address matches both families.
+        assertEquals(3, classify(UPLINK, "2001:db8:2::1", 80, UDP));
+        assertEquals(3, classify(UPLINK, "203.0.113.1", 80, UDP));
+    }
+
+    @Test
+    public void unindexedFieldsMatchWhenSet() throws Exception {
+        QosBearerFilter tos = new QosBearerFilter(new ArrayList<>(), new ArrayList<>(), null,
+                null, UDP, 0xb8, 0, 0, UPLINK, 1);
+        QosBearerFilter any = createFilter(null, 0, -1, -1, UDP, UPLINK, 2);
+        update(createSession(1, tos), createSession(2, any));
+        InetAddress local = InetAddress.getByName("10.0.0.2");
+        InetAddress remote = InetAddress.getByName("198.51.100.1");
+
+        assertEquals(1, mClassifier.classify(0, 1, new QosClassifier.Flow(UPLINK, local, 1,
+                remote, 2, UDP).setTypeOfService(0xb8)));
+        assertEquals(2, mClassifier.classify(0, 1, new QosClassifier.Flow(UPLINK, local, 1,
+                remote, 2, UDP).setTypeOfService(0x28)));
+    }
+
+    @Test
+    public void updatesReplaceOnlyTheirCid() throws Exception {
+        update(createSession(1, createFilter(null, 0, 1000, 1000, UDP, UPLINK, 1)));
+        mClassifier.update(0, 2, new QosParametersResult(QOS, Arrays.asList(
+                createSession(7, createFilter(null, 0, 1000, 1000, UDP, UPLINK, 1)))));
+        assertEquals(1, classify(UPLINK, "198.51.100.1", 1000, UDP));
+
+        update(createSession(3, createFilter(null, 0, 1000, 1000, UDP, UPLINK, 1)));
+        assertEquals(3, classify(UPLINK, "198.51.100.1", 1000, UDP));
+
+        mClassifier.update(0, 1, null);
+        assertEquals(QosClassifier.DEFAULT_BEARER, classify(UPLINK, "198.51.100.1", 1000, UDP));
+        InetAddress address = InetAddress.getByName("10.0.0.2");
+        assertEquals(7, mClassifier.classify(0, 2, new QosClassifier.Flow(UPLINK, address,
+                1, address, 1000, UDP)));
+
+        mClassifier.clear(0);
+        assertEquals(QosClassifier.DEFAULT_BEARER, mClassifier.classify(0, 2,
+                new QosClassifier.Flow(UPLINK, address, 1, address, 1000, UDP)));
+    }
+
+    @Test
+    public void unknownSlotsAndCidsUseTheDefaultBearer() throws Exception {
+        update(createSession(1, createFilter(null, 0, -1, -1, UDP, UPLINK, 1)));
+        InetAddress address = InetAddress.getByName("10.0.0.2");
+        QosClassifier.Flow flow = new QosClassifier.Flow(UPLINK, address, 1, address, 2, UDP);
+
+        assertEquals(1, mClassifier.classify(0, 1, flow));
+        assertEquals(QosClassifier.DEFAULT_BEARER, mClassifier.classify(1, 1, flow));
+        assertEquals(QosClassifier.DEFAULT_BEARER, mClassifier.classify(0, 3, flow));
+        assertEquals(QosClassifier.DEFAULT_BEARER, mClassifier.classify(-1, 1, flow));
+    }
+}
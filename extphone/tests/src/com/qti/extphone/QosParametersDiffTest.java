@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.net.LinkAddress;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class QosParametersDiffTest {
+    private static final EpsQos QOS = createEpsQos(10000);
+
+    static QosBearerFilter createFilter(int port, int precedence, String... localAddresses)
+            throws Exception {
+        List<LinkAddress> local = new ArrayList<>();
+        for (String address : localAddresses) {
+            local.add(new LinkAddress(InetAddress.getByName(address), 32));
+        }
+        return new QosBearerFilter(local, new ArrayList<>(),
+                new QosBearerFilter.PortRange(port, port), null,
+                QosBearerFilter.QOS_PROTOCOL_UDP, 0, 0, 0,
+                QosBearerFilter.QOS_FILTER_DIRECTION_BIDIRECTIONAL, precedence);
+    }
+
+    static EpsQos createEpsQos(int guaranteedBitrateKbps) {
+        android.hardware.radio.V1_6.EpsQos qos = new android.hardware.radio.V1_6.EpsQos();
+        qos.qci = 1;
+        qos.uplink.guaranteedBitrateKbps = guaranteedBitrateKbps;
+        qos.uplink.maxBitrateKbps = 2 * guaranteedBitrateKbps;
+        qos.downlink.guaranteedBitrateKbps = guaranteedBitrateKbps;
+        qos.downlink.maxBitrateKbps = 2 * guaranteedBitrateKbps;
+        return new EpsQos(qos);
+    }
+
+    private static QosParametersResult createResult(QosBearerSession... sessions) {
+        return new QosParametersResult(QOS, Arrays.asList(sessions));
+    }
+
+    private static QosBearerSession createSession(int id, QosBearerFilter... filters) {
+        return new QosBearerSession(id, QOS, Arrays.asList(filters));
+    }
+
+    @Test
+    public void identicalResultsHaveNoChanges() throws Exception {
+        QosParametersResult result = createResult(
+                createSession(1, createFilter(1000, 1), createFilter(2000, 2)));
+
+        assertTrue(QosParametersDiff.compute(result, result).isEmpty());
+        assertTrue(QosParametersDiff.compute(null, null).isEmpty());
+    }
+
+    @Test
+    public void reorderedFiltersAndAddressesHaveNoChanges() throws Exception {
+        QosParametersResult oldResult = createResult(createSession(1,
+                createFilter(1000, 1, "10.0.0.1", "10.0.0.2"), createFilter(2000, 2)));
+        QosParametersResult newResult = createResult(createSession(1,
+                createFilter(2000, 2), createFilter(1000, 1, "10.0.0.2", "10.0.0.1")));
+
+        assertTrue(QosParametersDiff.compute(oldResult, newResult).isEmpty());
+    }
+
+    @Test
+    public void sessionsAreMatchedById() throws Exception {
+        QosBearerSession kept = createSession(1, createFilter(1000, 1));
+        QosBearerSession removed = createSession(2, createFilter(2000, 2));
+        QosBearerSession added = createSession(3, createFilter(2000, 2));
+
+        QosParametersDiff diff = QosParametersDiff.compute(createResult(kept, removed),
+                createResult(kept, added));
+
+        assertFalse(diff.isEmpty());
+        assertFalse(diff.isDefaultQosChanged());
+        assertEquals(Collections.singletonList(added), diff.getAddedSessions());
+        assertEquals(Collections.singletonList(removed), diff.getRemovedSessions());
+        assertTrue(diff.getModifiedSessions().isEmpty());
+    }
+
+    @Test
+    public void connectionComingAndGoingAddsAndRemovesEverything() throws Exception {
+        QosParametersResult result = createResult(createSession(1, createFilter(1000, 1)),
+                createSession(2, createFilter(2000, 2)));
+
+        QosParametersDiff up = QosParametersDiff.compute(null, result);
+        QosParametersDiff down = QosParametersDiff.compute(result, null);
+
+        assertTrue(up.isDefaultQosChanged());
+        assertEquals(2, up.getAddedSessions().size());
+        assertTrue(down.isDefaultQosChanged());
+        assertEquals(2, down.getRemovedSessions().size());
+    }
+
+    @Test
+    public void filterWithSamePrecedenceIsModified() throws Exception {
+        QosBearerFilter kept = createFilter(1000, 1);
+        QosBearerFilter oldFilter = createFilter(2000, 2);
+        QosBearerFilter newFilter = createFilter(2001, 2);
+        QosBearerFilter removed = createFilter(3000, 3);
+        QosBearerFilter added = createFilter(4000, 4);
+
+        QosParametersDiff diff = QosParametersDiff.compute(
+                createResult(createSession(1, kept, oldFilter, removed)),
+                createResult(createSession(1, kept, newFilter, added)));
+
+        assertEquals(1, diff.getModifiedSessions().size());
+        QosParametersDiff.SessionDiff session = diff.getModifiedSessions().get(0);
+        assertEquals(1, session.getSessionId());
+        assertFalse(session.isQosChanged());
+        assertEquals(Collections.singletonList(added), session.getAddedFilters());
+        assertEquals(Collections.singletonList(removed), session.getRemovedFilters());
+        assertEquals(1, session.getModifiedFilters().size());
+        assertSame(oldFilter, session.getModifiedFilters().get(0).getOldFilter());
+        assertSame(newFilter, session.getModifiedFilters().get(0).getNewFilter());
+    }
+
+    @Test
+    public void duplicateFiltersAreCounted() throws Exception {
+        QosBearerFilter filter = createFilter(1000, 1);
+
+        QosParametersDiff diff = QosParametersDiff.compute(
+                createResult(createSession(1, filter, createFilter(1000, 1))),
+                createResult(createSession(1, filter)));
+
+        QosParametersDiff.SessionDiff session = diff.getModifiedSessions().get(0);
+        assertTrue(session.getAddedFilters().isEmpty());
+        assertEquals(1, session.getRemovedFilters().size());
+    }
+
+    @Test
+    public void qosChangesAreReported() throws Exception {
+        QosBearerFilter filter = createFilter(1000, 1);
+        QosParametersResult oldResult = createResult(createSession(1, filter));
+        QosParametersResult newResult = new QosParametersResult(createEpsQos(20000),
+                Collections.singletonList(new QosBearerSession(1, createEpsQos(5000),
+                        Collections.singletonList(filter))));
+
+        QosParametersDiff diff = QosParametersDiff.compute(oldResult, newResult);
+
+        assertTrue(diff.isDefaultQosChanged());
+        QosParametersDiff.SessionDiff session = diff.getModifiedSessions().get(0);
+        assertTrue(session.isQosChanged());
+        assertTrue(session.getAddedFilters().isEmpty());
+        assertTrue(session.getRemovedFilters().isEmpty());
+        assertTrue(session.getModifiedFilters().isEmpty());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static com.qti.extphone.QosParametersDiffTest.createEpsQos;
+import static com.qti.extphone.QosParametersDiffTest.createFilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class QosParametersTrackerTest {
+    private final QosParametersTracker mTracker = new QosParametersTracker();
+    private final List<Object[]> mDiffs = new ArrayList<>();
+    private final QosParametersTracker.Listener mListener =
+            (slotId, cid, result, diff) -> mDiffs.add(new Object[] {slotId, cid, result});
+
+    private static QosParametersResult createResult(int port) throws Exception {
+        return new QosParametersResult(createEpsQos(1000), Arrays.asList(
+                new QosBearerSession(1, createEpsQos(5000),
+                        Arrays.asList(createFilter(port, 1)))));
+    }
+
+    @Test
+    public void unchangedParametersAreNotReported() throws Exception {
+        mTracker.addListener(Runnable::run, mListener);
+        QosParametersResult result = createResult(1000);
+
+        assertFalse(mTracker.update(0, 1, result).isEmpty());
+        assertTrue(mTracker.update(0, 1, createResult(1000)).isEmpty());
+
+        assertEquals(1, mDiffs.size());
+        assertSame(result, mTracker.getQosParameters(0, 1));
+        assertNull(mTracker.getQosParameters(0, 2));
+        assertNull(mTracker.getQosParameters(1, 1));
+    }
+
+    @Test
+    public void updatesMadeByAListenerAreDeliveredAfterTheCurrentOne() throws Exception {
+        mTracker.addListener(Runnable::run, (slotId, cid, result, diff) -> {
+            if (cid == 1) {
+                try {
+                    mTracker.update(slotId, 2, createResult(2000));
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        mTracker.addListener(Runnable::run, mListener);
+
+        mTracker.update(0, 1, createResult(1000));
+
+        assertEquals(2, mDiffs.size());
+        assertEquals(1, mDiffs.get(0)[1]);
+        assertEquals(2, mDiffs.get(1)[1]);
+    }
+
+    @Test
+    public void clearRemovesEveryCidOfTheSlot() throws Exception {
+        mTracker.update(0, 1, createResult(1000));
+        mTracker.update(0, 2, createResult(2000));
+        mTracker.update(1, 1, createResult(1000));
+        mTracker.addListener(Runnable::run, mListener);
+
+        mTracker.clear(0);
+
+        assertEquals(2, mDiffs.size());
+        assertNull(mDiffs.get(0)[2]);
+        assertNull(mDiffs.get(1)[2]);
+        assertNull(mTracker.getQosParameters(0, 1));
+        assertNull(mTracker.getQosParameters(0, 2));
+        assertNotNull(mTracker.getQosParameters(1, 1));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listener recording the callbacks used by the tests, in order of delivery. Several
+ * listeners can share a queue to check the order across them.
+ */
+class RecordingListener extends ExtPhoneCallbackListener {
+    static final class Callback {
+        final RecordingListener mListener;
+        final int mEvent;
+        final int mSlotId;
+        final int mToken;
+        final int mStatus;
+        final Object mValue;
+
+        Callback(RecordingListener listener, int event, int slotId, Token token,
+                Status status, Object value) {
+            mListener = listener;
+            mEvent = event;
+            mSlotId = slotId;
+            mToken = token != null ? token.get() : Token.UNSOL;
+            mStatus = status != null ? status.get() : Status.SUCCESS;
+            mValue = value;
+        }
+
+        @Override
+        public String toString() {
+            return "Callback{event=" + mEvent + ", slot=" + mSlotId + ", token=" + mToken
+                    + ", status=" + mStatus + ", value=" + mValue + "}";
+        }
+    }
+
+    private final BlockingQueue<Callback> mCallbacks;
+
+    RecordingListener() {
+        this(new LinkedBlockingQueue<>());
+    }
+
+    RecordingListener(BlockingQueue<Callback> callbacks) {
+        super(Runnable::run);
+        mCallbacks = callbacks;
+    }
+
+    /**
+     * @return the next callback, null if none arrived within timeoutMillis.
+     */
+    Callback poll(long timeoutMillis) throws InterruptedException {
+        return mCallbacks.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void record(int event, int slotId, Token token, Status status, Object value) {
+        mCallbacks.add(new Callback(this, event, slotId, token, status, value));
+    }
+
+    @Override
+    public void on5gStatus(int slotId, Token token, Status status, boolean enableStatus) {
+        record(EVENT_ON_5G_STATUS, slotId, token, status, enableStatus);
+    }
+
+    @Override
+    public void onNrIconType(int slotId, Token token, Status status, NrIconType nrIconType) {
+        record(EVENT_ON_NR_ICON_TYPE, slotId, token, status, nrIconType);
+    }
+
+    @Override
+    public void onEndcStatus(int slotId, Token token, Status status, boolean enableStatus) {
+        record(EVENT_ON_ENDC_STATUS, slotId, token, status, enableStatus);
+    }
+
+    @Override
+    public void onEnableEndc(int slotId, Token token, Status status) {
+        record(EVENT_ON_ENABLE_ENDC, slotId, token, status, null);
+    }
+
+    @Override
+    public void onSignalStrength(int slotId, Token token, Status status,
+            SignalStrength signalStrength) {
+        record(EVENT_ON_SIGNAL_STRENGTH, slotId, token, status, signalStrength);
+    }
+}
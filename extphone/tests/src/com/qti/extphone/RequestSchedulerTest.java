@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.RemoteException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.qti.extphone.testing.FakeExtPhone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ordering and limits of RequestScheduler, through ExtTelephonyManager and FakeExtPhone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RequestSchedulerTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long QUIET_MILLIS = 500;
+    private static final String PACKAGE_NAME = "com.qti.extphone.tests";
+
+    private final LinkedBlockingQueue<RecordingListener.Callback> mCallbacks =
+            new LinkedBlockingQueue<>();
+
+    private FakeExtPhone mFake;
+    private ExtTelephonyManager mManager;
+    private RequestScheduler mScheduler;
+    private RecordingListener mListener;
+    private Client mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mFake = new FakeExtPhone();
+        mManager = new ExtTelephonyManager(new FakeServiceContext(mFake));
+        assertTrue(mManager.connectService(null));
+        assertTrue(mManager.awaitConnected(TIMEOUT_MILLIS));
+        mScheduler = new RequestScheduler();
+        mScheduler.setMaxConcurrentRequests(1);
+        mManager.setRequestScheduler(mScheduler);
+        mListener = new RecordingListener(mCallbacks);
+        mClient = register(mListener);
+        mFake.setDefaultResponseLatency(100);
+    }
+
+    @After
+    public void tearDown() {
+        mManager.disconnectService();
+    }
+
+    private Client register(RecordingListener listener) {
+        Client client = mManager.registerCallbackWithEvents(PACKAGE_NAME, listener,
+                new int[] {ExtPhoneCallbackListener.EVENT_ALL});
+        assertNotNull(client);
+        return client;
+    }
+
+    private static boolean isPlaceholder(Token token) {
+        return token.get() < Token.UNSOL && token.get() != RequestScheduler.REJECTED;
+    }
+
+    private RecordingListener.Callback expect(Token token) throws InterruptedException {
+        RecordingListener.Callback callback = mCallbacks.poll(TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS);
+        assertNotNull("No callback for " + token, callback);
+        assertEquals(token.get(), callback.mToken);
+        assertEquals(Status.SUCCESS, callback.mStatus);
+        return callback;
+    }
+
+    @Test
+    public void queuedRequestsAreSentInOrder() throws Exception {
+        Token first = mManager.queryNrIconType(0, mClient);
+        Token second = mManager.queryEndcStatus(0, mClient);
+        Token third = mManager.queryNrIconType(0, mClient);
+
+        assertTrue(first.get() > 0);
+        assertTrue(isPlaceholder(second));
+        assertTrue(isPlaceholder(third));
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE, expect(first).mEvent);
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_ENDC_STATUS, expect(second).mEvent);
+        assertEquals(ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE, expect(third).mEvent);
+    }
+
+    @Test
+    public void userVisibleRequestsGoAheadOfBackgroundOnes() throws Exception {
+        RecordingListener background = new RecordingListener(mCallbacks);
+        Client backgroundClient = register(background);
+        mScheduler.setPriority(backgroundClient, RequestScheduler.PRIORITY_BACKGROUND);
+
+        Token first = mManager.queryNrIconType(0, mClient);
+        Token queuedBackground = mManager.queryNrIconType(0, backgroundClient);
+        Token queuedUserVisible = mManager.queryNrIconType(0, mClient);
+
+        assertEquals(mListener, expect(first).mListener);
+        assertEquals(mListener, expect(queuedUserVisible).mListener);
+        assertEquals(background, expect(queuedBackground).mListener);
+    }
+
+    @Test
+    public void concurrencyIsBoundedAcrossSlots() throws Exception {
+        mScheduler.setMaxConcurrentRequests(2);
+
+        Token slot0 = mManager.queryNrIconType(0, mClient);
+        Token slot1 = mManager.queryNrIconType(1, mClient);
+        Token queued = mManager.queryNrIconType(0, mClient);
+
+        assertTrue(slot0.get() > 0);
+        assertTrue(slot1.get() > 0);
+        assertTrue(isPlaceholder(queued));
+        assertNotNull(mCallbacks.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertNotNull(mCallbacks.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        expect(queued);
+    }
+
+    @Test
+    public void rateLimitedRequestsAreDeferred() throws Exception {
+        mScheduler.setMaxConcurrentRequests(RequestScheduler.DEFAULT_MAX_CONCURRENT_REQUESTS);
+        mScheduler.setRateLimit(RequestScheduler.CLASS_QUERY, 2, 1);
+        mFake.setDefaultResponseLatency(0);
+
+        long start = System.nanoTime();
+        Token first = mManager.queryNrIconType(0, mClient);
+        Token limited = mManager.queryNrIconType(0, mClient);
+        // Other API classes and slots have buckets of their own.
+        Token config = mManager.enableEndc(0, true, mClient);
+        Token otherSlot = mManager.queryNrIconType(1, mClient);
+
+        assertTrue(first.get() > 0);
+        assertTrue(isPlaceholder(limited));
+        assertTrue(config.get() > 0);
+        assertTrue(otherSlot.get() > 0);
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(mCallbacks.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        expect(limited);
+        // One permit every 500 ms.
+        assertTrue(System.nanoTime() - start >= 400 * 1000000L);
+    }
+
+    @Test
+    public void requestsOfPlainClientsAreRejectedWhenLimited() throws Exception {
+        Client plain = new Client(mClient.getId(), mClient.getUid(), mClient.getPackageName(),
+                null);
+
+        Token first = mManager.queryNrIconType(0, mClient);
+        Token rejected = mManager.queryNrIconType(0, plain);
+
+        assertTrue(first.get() > 0);
+        assertEquals(RequestScheduler.REJECTED, rejected.get());
+        expect(first);
+        assertNull(mCallbacks.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void unansweredRequestReleasesItsPlaceAfterCeiling() throws Exception {
+        mScheduler.setMaxInFlightMillis(200);
+        mManager.setRequestTimeout(ExtPhoneCallbackListener.EVENT_ON_NR_ICON_TYPE, 0);
+        mFake.setDropResponses("queryNrIconType", true);
+
+        Token unanswered = mManager.queryNrIconType(0, mClient);
+        Token queued = mManager.queryEndcStatus(0, mClient);
+
+        assertTrue(unanswered.get() > 0);
+        assertTrue(isPlaceholder(queued));
+        expect(queued);
+    }
+
+    @Test
+    public void cancelledQueuedRequestIsNeverSent() throws Exception {
+        Token first = mManager.queryNrIconType(0, mClient);
+        Token queued = mManager.queryEndcStatus(0, mClient);
+        Token next = mManager.queryNrIconType(0, mClient);
+
+        assertTrue(mManager.cancelRequest(queued));
+        expect(first);
+        expect(next);
+        assertNull(mCallbacks.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedSendIsRethrownAndReleasesItsPlace() throws Exception {
+        mFake.setThrowRemoteException("getQtiRadioCapability", true);
+
+        try {
+            mManager.getQtiRadioCapability(0, mClient);
+            fail("getQtiRadioCapability did not throw");
+        } catch (RemoteException expected) {
+        }
+        // The APIs which do not declare RemoteException report it with a null Token.
+        mFake.setThrowRemoteException("queryNrIconType", true);
+        assertNull(mManager.queryNrIconType(0, mClient));
+        mFake.resetBehaviors();
+        Token next = mManager.queryEndcStatus(0, mClient);
+
+        assertTrue(next.get() > 0);
+        expect(next);
+    }
+
+    @Test
+    public void failedSendIsRethrownWithoutScheduler() throws Exception {
+        mManager.setRequestScheduler(null);
+        mFake.setThrowRemoteException("getQtiRadioCapability", true);
+
+        try {
+            mManager.getQtiRadioCapability(0, mClient);
+            fail("getQtiRadioCapability did not throw");
+        } catch (RemoteException expected) {
+        }
+        assertNull(mCallbacks.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS));
+    }
+}
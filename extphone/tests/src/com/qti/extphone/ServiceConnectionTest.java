@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.qti.extphone.testing.FakeExtPhone;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection state machine of ExtTelephonyManager: binding, connecting, dropping and
+ * unbinding, including the races between the main thread and disconnectService().
+ */
+@RunWith(AndroidJUnit4.class)
+public class ServiceConnectionTest {
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static class CountingCallback implements ServiceCallback {
+        final AtomicInteger mConnected = new AtomicInteger();
+        final AtomicInteger mDisconnected = new AtomicInteger();
+
+        @Override
+        public void onConnected() {
+            mConnected.incrementAndGet();
+        }
+
+        @Override
+        public void onDisconnected() {
+            mDisconnected.incrementAndGet();
+        }
+    }
+
+    private static void waitForMainThread() {
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    @Test
+    public void everyCallbackIsConnectedOnce() throws Exception {
+        ExtTelephonyManager manager = new ExtTelephonyManager(
+                new FakeServiceContext(new FakeExtPhone()));
+        CountingCallback first = new CountingCallback();
+        CountingCallback second = new CountingCallback();
+
+        assertTrue(manager.connectService(first));
+        assertTrue(manager.awaitConnected(TIMEOUT_MILLIS));
+        assertTrue(manager.connectService(second));
+        waitForMainThread();
+
+        assertEquals(1, first.mConnected.get());
+        assertEquals(1, second.mConnected.get());
+        manager.disconnectService(first);
+        assertTrue(manager.isServiceConnected());
+        manager.disconnectService(second);
+        assertFalse(manager.isServiceConnected());
+    }
+
+    @Test
+    public void serviceConnectedAfterDisconnectIsNotPublished() throws Exception {
+        ExtTelephonyManager manager = new ExtTelephonyManager(
+                new FakeServiceContext(new FakeExtPhone()));
+        CountingCallback callback = new CountingCallback();
+
+        // The connection is delivered on the main thread, after the disconnection.
+        assertTrue(manager.connectService(callback));
+        manager.disconnectService(callback);
+        waitForMainThread();
+
+        assertFalse(manager.isServiceConnected());
+        assertEquals(0, callback.mConnected.get());
+    }
+
+    @Test
+    public void droppedServiceIsConnectedAgain() throws Exception {
+        FakeServiceContext context = new FakeServiceContext(new FakeExtPhone());
+        ExtTelephonyManager manager = new ExtTelephonyManager(context);
+        CountingCallback callback = new CountingCallback();
+        assertTrue(manager.connectService(callback));
+        assertTrue(manager.awaitConnected(TIMEOUT_MILLIS));
+
+        context.disconnect();
+        assertFalse(manager.isServiceConnected());
+        context.connect();
+
+        assertTrue(manager.isServiceConnected());
+        assertEquals(2, callback.mConnected.get());
+        assertEquals(1, callback.mDisconnected.get());
+        manager.disconnectService(callback);
+    }
+
+    @Test
+    public void nullServiceIsNotConnected() throws Exception {
+        ExtTelephonyManager manager = new ExtTelephonyManager(new FakeServiceContext(null));
+        CountingCallback callback = new CountingCallback();
+
+        CompletableFuture<ExtTelephonyManager> future = manager.connectAsync(callback);
+        try {
+            future.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            fail("Connected without a service");
+        } catch (ExecutionException e) {
+            // Expected.
+        }
+
+        assertFalse(manager.isServiceConnected());
+        assertEquals(0, callback.mConnected.get());
+        assertEquals(1, callback.mDisconnected.get());
+        // The binding was given up, a new connection binds again.
+        assertTrue(manager.connectService(callback));
+        manager.disconnectService(callback);
+    }
+}
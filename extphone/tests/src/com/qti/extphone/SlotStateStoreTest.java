@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2024 Qualcomm Innovation Center, Inc. All rights reserved.
+ * SPDX-License-Identifier: BSD-3-Clause-Clear
+ */
+
+package com.qti.extphone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Parcel;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class SlotStateStoreTest {
+    private static final Token UNSOL = new Token(Token.UNSOL);
+    private static final Status SUCCESS = new Status(Status.SUCCESS);
+
+    private final SlotStateStore mStore = new SlotStateStore();
+    private final List<SlotStateStore.SlotState> mChanges = new ArrayList<>();
+    private final SlotStateStore.Listener mListener =
+            (slotId, oldState, newState) -> mChanges.add(newState);
+
+    @Test
+    public void unreportedSlotIsUnknown() {
+        SlotStateStore.SlotState state = mStore.getSlotState(1);
+
+        assertEquals(0, state.getVersion());
+        assertEquals(SlotStateStore.UNKNOWN, state.getNrIconType());
+        assertEquals(SlotStateStore.UNKNOWN, state.getRsrp());
+        assertNull(state.is5gEnabled());
+        assertSame(state, mStore.getSlotState(-1));
+    }
+
+    @Test
+    public void changesBumpTheVersionAndKeepTheOtherValues() throws Exception {
+        mStore.addListener(Runnable::run, mListener);
+
+        mStore.on5gStatus(0, UNSOL, SUCCESS, true);
+        mStore.onSignalStrength(0, UNSOL, SUCCESS, new SignalStrength(-95, 12));
+
+        SlotStateStore.SlotState state = mStore.getSlotState(0);
+        assertEquals(2, state.getVersion());
+        assertEquals(Boolean.TRUE, state.is5gEnabled());
+        assertEquals(-95, state.getRsrp());
+        assertEquals(12, state.getSnr());
+        assertEquals(2, mChanges.size());
+        assertSame(state, mChanges.get(1));
+        // Other slots are untouched.
+        assertEquals(0, mStore.getSlotState(1).getVersion());
+    }
+
+    @Test
+    public void sameValuesAreNotReported() throws Exception {
+        mStore.addListener(Runnable::run, mListener);
+
+        mStore.onEndcStatus(1, UNSOL, SUCCESS, true);
+        mStore.onEndcStatus(1, UNSOL, SUCCESS, true);
+
+        assertEquals(1, mStore.getSlotState(1).getVersion());
+        assertEquals(1, mChanges.size());
+    }
+
+    @Test
+    public void failedResponsesAreIgnored() throws Exception {
+        mStore.addListener(Runnable::run, mListener);
+
+        mStore.on5gStatus(0, new Token(1), new Status(Status.TIMEOUT), false);
+        mStore.onNrIconType(0, UNSOL, SUCCESS, null);
+
+        assertEquals(0, mStore.getSlotState(0).getVersion());
+        assertTrue(mChanges.isEmpty());
+    }
+
+    @Test
+    public void removedListenerIsNotNotified() throws Exception {
+        mStore.addListener(Runnable::run, mListener);
+        mStore.removeListener(mListener);
+
+        mStore.onNrIconType(0, UNSOL, SUCCESS, new NrIconType(NrIconType.TYPE_5G_UWB));
+
+        assertEquals(NrIconType.TYPE_5G_UWB, mStore.getSlotState(0).getNrIconType());
+        assertTrue(mChanges.isEmpty());
+    }
+    @Test
+    public void changesMadeByAListenerAreDeliveredAfterTheCurrentOne() throws Exception {
+        mStore.addListener(Runnable::run, (slotId, oldState, newState) -> {
+            if (newState.getVersion() == 1) {
+                try {
+                    mStore.onEndcStatus(slotId, UNSOL, SUCCESS, true);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+        mStore.addListener(Runnable::run, mListener);
+
+        mStore.on5gStatus(0, UNSOL, SUCCESS, true);
+
+        assertEquals(2, mChanges.size());
+        assertEquals(1, mChanges.get(0).getVersion());
+        assertEquals(2, mChanges.get(1).getVersion());
+    }
+
+    @Test
+    public void snapshotKeepsTheStatusesItDoesNotReport() throws Exception {
+        mStore.on5gStatus(0, UNSOL, SUCCESS, true);
+        mStore.onEndcStatus(0, UNSOL, SUCCESS, true);
+
+        mStore.onNrSnapshotResponse(0, new Token(1), SUCCESS,
+                new NrSnapshot(new NrIconType(NrIconType.TYPE_5G_UWB), null, null, null, null,
+                        null, null));
+
+        SlotStateStore.SlotState state = mStore.getSlotState(0);
+        assertEquals(NrIconType.TYPE_5G_UWB, state.getNrIconType());
+        assertEquals(Boolean.TRUE, state.is5gEnabled());
+        assertEquals(Boolean.TRUE, state.isEndcEnabled());
+    }
+
+    @Test
+    public void snapshotReportsDisabledStatuses() throws Exception {
+        mStore.on5gStatus(0, UNSOL, SUCCESS, true);
+        mStore.onEndcStatus(0, UNSOL, SUCCESS, true);
+
+        mStore.onNrSnapshotResponse(0, new Token(1), SUCCESS,
+                new NrSnapshot(null, false, null, false, null, null, null));
+
+        SlotStateStore.SlotState state = mStore.getSlotState(0);
+        assertEquals(Boolean.FALSE, state.is5gEnabled());
+        assertEquals(Boolean.FALSE, state.isEndcEnabled());
+    }
+
+    @Test
+    public void unreportedStatusesSurviveParceling() {
+        NrSnapshot snapshot = new NrSnapshot(null, null, null, true, null, null, null);
+        Parcel parcel = Parcel.obtain();
+        try {
+            snapshot.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            NrSnapshot copy = NrSnapshot.CREATOR.createFromParcel(parcel);
+
+            assertFalse(copy.hasEndcStatus());
+            assertTrue(copy.has5gStatus());
+            assertTrue(copy.is5gEnabled());
+        } finally {
+            parcel.recycle();
+        }
+    }
+}